@@ -83,6 +83,8 @@ import io.onedev.commons.launcher.loader.AbstractPluginModule;
 import io.onedev.commons.launcher.loader.ImplementationProvider;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.buildspec.BuildSpecManager;
+import io.onedev.server.buildspec.DefaultBuildSpecManager;
 import io.onedev.server.buildspec.job.DefaultJobManager;
 import io.onedev.server.buildspec.job.JobManager;
 import io.onedev.server.buildspec.job.log.DefaultLogManager;
@@ -155,12 +157,20 @@ import io.onedev.server.entitymanager.impl.DefaultRoleManager;
 import io.onedev.server.entitymanager.impl.DefaultSettingManager;
 import io.onedev.server.entitymanager.impl.DefaultUserAuthorizationManager;
 import io.onedev.server.entitymanager.impl.DefaultUserManager;
+import io.onedev.server.git.DefaultGitTransportScheduler;
+import io.onedev.server.git.DefaultMergePreviewManager;
+import io.onedev.server.git.DefaultUploadPackManager;
 import io.onedev.server.git.GitFilter;
 import io.onedev.server.git.GitPostReceiveCallback;
 import io.onedev.server.git.GitPreReceiveCallback;
+import io.onedev.server.git.GitTransportScheduler;
+import io.onedev.server.git.MergePreviewManager;
+import io.onedev.server.git.UploadPackManager;
 import io.onedev.server.git.config.GitConfig;
+import io.onedev.server.infomanager.BuildInfoManager;
 import io.onedev.server.infomanager.CodeCommentRelationInfoManager;
 import io.onedev.server.infomanager.CommitInfoManager;
+import io.onedev.server.infomanager.DefaultBuildInfoManager;
 import io.onedev.server.infomanager.DefaultCodeCommentRelationInfoManager;
 import io.onedev.server.infomanager.DefaultCommitInfoManager;
 import io.onedev.server.infomanager.DefaultUserInfoManager;
@@ -186,6 +196,8 @@ import io.onedev.server.notification.IssueNotificationManager;
 import io.onedev.server.notification.MailManager;
 import io.onedev.server.notification.PullRequestNotificationManager;
 import io.onedev.server.notification.WebHookManager;
+import io.onedev.server.persistence.ChangeJournal;
+import io.onedev.server.persistence.DefaultChangeJournal;
 import io.onedev.server.persistence.DefaultIdManager;
 import io.onedev.server.persistence.DefaultPersistManager;
 import io.onedev.server.persistence.DefaultSessionManager;
@@ -344,6 +356,7 @@ public class CoreModule extends AbstractPluginModule {
 		bind(BuildManager.class).to(DefaultBuildManager.class);
 		bind(BuildDependenceManager.class).to(DefaultBuildDependenceManager.class);
 		bind(JobManager.class).to(DefaultJobManager.class);
+		bind(BuildSpecManager.class).to(DefaultBuildSpecManager.class);
 		bind(LogManager.class).to(DefaultLogManager.class);
 		bind(PullRequestBuildManager.class).to(DefaultPullRequestBuildManager.class);
 		bind(MailManager.class).to(DefaultMailManager.class);
@@ -363,8 +376,12 @@ public class CoreModule extends AbstractPluginModule {
 		bind(CodeCommentReplyManager.class).to(DefaultCodeCommentReplyManager.class);
 		bind(AttachmentStorageManager.class).to(DefaultAttachmentStorageManager.class);
 		bind(CodeCommentRelationInfoManager.class).to(DefaultCodeCommentRelationInfoManager.class);
+		bind(BuildInfoManager.class).to(DefaultBuildInfoManager.class);
 		bind(CodeCommentRelationManager.class).to(DefaultCodeCommentRelationManager.class);
 		bind(WorkExecutor.class).to(DefaultWorkExecutor.class);
+		bind(GitTransportScheduler.class).to(DefaultGitTransportScheduler.class);
+		bind(UploadPackManager.class).to(DefaultUploadPackManager.class);
+		bind(MergePreviewManager.class).to(DefaultMergePreviewManager.class);
 		bind(PullRequestNotificationManager.class);
 		bind(CommitNotificationManager.class);
 		bind(BuildNotificationManager.class);
@@ -645,6 +662,7 @@ public class CoreModule extends AbstractPluginModule {
 		bind(SessionManager.class).to(DefaultSessionManager.class);
 		bind(TransactionManager.class).to(DefaultTransactionManager.class);
 		bind(IdManager.class).to(DefaultIdManager.class);
+		bind(ChangeJournal.class).to(DefaultChangeJournal.class);
 		bind(Dao.class).to(DefaultDao.class);
 		
 	    TransactionInterceptor transactionInterceptor = new TransactionInterceptor();
@@ -0,0 +1,35 @@
+package io.onedev.server.buildspec;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import io.onedev.server.model.Project;
+
+public interface BuildSpecManager {
+
+	/**
+	 * Get build spec of specified commit. Parsed build specs are shared between commits and 
+	 * sessions, and a copy is returned so that callers are free to modify it
+	 * 
+	 * @param project
+	 * 			project to get build spec in
+	 * @param commitId
+	 * 			commit id to get build spec for 
+	 * @return
+	 * 			build spec of specified commit, or <tt>null</tt> if no build spec is defined
+	 * @throws
+	 * 			Exception when build spec is defined but not valid
+	 */
+	@Nullable
+	BuildSpec getBuildSpec(Project project, ObjectId commitId);
+	
+	/**
+	 * @return
+	 * 			sorted names of jobs defined in build specs of all branches of specified project
+	 */
+	List<String> getJobNames(Project project);
+	
+}
@@ -0,0 +1,215 @@
+package io.onedev.server.buildspec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.dom4j.Element;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.server.buildspec.job.Job;
+import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.git.RefInfo;
+import io.onedev.server.migration.VersionedDocument;
+import io.onedev.server.model.Project;
+
+@Singleton
+public class DefaultBuildSpecManager implements BuildSpecManager {
+
+	private static final int MAX_CACHE_ENTRIES = 1000;
+
+	/*
+	 * Key is id of build spec blob, so that a parsed build spec is shared by all commits
+	 * and projects containing the same blob. Cached build specs are never handed out 
+	 * directly, callers get their own copies to modify
+	 */
+	private final Cache<ObjectId, Optional<BuildSpec>> buildSpecs = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHE_ENTRIES)
+			.build();
+
+	/*
+	 * Job names of each branch of each project. Branches of a project are populated when job
+	 * names of the project is first requested, and then maintained upon ref updates
+	 */
+	private final Map<Long, Map<String, Collection<String>>> jobNames = new ConcurrentHashMap<>();
+
+	// Increased on each branch update, to detect job names loaded while branches are updated
+	private long branchUpdates;
+
+	@Nullable
+	private ObjectId getBuildSpecBlobId(Repository repository, ObjectId commitId) {
+		try (RevWalk revWalk = new RevWalk(repository)) {
+			RevCommit commit = revWalk.parseCommit(commitId);
+			TreeWalk treeWalk = TreeWalk.forPath(repository, BuildSpec.BLOB_PATH, commit.getTree());
+			if (treeWalk != null && treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_BLOB)
+				return treeWalk.getObjectId(0);
+			else
+				return null;
+		} catch (MissingObjectException e) {
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * Get cached build spec, which is shared and should not be modified
+	 */
+	@Nullable
+	private BuildSpec getSharedBuildSpec(Project project, ObjectId commitId) {
+		Repository repository = project.getRepository();
+		ObjectId blobId = getBuildSpecBlobId(repository, commitId);
+		if (blobId != null) {
+			Optional<BuildSpec> buildSpec = buildSpecs.getIfPresent(blobId);
+			if (buildSpec == null) {
+				try {
+					buildSpec = Optional.fromNullable(BuildSpec.parse(repository.open(blobId).getBytes()));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				buildSpecs.put(blobId, buildSpec);
+			}
+			return buildSpec.orNull();
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public BuildSpec getBuildSpec(Project project, ObjectId commitId) {
+		BuildSpec buildSpec = getSharedBuildSpec(project, commitId);
+		if (buildSpec != null)
+			return SerializationUtils.clone(buildSpec);
+		else
+			return null;
+	}
+
+	private Collection<String> getJobNames(Project project, ObjectId commitId) {
+		Collection<String> jobNames = new HashSet<>();
+		try {
+			BuildSpec buildSpec = getSharedBuildSpec(project, commitId);
+			if (buildSpec != null) {
+				for (Job job: buildSpec.getJobs())
+					jobNames.add(job.getName());
+			}
+		} catch (Exception e) {
+			// Build spec is not valid, collect job names from the document as much as possible
+			Repository repository = project.getRepository();
+			ObjectId blobId = getBuildSpecBlobId(repository, commitId);
+			if (blobId != null) {
+				try {
+					String content = new String(repository.open(blobId).getBytes(), StandardCharsets.UTF_8);
+					VersionedDocument dom = VersionedDocument.fromXML(content);
+					for (Element jobElement: dom.getRootElement().element("jobs").elements())
+						jobNames.add(jobElement.elementTextTrim("name"));
+				} catch (Exception e2) {
+				}
+			}
+		}
+		return jobNames;
+	}
+
+	@Override
+	public List<String> getJobNames(Project project) {
+		Map<String, Collection<String>> jobNamesOfProject = jobNames.get(project.getId());
+		if (jobNamesOfProject == null) {
+			// Load outside of the map to not block other callers while reading repository
+			long branchUpdatesBeforeLoad;
+			synchronized (jobNames) {
+				branchUpdatesBeforeLoad = branchUpdates;
+			}
+			jobNamesOfProject = new ConcurrentHashMap<>();
+			for (RefInfo refInfo: project.getBranchRefInfos()) {
+				jobNamesOfProject.put(refInfo.getRef().getName(),
+						getJobNames(project, refInfo.getPeeledObj().copy()));
+			}
+			
+			/*
+			 * Do not cache if some branch is updated while loading, as the update may not 
+			 * be reflected. Job names will be loaded again next time
+			 */
+			synchronized (jobNames) {
+				if (branchUpdates == branchUpdatesBeforeLoad) {
+					Map<String, Collection<String>> existingJobNamesOfProject = 
+							jobNames.putIfAbsent(project.getId(), jobNamesOfProject);
+					if (existingJobNamesOfProject != null)
+						jobNamesOfProject = existingJobNamesOfProject;
+				}
+			}
+		}
+
+		Set<String> jobNameSet = new HashSet<>();
+		for (Collection<String> jobNamesOfBranch: jobNamesOfProject.values())
+			jobNameSet.addAll(jobNamesOfBranch);
+		List<String> jobNameList = new ArrayList<>(jobNameSet);
+		Collections.sort(jobNameList);
+		return jobNameList;
+	}
+
+	private void onRefUpdated(RefUpdated event) {
+		String refName = event.getRefName();
+		if (refName.startsWith(Constants.R_HEADS)) {
+			Project project = event.getProject();
+
+			// Job names of the project will be populated from current branches if not present
+			Collection<String> jobNamesOfBranch = null;
+			if (jobNames.containsKey(project.getId()) && !event.getNewCommitId().equals(ObjectId.zeroId())) 
+				jobNamesOfBranch = getJobNames(project, event.getNewCommitId());
+			
+			synchronized (jobNames) {
+				branchUpdates++;
+				Map<String, Collection<String>> jobNamesOfProject = jobNames.get(project.getId());
+				if (jobNamesOfProject != null) {
+					if (event.getNewCommitId().equals(ObjectId.zeroId()))
+						jobNamesOfProject.remove(refName);
+					else if (jobNamesOfBranch != null)
+						jobNamesOfProject.put(refName, jobNamesOfBranch);
+					else 
+						jobNames.remove(project.getId()); // cached while loading job names of branch
+				}
+			}
+		}
+	}
+
+	@Listen
+	public void on(RefUpdated event) {
+		onRefUpdated(event);
+	}
+
+	@Listen
+	public void on(RefsUpdated event) {
+		for (RefUpdated refUpdated: event.getRefUpdates())
+			onRefUpdated(refUpdated);
+	}
+
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project)
+			jobNames.remove(event.getEntity().getId());
+	}
+
+}
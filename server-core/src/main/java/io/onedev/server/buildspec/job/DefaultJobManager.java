@@ -7,7 +7,6 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +18,7 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -65,12 +65,16 @@ import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.entitymanager.UserManager;
 import io.onedev.server.event.Event;
 import io.onedev.server.event.ProjectEvent;
+import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
+import io.onedev.server.event.build.BuildEvent;
 import io.onedev.server.event.build.BuildFinished;
 import io.onedev.server.event.build.BuildPending;
 import io.onedev.server.event.build.BuildRetrying;
 import io.onedev.server.event.build.BuildRunning;
 import io.onedev.server.event.build.BuildSubmitted;
 import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Build;
@@ -101,7 +105,7 @@ import io.onedev.server.util.script.identity.ScriptIdentity;
 @Singleton
 public class DefaultJobManager implements JobManager, Runnable, CodePullAuthorizationSource {
 
-	private static final int CHECK_INTERVAL = 1000; // check internal in milli-seconds
+	private static final int TIMEOUT_CHECK_INTERVAL = 1000; // check internal of job timeouts in milli-seconds
 	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultJobManager.class);
 	
@@ -135,6 +139,11 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	
 	private volatile Thread thread;
 	
+	private final Set<Long> buildIdsToCheck = new HashSet<>();
+	
+	// Map of dependency build id to ids of builds waiting for it, only accessed in job manager thread
+	private final Map<Long, Set<Long>> waitingBuildIds = new HashMap<>();
+	
 	@Inject
 	public DefaultJobManager(BuildManager buildManager, UserManager userManager, ListenerRegistry listenerRegistry, 
 			SettingManager settingManager, TransactionManager transactionManager, LogManager logManager, 
@@ -332,7 +341,7 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 				File projectGitDir = build.getProject().getGitDir();
 				
 				AtomicReference<JobExecution> executionRef = new AtomicReference<>(null);
-				executionRef.set(new JobExecution(executorService.submit(new Runnable() {
+				Runnable jobRunnable = new Runnable() {
 
 					@Override
 					public void run() {
@@ -536,7 +545,17 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 						}
 					}
 					
-				}), job.getTimeout() * 1000L));
+				};
+				FutureTask<Void> future = new FutureTask<Void>(jobRunnable, null) {
+
+					@Override
+					protected void done() {
+						requestCheck(buildId);
+					}
+					
+				};
+				executionRef.set(new JobExecution(future, job.getTimeout() * 1000L));
+				executorService.execute(future);
 				
 				return executionRef.get();
 			} else {
@@ -585,6 +604,17 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	@Sessional
 	@Listen
 	public void on(ProjectEvent event) {
+		if (event instanceof RefsUpdated) {
+			// Many refs of a push may point to same commit, parse build spec of each commit only once
+			Map<ObjectId, Optional<BuildSpec>> buildSpecs = new HashMap<>();
+			for (RefUpdated refUpdated: ((RefsUpdated) event).getRefUpdates())
+				checkJobTriggers(refUpdated, buildSpecs);
+		} else {
+			checkJobTriggers(event, new HashMap<>());
+		}
+	}
+	
+	private void checkJobTriggers(ProjectEvent event, Map<ObjectId, Optional<BuildSpec>> buildSpecs) {
 		Event.push(event);
 		try {
 			if (event instanceof CommitAware) {
@@ -592,7 +622,12 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 				if (!commitId.equals(ObjectId.zeroId())) {
 					ScriptIdentity.push(new JobIdentity(event.getProject(), commitId));
 					try {
-						BuildSpec buildSpec = event.getProject().getBuildSpec(commitId);
+						Optional<BuildSpec> buildSpecOptional = buildSpecs.get(commitId);
+						if (buildSpecOptional == null) {
+							buildSpecOptional = Optional.ofNullable(event.getProject().getBuildSpec(commitId));
+							buildSpecs.put(commitId, buildSpecOptional);
+						}
+						BuildSpec buildSpec = buildSpecOptional.orElse(null);
 						if (buildSpec != null) {
 							for (Job job: buildSpec.getJobs()) {
 								JobTrigger trigger = job.getMatchedTrigger(event);
@@ -722,6 +757,9 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 		if (thread != null) {
 			Thread copy = thread;
 			thread = null;
+			synchronized (this) {
+				notify();
+			}
 			try {
 				copy.join();
 			} catch (InterruptedException e) {
@@ -730,91 +768,184 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	}
 
 	@Override
-	public synchronized void run() {
+	public void run() {
+		sessionManager.run(new Runnable() {
+
+			@Override
+			public void run() {
+				for (Build build: buildManager.queryUnfinished())
+					requestCheck(build.getId());
+			}
+			
+		});
+		
 		while (!jobExecutions.isEmpty() || thread != null) {
 			try {
-				transactionManager.run(new Runnable() {
-	
-					@Override
-					public void run() {
-						for (Build build: buildManager.queryUnfinished()) {
-							if (build.getStatus() == Build.Status.RUNNING || build.getStatus() == Build.Status.PENDING) {
-								JobExecution execution = jobExecutions.get(build.getId());
-								if (execution != null) {
-									if (execution.isTimedout())
-										execution.cancel(null);
-								} else if (thread != null) {
-									try {
-										jobExecutions.put(build.getId(), execute(build));
-									} catch (Throwable t) {
-										if (t instanceof OneException)
-											markBuildError(build, t.getMessage());
-										else
-											markBuildError(build, Throwables.getStackTraceAsString(t));
-									}
-								}
-							} else if (build.getStatus() == Build.Status.WAITING) {
-								if (build.getRetryDate() != null) {
-									JobExecution execution = jobExecutions.get(build.getId());
-									if (execution == null && thread != null) {
-										build.setStatus(Build.Status.PENDING);
-										build.setPendingDate(new Date());
-										listenerRegistry.post(new BuildPending(build));
-									}
-								} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful() 
-										&& it.getDependency().isFinished() 
-										&& it.getDependency().getStatus() != Build.Status.SUCCESSFUL)) {
-									markBuildError(build, "Some dependencies are required to be successful but failed");
-								} else if (build.getDependencies().stream().allMatch(it->it.getDependency().isFinished())) {
-									build.setStatus(Build.Status.PENDING);
-									build.setPendingDate(new Date());
-									listenerRegistry.post(new BuildPending(build));
-								}
-							} 
-						}
-						for (Iterator<Map.Entry<Long, JobExecution>> it = jobExecutions.entrySet().iterator(); it.hasNext();) {
-							Map.Entry<Long, JobExecution> entry = it.next();
-							Build build = buildManager.get(entry.getKey());
-							JobExecution execution = entry.getValue();
-							if (build == null || build.isFinished()) {
-								it.remove();
-								execution.cancel(null);
-							} else if (execution.isDone()) {
-								it.remove();
-								try {
-									execution.check();
-									build.setStatus(Build.Status.SUCCESSFUL);
-								} catch (TimeoutException e) {
-									build.setStatus(Build.Status.TIMED_OUT);
-								} catch (CancellationException e) {
-									if (e instanceof CancellerAwareCancellationException) {
-										Long cancellerId = ((CancellerAwareCancellationException) e).getCancellerId();
-										if (cancellerId != null)
-											build.setCanceller(userManager.load(cancellerId));
-									}
-									build.setStatus(Build.Status.CANCELLED);
-								} catch (ExecutionException e) {
-									if (e.getCause() instanceof OneException)
-										build.setStatus(Build.Status.FAILED, e.getCause().getMessage());
-									else
-										build.setStatus(Build.Status.FAILED, e.getMessage());
-								} catch (InterruptedException e) {
-								} finally {
-									build.setFinishDate(new Date());
-									listenerRegistry.post(new BuildFinished(build));
-								}
+				Collection<Long> buildIds;
+				synchronized (this) {
+					if (buildIdsToCheck.isEmpty())
+						wait(TIMEOUT_CHECK_INTERVAL);
+					buildIds = new ArrayList<>(buildIdsToCheck);
+					buildIdsToCheck.clear();
+				}
+				
+				for (JobExecution execution: jobExecutions.values()) {
+					if (execution.isTimedout())
+						execution.cancel(null);
+				}
+				
+				/*
+				 * Check each build in its own transaction so that a failing build does not 
+				 * roll back checks of others. Failed builds are checked again later instead 
+				 * of waiting for another event of them
+				 */
+				Collection<Long> failedBuildIds = new ArrayList<>();
+				for (Long buildId: buildIds) {
+					try {
+						transactionManager.run(new Runnable() {
+			
+							@Override
+							public void run() {
+								check(buildId);
 							}
-						}
+							
+						});
+					} catch (Throwable e) {
+						logger.error("Error checking build (id: " + buildId + ")", e);
+						failedBuildIds.add(buildId);
 					}
-					
-				});
-				Thread.sleep(CHECK_INTERVAL);
+				}
+				
+				if (!failedBuildIds.isEmpty()) {
+					synchronized (this) {
+						buildIdsToCheck.addAll(failedBuildIds);
+						wait(TIMEOUT_CHECK_INTERVAL);
+					}
+				}
 			} catch (Throwable e) {
 				logger.error("Error checking unfinished builds", e);
 			} 
 		}	
 	}
 	
+	/*
+	 * Request to check state of specified build in job manager thread. This is called after 
+	 * build events are committed, and after job executions are done
+	 */
+	private synchronized void requestCheck(Long buildId) {
+		buildIdsToCheck.add(buildId);
+		notify();
+	}
+	
+	private void check(Long buildId) {
+		Build build = buildManager.get(buildId);
+		JobExecution execution = jobExecutions.get(buildId);
+		if (build == null || build.isFinished()) {
+			if (execution != null) {
+				jobExecutions.remove(buildId);
+				execution.cancel(null);
+			}
+			Collection<Long> dependentIds = waitingBuildIds.remove(buildId);
+			if (dependentIds != null) {
+				for (Long dependentId: dependentIds)
+					requestCheck(dependentId);
+			}
+		} else if (execution != null) {
+			if (execution.isDone()) {
+				jobExecutions.remove(buildId);
+				try {
+					execution.check();
+					build.setStatus(Build.Status.SUCCESSFUL);
+				} catch (TimeoutException e) {
+					build.setStatus(Build.Status.TIMED_OUT);
+				} catch (CancellationException e) {
+					if (e instanceof CancellerAwareCancellationException) {
+						Long cancellerId = ((CancellerAwareCancellationException) e).getCancellerId();
+						if (cancellerId != null)
+							build.setCanceller(userManager.load(cancellerId));
+					}
+					build.setStatus(Build.Status.CANCELLED);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof OneException)
+						build.setStatus(Build.Status.FAILED, e.getCause().getMessage());
+					else
+						build.setStatus(Build.Status.FAILED, e.getMessage());
+				} catch (InterruptedException e) {
+				} finally {
+					build.setFinishDate(new Date());
+					listenerRegistry.post(new BuildFinished(build));
+				}
+			}
+		} else if (build.getStatus() == Build.Status.RUNNING || build.getStatus() == Build.Status.PENDING) {
+			if (thread != null) {
+				try {
+					jobExecutions.put(build.getId(), execute(build));
+				} catch (Throwable t) {
+					if (t instanceof OneException)
+						markBuildError(build, t.getMessage());
+					else
+						markBuildError(build, Throwables.getStackTraceAsString(t));
+				}
+			}
+		} else if (build.getStatus() == Build.Status.WAITING) {
+			if (build.getRetryDate() != null) {
+				if (thread != null) {
+					build.setStatus(Build.Status.PENDING);
+					build.setPendingDate(new Date());
+					listenerRegistry.post(new BuildPending(build));
+				}
+			} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful() 
+					&& it.getDependency().isFinished() 
+					&& it.getDependency().getStatus() != Build.Status.SUCCESSFUL)) {
+				markBuildError(build, "Some dependencies are required to be successful but failed");
+			} else if (build.getDependencies().stream().allMatch(it->it.getDependency().isFinished())) {
+				build.setStatus(Build.Status.PENDING);
+				build.setPendingDate(new Date());
+				listenerRegistry.post(new BuildPending(build));
+			} else {
+				for (BuildDependence dependence: build.getDependencies()) {
+					if (!dependence.getDependency().isFinished()) {
+						Long dependencyId = dependence.getDependency().getId();
+						Set<Long> dependentIds = waitingBuildIds.get(dependencyId);
+						if (dependentIds == null) {
+							dependentIds = new HashSet<>();
+							waitingBuildIds.put(dependencyId, dependentIds);
+						}
+						dependentIds.add(buildId);
+					}
+				}
+			}
+		} 
+	}
+	
+	@Listen
+	public void on(BuildEvent event) {
+		Long buildId = event.getBuild().getId();
+		transactionManager.runAfterCommit(new Runnable() {
+
+			@Override
+			public void run() {
+				requestCheck(buildId);
+			}
+			
+		});
+	}
+	
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Build) {
+			Long buildId = event.getEntity().getId();
+			transactionManager.runAfterCommit(new Runnable() {
+
+				@Override
+				public void run() {
+					requestCheck(buildId);
+				}
+				
+			});
+		}
+	}
+	
 	@Listen
 	public void on(BuildSubmitted event) {
 		Build build = event.getBuild();
@@ -1,15 +1,12 @@
 package io.onedev.server.buildspec.job.log;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -17,7 +14,10 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.regex.Pattern;
 
@@ -25,8 +25,6 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.antlr.v4.runtime.tree.TerminalNode;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -37,6 +35,7 @@ import com.google.common.base.Splitter;
 
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.LockUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.buildspec.job.log.instruction.LogInstruction;
@@ -44,15 +43,18 @@ import io.onedev.server.buildspec.job.log.instruction.LogInstructionParser.Instr
 import io.onedev.server.buildspec.job.log.instruction.LogInstructionParser.ParamContext;
 import io.onedev.server.entitymanager.BuildManager;
 import io.onedev.server.event.build.BuildFinished;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Build;
 import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.JobLogger;
+import io.onedev.server.util.SecretMasker;
 import io.onedev.server.util.inputspec.SecretInput;
 import io.onedev.server.web.websocket.WebSocketManager;
 
 @Singleton
-public class DefaultLogManager implements LogManager {
+public class DefaultLogManager implements LogManager, Runnable {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultLogManager.class);
 	
@@ -60,7 +62,17 @@ public class DefaultLogManager implements LogManager {
 
 	private static final int MAX_CACHE_ENTRIES = 10000;
 	
-	private static final String LOG_FILE = "build.log";
+	private static final int MAX_PENDING_ENTRIES = 5000;
+	
+	private static final long FLUSH_INTERVAL = 500;
+	
+	private static final int MIGRATION_BATCH_SIZE = 10000;
+	
+	private static final String LEGACY_LOG_FILE = "build.log";
+	
+	private static final String LOG_DATA_FILE = "log.data";
+	
+	private static final String LOG_INDEX_FILE = "log.index";
 	
 	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern("HH:mm:ss");	
 	
@@ -74,6 +86,10 @@ public class DefaultLogManager implements LogManager {
 	
 	private final Map<Long, LogSnippet> recentSnippets = new ConcurrentHashMap<>();
 	
+	private final Map<Long, PendingEntries> pendingEntries = new ConcurrentHashMap<>();
+	
+	private volatile Thread thread;
+	
 	@Inject
 	public DefaultLogManager(StorageManager storageManager, WebSocketManager webSocketManager, 
 			BuildManager buildManager) {
@@ -82,9 +98,52 @@ public class DefaultLogManager implements LogManager {
 		this.buildManager = buildManager;
 	}
 	
-	private File getLogFile(Long projectId, Long buildNumber) {
+	private LogFile getLogFile(Long projectId, Long buildNumber) {
 		File buildDir = storageManager.getBuildDir(projectId, buildNumber);
-		return new File(buildDir, LOG_FILE);
+		return new LogFile(new File(buildDir, LOG_DATA_FILE), new File(buildDir, LOG_INDEX_FILE));
+	}
+	
+	private File getLegacyLogFile(Long projectId, Long buildNumber) {
+		File buildDir = storageManager.getBuildDir(projectId, buildNumber);
+		return new File(buildDir, LEGACY_LOG_FILE);
+	}
+	
+	/*
+	 * Convert log serialized as JobLogEntry objects by previous versions to current format. 
+	 * This is done on first access of the log, and can be safely re-run if interrupted as 
+	 * the legacy file is only deleted after conversion 
+	 */
+	private void migrateIfNecessary(Build build) {
+		Long projectId = build.getProject().getId();
+		Long buildNumber = build.getNumber();
+		File legacyLogFile = getLegacyLogFile(projectId, buildNumber);
+		if (legacyLogFile.exists()) {
+			Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).writeLock();
+			lock.lock();
+			try {
+				if (legacyLogFile.exists()) {
+					LogFile logFile = getLogFile(projectId, buildNumber);
+					logFile.delete();
+					List<JobLogEntry> entries = new ArrayList<>();
+					try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacyLogFile)))) {
+						while (true) {
+							entries.add((JobLogEntry) ois.readObject());
+							if (entries.size() == MIGRATION_BATCH_SIZE) {
+								logFile.append(entries);
+								entries.clear();
+							}
+						}
+					} catch (EOFException e) {
+					} catch (IOException | ClassNotFoundException e) {
+						throw new RuntimeException(e);
+					}
+					logFile.append(entries);
+					FileUtils.deleteFile(legacyLogFile);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
 	}
 	
 	@Override
@@ -94,43 +153,25 @@ public class DefaultLogManager implements LogManager {
 		Long buildNumber = build.getNumber();
 		Collection<String> secretValuesToMask = build.getSecretValuesToMask();
 		secretValuesToMask.addAll(jobSecretsToMask);
+		SecretMasker secretMasker = new SecretMasker(secretValuesToMask, SecretInput.MASK);
+		
+		PendingEntries newPending = new PendingEntries(projectId, buildNumber);
+		PendingEntries existingPending = pendingEntries.putIfAbsent(buildId, newPending);
+		PendingEntries pending = existingPending != null? existingPending: newPending;
+		
 		return new JobLogger() {
 			
 			private void doLog(String message) {
-				for (String maskSecret: secretValuesToMask)
-					message = StringUtils.replace(message, maskSecret, SecretInput.MASK);
+				pending.entries.add(new JobLogEntry(new Date(), secretMasker.mask(message)));
 				
-				Lock lock = LockUtils.getReadWriteLock(getLockKey(buildId)).writeLock();
-				lock.lock();
-				try {
-					LogSnippet snippet = recentSnippets.get(buildId);
-					if (snippet == null) {
-						File logFile = getLogFile(projectId, buildNumber);
-						if (!logFile.exists())	{
-							snippet = new LogSnippet();
-							recentSnippets.put(buildId, snippet);
-						}
-					}
-					if (snippet != null) {
-						snippet.entries.add(new JobLogEntry(new Date(), message));
-						if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
-							File logFile = getLogFile(projectId, buildNumber);
-							try (ObjectOutputStream oos = newOutputStream(logFile)) {
-								while (snippet.entries.size() > MIN_CACHE_ENTRIES) {
-									JobLogEntry entry = snippet.entries.remove(0);
-									oos.writeObject(entry);
-									snippet.offset++;
-								}
-							} catch (IOException e) {
-								throw new RuntimeException(e);
-							}
-						}
-						
-						webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(buildId), null);
-					}
-				} finally {
-					lock.unlock();
-				}
+				/*
+				 * Flush in caller thread if flusher can not keep up, to bound memory usage. Also 
+				 * flush entries logged after build is finished (for instance while job is being 
+				 * cleaned up after cancelled or timed out), as they are no longer flushed by 
+				 * flusher 
+				 */
+				if (pending.size.incrementAndGet() >= MAX_PENDING_ENTRIES || pending.closed)
+					flush(buildId, pending);
 			}
 			
 			@Override
@@ -187,9 +228,111 @@ public class DefaultLogManager implements LogManager {
 	private String getLockKey(Long buildId) {
 		return "build-log: " + buildId;
 	}
+	
+	/*
+	 * Move pending entries of specified build into recent snippet, and write out older 
+	 * entries of the snippet to log file if it grows too large. Observers of the log 
+	 * are notified once per flush instead of once per entry
+	 */
+	private void flush(Long buildId, PendingEntries pending) {
+		if (pending.entries.isEmpty())
+			return;
+		
+		boolean changed = false;
+		Lock lock = LockUtils.getReadWriteLock(getLockKey(buildId)).writeLock();
+		lock.lock();
+		try {
+			List<JobLogEntry> entries = new ArrayList<>();
+			JobLogEntry entry;
+			while ((entry = pending.entries.poll()) != null)
+				entries.add(entry);
+			pending.size.addAndGet(-entries.size());
+			
+			if (!entries.isEmpty() && pending.closed) {
+				// Recent snippet of finished build has been written to log file
+				getLogFile(pending.projectId, pending.buildNumber).append(entries);
+				changed = true;
+			} else if (!entries.isEmpty()) {
+				LogSnippet snippet = recentSnippets.get(buildId);
+				if (snippet == null) {
+					if (!getLogFile(pending.projectId, pending.buildNumber).exists() 
+							&& !getLegacyLogFile(pending.projectId, pending.buildNumber).exists())	{
+						snippet = new LogSnippet();
+						recentSnippets.put(buildId, snippet);
+					}
+				}
+				if (snippet != null) {
+					snippet.entries.addAll(entries);
+					if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
+						List<JobLogEntry> entriesToFlush = new ArrayList<>();
+						while (snippet.entries.size() > MIN_CACHE_ENTRIES) {
+							entriesToFlush.add(snippet.entries.remove(0));
+							snippet.offset++;
+						}
+						getLogFile(pending.projectId, pending.buildNumber).append(entriesToFlush);
+					}
+					changed = true;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		if (changed)
+			webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(buildId), null);
+	}
+	
+	private void flush(Long buildId) {
+		PendingEntries pending = pendingEntries.get(buildId);
+		if (pending != null)
+			flush(buildId, pending);
+	}
+	
+	private void flushAll() {
+		for (Map.Entry<Long, PendingEntries> entry: pendingEntries.entrySet()) {
+			try {
+				flush(entry.getKey(), entry.getValue());
+			} catch (Exception e) {
+				logger.error("Error flushing log of build " + entry.getKey(), e);
+			}
+		}
+	}
+	
+	@Listen
+	public void on(SystemStarted event) {
+		thread = new Thread(this);
+		thread.start();
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (thread != null) {
+			Thread copy = thread;
+			thread = null;
+			try {
+				copy.join();
+			} catch (InterruptedException e) {
+			}
+		}
+		flushAll();
+	}
+	
+	@Override
+	public void run() {
+		while (thread != null) {
+			try {
+				Thread.sleep(FLUSH_INTERVAL);
+				flushAll();
+			} catch (Throwable e) {
+				logger.error("Error flushing build logs", e);
+			}
+		}
+	}
 
 	@Override
 	public boolean matches(Build build, Pattern pattern) {
+		flush(build.getId());
+		migrateIfNecessary(build);
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
@@ -203,20 +346,17 @@ public class DefaultLogManager implements LogManager {
 				}
 			}
 			
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
+			LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
 			
 			if (logFile.exists()) {
-				try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-					while (true) {
-						JobLogEntry entry  = (JobLogEntry) ois.readObject();
+				try (LogFile.Reader reader = logFile.openReader(0)) {
+					JobLogEntry entry;
+					while ((entry = reader.read()) != null) {
 						if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
 								&& pattern.matcher(entry.getMessage()).find()) {
 							return true;
 						}
 					}
-				} catch (EOFException e) {
-				} catch (IOException|ClassNotFoundException e) {
-					throw new RuntimeException(e);
 				}
 			}
 			return false;
@@ -225,42 +365,11 @@ public class DefaultLogManager implements LogManager {
 		}
 	}
 	
-	private List<JobLogEntry> readLogEntries(File logFile, int from, int count) {
-		List<JobLogEntry> entries = new ArrayList<>();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				int numOfReadEntries = 0;
-				while (numOfReadEntries < from) {
-					ois.readObject();
-					numOfReadEntries++;
-				}
-				while (count == 0 || numOfReadEntries - from < count) {
-					entries.add((JobLogEntry) ois.readObject());
-					numOfReadEntries++;
-				}
-			} catch (EOFException e) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
-		}
-		return entries;
-	}
-	
-	private LogSnippet readLogSnippetReversely(File logFile, int count) {
+	private LogSnippet readLogSnippetReversely(LogFile logFile, int count) {
 		LogSnippet snippet = new LogSnippet();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				while (true) {
-					snippet.entries.add((JobLogEntry) ois.readObject());
-					if (snippet.entries.size() > count) {
-						snippet.entries.remove(0);
-						snippet.offset ++;
-					}
-				}
-			} catch (EOFException e) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
+		if (count != 0) {
+			snippet.offset = Math.max(0, logFile.count() - count);
+			snippet.entries.addAll(logFile.read(snippet.offset, count));
 		}
 		return snippet;
 	}
@@ -279,17 +388,18 @@ public class DefaultLogManager implements LogManager {
 	@Sessional
 	@Override
 	public List<JobLogEntry> readLogEntries(Build build, int from, int count) {
+		migrateIfNecessary(build);
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
+			LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
 			LogSnippet snippet = recentSnippets.get(build.getId());
 			if (snippet != null) {
 				if (from >= snippet.offset) {
 					return readLogEntries(snippet.entries, from - snippet.offset, count);
 				} else {
 					List<JobLogEntry> entries = new ArrayList<>();
-					entries.addAll(readLogEntries(logFile, from, count));
+					entries.addAll(logFile.read(from, count));
 					if (count == 0)
 						entries.addAll(snippet.entries);
 					else if (entries.size() < count) 
@@ -297,7 +407,7 @@ public class DefaultLogManager implements LogManager {
 					return entries;
 				}
 			} else {
-				return readLogEntries(logFile, from, count);
+				return logFile.read(from, count);
 			}
 		} finally {
 			lock.unlock();
@@ -307,10 +417,11 @@ public class DefaultLogManager implements LogManager {
 	@Sessional
 	@Override
 	public LogSnippet readLogSnippetReversely(Build build, int count) {
+		migrateIfNecessary(build);
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
+			LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
 			LogSnippet recentSnippet = recentSnippets.get(build.getId());
 			if (recentSnippet != null) {
 				LogSnippet snippet = new LogSnippet();
@@ -331,55 +442,46 @@ public class DefaultLogManager implements LogManager {
 		}
 	}
 	
-	private ObjectOutputStream newOutputStream(File logFile) {
-		try {
-			if (logFile.exists()) {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true))) {
-
-					@Override
-					protected void writeStreamHeader() throws IOException {
-						reset();
-					}
-					
-				};
-			} else {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)));
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
 	@Sessional
 	@Listen
 	public void on(BuildFinished event) {
 		Build build = event.getBuild();
+		PendingEntries pending = pendingEntries.remove(build.getId());
+		if (pending != null)
+			flush(build.getId(), pending);
+		
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).writeLock();
 		lock.lock();
 		try {
 			LogSnippet snippet = recentSnippets.remove(build.getId());
 			if (snippet != null) {
-				File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-				try (ObjectOutputStream oos = newOutputStream(logFile)) {
-					for (JobLogEntry entry: snippet.entries)
-						oos.writeObject(entry);
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				} 
+				getLogFile(build.getProject().getId(), build.getNumber()).append(snippet.entries);
 			}
+			
+			/*
+			 * Job logger may still be logging if build is finished by cancel or timeout. Its 
+			 * entries are appended to log file directly from now on 
+			 */
+			if (pending != null)
+				pending.closed = true;
 		} finally {
 			lock.unlock();
 		}
+		
+		// Entries logged after above flush
+		if (pending != null)
+			flush(build.getId(), pending);
 	}
 
 	@Override
 	public InputStream openLogStream(Build build) {
+		migrateIfNecessary(build);
 		return new LogStream(build);
 	}
 
 	class LogStream extends InputStream {
 
-		private ObjectInputStream ois;
+		private LogFile.Reader reader;
 		
 		private final Lock lock;
 
@@ -393,10 +495,10 @@ public class DefaultLogManager implements LogManager {
 			lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 			lock.lock();
 			try {
-				File logFile = getLogFile(build.getProject().getId(), build.getNumber());
+				LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
 				
 				if (logFile.exists())
-					ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+					reader = logFile.openReader(0);
 				
 				LogSnippet snippet = recentSnippets.get(build.getId());
 				if (snippet != null) {
@@ -430,20 +532,19 @@ public class DefaultLogManager implements LogManager {
 		@Override
 		public int read() throws IOException {
 			if (pos == buffer.length) {
-				if (ois != null) {
-					try {
-						buffer = (renderAsText((JobLogEntry) ois.readObject()) + "\n").getBytes(StandardCharsets.UTF_8);
-					} catch (EOFException e) {
-						IOUtils.closeQuietly(ois);
-						ois = null;
+				if (reader != null) {
+					JobLogEntry entry = reader.read();
+					if (entry != null) {
+						buffer = (renderAsText(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+					} else {
+						reader.close();
+						reader = null;
 						if (recentBuffer != null) {
 							buffer = recentBuffer;
 							recentBuffer = null;
 						} else {
 							return -1;
 						}
-					} catch (ClassNotFoundException e) {
-						throw new RuntimeException(e);
 					}
 				} else if (recentBuffer != null) {
 					buffer = recentBuffer;
@@ -460,9 +561,31 @@ public class DefaultLogManager implements LogManager {
 		
 		@Override
 		public void close() throws IOException {
-			IOUtils.closeQuietly(ois);
+			if (reader != null)
+				reader.close();
 			lock.unlock();
 		}
 				
 	}
+	
+	private static class PendingEntries {
+		
+		final Long projectId;
+		
+		final Long buildNumber;
+		
+		final Queue<JobLogEntry> entries = new ConcurrentLinkedQueue<>();
+		
+		final AtomicInteger size = new AtomicInteger(0);
+		
+		// Set when build is finished and its entries are no longer flushed periodically
+		volatile boolean closed;
+		
+		PendingEntries(Long projectId, Long buildNumber) {
+			this.projectId = projectId;
+			this.buildNumber = buildNumber;
+		}
+		
+	}
+	
 }
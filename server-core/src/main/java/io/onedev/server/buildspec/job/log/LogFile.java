@@ -0,0 +1,282 @@
+package io.onedev.server.buildspec.job.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.IOUtils;
+
+import io.onedev.commons.utils.FileUtils;
+
+/**
+ * Build log stored as a data file and a sparse index file. The data file is a sequence
+ * of records, each consisting of length of UTF-8 encoded message (int), log date in
+ * milliseconds (long), and the encoded message. The index file records offset of every
+ * {@link #INDEX_INTERVAL}th record in the data file (long), so that reading log entries
+ * at arbitrary position only needs to skip at most {@link #INDEX_INTERVAL} records.
+ * <p>
+ * This class does not do any locking, callers should synchronize access to the same log.
+ */
+public class LogFile {
+
+	static final int INDEX_INTERVAL = 256;
+
+	private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+	private static final int BUFFER_SIZE = 64*1024;
+
+	private final File dataFile;
+
+	private final File indexFile;
+
+	public LogFile(File dataFile, File indexFile) {
+		this.dataFile = dataFile;
+		this.indexFile = indexFile;
+	}
+
+	public boolean exists() {
+		return dataFile.exists();
+	}
+
+	public void delete() {
+		FileUtils.deleteFile(dataFile);
+		FileUtils.deleteFile(indexFile);
+	}
+
+	/**
+	 * Append specified entries to end of the log. Incomplete record left by a previous
+	 * interrupted append will be discarded
+	 */
+	public void append(Collection<JobLogEntry> entries) {
+		try (	FileChannel dataChannel = FileChannel.open(dataFile.toPath(),
+						StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				FileChannel indexChannel = FileChannel.open(indexFile.toPath(),
+						StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long[] tail = locateTail(dataChannel, indexChannel);
+			int count = (int) tail[0];
+			long offset = tail[1];
+
+			if (dataChannel.size() > offset)
+				dataChannel.truncate(offset);
+			long indexSize = (long)((count + INDEX_INTERVAL - 1) / INDEX_INTERVAL) * Long.BYTES;
+			if (indexChannel.size() > indexSize)
+				indexChannel.truncate(indexSize);
+
+			dataChannel.position(offset);
+			indexChannel.position(indexSize);
+			DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(dataChannel), BUFFER_SIZE));
+			DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(indexChannel)));
+			for (JobLogEntry entry: entries) {
+				if (count % INDEX_INTERVAL == 0)
+					indexOut.writeLong(offset);
+				byte[] bytes = entry.getMessage().getBytes(StandardCharsets.UTF_8);
+				dataOut.writeInt(bytes.length);
+				dataOut.writeLong(entry.getDate().getTime());
+				dataOut.write(bytes);
+				offset += HEADER_SIZE + bytes.length;
+				count++;
+			}
+
+			// Flush data first so that index never points beyond end of data
+			dataOut.flush();
+			indexOut.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return
+	 * 			number of entries in the log
+	 */
+	public int count() {
+		if (exists()) {
+			try (	FileChannel dataChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+					FileChannel indexChannel = openIndexChannel()) {
+				return (int) locateTail(dataChannel, indexChannel)[0];
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Read specified number of entries starting from specified index
+	 *
+	 * @param from
+	 * 			index of the entry to start read
+	 * @param count
+	 * 			number of entries to read, <tt>0</tt> to read all entries since <tt>from</tt>
+	 * @return
+	 * 			read entries, may be less than <tt>count</tt> if there is no enough entries
+	 */
+	public List<JobLogEntry> read(int from, int count) {
+		List<JobLogEntry> entries = new ArrayList<>();
+		if (exists()) {
+			try (Reader reader = openReader(from)) {
+				JobLogEntry entry;
+				while ((count == 0 || entries.size() < count) && (entry = reader.read()) != null)
+					entries.add(entry);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Open a reader to read entries sequentially starting from specified index. Log
+	 * should exist when calling this method
+	 */
+	public Reader openReader(int from) {
+		try {
+			FileChannel dataChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+			try {
+				long offset = 0;
+				int skip = from;
+				try (FileChannel indexChannel = openIndexChannel()) {
+					if (indexChannel != null) {
+						long slots = Math.min(indexChannel.size() / Long.BYTES, (long)from / INDEX_INTERVAL + 1);
+						for (long slot = slots - 1; slot >= 0; slot--) {
+							long slotOffset = readLong(indexChannel, slot * Long.BYTES);
+							if (slotOffset <= dataChannel.size()) {
+								offset = slotOffset;
+								skip = (int) (from - slot * INDEX_INTERVAL);
+								break;
+							}
+						}
+					}
+				}
+				dataChannel.position(offset);
+				Reader reader = new Reader(dataChannel);
+				reader.skip(skip);
+				return reader;
+			} catch (Exception e) {
+				dataChannel.close();
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Nullable
+	private FileChannel openIndexChannel() throws IOException {
+		if (indexFile.exists())
+			return FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+		else
+			return null;
+	}
+
+	/*
+	 * Find number of complete records in the log and offset after the last complete record.
+	 * Only records after the last valid index slot need to be scanned
+	 */
+	private long[] locateTail(FileChannel dataChannel, @Nullable FileChannel indexChannel) throws IOException {
+		long dataSize = dataChannel.size();
+		long count = 0;
+		long offset = 0;
+		if (indexChannel != null) {
+			for (long slot = indexChannel.size() / Long.BYTES - 1; slot >= 0; slot--) {
+				long slotOffset = readLong(indexChannel, slot * Long.BYTES);
+				if (slotOffset <= dataSize) {
+					count = slot * INDEX_INTERVAL;
+					offset = slotOffset;
+					break;
+				}
+			}
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (offset + HEADER_SIZE <= dataSize) {
+			header.clear();
+			readFully(dataChannel, header, offset);
+			long nextOffset = offset + HEADER_SIZE + header.getInt(0);
+			if (nextOffset > dataSize)
+				break;
+			offset = nextOffset;
+			count++;
+		}
+		return new long[] {count, offset};
+	}
+
+	private long readLong(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+		readFully(channel, buffer, position);
+		return buffer.getLong(0);
+	}
+
+	private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0)
+				throw new EOFException();
+		}
+	}
+
+	public static class Reader implements Closeable {
+
+		private final FileChannel channel;
+
+		private final DataInputStream input;
+
+		Reader(FileChannel channel) {
+			this.channel = channel;
+			input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+		}
+
+		void skip(int count) throws IOException {
+			try {
+				for (int i=0; i<count; i++) {
+					int length = input.readInt();
+					IOUtils.skipFully(input, Long.BYTES + length);
+				}
+			} catch (EOFException e) {
+			}
+		}
+
+		/**
+		 * @return
+		 * 			next log entry, or <tt>null</tt> if end of log is reached
+		 */
+		@Nullable
+		public JobLogEntry read() {
+			try {
+				int length = input.readInt();
+				long time = input.readLong();
+				byte[] bytes = new byte[length];
+				input.readFully(bytes);
+				return new JobLogEntry(new Date(time), new String(bytes, StandardCharsets.UTF_8));
+			} catch (EOFException e) {
+				return null;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			IOUtils.closeQuietly(input);
+			IOUtils.closeQuietly(channel);
+		}
+
+	}
+
+}
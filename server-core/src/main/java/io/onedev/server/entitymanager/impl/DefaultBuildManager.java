@@ -2,6 +2,7 @@ package io.onedev.server.entitymanager.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -9,7 +10,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
@@ -29,6 +30,8 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.MatchMode;
@@ -41,6 +44,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.FileUtils;
@@ -52,6 +56,7 @@ import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.infomanager.BuildInfoManager;
 import io.onedev.server.model.Build;
 import io.onedev.server.model.Build.Status;
 import io.onedev.server.model.BuildDependence;
@@ -78,7 +83,9 @@ import io.onedev.server.search.entity.build.BuildQuery;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.ProjectScopedNumber;
 import io.onedev.server.util.SecurityUtils;
+import io.onedev.server.util.concurrent.ParallelUtils;
 import io.onedev.server.util.facade.BuildFacade;
+import io.onedev.server.util.facade.BuildFacadeIndex;
 import io.onedev.server.util.match.StringMatcher;
 import io.onedev.server.util.patternset.PatternSet;
 import io.onedev.server.util.query.BuildQueryConstants;
@@ -92,6 +99,10 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	
 	private static final int CLEANUP_BATCH = 5000;
 	
+	private static final int MAX_CLEANUP_CONCURRENCY = 4;
+	
+	private static final int LOAD_FETCH_SIZE = 10000;
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultBuildManager.class);
 	
 	private final BuildParamManager buildParamManager;
@@ -110,7 +121,9 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	
 	private final TransactionManager transactionManager;
 	
-	private final Map<Long, BuildFacade> builds = new HashMap<>();
+	private final BuildInfoManager buildInfoManager;
+	
+	private final BuildFacadeIndex builds = new BuildFacadeIndex();
 	
 	private final ReadWriteLock buildsLock = new ReentrantReadWriteLock();
 	
@@ -125,7 +138,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 			TaskScheduler taskScheduler, BuildDependenceManager buildDependenceManager,
 			GroupManager groupManager, StorageManager storageManager, 
 			ProjectManager projectManager, SessionManager sessionManager, 
-			TransactionManager transactionManager) {
+			TransactionManager transactionManager, BuildInfoManager buildInfoManager) {
 		super(dao);
 		this.buildParamManager = buildParamManager;
 		this.buildDependenceManager = buildDependenceManager;
@@ -135,6 +148,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 		this.taskScheduler = taskScheduler;
 		this.sessionManager = sessionManager;
 		this.transactionManager = transactionManager;
+		this.buildInfoManager = buildInfoManager;
 	}
 
 	@Transactional
@@ -143,14 +157,14 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
     	super.delete(build);
     	
 		FileUtils.deleteDir(storageManager.getBuildDir(build.getProject().getId(), build.getNumber()));
-		Long buildId = build.getId();
+		BuildFacade facade = build.getFacade();
 		transactionManager.runAfterCommit(new Runnable() {
 
 			@Override
 			public void run() {
 				buildsLock.writeLock().lock();
 				try {
-					builds.remove(buildId);
+					builds.remove(facade);
 				} finally {
 					buildsLock.writeLock().unlock();
 				}
@@ -193,7 +207,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 			public void run() {
 				buildsLock.writeLock().lock();
 				try {
-					builds.put(facade.getId(), facade);
+					builds.add(facade);
 				} finally {
 					buildsLock.writeLock().unlock();
 				}
@@ -219,11 +233,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 				public void run() {
 					buildsLock.writeLock().lock();
 					try {
-						for (Iterator<Map.Entry<Long, BuildFacade>> it = builds.entrySet().iterator(); it.hasNext();) {
-							BuildFacade build = it.next().getValue();
-							if (build.getProjectId().equals(projectId))
-								it.remove();
-						}
+						builds.removeProject(projectId);
 					} finally {
 						buildsLock.writeLock().unlock();
 					}
@@ -550,82 +560,227 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	@Override
 	public void execute() {
 		long maxId = getMaxId();
-		Collection<Long> idsToPreserve = new HashSet<>();
+		long time = System.currentTimeMillis();
 		
-		sessionManager.run(new Runnable() {
+		Collection<Long> projectIds = sessionManager.call(new Callable<Collection<Long>>() {
 
 			@Override
-			public void run() {
-				for (Project project: projectManager.query()) {
-					logger.debug("Populating preserved build ids of project '" + project.getName() + "'...");
-					List<BuildPreservation> preservations = project.getBuildSetting().getHierarchyBuildPreservations(project);
-					if (preservations.isEmpty()) {
-						idsToPreserve.addAll(queryIds(project, new BuildQuery(), 0, Integer.MAX_VALUE));
-					} else {
-						for (BuildPreservation preservation: preservations) {
-							try {
-								BuildQuery query = BuildQuery.parse(project, preservation.getCondition(), false, false);
-								int count;
-								if (preservation.getCount() != null)
-									count = preservation.getCount();
-								else
-									count = Integer.MAX_VALUE;
-								idsToPreserve.addAll(queryIds(project, query, 0, count));
-							} catch (Exception e) {
-								String message = String.format("Error parsing build preserve condition(project: %s, condition: %s)", 
-										project.getName(), preservation.getCondition());
-								logger.error(message, e);
-								idsToPreserve.addAll(queryIds(project, new BuildQuery(), 0, Integer.MAX_VALUE));
-							}
-						}
+			public Collection<Long> call() throws Exception {
+				return projectManager.query().stream().map(it->it.getId()).collect(Collectors.toList());
+			}
+			
+		});
+		
+		AtomicLong checkedCount = new AtomicLong(0);
+		AtomicLong deletedCount = new AtomicLong(0);
+		
+		// Clean up projects in parallel, with limited concurrency to not exhaust database connections
+		Collection<Callable<Void>> tasks = new ArrayList<>();
+		for (Long projectId: projectIds) {
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					try {
+						cleanup(projectId, maxId, checkedCount, deletedCount);
+					} catch (Exception e) {
+						logger.error("Error cleaning up builds (project id: " + projectId + ")", e);
 					}
+					return null;
 				}
+				
+			});
+		}
+		ParallelUtils.invokeAll("build-cleanup", MAX_CLEANUP_CONCURRENCY, SecurityUtils.inheritSubject(tasks));
+		
+		logger.info("Cleaned up builds (checked: {}, deleted: {}, duration: {} ms)", 
+				checkedCount.get(), deletedCount.get(), System.currentTimeMillis()-time);
+	}
+	
+	private void cleanup(Long projectId, long maxId, AtomicLong checkedCount, AtomicLong deletedCount) {
+		PreservedIds preservedIds = sessionManager.call(new Callable<PreservedIds>() {
+
+			@Override
+			public PreservedIds call() throws Exception {
+				return getPreservedIds(projectManager.load(projectId));
 			}
 			
 		});
+		if (preservedIds == null) 
+			return;
+		
+		List<Status> finishedStatuses = Lists.newArrayList(
+				Status.FAILED, Status.CANCELLED, Status.TIMED_OUT, Status.SUCCESSFUL);
+		long lastId = 0;
+		while (true) {
+			long lastIdOfBatch = lastId;
+			List<Object[]> rows = sessionManager.call(new Callable<List<Object[]>>() {
 
-		EntityCriteria<Build> criteria = newCriteria();
-		AtomicInteger firstResult = new AtomicInteger(0);
+				@SuppressWarnings("unchecked")
+				@Override
+				public List<Object[]> call() throws Exception {
+					// Page by id instead of offset so that each batch only touches rows it returns
+					Query<?> query = getSession().createQuery("select id, number, jobName, commitHash from Build "
+							+ "where project.id=:projectId and id>:lastId and id<=:maxId and status in :statuses "
+							+ "order by id");
+					query.setParameter("projectId", projectId);
+					query.setParameter("lastId", lastIdOfBatch);
+					query.setParameter("maxId", maxId);
+					query.setParameter("statuses", finishedStatuses);
+					query.setMaxResults(CLEANUP_BATCH);
+					return (List<Object[]>) query.list();
+				}
+				
+			});
+			if (rows.isEmpty())
+				break;
+			
+			List<Object[]> rowsToDelete = new ArrayList<>();
+			for (Object[] row: rows) {
+				if (!preservedIds.contains((Long) row[0]))
+					rowsToDelete.add(row);
+			}
+			for (List<Object[]> partition: Lists.partition(rowsToDelete, 
+					io.onedev.server.search.entity.EntityCriteria.IN_CLAUSE_LIMIT)) 
+				delete(projectId, partition);
+			
+			checkedCount.addAndGet(rows.size());
+			deletedCount.addAndGet(rowsToDelete.size());
+			lastId = (Long) rows.get(rows.size()-1)[0];
+			logger.debug("Checked build preservation (project id: {}, checked: {}, deleted: {})", 
+					projectId, rows.size(), rowsToDelete.size());
+			
+			if (rows.size() < CLEANUP_BATCH)
+				break;
+		}
+	}
+	
+	/**
+	 * @return
+	 * 			ids of builds to preserve in specified project, or <tt>null</tt> if all builds 
+	 * 			should be preserved
+	 */
+	@Nullable
+	private PreservedIds getPreservedIds(Project project) {
+		logger.debug("Populating preserved build ids of project '" + project.getName() + "'...");
+		List<BuildPreservation> preservations = project.getBuildSetting().getHierarchyBuildPreservations(project);
+		if (preservations.isEmpty()) 
+			return null;
+		
+		Query<?> query = getSession().createQuery("select min(id) from Build where project=:project");
+		query.setParameter("project", project);
+		Long minId = (Long) query.uniqueResult();
+		if (minId == null)
+			return null;
 		
-		while (transactionManager.call(new Callable<Boolean>() {
+		PreservedIds preservedIds = new PreservedIds(minId);
+		for (BuildPreservation preservation: preservations) {
+			try {
+				BuildQuery buildQuery = BuildQuery.parse(project, preservation.getCondition(), false, false);
+				int count;
+				if (preservation.getCount() != null)
+					count = preservation.getCount();
+				else
+					count = Integer.MAX_VALUE;
+				for (Long id: queryIds(project, buildQuery, 0, count))
+					preservedIds.add(id);
+			} catch (Exception e) {
+				String message = String.format("Error parsing build preserve condition(project: %s, condition: %s)", 
+						project.getName(), preservation.getCondition());
+				logger.error(message, e);
+				return null;
+			}
+		}
+		return preservedIds;
+	}
+	
+	private void delete(Long projectId, List<Object[]> rows) {
+		List<Long> ids = rows.stream().map(it->(Long)it[0]).collect(Collectors.toList());
+		transactionManager.run(new Runnable() {
 
 			@Override
-			public Boolean call() {
-				List<Build> builds = query(criteria, firstResult.get(), CLEANUP_BATCH);
-				if (!builds.isEmpty()) {
-					logger.debug("Checking build preservation: {}->{}", 
-							firstResult.get()+1, firstResult.get()+builds.size());
-				}
-				for (Build build: builds) {
-					if (build.isFinished() && build.getId() <= maxId && !idsToPreserve.contains(build.getId())) {
-						logger.debug("Deleting build " + build.getFQN() + "...");
-						delete(build);
+			public void run() {
+				Query<?> query = getSession().createQuery("delete from BuildParam where build.id in :ids");
+				query.setParameter("ids", ids);
+				query.executeUpdate();
+				
+				query = getSession().createQuery("delete from BuildDependence "
+						+ "where dependent.id in :ids or dependency.id in :ids");
+				query.setParameter("ids", ids);
+				query.executeUpdate();
+				
+				query = getSession().createQuery("delete from PullRequestBuild where build.id in :ids");
+				query.setParameter("ids", ids);
+				query.executeUpdate();
+				
+				query = getSession().createQuery("delete from Build where id in :ids");
+				query.setParameter("ids", ids);
+				query.executeUpdate();
+				
+				/* 
+				 * Bulk deletion does not fire entity removal events, so clean up what listeners of  
+				 * build removal would do. Job manager is not notified as only finished builds are 
+				 * deleted here, and their dependents have already been checked 
+				 */
+				transactionManager.runAfterCommit(new Runnable() {
+
+					@Override
+					public void run() {
+						buildsLock.writeLock().lock();
+						try {
+							for (Object[] row: rows) 
+								builds.remove(new BuildFacade((Long)row[0], projectId, (String)row[3]));
+						} finally {
+							buildsLock.writeLock().unlock();
+						}
+						for (Object[] row: rows) {
+							Long number = (Long) row[1];
+							FileUtils.deleteDir(storageManager.getBuildDir(projectId, number));
+							buildInfoManager.delete(projectId, (String)row[2], ObjectId.fromString((String)row[3]), number);
+						}
 					}
-				}
-				firstResult.set(firstResult.get() + CLEANUP_BATCH);
-				return builds.size() == CLEANUP_BATCH;
+					
+				});
 			}
 			
-		})) {}
+		});
 	}
-
+	
 	@Override
 	public ScheduleBuilder<?> getScheduleBuilder() {
 		return CronScheduleBuilder.dailyAtHourAndMinute(0, 0);
 	}
 	
-	@SuppressWarnings("unchecked")
 	@Listen
 	public void on(SystemStarted event) {
 		logger.info("Caching build info...");
 		
-		Query<?> query = dao.getSession().createQuery("select id, project.id, commitHash, jobName from Build");
-		for (Object[] fields: (List<Object[]>)query.list()) {
-			Long buildId = (Long) fields[0];
-			Long projectId = (Long)fields[1];
-			builds.put(buildId, new BuildFacade(buildId, projectId, (String)fields[2]));
-			populateJobNames(projectId, (String)fields[3]);
+		/*
+		 * Load via scrolling to not hold all rows in memory. Builds are appended to the index 
+		 * and sorted once at the end, instead of being inserted into sorted arrays one by one
+		 */
+		Query<?> query = dao.getSession().createQuery("select id, project.id, commitHash, jobName from Build order by id");
+		query.setFetchSize(LOAD_FETCH_SIZE);
+		buildsLock.writeLock().lock();
+		try {
+			ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				while (results.next()) {
+					Object[] fields = results.get();
+					Long buildId = (Long) fields[0];
+					Long projectId = (Long)fields[1];
+					builds.append(new BuildFacade(buildId, projectId, (String)fields[2]));
+					populateJobNames(projectId, (String)fields[3]);
+				}
+			} finally {
+				results.close();
+			}
+			builds.sort();
+		} finally {
+			buildsLock.writeLock().unlock();
 		}
+		logger.info("Cached info of {} builds ({})", builds.size(), 
+				FileUtils.byteCountToDisplaySize(builds.getMemoryUsage()));
 		taskId = taskScheduler.schedule(this);
 	}
 
@@ -657,12 +812,16 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	@Sessional
 	@Override
 	public Collection<Long> queryNumbersOfStreamPrevious(Build build, Status status, int limit) {
+		Collection<Long> prevBuildNumbers = buildInfoManager.getNumbersOfStreamPrevious(build, status, limit);
+		if (prevBuildNumbers != null)
+			return prevBuildNumbers;
+		
 		Map<ObjectId, Long> buildNumbers = new HashMap<>();
 		for (Object[] fields: getSession().createQuery(buildQueryOfStreamPrevios(build, status, "commitHash", "number")).list()) {
 			buildNumbers.put(ObjectId.fromString((String) fields[0]), (Long)fields[1]);
 		}
 		
-		Collection<Long> prevBuildNumbers = new HashSet<>();
+		prevBuildNumbers = new HashSet<>();
 		try (RevWalk revWalk = new RevWalk(build.getProject().getRepository())) {
 			RevCommit current = revWalk.lookupCommit(build.getCommitId());
 			revWalk.parseHeaders(current);
@@ -687,6 +846,17 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	@Sessional
 	@Override
 	public Build findStreamPrevious(Build build, Status status) {
+		List<Long> prevBuildNumbers = buildInfoManager.getNumbersOfStreamPrevious(build, status, 1);
+		if (prevBuildNumbers != null) {
+			if (prevBuildNumbers.isEmpty())
+				return null;
+			Build prevBuild = find(build.getProject(), prevBuildNumbers.get(0));
+			
+			// Build info might be stale if the build was deleted concurrently, fall back to database then
+			if (prevBuild != null)
+				return prevBuild;
+		}
+		
 		Map<ObjectId, Long> buildIds = new HashMap<>();
 		for (Object[] fields: getSession().createQuery(buildQueryOfStreamPrevios(
 				build, status, "commitHash", "id")).list()) {
@@ -715,12 +885,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	public Collection<Long> getIdsByProject(Long projectId) {
 		buildsLock.readLock().lock();
 		try {
-			Collection<Long> buildIds = new HashSet<>();
-			for (BuildFacade build: builds.values()) {
-				if (build.getProjectId().equals(projectId))
-					buildIds.add(build.getId());
-			}
-			return buildIds;
+			return builds.getIds(projectId);
 		} finally {
 			buildsLock.readLock().unlock();
 		}
@@ -730,14 +895,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	public Collection<Long> filterIds(Long projectId, Collection<String> commitHashes) {
 		buildsLock.readLock().lock();
 		try {
-			Collection<Long> buildIds = new HashSet<>();
-			for (BuildFacade build: builds.values()) {
-				if (build.getProjectId().equals(projectId) 
-						&& commitHashes.contains(build.getCommitHash())) {
-					buildIds.add(build.getId());
-				}
-			}
-			return buildIds;
+			return builds.filterIds(projectId, commitHashes);
 		} finally {
 			buildsLock.readLock().unlock();
 		}
@@ -842,4 +1000,27 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 		}
 	}
 
+	/*
+	 * Compact bitmap of preserved build ids, offset by the minimum build id of the project
+	 */
+	private static class PreservedIds {
+		
+		private final long offset;
+		
+		private final BitSet bits = new BitSet();
+		
+		PreservedIds(long offset) {
+			this.offset = offset;
+		}
+		
+		void add(long id) {
+			bits.set((int) (id - offset));
+		}
+		
+		boolean contains(long id) {
+			return id >= offset && bits.get((int) (id - offset));
+		}
+		
+	}
+	
 }
@@ -25,6 +25,7 @@ import io.onedev.server.entitymanager.IssueManager;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.PullRequestManager;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
 import io.onedev.server.event.build.BuildFinished;
 import io.onedev.server.event.issue.IssueChangeEvent;
 import io.onedev.server.event.pullrequest.PullRequestChangeEvent;
@@ -444,5 +445,12 @@ public class DefaultIssueChangeManager extends AbstractEntityManager<IssueChange
 			});
 		}
 	}
+	
+	@Transactional
+	@Listen
+	public void on(RefsUpdated event) {
+		for (RefUpdated refUpdated: event.getRefUpdates())
+			on(refUpdated);
+	}
 
 }
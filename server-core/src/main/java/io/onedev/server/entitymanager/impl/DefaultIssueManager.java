@@ -2,7 +2,6 @@ package io.onedev.server.entitymanager.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -21,6 +20,8 @@ import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
@@ -33,6 +34,7 @@ import com.google.common.base.Preconditions;
 
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.launcher.loader.ListenerRegistry;
+import io.onedev.commons.utils.FileUtils;
 import io.onedev.server.entitymanager.IssueFieldManager;
 import io.onedev.server.entitymanager.IssueManager;
 import io.onedev.server.entitymanager.IssueQuerySettingManager;
@@ -71,6 +73,7 @@ import io.onedev.server.util.ProjectScopedNumber;
 import io.onedev.server.util.SecurityUtils;
 import io.onedev.server.util.ValueSetEdit;
 import io.onedev.server.util.facade.IssueFacade;
+import io.onedev.server.util.facade.IssueFacadeIndex;
 import io.onedev.server.util.inputspec.choiceinput.choiceprovider.SpecifiedChoices;
 import io.onedev.server.util.query.IssueQueryConstants;
 import io.onedev.server.web.component.issue.workflowreconcile.UndefinedFieldResolution;
@@ -82,6 +85,8 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultIssueManager.class);
 	
+	private static final int LOAD_FETCH_SIZE = 10000;
+	
 	private final IssueFieldManager issueFieldManager;
 	
 	private final ListenerRegistry listenerRegistry;
@@ -96,7 +101,7 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 	
 	private final TransactionManager transactionManager;
 	
-	private final Map<Long, IssueFacade> issues = new HashMap<>();
+	private final IssueFacadeIndex issues = new IssueFacadeIndex();
 	
 	private final ReadWriteLock issuesLock = new ReentrantReadWriteLock();
 	
@@ -115,17 +120,24 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 		this.userManager = userManager;
 	}
 
-	@SuppressWarnings("unchecked")
 	@Sessional
 	@Listen
 	public void on(SystemStarted event) {
 		logger.info("Caching issue info...");
 		
 		Query<?> query = dao.getSession().createQuery("select id, project.id, number from Issue");
-		for (Object[] fields: (List<Object[]>)query.list()) {
-			Long issueId = (Long) fields[0];
-			issues.put(issueId, new IssueFacade(issueId, (Long)fields[1], (Long)fields[2]));
+		query.setFetchSize(LOAD_FETCH_SIZE);
+		ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				Object[] fields = results.get();
+				issues.add(new IssueFacade((Long)fields[0], (Long)fields[1], (Long)fields[2]));
+			}
+		} finally {
+			results.close();
 		}
+		logger.info("Cached info of {} issues ({})", issues.size(), 
+				FileUtils.byteCountToDisplaySize(issues.getMemoryUsage()));
 	}
 	
 	@Sessional
@@ -176,7 +188,7 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 			public void run() {
 				issuesLock.writeLock().lock();
 				try {
-					issues.put(facade.getId(), facade);
+					issues.add(facade);
 				} finally {
 					issuesLock.writeLock().unlock();
 				}
@@ -586,14 +598,14 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 	public void delete(Issue issue) {
 		super.delete(issue);
 		
-		Long issueId = issue.getId();
+		IssueFacade facade = issue.getFacade();
 		transactionManager.runAfterCommit(new Runnable() {
 
 			@Override
 			public void run() {
 				issuesLock.writeLock().lock();
 				try {
-					issues.remove(issueId);
+					issues.remove(facade);
 				} finally {
 					issuesLock.writeLock().unlock();
 				}
@@ -612,11 +624,7 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 				public void run() {
 					issuesLock.writeLock().lock();
 					try {
-						for (Iterator<Map.Entry<Long, IssueFacade>> it = issues.entrySet().iterator(); it.hasNext();) {
-							IssueFacade issue = it.next().getValue();
-							if (issue.getProjectId().equals(projectId))
-								it.remove();
-						}
+						issues.removeProject(projectId);
 					} finally {
 						issuesLock.writeLock().unlock();
 					}
@@ -629,12 +637,7 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 	public Collection<Long> getIssueNumbers(Long projectId) {
 		issuesLock.readLock().lock();
 		try {
-			Collection<Long> issueNumbers = new HashSet<>();
-			for (IssueFacade issue: issues.values()) {
-				if (projectId.equals(issue.getProjectId()))
-					issueNumbers.add(issue.getNumber());
-			}
-			return issueNumbers;
+			return issues.getNumbers(projectId);
 		} finally {
 			issuesLock.readLock().unlock();
 		}
@@ -2,9 +2,11 @@ package io.onedev.server.entitymanager.impl;
 
 import static io.onedev.server.model.PullRequest.CriterionHelper.ofOpen;
 import static io.onedev.server.model.PullRequest.CriterionHelper.ofSource;
+import static io.onedev.server.model.PullRequest.CriterionHelper.ofSourceBranches;
 import static io.onedev.server.model.PullRequest.CriterionHelper.ofSourceProject;
 import static io.onedev.server.model.PullRequest.CriterionHelper.ofSubmitter;
 import static io.onedev.server.model.PullRequest.CriterionHelper.ofTarget;
+import static io.onedev.server.model.PullRequest.CriterionHelper.ofTargetBranches;
 import static io.onedev.server.model.PullRequest.CriterionHelper.ofTargetProject;
 import static io.onedev.server.model.support.pullrequest.MergeStrategy.CREATE_MERGE_COMMIT;
 import static io.onedev.server.model.support.pullrequest.MergeStrategy.CREATE_MERGE_COMMIT_IF_NECESSARY;
@@ -20,6 +22,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
@@ -73,7 +77,9 @@ import io.onedev.server.entitymanager.PullRequestUpdateManager;
 import io.onedev.server.entitymanager.UserManager;
 import io.onedev.server.event.Event;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
 import io.onedev.server.event.build.BuildEvent;
+import io.onedev.server.event.entity.EntityPersisted;
 import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.pullrequest.PullRequestBuildEvent;
 import io.onedev.server.event.pullrequest.PullRequestChangeEvent;
@@ -82,16 +88,23 @@ import io.onedev.server.event.pullrequest.PullRequestEvent;
 import io.onedev.server.event.pullrequest.PullRequestMergePreviewCalculated;
 import io.onedev.server.event.pullrequest.PullRequestOpened;
 import io.onedev.server.git.GitUtils;
+import io.onedev.server.git.MergePreviewManager;
 import io.onedev.server.infomanager.CommitInfoManager;
+import io.onedev.server.model.AbstractEntity;
 import io.onedev.server.model.Build;
 import io.onedev.server.model.Group;
+import io.onedev.server.model.GroupAuthorization;
+import io.onedev.server.model.Membership;
 import io.onedev.server.model.Project;
 import io.onedev.server.model.PullRequest;
 import io.onedev.server.model.PullRequestBuild;
 import io.onedev.server.model.PullRequestChange;
 import io.onedev.server.model.PullRequestReview;
 import io.onedev.server.model.PullRequestUpdate;
+import io.onedev.server.model.Role;
+import io.onedev.server.model.Setting;
 import io.onedev.server.model.User;
+import io.onedev.server.model.UserAuthorization;
 import io.onedev.server.model.support.BranchProtection;
 import io.onedev.server.model.support.FileProtection;
 import io.onedev.server.model.support.pullrequest.CloseInfo;
@@ -145,6 +158,10 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 	
 	private static final int BACKEND_PREVIEW_PRIORITY = 50;
 	
+	private static final int UI_CHECK_PRIORITY = 10;
+	
+	private static final int BACKEND_CHECK_PRIORITY = 50;
+	
 	private final PullRequestUpdateManager pullRequestUpdateManager;
 	
 	private final ProjectManager projectManager;
@@ -167,6 +184,20 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 	
 	private final JobManager jobManager;
 	
+	private final MergePreviewManager mergePreviewManager;
+	
+	/*
+	 * Inputs of quality check of open pull requests when they were last checked successfully, 
+	 * used to skip quality check if nothing affecting it has changed 
+	 */
+	private final Map<Long, String> checkedInputs = new ConcurrentHashMap<>();
+	
+	/*
+	 * Increased whenever settings affecting quality check of pull requests (branch protections, 
+	 * permissions, etc.) might have changed
+	 */
+	private final AtomicLong settingsVersion = new AtomicLong(0);
+	
 	@Inject
 	public DefaultPullRequestManager(Dao dao, PullRequestUpdateManager pullRequestUpdateManager,  
 			PullRequestReviewManager pullRequestReviewManager, UserManager userManager, 
@@ -174,7 +205,7 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 			ListenerRegistry listenerRegistry, SessionManager sessionManager,
 			PullRequestChangeManager pullRequestChangeManager,
 			PullRequestBuildManager pullRequestBuildManager, TransactionManager transactionManager, 
-			JobManager jobManager, ProjectManager projectManager) {
+			JobManager jobManager, ProjectManager projectManager, MergePreviewManager mergePreviewManager) {
 		super(dao);
 		
 		this.pullRequestUpdateManager = pullRequestUpdateManager;
@@ -188,6 +219,7 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 		this.pullRequestBuildManager = pullRequestBuildManager;
 		this.jobManager = jobManager;
 		this.projectManager = projectManager;
+		this.mergePreviewManager = mergePreviewManager;
 	}
 	
 	@Transactional
@@ -440,10 +472,27 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 					if (request.isMergeIntoTarget()) {
 						closeAsMerged(request, true);
 					} else {
-						checkQuality(request);
-						
-						pullRequestReviewManager.saveReviews(request);
-						pullRequestBuildManager.savePullRequestBuilds(request);
+						Long requestId = request.getId();
+						if (!getCheckInputs(request).equals(checkedInputs.get(requestId))) {
+							checkQuality(request);
+							
+							pullRequestReviewManager.saveReviews(request);
+							pullRequestBuildManager.savePullRequestBuilds(request);
+							
+							if (request.getCheckError() == null) {
+								String checkInputs = getCheckInputs(request);
+								transactionManager.runAfterCommit(new Runnable() {
+
+									@Override
+									public void run() {
+										checkedInputs.put(requestId, checkInputs);
+									}
+									
+								});
+							} else {
+								checkedInputs.remove(requestId);
+							}
+						}
 						
 						MergePreview preview = request.getMergePreview();
 						
@@ -457,7 +506,10 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 					}
 				}
 			}
+			if (!request.isOpen())
+				checkedInputs.remove(request.getId());
 		} catch (Exception e) {
+			checkedInputs.remove(request.getId());
 			if (e.getMessage() != null)
 				request.setCheckError("Error checking pull request: " + e.getMessage());
 			else
@@ -470,6 +522,44 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 		}
 	}
 
+	/*
+	 * Calculate inputs of quality check: heads of source and target, merge preview, review 
+	 * results, build statuses and settings. Merge preview is examined without triggering 
+	 * its calculation  
+	 */
+	private String getCheckInputs(PullRequest request) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(settingsVersion.get()).append(":");
+		builder.append(request.getTarget().getObjectName()).append(":");
+		builder.append(request.getHeadCommitHash()).append(":");
+		builder.append(request.getMergeStrategy()).append(":");
+		
+		MergePreview preview = request.getLastMergePreview();
+		if (preview != null && preview.isUpToDate(request)) 
+			builder.append(preview.getMerged());
+		builder.append(":");
+		
+		List<String> reviewInputs = new ArrayList<>();
+		for (PullRequestReview review: request.getReviews()) {
+			String reviewInput = review.getUser().getId() + "-" + (review.getExcludeDate() != null);
+			if (review.getResult() != null) 
+				reviewInput += "-" + review.getResult().getCommit() + "-" + review.getResult().isApproved();
+			reviewInputs.add(reviewInput);
+		}
+		Collections.sort(reviewInputs);
+		builder.append(reviewInputs).append(":");
+
+		List<String> buildInputs = new ArrayList<>();
+		for (PullRequestBuild pullRequestBuild: request.getPullRequestBuilds()) {
+			Build build = pullRequestBuild.getBuild();
+			buildInputs.add(build.getId() + "-" + build.getStatus() + "-" + pullRequestBuild.isRequired());
+		}
+		Collections.sort(buildInputs);
+		builder.append(buildInputs);
+		
+		return builder.toString();
+	}
+	
 	@Sessional
 	@Override
 	public MergePreview previewMerge(PullRequest request) {
@@ -483,7 +573,7 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 	
 						@Override
 						public void run() {
-							batchWorkManager.submit(getMergePreviewer(requestId), new Prioritized(priority));
+							mergePreviewManager.calculateAsync(requestId, priority);
 						}
 						
 					});
@@ -500,47 +590,27 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 		}
 	}
 	
-	private BatchWorker getMergePreviewer(Long requestId) {
-		return new BatchWorker("request-" + requestId + "-previewMerge", 1) {
-
-			@Override
-			public void doWorks(Collection<Prioritized> works) {
-				sessionManager.run(new Runnable() {
-
-					@Override
-					public void run() {
-						Preconditions.checkState(works.size() == 1);
-						PullRequest request = load(requestId);
-						Project targetProject = request.getTargetProject();
-						MergePreview mergePreview = request.getLastMergePreview();
-						if (request.isOpen() && !request.isMergeIntoTarget()) {
-							if (mergePreview == null || !mergePreview.isUpToDate(request)) {
-								mergePreview = new MergePreview(request.getTarget().getObjectName(), 
-										request.getHeadCommitHash(), request.getMergeStrategy(), null);
-								logger.debug("Calculating merge preview of pull request #{} in project '{}'...", 
-										request.getNumber(), targetProject.getName());
-								ObjectId merged = mergePreview.getMergeStrategy().merge(request);
-								if (merged != null)
-									mergePreview.setMerged(merged.name());
-								mergePreview.syncRef(request);
-								request.setLastMergePreview(mergePreview);
-								dao.persist(request);
-								listenerRegistry.post(new PullRequestMergePreviewCalculated(request));
-							} else {
-								mergePreview.syncRef(request);
-							}
-						} 
-					}
-					
-				});
-			}
-			
-		};
+	@Listen
+	public void on(EntityPersisted event) {
+		if (isCheckSetting(event.getEntity()))
+			settingsVersion.incrementAndGet();
+	}
+	
+	private boolean isCheckSetting(AbstractEntity entity) {
+		return entity instanceof Project || entity instanceof Group || entity instanceof Membership 
+				|| entity instanceof Role || entity instanceof UserAuthorization 
+				|| entity instanceof GroupAuthorization || entity instanceof User 
+				|| entity instanceof Setting;
 	}
 	
 	@Transactional
 	@Listen
 	public void on(EntityRemoved event) {
+		if (isCheckSetting(event.getEntity()))
+			settingsVersion.incrementAndGet();
+		if (event.getEntity() instanceof PullRequest) 
+			checkedInputs.remove(event.getEntity().getId());
+		
 		if (event.getEntity() instanceof Project) {
 			Project project = (Project) event.getEntity();
 	    	for (PullRequest request: project.getOutgoingRequests()) {
@@ -567,6 +637,25 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 			checkAsync(query(EntityCriteria.of(PullRequest.class).add(criterion)));
 		}
 	}
+	
+	@Transactional
+	@Listen
+	public void on(RefsUpdated event) {
+		Collection<String> branches = new HashSet<>();
+		for (RefUpdated refUpdated: event.getRefUpdates()) {
+			String branch = GitUtils.ref2branch(refUpdated.getRefName());
+			if (branch != null && !refUpdated.getOldCommitId().equals(ObjectId.zeroId()))
+				branches.add(branch);
+		}
+		if (!branches.isEmpty()) {
+			Criterion criterion = Restrictions.and(
+					ofOpen(), 
+					Restrictions.or(
+							ofSourceBranches(event.getProject(), branches), 
+							ofTargetBranches(event.getProject(), branches)));
+			checkAsync(query(EntityCriteria.of(PullRequest.class).add(criterion)));
+		}
+	}
 
 	@Sessional
 	@Override
@@ -679,29 +768,48 @@ public class DefaultPullRequestManager extends AbstractEntityManager<PullRequest
 		checkAsync(Lists.newArrayList(event.getRequest()));
 	}
 	
+	/*
+	 * Checks of the same pull request are submitted to the same batch worker, so that repeated 
+	 * triggers arriving while a check is queued or running are coalesced into a single check. 
+	 * Checks triggered from UI take precedence over those triggered from backend events
+	 */
 	@Sessional
 	protected void checkAsync(Collection<PullRequest> requests) {
-		Collection<Long> requestIds = requests.stream().map(it->it.getId()).collect(Collectors.toList());
+		Collection<Long> requestIds = requests.stream().map(it->it.getId()).collect(Collectors.toSet());
 		if (!requestIds.isEmpty()) {
+			int priority = RequestCycle.get() != null?UI_CHECK_PRIORITY:BACKEND_CHECK_PRIORITY;
 			transactionManager.runAfterCommit(new Runnable() {
 	
 				@Override
 				public void run() {
-					dao.getSessionManager().runAsync(new Runnable() {
-	
-						@Override
-						public void run() {
-					        for (Long requestId: requestIds)
-					        	check(load(requestId));
-						}
-						
-					});
+					for (Long requestId: requestIds)
+						batchWorkManager.submit(getChecker(requestId), new Prioritized(priority));
 				}
 				
 			});
 		}
 	}
 	
+	private BatchWorker getChecker(Long requestId) {
+		return new BatchWorker("request-" + requestId + "-check") {
+
+			@Override
+			public void doWorks(Collection<Prioritized> works) {
+				sessionManager.run(new Runnable() {
+
+					@Override
+					public void run() {
+						PullRequest request = get(requestId);
+						if (request != null)
+							check(request);
+					}
+					
+				});
+			}
+			
+		};
+	}
+	
 	@Transactional
 	@Override
 	public void checkQuality(PullRequest request) {
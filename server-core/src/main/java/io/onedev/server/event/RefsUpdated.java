@@ -0,0 +1,26 @@
+package io.onedev.server.event;
+
+import java.util.Date;
+import java.util.List;
+
+import io.onedev.server.model.Project;
+
+/**
+ * Posted once for all refs updated by a single push, so that listeners can process 
+ * these updates in one pass instead of handling each ref separately. Note that 
+ * {@link RefUpdated} will not be posted for refs contained in this event 
+ */
+public class RefsUpdated extends ProjectEvent {
+
+	private final List<RefUpdated> refUpdates;
+	
+	public RefsUpdated(Project project, List<RefUpdated> refUpdates) {
+		super(null, new Date(), project);
+		this.refUpdates = refUpdates;
+	}
+
+	public List<RefUpdated> getRefUpdates() {
+		return refUpdates;
+	}
+	
+}
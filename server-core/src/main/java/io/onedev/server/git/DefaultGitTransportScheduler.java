@@ -0,0 +1,146 @@
+package io.onedev.server.git;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.server.entitymanager.SettingManager;
+import io.onedev.server.model.support.administration.SystemSetting;
+
+@Singleton
+public class DefaultGitTransportScheduler implements GitTransportScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultGitTransportScheduler.class);
+	
+	private final SettingManager settingManager;
+	
+	private final Lane uploadLane = new Lane();
+	
+	private final Lane receiveLane = new Lane();
+	
+	@Inject
+	public DefaultGitTransportScheduler(SettingManager settingManager) {
+		this.settingManager = settingManager;
+	}
+	
+	private Lane getLane(boolean upload) {
+		return upload? uploadLane: receiveLane;
+	}
+	
+	private int getLimit(boolean upload) {
+		SystemSetting systemSetting = settingManager.getSystemSetting();
+		int limit = upload? systemSetting.getMaxGitUploads(): systemSetting.getMaxGitReceives();
+		if (limit == 0) {
+			limit = Runtime.getRuntime().availableProcessors();
+			if (upload)
+				limit *= 2;
+		}
+		return limit;
+	}
+	
+	@Override
+	public void run(boolean upload, Long projectId, Long userId, Runnable transport) 
+			throws InterruptedException {
+		Lane lane = getLane(upload);
+		int limit = getLimit(upload);
+		synchronized (this) {
+			if (lane.running < limit && lane.queued == 0) {
+				lane.running++;
+			} else {
+				Waiter waiter = new Waiter();
+				String key = userId + ":" + projectId;
+				Queue<Waiter> waiters = lane.waiters.get(key);
+				if (waiters == null) {
+					waiters = new ArrayDeque<>();
+					lane.waiters.put(key, waiters);
+				}
+				waiters.add(waiter);
+				lane.queued++;
+				logger.debug("Queued git {} (project id: {}, user id: {}, running: {}, queued: {})", 
+						upload?"upload":"receive", projectId, userId, lane.running, lane.queued);
+				try {
+					while (!waiter.admitted)
+						wait();
+				} catch (InterruptedException e) {
+					if (waiter.admitted) {
+						release(lane, limit);
+					} else {
+						waiters.remove(waiter);
+						if (waiters.isEmpty())
+							lane.waiters.remove(key);
+						lane.queued--;
+					}
+					throw e;
+				}
+			}
+		}
+		
+		try {
+			transport.run();
+		} finally {
+			limit = getLimit(upload);
+			synchronized (this) {
+				release(lane, limit);
+			}
+		}
+	}
+	
+	/*
+	 * Free a running slot and admit waiters in round-robin order of user and project. The 
+	 * key whose waiter is admitted is moved to end of the lane so that other keys take 
+	 * turn first
+	 */
+	private void release(Lane lane, int limit) {
+		lane.running--;
+		boolean admitted = false;
+		while (lane.running < limit && lane.queued != 0) {
+			Iterator<Map.Entry<String, Queue<Waiter>>> it = lane.waiters.entrySet().iterator();
+			Map.Entry<String, Queue<Waiter>> entry = it.next();
+			it.remove();
+			Queue<Waiter> waiters = entry.getValue();
+			waiters.remove().admitted = true;
+			if (!waiters.isEmpty())
+				lane.waiters.put(entry.getKey(), waiters);
+			lane.queued--;
+			lane.running++;
+			admitted = true;
+		}
+		if (admitted)
+			notifyAll();
+	}
+
+	@Override
+	public synchronized int getRunning(boolean upload) {
+		return getLane(upload).running;
+	}
+
+	@Override
+	public synchronized int getQueued(boolean upload) {
+		return getLane(upload).queued;
+	}
+	
+	private static class Lane {
+		
+		int running;
+		
+		int queued;
+		
+		final Map<String, Queue<Waiter>> waiters = new LinkedHashMap<>();
+		
+	}
+	
+	private static class Waiter {
+		
+		boolean admitted;
+		
+	}
+	
+}
@@ -0,0 +1,251 @@
+package io.onedev.server.git;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.launcher.loader.ListenerRegistry;
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.server.OneDev;
+import io.onedev.server.event.pullrequest.PullRequestMergePreviewCalculated;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.model.Project;
+import io.onedev.server.model.PullRequest;
+import io.onedev.server.model.support.pullrequest.MergePreview;
+import io.onedev.server.model.support.pullrequest.MergeStrategy;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.util.SecurityUtils;
+import io.onedev.server.util.concurrent.PrioritizedRunnable;
+
+@Singleton
+public class DefaultMergePreviewManager implements MergePreviewManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultMergePreviewManager.class);
+
+	private static final int MAX_CACHE_ENTRIES = 10000;
+
+	private final Dao dao;
+
+	private final SessionManager sessionManager;
+
+	private final ListenerRegistry listenerRegistry;
+
+	private final ExecutorService executor = new ThreadPoolExecutor(
+			Runtime.getRuntime().availableProcessors(),
+			Runtime.getRuntime().availableProcessors(),
+			0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+
+	/*
+	 * Requests whose calculation is queued but not started yet. Further calculations of these 
+	 * requests are coalesced into the queued one
+	 */
+	private final Set<Long> queuedRequestIds = new HashSet<>();
+	
+	/*
+	 * Requests being calculated. A request is calculated by at most one thread at a time, and 
+	 * calculations requested meanwhile are deferred until current calculation finishes. Value 
+	 * is priority of the deferred calculation, or <tt>null</tt> if there is none 
+	 */
+	private final Map<Long, Integer> runningRequests = new HashMap<>();
+
+	/*
+	 * Key is target project, target commit, head commit and merge strategy. Value is merged tree
+	 * for strategies creating merge or squash commit, as the commit itself contains request specific
+	 * message, and is rebased commit for rebase strategy. Empty value means there are conflicts
+	 */
+	private final Cache<String, Optional<ObjectId>> cache = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHE_ENTRIES)
+			.expireAfterAccess(1, TimeUnit.DAYS)
+			.build();
+
+	private final MergeStatistics statistics = new MergeStatistics();
+
+	@Inject
+	public DefaultMergePreviewManager(Dao dao, SessionManager sessionManager, ListenerRegistry listenerRegistry) {
+		this.dao = dao;
+		this.sessionManager = sessionManager;
+		this.listenerRegistry = listenerRegistry;
+	}
+
+	@Override
+	public ObjectId merge(PullRequest request) {
+		Repository repository = request.getTargetProject().getRepository();
+		ObjectId requestHead = request.getHeadCommit();
+		ObjectId targetHead = request.getTarget().getObjectId();
+		MergeStrategy mergeStrategy = request.getMergeStrategy();
+		PersonIdent user = new PersonIdent(OneDev.NAME, "");
+
+		if (mergeStrategy == MergeStrategy.CREATE_MERGE_COMMIT_IF_NECESSARY
+				&& GitUtils.isMergedInto(repository, null, targetHead, requestHead)) {
+			return requestHead;
+		}
+
+		if (mergeStrategy == MergeStrategy.REBASE_SOURCE_BRANCH_COMMITS) {
+			return getCached(request.getTargetProject(), targetHead, requestHead, mergeStrategy,
+					new Callable<Optional<ObjectId>>() {
+
+				@Override
+				public Optional<ObjectId> call() throws Exception {
+					return Optional.ofNullable(GitUtils.rebase(repository, requestHead, targetHead, user));
+				}
+
+			});
+		} else {
+			ObjectId mergedTreeId = getCached(request.getTargetProject(), targetHead, requestHead, mergeStrategy,
+					new Callable<Optional<ObjectId>>() {
+
+				@Override
+				public Optional<ObjectId> call() throws Exception {
+					return Optional.ofNullable(GitUtils.mergeTree(repository, requestHead, targetHead));
+				}
+
+			});
+			if (mergedTreeId != null) {
+				boolean squash = mergeStrategy == MergeStrategy.SQUASH_SOURCE_BRANCH_COMMITS;
+				return GitUtils.commitMerged(repository, mergedTreeId, requestHead, targetHead, squash,
+						user, user, request.getCommitMessage());
+			} else {
+				return null;
+			}
+		}
+	}
+
+	@Nullable
+	private ObjectId getCached(Project project, ObjectId targetHead, ObjectId requestHead,
+			MergeStrategy mergeStrategy, Callable<Optional<ObjectId>> merger) {
+		String key = project.getId() + ":" + targetHead.name() + ":" + requestHead.name() + ":" + mergeStrategy.name();
+		long time = System.currentTimeMillis();
+		boolean hit = true;
+		Optional<ObjectId> result = cache.getIfPresent(key);
+
+		// Unreferenced objects might have been pruned from repository since cached
+		if (result != null && result.isPresent() && !project.getRepository().hasObject(result.get())) {
+			cache.invalidate(key);
+			result = null;
+		}
+		if (result == null) {
+			hit = false;
+			try {
+				result = cache.get(key, merger);
+			} catch (ExecutionException e) {
+				throw ExceptionUtils.unchecked(e);
+			}
+		}
+		statistics.record(hit, System.currentTimeMillis() - time);
+		return result.orElse(null);
+	}
+
+	@Override
+	public void calculateAsync(Long requestId, int priority) {
+		calculateAsync(requestId, priority, SecurityUtils.getSubject());
+	}
+	
+	private void calculateAsync(Long requestId, int priority, Subject subject) {
+		synchronized (queuedRequestIds) {
+			if (runningRequests.containsKey(requestId)) {
+				Integer deferredPriority = runningRequests.get(requestId);
+				if (deferredPriority == null || priority < deferredPriority)
+					runningRequests.put(requestId, priority);
+				return;
+			} else if (!queuedRequestIds.add(requestId)) {
+				return;
+			}
+		}
+		
+		executor.execute(new PrioritizedRunnable(priority) {
+
+			@Override
+			public void run() {
+				synchronized (queuedRequestIds) {
+					queuedRequestIds.remove(requestId);
+					runningRequests.put(requestId, null);
+				}
+				ThreadContext.bind(subject);
+				try {
+					calculate(requestId);
+				} catch (Exception e) {
+					logger.error("Error calculating merge preview", e);
+				} finally {
+					ThreadContext.unbindSubject();
+					Integer deferredPriority;
+					synchronized (queuedRequestIds) {
+						deferredPriority = runningRequests.remove(requestId);
+					}
+					if (deferredPriority != null)
+						calculateAsync(requestId, deferredPriority, subject);
+				}
+			}
+
+		});
+	}
+
+	private void calculate(Long requestId) {
+		sessionManager.run(new Runnable() {
+
+			@Override
+			public void run() {
+				PullRequest request = dao.get(PullRequest.class, requestId);
+				if (request == null)
+					return;
+				Project targetProject = request.getTargetProject();
+				MergePreview mergePreview = request.getLastMergePreview();
+				if (request.isOpen() && !request.isMergeIntoTarget()) {
+					if (mergePreview == null || !mergePreview.isUpToDate(request)) {
+						mergePreview = new MergePreview(request.getTarget().getObjectName(),
+								request.getHeadCommitHash(), request.getMergeStrategy(), null);
+						logger.debug("Calculating merge preview of pull request #{} in project '{}'...",
+								request.getNumber(), targetProject.getName());
+						ObjectId merged = merge(request);
+						if (merged != null)
+							mergePreview.setMerged(merged.name());
+						mergePreview.syncRef(request);
+						request.setLastMergePreview(mergePreview);
+						dao.persist(request);
+						listenerRegistry.post(new PullRequestMergePreviewCalculated(request));
+						logger.debug("Merge statistics: {}", statistics);
+					} else {
+						mergePreview.syncRef(request);
+					}
+				}
+			}
+
+		});
+	}
+
+	@Override
+	public MergeStatistics getStatistics() {
+		return statistics;
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		executor.shutdown();
+		logger.info("Merge statistics: {}", statistics);
+	}
+
+}
@@ -0,0 +1,371 @@
+package io.onedev.server.git;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.eclipse.jgit.transport.RefAdvertiser;
+import org.eclipse.jgit.transport.UploadPack;
+import org.eclipse.jgit.transport.UploadPack.RequestPolicy;
+import org.quartz.CronScheduleBuilder;
+import org.quartz.ScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.entitymanager.SettingManager;
+import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.git.command.AdvertiseUploadRefsCommand;
+import io.onedev.server.git.command.RepackCommand;
+import io.onedev.server.git.command.UploadCommand;
+import io.onedev.server.storage.StorageManager;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+@Singleton
+public class DefaultUploadPackManager implements UploadPackManager, SchedulableTask {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultUploadPackManager.class);
+
+	private static final int MAX_CACHEABLE_REQUEST_SIZE = 1024*1024;
+
+	private static final long MAX_CACHED_PACK_SIZE = 256L*1024*1024;
+
+	// in kilo bytes
+	private static final long MAX_PACK_CACHE_SIZE = 2L*1024*1024;
+
+	private static final String PACK_CACHE_DIR = "pack-cache";
+
+	// pkt-line ending negotiation of a stateless upload pack request
+	private static final byte[] DONE = "0009done\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final SettingManager settingManager;
+
+	private final StorageManager storageManager;
+
+	private final TaskScheduler taskScheduler;
+
+	private final Map<Mode, UploadStatistics> statistics = new EnumMap<>(Mode.class);
+
+	private final Set<Long> projectIdsToRepack = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+	private final Cache<String, File> packCache;
+
+	private volatile File packCacheDir;
+
+	private String taskId;
+
+	@Inject
+	public DefaultUploadPackManager(SettingManager settingManager, StorageManager storageManager,
+			TaskScheduler taskScheduler) {
+		this.settingManager = settingManager;
+		this.storageManager = storageManager;
+		this.taskScheduler = taskScheduler;
+
+		for (Mode mode: Mode.values())
+			statistics.put(mode, new UploadStatistics());
+
+		packCache = CacheBuilder.newBuilder()
+				.maximumWeight(MAX_PACK_CACHE_SIZE)
+				.weigher(new Weigher<String, File>() {
+
+					@Override
+					public int weigh(String key, File value) {
+						return (int) Math.max(1, value.length()/1024);
+					}
+
+				})
+				.removalListener(new RemovalListener<String, File>() {
+
+					@Override
+					public void onRemoval(RemovalNotification<String, File> notification) {
+						// Readers already opened the file can still read it after deletion
+						FileUtils.deleteFile(notification.getValue());
+					}
+
+				})
+				.build();
+	}
+
+	private boolean isInProcess() {
+		return settingManager.getSystemSetting().isInProcessGitUpload();
+	}
+
+	private UploadPack newUploadPack(Repository repository) {
+		UploadPack uploadPack = new UploadPack(repository);
+		uploadPack.setBiDirectionalPipe(false);
+
+		// Same as uploadpack.allowAnySHA1InWant configured for forked git
+		uploadPack.setRequestPolicy(RequestPolicy.ANY);
+		return uploadPack;
+	}
+
+	@Override
+	public void advertiseRefs(Repository repository, File gitDir, OutputStream output) throws IOException {
+		if (isInProcess()) {
+			PacketLineOut packetLineOut = new PacketLineOut(output);
+			newUploadPack(repository).sendAdvertisedRefs(new RefAdvertiser.PacketLineOutRefAdvertiser(packetLineOut));
+		} else {
+			new AdvertiseUploadRefsCommand(gitDir).output(output).call();
+		}
+	}
+
+	@Override
+	public void upload(Repository repository, File gitDir, Map<String, String> environments,
+			InputStream input, OutputStream output) throws IOException {
+		long startTime = System.currentTimeMillis();
+		CountingOutputStream countingOutput = new CountingOutputStream(output);
+		Mode mode;
+		if (isInProcess()) {
+			mode = uploadInProcess(repository, input, countingOutput);
+		} else {
+			new UploadCommand(gitDir, environments).input(input).output(countingOutput).call();
+			mode = Mode.FORKED;
+		}
+		statistics.get(mode).record(countingOutput.getByteCount(), System.currentTimeMillis() - startTime);
+	}
+
+	private Mode uploadInProcess(Repository repository, InputStream input, OutputStream output) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		if (IOUtils.copyLarge(input, buffer, 0, MAX_CACHEABLE_REQUEST_SIZE+1) > MAX_CACHEABLE_REQUEST_SIZE) {
+			InputStream requestInput = new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), input);
+			newUploadPack(repository).upload(requestInput, output, null);
+			return Mode.IN_PROCESS;
+		}
+
+		byte[] request = buffer.toByteArray();
+
+		/*
+		 * Only cache response of final negotiation round which contains the pack. Response
+		 * of other rounds only contains acknowledgements
+		 */
+		if (!endsWith(request, DONE)) {
+			newUploadPack(repository).upload(new ByteArrayInputStream(request), output, null);
+			return Mode.IN_PROCESS;
+		}
+
+		String cacheKey = getCacheKey(repository, request);
+		File packFile = packCache.getIfPresent(cacheKey);
+		if (packFile != null) {
+			InputStream packInput = null;
+			try {
+				packInput = new FileInputStream(packFile);
+			} catch (FileNotFoundException e) {
+				packCache.invalidate(cacheKey);
+			}
+			if (packInput != null) {
+				try {
+					IOUtils.copyLarge(packInput, output);
+				} finally {
+					packInput.close();
+				}
+				return Mode.CACHED;
+			}
+		}
+
+		File tempFile = new File(packCacheDir, UUID.randomUUID().toString() + ".tmp");
+		try {
+			boolean cacheable;
+			try (PackCachingOutputStream cachingOutput = new PackCachingOutputStream(output, tempFile)) {
+				newUploadPack(repository).upload(new ByteArrayInputStream(request), cachingOutput, null);
+				cachingOutput.flush();
+				cacheable = !cachingOutput.overflowed;
+			}
+			if (cacheable) {
+				packFile = new File(packCacheDir, cacheKey + "-" + UUID.randomUUID().toString());
+				if (tempFile.renameTo(packFile))
+					packCache.put(cacheKey, packFile);
+			}
+		} finally {
+			if (tempFile.exists())
+				FileUtils.deleteFile(tempFile);
+		}
+		return Mode.IN_PROCESS;
+	}
+
+	private boolean endsWith(byte[] bytes, byte[] suffix) {
+		if (bytes.length < suffix.length)
+			return false;
+		for (int i=0; i<suffix.length; i++) {
+			if (bytes[bytes.length-suffix.length+i] != suffix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Response of an upload request is determined by the request (wants, haves, shallows,
+	 * depth and capabilities) and the repository. Refs are included in the key, as objects
+	 * (and hence acknowledged haves) may only be added by updating refs
+	 */
+	private String getCacheKey(Repository repository, byte[] request) throws IOException {
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putString(repository.getDirectory().getAbsolutePath(), StandardCharsets.UTF_8);
+		hasher.putInt(request.length).putBytes(request);
+		List<Ref> refs = new ArrayList<>(repository.getRefDatabase().getRefs());
+		Collections.sort(refs, new Comparator<Ref>() {
+
+			@Override
+			public int compare(Ref o1, Ref o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+
+		});
+		for (Ref ref: refs) {
+			hasher.putString(ref.getName(), StandardCharsets.UTF_8);
+			if (ref.getObjectId() != null)
+				hasher.putString(ref.getObjectId().name(), StandardCharsets.US_ASCII);
+		}
+		return hasher.hash().toString();
+	}
+
+	@Override
+	public UploadStatistics getStatistics(Mode mode) {
+		return statistics.get(mode);
+	}
+
+	@Listen
+	public void on(RefUpdated event) {
+		projectIdsToRepack.add(event.getProject().getId());
+	}
+
+	@Listen
+	public void on(RefsUpdated event) {
+		projectIdsToRepack.add(event.getProject().getId());
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		File packCacheDir = new File(Bootstrap.getTempDir(), PACK_CACHE_DIR);
+		FileUtils.createDir(packCacheDir);
+		FileUtils.cleanDir(packCacheDir);
+		this.packCacheDir = packCacheDir;
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		packCache.invalidateAll();
+	}
+
+	/*
+	 * Repack updated repositories with bitmap index periodically. Bitmap index speeds up
+	 * counting objects for both in process and forked upload
+	 */
+	@Override
+	public void execute() {
+		List<Long> projectIds = new ArrayList<>(projectIdsToRepack);
+		projectIdsToRepack.removeAll(projectIds);
+		for (Long projectId: projectIds) {
+			File gitDir = storageManager.getProjectGitDir(projectId);
+			if (gitDir.exists()) {
+				try {
+					new RepackCommand(gitDir).call();
+				} catch (Exception e) {
+					logger.error("Error repacking repository (project id: " + projectId + ")", e);
+				}
+			}
+		}
+
+		logger.info("Git upload statistics: forked ({}), in process ({}), cached ({})",
+				getStatistics(Mode.FORKED), getStatistics(Mode.IN_PROCESS), getStatistics(Mode.CACHED));
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return CronScheduleBuilder.dailyAtHourAndMinute(1, 0);
+	}
+
+	/*
+	 * Write to client and to a temp pack file at the same time, until the pack is too large
+	 * to be cached
+	 */
+	private static class PackCachingOutputStream extends OutputStream {
+
+		private final OutputStream output;
+
+		private final OutputStream fileOutput;
+
+		private long written;
+
+		private boolean overflowed;
+
+		PackCachingOutputStream(OutputStream output, File file) throws FileNotFoundException {
+			this.output = output;
+			fileOutput = new BufferedOutputStream(new FileOutputStream(file));
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			output.write(b, off, len);
+			if (!overflowed) {
+				if (written + len > MAX_CACHED_PACK_SIZE) {
+					overflowed = true;
+				} else {
+					fileOutput.write(b, off, len);
+					written += len;
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			output.flush();
+			if (!overflowed)
+				fileOutput.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			fileOutput.close();
+		}
+
+	}
+
+}
@@ -7,7 +7,6 @@ import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -24,6 +23,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.eclipse.jgit.http.server.GitSmartHttpTools;
 import org.eclipse.jgit.http.server.ServletUtils;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.PacketLineOut;
 import org.hibernate.Hibernate;
 import org.slf4j.Logger;
@@ -33,9 +33,7 @@ import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.git.command.AdvertiseReceiveRefsCommand;
-import io.onedev.server.git.command.AdvertiseUploadRefsCommand;
 import io.onedev.server.git.command.ReceiveCommand;
-import io.onedev.server.git.command.UploadCommand;
 import io.onedev.server.git.exception.GitException;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
@@ -43,16 +41,12 @@ import io.onedev.server.security.CodePullAuthorizationSource;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.SecurityUtils;
 import io.onedev.server.util.ServerConfig;
-import io.onedev.server.util.concurrent.PrioritizedRunnable;
-import io.onedev.server.util.work.WorkExecutor;
 
 @Singleton
 public class GitFilter implements Filter {
 	
 	private static final Logger logger = LoggerFactory.getLogger(GitFilter.class);
 
-	private static final int PRIORITY = 2;
-	
 	private static final String INFO_REFS = "info/refs";
 	
 	private final OneDev oneDev;
@@ -61,7 +55,9 @@ public class GitFilter implements Filter {
 	
 	private final ProjectManager projectManager;
 	
-	private final WorkExecutor workExecutor;
+	private final GitTransportScheduler transportScheduler;
+	
+	private final UploadPackManager uploadPackManager;
 	
 	private final ServerConfig serverConfig;
 	
@@ -73,15 +69,17 @@ public class GitFilter implements Filter {
 	
 	@Inject
 	public GitFilter(OneDev oneDev, StorageManager storageManager, ProjectManager projectManager, 
-			WorkExecutor workManager, ServerConfig serverConfig, SettingManager configManager,
-			SessionManager sessionManager, Set<CodePullAuthorizationSource> codePullAuthorizationSources) {
+			GitTransportScheduler transportScheduler, ServerConfig serverConfig, SettingManager configManager,
+			SessionManager sessionManager, UploadPackManager uploadPackManager, 
+			Set<CodePullAuthorizationSource> codePullAuthorizationSources) {
 		this.oneDev = oneDev;
 		this.storageManager = storageManager;
 		this.projectManager = projectManager;
-		this.workExecutor = workManager;
+		this.transportScheduler = transportScheduler;
 		this.serverConfig = serverConfig;
 		this.configManager = configManager;
 		this.sessionManager = sessionManager;
+		this.uploadPackManager = uploadPackManager;
 		this.codePullAuthorizationSources = codePullAuthorizationSources;
 	}
 	
@@ -118,9 +116,12 @@ public class GitFilter implements Filter {
 	}
 	
 	protected void processPacks(final HttpServletRequest request, final HttpServletResponse response) 
-			throws ServletException, IOException, InterruptedException, ExecutionException {
+			throws ServletException, IOException, InterruptedException {
 		File gitDir;
+		Repository repository;
 		boolean upload;
+		Long projectId;
+		Long userId;
 		Map<String, String> environments = new HashMap<>();
 		
 		sessionManager.openSession();
@@ -153,6 +154,9 @@ public class GitFilter implements Filter {
 			environments.put("GITPLEX_REPOSITORY_ID", project.getId().toString());
 			
 			gitDir = storageManager.getProjectGitDir(project.getId());
+			repository = project.getRepository();
+			projectId = project.getId();
+			userId = SecurityUtils.getUserId();
 
 			if (GitSmartHttpTools.isUploadPack(request)) {
 				checkPullPermission(request, project);
@@ -166,23 +170,27 @@ public class GitFilter implements Filter {
 			sessionManager.closeSession();
 		}
 		
+		/*
+		 * Transport is run in request thread instead of handing off to a pool thread, so 
+		 * that streaming with slow clients does not hold threads needed by background work 
+		 */
 		if (upload) {
-			workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
+			runTransport(true, projectId, userId, new Runnable() {
 				
 				@Override
 				public void run() {
 					try {
 						InputStream is = ServletUtils.getInputStream(request);
 						OutputStream os = response.getOutputStream();
-						new UploadCommand(gitDir, environments).input(is).output(os).call();
+						uploadPackManager.upload(repository, gitDir, environments, is, os);
 					} catch (IOException e) {
 						throw new RuntimeException(e);
 					}
 				}
 				
-			}).get();
+			});
 		} else {
-			workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
+			runTransport(false, projectId, userId, new Runnable() {
 				
 				@Override
 				public void run() {
@@ -195,7 +203,28 @@ public class GitFilter implements Filter {
 					}
 				}
 				
-			}).get();
+			});
+		}
+	}
+	
+	/*
+	 * Errors of transport are reported to git client as git errors. Checked exceptions are 
+	 * wrapped as RuntimeException by transports, and are unwrapped here  
+	 */
+	private void runTransport(boolean upload, Long projectId, Long userId, Runnable transport) 
+			throws InterruptedException {
+		try {
+			transportScheduler.run(upload, projectId, userId, transport);
+		} catch (GitException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			Throwable cause = e;
+			if (e.getClass() == RuntimeException.class && e.getCause() != null)
+				cause = e.getCause();
+			String message = cause.getMessage();
+			if (message == null)
+				message = cause.toString();
+			throw new GitException(message, cause);
 		}
 	}
 	
@@ -225,6 +254,7 @@ public class GitFilter implements Filter {
 	
 	protected void processRefs(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		File gitDir;
+		Repository repository;
 		boolean upload;
 		
 		sessionManager.openSession();
@@ -237,6 +267,7 @@ public class GitFilter implements Filter {
 			String service = request.getParameter("service");
 			
 			gitDir = storageManager.getProjectGitDir(project.getId());
+			repository = project.getRepository();
 
 			if (service.contains("upload")) {
 				checkPullPermission(request, project);
@@ -253,7 +284,7 @@ public class GitFilter implements Filter {
 			sessionManager.closeSession();
 		}
 		if (upload)
-			new AdvertiseUploadRefsCommand(gitDir).output(response.getOutputStream()).call();
+			uploadPackManager.advertiseRefs(repository, gitDir, response.getOutputStream());
 		else
 			new AdvertiseReceiveRefsCommand(gitDir).output(response.getOutputStream()).call();
 	}
@@ -282,7 +313,7 @@ public class GitFilter implements Filter {
 			} else {
 				chain.doFilter(request, response);
 			}
-		} catch (GitException|InterruptedException|ExecutionException e) {
+		} catch (GitException|InterruptedException e) {
 			logger.error("Error serving git request", e);
 			GitSmartHttpTools.sendError(httpRequest, httpResponse, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
 		}
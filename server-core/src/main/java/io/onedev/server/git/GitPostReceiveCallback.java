@@ -2,6 +2,7 @@ package io.onedev.server.git;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 
@@ -24,6 +25,7 @@ import io.onedev.commons.launcher.loader.ListenerRegistry;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.util.SecurityUtils;
@@ -95,6 +97,7 @@ public class GitPostReceiveCallback extends HttpServlet {
 		        try {
 		            Project project = projectManager.load(projectId);
 		            
+		            List<RefUpdated> refUpdates = new ArrayList<>();
 			        int pos = 0;
 			        while (true) {
 			        	String refName = StringUtils.reverse(fields.get(pos));
@@ -117,7 +120,7 @@ public class GitPostReceiveCallback extends HttpServlet {
 			        		GitUtils.linkRef(refUpdate, refName);
 			        	}
 
-			        	listenerRegistry.post(new RefUpdated(project, refName, oldObjectId, newObjectId));
+			        	refUpdates.add(new RefUpdated(project, refName, oldObjectId, newObjectId));
 			    		
 			        	field = field.substring(40);
 			        	if (field.length() == 0)
@@ -125,6 +128,15 @@ public class GitPostReceiveCallback extends HttpServlet {
 			        	else
 			        		fields.set(pos, field);
 			        }
+			        
+			        /*
+			         * Post all updates of the push as a single event, so that listeners do not 
+			         * query database and parse build spec once per ref when pushing many refs  
+			         */
+			        if (refUpdates.size() == 1)
+			        	listenerRegistry.post(refUpdates.get(0));
+			        else
+			        	listenerRegistry.post(new RefsUpdated(project, refUpdates));
 		        } catch (Exception e) {
 		        	logger.error("Error executing post-receive callback", e);
 				}
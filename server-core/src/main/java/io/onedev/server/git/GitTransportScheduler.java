@@ -0,0 +1,41 @@
+package io.onedev.server.git;
+
+/**
+ * Limits number of git transports (clone, fetch and push over http) served at the same time. 
+ * Pulls and pushes have separate limits so that pushes do not queue up behind long-running 
+ * clones. Queued transports are admitted in round-robin order of user and project, so that a 
+ * burst of requests from one user or against one project does not starve others. 
+ */
+public interface GitTransportScheduler {
+
+	/**
+	 * Run specified transport in calling thread once allowed by concurrency limit. Since 
+	 * transport is run in the calling thread, no extra thread is held while streaming 
+	 * with a slow client
+	 * 
+	 * @param upload
+	 * 			<tt>true</tt> for upload pack (clone and fetch), <tt>false</tt> for receive pack (push)
+	 * @param projectId
+	 * 			id of the project being transported
+	 * @param userId
+	 * 			id of the user requesting the transport
+	 * @param transport
+	 * 			transport to run
+	 * @throws InterruptedException
+	 * 			if interrupted while waiting for admission
+	 */
+	void run(boolean upload, Long projectId, Long userId, Runnable transport) throws InterruptedException;
+	
+	/**
+	 * @return
+	 * 			number of transports of specified kind currently being served
+	 */
+	int getRunning(boolean upload);
+	
+	/**
+	 * @return
+	 * 			number of transports of specified kind waiting for admission
+	 */
+	int getQueued(boolean upload);
+	
+}
@@ -421,27 +421,52 @@ public class GitUtils {
     @Nullable
     public static ObjectId merge(Repository repository, ObjectId source, ObjectId target, 
     		boolean squash, PersonIdent committer, PersonIdent author, String commitMessage) {
-    	try (	RevWalk revWalk = new RevWalk(repository);
-    			ObjectInserter inserter = repository.newObjectInserter();) {
+    	ObjectId mergedTreeId = mergeTree(repository, source, target);
+    	if (mergedTreeId != null)
+    		return commitMerged(repository, mergedTreeId, source, target, squash, committer, author, commitMessage);
+    	else
+    		return null;
+    }
+    
+    /**
+     * Merge source commit into target commit in memory without touching any working tree
+     * 
+     * @return
+     * 			id of merged tree, or <tt>null</tt> if there are conflicts
+     */
+    @Nullable
+    public static ObjectId mergeTree(Repository repository, ObjectId source, ObjectId target) {
+    	try (RevWalk revWalk = new RevWalk(repository)) {
     		RevCommit sourceCommit = revWalk.parseCommit(source);
     		RevCommit targetCommit = revWalk.parseCommit(target);
     		Merger merger = MergeStrategy.RECURSIVE.newMerger(repository, true);
-    		if (merger.merge(targetCommit, sourceCommit)) {
-		        CommitBuilder mergedCommit = new CommitBuilder();
-		        mergedCommit.setAuthor(author);
-		        mergedCommit.setCommitter(committer);
-		        if (squash)
-		        	mergedCommit.setParentId(targetCommit);
-		        else
-		        	mergedCommit.setParentIds(targetCommit, sourceCommit);
-		        mergedCommit.setMessage(commitMessage);
-		        mergedCommit.setTreeId(merger.getResultTreeId());
-		        ObjectId mergedCommitId = inserter.insert(mergedCommit);
-		        inserter.flush();
-		        return mergedCommitId;
-    		} else {
+    		if (merger.merge(targetCommit, sourceCommit)) 
+    			return merger.getResultTreeId();
+    		else 
     			return null;
-    		}
+    	} catch (IOException e) {
+    		throw new RuntimeException(e);
+		}
+    }
+    
+    /**
+     * Create commit of a merged tree previously calculated via {@link #mergeTree(Repository, ObjectId, ObjectId)}
+     */
+    public static ObjectId commitMerged(Repository repository, ObjectId mergedTreeId, ObjectId source, 
+    		ObjectId target, boolean squash, PersonIdent committer, PersonIdent author, String commitMessage) {
+    	try (ObjectInserter inserter = repository.newObjectInserter()) {
+	        CommitBuilder mergedCommit = new CommitBuilder();
+	        mergedCommit.setAuthor(author);
+	        mergedCommit.setCommitter(committer);
+	        if (squash)
+	        	mergedCommit.setParentId(target);
+	        else
+	        	mergedCommit.setParentIds(target, source);
+	        mergedCommit.setMessage(commitMessage);
+	        mergedCommit.setTreeId(mergedTreeId);
+	        ObjectId mergedCommitId = inserter.insert(mergedCommit);
+	        inserter.flush();
+	        return mergedCommitId;
     	} catch (IOException e) {
     		throw new RuntimeException(e);
 		}
@@ -0,0 +1,44 @@
+package io.onedev.server.git;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import io.onedev.server.model.PullRequest;
+
+/**
+ * Calculates merge previews of pull requests on a dedicated thread pool. Results of merging 
+ * the same head commit into the same target commit with the same strategy are cached and 
+ * shared across pull requests 
+ */
+public interface MergePreviewManager {
+
+	/**
+	 * Merge head commit of specified request into current head of its target branch with 
+	 * merge strategy of the request. Merge is done in memory without touching any working tree
+	 * 
+	 * @return
+	 * 			merged commit, or <tt>null</tt> if there are conflicts
+	 */
+	@Nullable
+	ObjectId merge(PullRequest request);
+	
+	/**
+	 * Calculate merge preview of specified request asynchronously if it is not up to date. 
+	 * Repeated calls for the same request before calculation starts are coalesced, and a 
+	 * request is never calculated by multiple threads at the same time
+	 * 
+	 * @param requestId
+	 * 			id of the request to calculate merge preview for
+	 * @param priority
+	 * 			priority of the calculation, smaller value means higher priority 
+	 */
+	void calculateAsync(Long requestId, int priority);
+	
+	/**
+	 * @return
+	 * 			statistics of merges calculated via {@link #merge(PullRequest)}
+	 */
+	MergeStatistics getStatistics();
+	
+}
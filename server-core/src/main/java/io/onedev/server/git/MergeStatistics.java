@@ -0,0 +1,64 @@
+package io.onedev.server.git;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulated statistics of merges calculated for pull request merge previews
+ */
+public class MergeStatistics {
+
+	private final AtomicLong hits = new AtomicLong(0);
+	
+	private final AtomicLong misses = new AtomicLong(0);
+	
+	private final AtomicLong millis = new AtomicLong(0);
+	
+	void record(boolean hit, long millis) {
+		if (hit)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		this.millis.addAndGet(millis);
+	}
+	
+	/**
+	 * @return
+	 * 			number of merges served from cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * @return
+	 * 			number of merges actually calculated
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public double getHitRate() {
+		long total = getHits() + getMisses();
+		return total != 0? getHits() * 1.0 / total: 0;
+	}
+
+	/**
+	 * @return
+	 * 			total time spent merging in milliseconds, including cache hits
+	 */
+	public long getMillis() {
+		return millis.get();
+	}
+	
+	public long getAverageMillis() {
+		long total = getHits() + getMisses();
+		return total != 0? getMillis() / total: 0;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d hits, %d misses, hit rate %.1f%%, %d ms on average", 
+				getHits(), getMisses(), getHitRate()*100, getAverageMillis());
+	}
+	
+}
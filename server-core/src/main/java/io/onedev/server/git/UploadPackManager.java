@@ -0,0 +1,43 @@
+package io.onedev.server.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Serves git upload pack (clone and fetch) over http, either by forking git, or in process 
+ * via JGit with generated packs cached for identical requests, depending on system setting 
+ */
+public interface UploadPackManager {
+	
+	enum Mode {FORKED, IN_PROCESS, CACHED}
+
+	/**
+	 * Write advertised refs for stateless upload pack
+	 */
+	void advertiseRefs(Repository repository, File gitDir, OutputStream output) throws IOException;
+	
+	/**
+	 * Serve a stateless upload pack request
+	 * 
+	 * @param repository
+	 * 			repository to upload from
+	 * @param gitDir
+	 * 			git directory of the repository, used when forking git
+	 * @param environments
+	 * 			environments passed to forked git
+	 * @param input
+	 * 			request body
+	 * @param output
+	 * 			response body
+	 */
+	void upload(Repository repository, File gitDir, Map<String, String> environments, 
+			InputStream input, OutputStream output) throws IOException;
+	
+	UploadStatistics getStatistics(Mode mode);
+	
+}
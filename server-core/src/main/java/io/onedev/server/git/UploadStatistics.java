@@ -0,0 +1,52 @@
+package io.onedev.server.git;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulated statistics of git uploads served with a particular mode
+ */
+public class UploadStatistics {
+
+	private final AtomicLong requests = new AtomicLong(0);
+	
+	private final AtomicLong bytes = new AtomicLong(0);
+	
+	private final AtomicLong millis = new AtomicLong(0);
+	
+	void record(long bytes, long millis) {
+		requests.incrementAndGet();
+		this.bytes.addAndGet(bytes);
+		this.millis.addAndGet(millis);
+	}
+	
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return
+	 * 			total bytes sent to clients
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * @return
+	 * 			total time spent serving requests in milliseconds
+	 */
+	public long getMillis() {
+		return millis.get();
+	}
+	
+	public long getAverageMillis() {
+		long requests = getRequests();
+		return requests != 0? getMillis() / requests: 0;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d requests, %d bytes, %d ms on average", getRequests(), getBytes(), getAverageMillis());
+	}
+	
+}
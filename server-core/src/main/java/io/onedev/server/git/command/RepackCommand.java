@@ -0,0 +1,46 @@
+package io.onedev.server.git.command;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.command.Commandline;
+import io.onedev.commons.utils.command.LineConsumer;
+
+/**
+ * Repack all objects into a single pack with bitmap index, so that counting objects 
+ * when serving clones and fetches can use the bitmap instead of walking the history
+ */
+public class RepackCommand extends GitCommand<Void> {
+
+	private static final Logger logger = LoggerFactory.getLogger(RepackCommand.class);
+	
+	public RepackCommand(File gitDir) {
+		super(gitDir);
+	}
+
+	@Override
+	public Void call() {
+		Commandline cmd = cmd();
+		cmd.addArgs("repack", "-a", "-d", "--write-bitmap-index");
+		cmd.execute(new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.trace(line);
+			}
+			
+		}, new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				logger.debug(line);
+			}
+			
+		}).checkReturnCode();
+		
+		return null;
+	}
+
+}
@@ -0,0 +1,36 @@
+package io.onedev.server.infomanager;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import io.onedev.server.model.Build;
+
+public interface BuildInfoManager {
+
+	/**
+	 * Get numbers of previous builds in stream of specified build, that is, builds of the same job 
+	 * running against first parent ancestors of build commit. 
+	 * 
+	 * @param build
+	 * 			build to get previous builds of
+	 * @param status
+	 * 			status of previous builds, <tt>null</tt> to match any status
+	 * @param limit
+	 * 			maximum number of builds to return
+	 * @return
+	 * 			numbers of previous builds in stream, ordered from nearest to farthest, or <tt>null</tt> 
+	 * 			if build info of the project is still being collected
+	 */
+	@Nullable
+	List<Long> getNumbersOfStreamPrevious(Build build, @Nullable Build.Status status, int limit);
+	
+	/**
+	 * Remove info of specified build. Builds removed as entities are handled automatically, 
+	 * this is only necessary for builds deleted in bulk
+	 */
+	void delete(Long projectId, String jobName, ObjectId commitId, long number);
+	
+}
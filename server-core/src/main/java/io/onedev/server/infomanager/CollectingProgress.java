@@ -0,0 +1,61 @@
+package io.onedev.server.infomanager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of commit information collection of a project
+ */
+public class CollectingProgress {
+
+	private final int total;
+
+	private final long startTime = System.currentTimeMillis();
+
+	private final AtomicInteger collected = new AtomicInteger(0);
+
+	public CollectingProgress(int total) {
+		this.total = total;
+	}
+
+	/**
+	 * @return
+	 * 			number of commits to be collected
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return
+	 * 			number of commits collected so far
+	 */
+	public int getCollected() {
+		return collected.get();
+	}
+
+	void increaseCollected(int count) {
+		collected.addAndGet(count);
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return
+	 * 			number of commits collected per second
+	 */
+	public double getThroughput() {
+		long elapsed = System.currentTimeMillis() - startTime;
+		if (elapsed != 0)
+			return collected.get() * 1000.0 / elapsed;
+		else
+			return 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d/%d commits, %.1f commits/s", getCollected(), getTotal(), getThroughput());
+	}
+
+}
@@ -0,0 +1,227 @@
+package io.onedev.server.infomanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.StringUtils;
+
+/**
+ * Aggregates commit counts of paths by users in parallel shards while commits are being
+ * parsed. Each shard has its own bounded queue and counting map, so that shards do not
+ * contend with each other, and memory used by pending commits is bounded. Counts of all
+ * shards are summed up when aggregation is finished, so that the caller only needs to
+ * resolve each distinct path once. 
+ * <p>
+ * Shards do not own threads. A shard with pending work is scheduled on the specified executor 
+ * which is shared by all aggregators, and drains its queue without ever blocking. Hence shards 
+ * of concurrent aggregations can not hold threads needed by each other, and the executor does 
+ * not need more threads than available processors. 
+ */
+public class CommitCountAggregator {
+
+	private static final int QUEUE_CAPACITY = 1000;
+
+	private final ExecutorService executorService;
+	
+	private final List<Shard> shards = new ArrayList<>();
+
+	private final AtomicReference<Exception> errorRef = new AtomicReference<>(null);
+
+	private volatile boolean stopped;
+	
+	private int nextShard;
+
+	/**
+	 * @param executorService
+	 * 			executor to run shards, can be shared by multiple aggregators
+	 * @param shards
+	 * 			number of shards
+	 */
+	public CommitCountAggregator(ExecutorService executorService, int shards) {
+		this.executorService = executorService;
+		for (int i=0; i<shards; i++)
+			this.shards.add(new Shard());
+	}
+
+	private void increase(Map<String, Map<Integer, Integer>> counts, String path, int userIndex) {
+		Map<Integer, Integer> countsOfPath = counts.get(path);
+		if (countsOfPath == null) {
+			countsOfPath = new HashMap<>();
+			counts.put(path, countsOfPath);
+		}
+		Integer count = countsOfPath.get(userIndex);
+		if (count != null)
+			countsOfPath.put(userIndex, count+1);
+		else
+			countsOfPath.put(userIndex, 1);
+	}
+
+	/**
+	 * Add paths touched by specified user in a commit. This method should be called from
+	 * a single thread
+	 *
+	 * @param userIndex
+	 * 			index of the user
+	 * @param paths
+	 * 			touched paths. Parent directories of these paths will be counted as well
+	 */
+	public void add(int userIndex, List<String> paths) {
+		if (errorRef.get() != null)
+			throw ExceptionUtils.unchecked(errorRef.get());
+		try {
+			shards.get(nextShard).add(new Work(userIndex, paths));
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		nextShard = (nextShard+1) % shards.size();
+	}
+
+	/**
+	 * Wait for all shards to drain their queues and sum up their counts. This should be called 
+	 * from the thread adding paths, after all paths are added
+	 *
+	 * @return
+	 * 			map of path to map of user index to commit count
+	 */
+	public Map<String, Map<Integer, Integer>> finish() {
+		try {
+			for (Shard shard: shards)
+				shard.await();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		if (errorRef.get() != null)
+			throw ExceptionUtils.unchecked(errorRef.get());
+
+		Map<String, Map<Integer, Integer>> counts = shards.get(0).counts;
+		for (int i=1; i<shards.size(); i++) {
+			for (Map.Entry<String, Map<Integer, Integer>> pathEntry: shards.get(i).counts.entrySet()) {
+				Map<Integer, Integer> countsOfPath = counts.get(pathEntry.getKey());
+				if (countsOfPath == null) {
+					counts.put(pathEntry.getKey(), pathEntry.getValue());
+				} else {
+					for (Map.Entry<Integer, Integer> userEntry: pathEntry.getValue().entrySet()) {
+						Integer count = countsOfPath.get(userEntry.getKey());
+						if (count != null)
+							countsOfPath.put(userEntry.getKey(), count + userEntry.getValue());
+						else
+							countsOfPath.put(userEntry.getKey(), userEntry.getValue());
+					}
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Discard pending work of all shards without waiting. This should be called in a finally 
+	 * block in case aggregation is not finished normally
+	 */
+	public void stop() {
+		stopped = true;
+		for (Shard shard: shards)
+			shard.queue.clear();
+	}
+
+	private class Shard implements Runnable {
+		
+		final BlockingQueue<Work> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		
+		final Map<String, Map<Integer, Integer>> counts = new HashMap<>();
+		
+		// Whether or not this shard is queued or running in executor
+		boolean scheduled;
+		
+		void add(Work work) throws InterruptedException {
+			queue.put(work);
+			schedule();
+		}
+		
+		synchronized void schedule() {
+			if (!scheduled) {
+				scheduled = true;
+				try {
+					executorService.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled = false;
+					throw e;
+				}
+			}
+		}
+		
+		synchronized void await() throws InterruptedException {
+			while (scheduled)
+				wait();
+		}
+		
+		@Override
+		public void run() {
+			while (true) {
+				Work work;
+				int drained = 0;
+				while (!stopped && drained++ < QUEUE_CAPACITY && (work = queue.poll()) != null) {
+					// Keep draining the queue on error so that producer does not block
+					if (errorRef.get() == null) {
+						try {
+							for (String path: work.paths) {
+								increase(counts, path, work.userIndex);
+								while (path.contains("/")) {
+									path = StringUtils.substringBeforeLast(path, "/");
+									increase(counts, path, work.userIndex);
+								}
+								increase(counts, "", work.userIndex);
+							}
+						} catch (Exception e) {
+							errorRef.compareAndSet(null, e);
+						}
+					}
+				}
+				/*
+				 * Only unschedule if queue is still empty while holding the lock. Otherwise work 
+				 * added after polling above might not get scheduled, as producer sees this shard 
+				 * as scheduled 
+				 */
+				synchronized (this) {
+					if (stopped || queue.isEmpty()) {
+						scheduled = false;
+						notifyAll();
+						return;
+					}
+				}
+				
+				// Yield to shards of other aggregations after draining a full queue
+				if (drained > QUEUE_CAPACITY) {
+					try {
+						executorService.execute(this);
+						return;
+					} catch (RejectedExecutionException e) {
+						// Executor is shutting down, continue draining in current thread
+					}
+				}
+			}
+		}
+		
+	}
+	
+	private static class Work {
+
+		final int userIndex;
+
+		final List<String> paths;
+
+		Work(int userIndex, List<String> paths) {
+			this.userIndex = userIndex;
+			this.paths = paths;
+		}
+
+	}
+
+}
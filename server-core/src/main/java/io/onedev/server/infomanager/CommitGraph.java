@@ -0,0 +1,662 @@
+package io.onedev.server.infomanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Append-only commit graph assigning each known commit a dense int position. Parent
+ * relations are kept in primitive arrays, and child relations are derived from them in
+ * CSR layout (offsets plus flat data array) so that ancestry walks do not need to touch
+ * Xodus or allocate an ObjectId per visited commit. Ancestors of commits are cached as
+ * compressed bitmaps at first parent checkpoints to answer reachability queries.
+ * <p>
+ * Graph is persisted as two append-only files:
+ * <ul>
+ * <li><tt>graph.ids</tt>: raw 20 bytes object id of each position
+ * <li><tt>graph.parents</tt>: records of <tt>[position, parent count, parent positions...]</tt>
+ * for each collected commit
+ * </ul>
+ * Caller is responsible to record lengths returned by {@link #flush()} in a transactional
+ * store and pass them back when opening the graph, so that data appended by an aborted
+ * collection is discarded.
+ */
+public class CommitGraph {
+
+	public static final String FILE_PREFIX = "graph.";
+	
+	private static final String IDS_FILE = FILE_PREFIX + "ids";
+
+	private static final String PARENTS_FILE = FILE_PREFIX + "parents";
+
+	private static final int ID_BYTES = 20;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final int CHECKPOINT_INTERVAL = 1000;
+
+	private static final int MAX_CACHED_BITMAPS = 10000;
+
+	private final File idsFile;
+
+	private final File parentsFile;
+
+	private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+	private byte[] ids;
+
+	private int size;
+
+	/*
+	 * Open addressing hash table mapping commit id to position. Each slot stores
+	 * position+1, and 0 means empty slot
+	 */
+	private int[] table;
+
+	/*
+	 * Start of parent record in parentData for each position, or -1 if commit at
+	 * this position is not collected yet
+	 */
+	private int[] parentStarts;
+
+	/*
+	 * Parent records of collected commits, each in form of [position, parent count, parent 
+	 * positions...]. This mirrors content of the parents file
+	 */
+	private int[] parentData;
+
+	private int parentDataSize;
+
+	private int[] childOffsets;
+
+	private int[] childData;
+
+	/*
+	 * Cached ancestor bitmaps of commits whose ancestors are all collected. Ancestors of 
+	 * such commits never change, so no invalidation is necessary except when the graph is 
+	 * reset 
+	 */
+	private final Map<Integer, RunLengthBitmap> ancestorBitmaps = 
+			new LinkedHashMap<Integer, RunLengthBitmap>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, RunLengthBitmap> eldest) {
+			return size() > MAX_CACHED_BITMAPS;
+		}
+		
+	};
+
+	private int flushedSize;
+
+	private int flushedParentDataSize;
+
+	/**
+	 * Open commit graph in specified directory
+	 *
+	 * @param dir
+	 * 			directory to hold graph files
+	 * @param committedSize
+	 * 			number of positions known to be committed, extra data in ids file will be discarded
+	 * @param committedParentDataSize
+	 * 			number of ints known to be committed in parents file, extra data will be discarded
+	 */
+	public CommitGraph(File dir, int committedSize, int committedParentDataSize) {
+		idsFile = new File(dir, IDS_FILE);
+		parentsFile = new File(dir, PARENTS_FILE);
+
+		ids = new byte[INITIAL_CAPACITY*ID_BYTES];
+		parentStarts = new int[INITIAL_CAPACITY];
+		parentData = new int[INITIAL_CAPACITY*2];
+		table = new int[INITIAL_CAPACITY*2];
+
+		try {
+			truncate(idsFile, (long)committedSize*ID_BYTES);
+			truncate(parentsFile, (long)committedParentDataSize*Integer.BYTES);
+
+			if (idsFile.exists() && idsFile.length() != 0) {
+				try (FileChannel channel = new RandomAccessFile(idsFile, "r").getChannel()) {
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					int count = (int) (channel.size()/ID_BYTES);
+					ensureCapacity(count);
+					buffer.get(ids, 0, count*ID_BYTES);
+					for (int i=0; i<count; i++) {
+						parentStarts[i] = -1;
+						size++;
+						insert(i);
+					}
+				}
+			}
+			if (parentsFile.exists() && parentsFile.length() != 0) {
+				try (FileChannel channel = new RandomAccessFile(parentsFile, "r").getChannel()) {
+					IntBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asIntBuffer();
+					while (buffer.remaining() >= 2) {
+						int position = buffer.get();
+						int parentCount = buffer.get();
+						int[] parents = new int[parentCount];
+						buffer.get(parents);
+						appendParents(position, parents);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		flushedSize = size;
+		flushedParentDataSize = parentDataSize;
+	}
+
+	private void truncate(File file, long length) throws IOException {
+		if (file.exists() && file.length() > length) {
+			try (FileChannel channel = new RandomAccessFile(file, "rw").getChannel()) {
+				channel.truncate(length);
+			}
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (parentStarts.length < capacity) {
+			int newCapacity = Math.max(capacity, parentStarts.length*2);
+			ids = Arrays.copyOf(ids, newCapacity*ID_BYTES);
+			int oldLength = parentStarts.length;
+			parentStarts = Arrays.copyOf(parentStarts, newCapacity);
+			Arrays.fill(parentStarts, oldLength, newCapacity, -1);
+		}
+		if (table.length < capacity*2) {
+			table = new int[Integer.highestOneBit(capacity)*4];
+			for (int i=0; i<size; i++)
+				insert(i);
+		}
+	}
+
+	private int hash(byte[] bytes, int offset) {
+		return NB.decodeInt32(bytes, offset+ID_BYTES-Integer.BYTES) & (table.length-1);
+	}
+
+	private void insert(int position) {
+		int slot = hash(ids, position*ID_BYTES);
+		while (table[slot] != 0)
+			slot = (slot+1) & (table.length-1);
+		table[slot] = position+1;
+	}
+
+	private int lookup(byte[] idBytes) {
+		int slot = hash(idBytes, 0);
+		while (table[slot] != 0) {
+			int position = table[slot]-1;
+			int offset = position*ID_BYTES;
+			boolean equals = true;
+			for (int i=0; i<ID_BYTES; i++) {
+				if (ids[offset+i] != idBytes[i]) {
+					equals = false;
+					break;
+				}
+			}
+			if (equals)
+				return position;
+			slot = (slot+1) & (table.length-1);
+		}
+		return -1;
+	}
+
+	private int getOrAddPosition(AnyObjectId id) {
+		byte[] idBytes = new byte[ID_BYTES];
+		id.copyRawTo(idBytes, 0);
+		int position = lookup(idBytes);
+		if (position == -1) {
+			ensureCapacity(size+1);
+			position = size++;
+			System.arraycopy(idBytes, 0, ids, position*ID_BYTES, ID_BYTES);
+			parentStarts[position] = -1;
+			insert(position);
+		}
+		return position;
+	}
+
+	private void appendParents(int position, int[] parents) {
+		int required = parentDataSize + parents.length + 2;
+		if (parentData.length < required)
+			parentData = Arrays.copyOf(parentData, Math.max(required, parentData.length*2));
+		parentStarts[position] = parentDataSize;
+		parentData[parentDataSize++] = position;
+		parentData[parentDataSize++] = parents.length;
+		for (int parent: parents)
+			parentData[parentDataSize++] = parent;
+		childOffsets = null;
+		childData = null;
+	}
+
+	/**
+	 * Get position of specified commit
+	 *
+	 * @return
+	 * 			position of specified commit, or <tt>-1</tt> if commit is unknown to this graph
+	 */
+	public int getPosition(AnyObjectId id) {
+		byte[] idBytes = new byte[ID_BYTES];
+		id.copyRawTo(idBytes, 0);
+		rwLock.readLock().lock();
+		try {
+			return lookup(idBytes);
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	public ObjectId getId(int position) {
+		rwLock.readLock().lock();
+		try {
+			return ObjectId.fromRaw(ids, position*ID_BYTES);
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		rwLock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	public boolean isCollected(AnyObjectId id) {
+		byte[] idBytes = new byte[ID_BYTES];
+		id.copyRawTo(idBytes, 0);
+		rwLock.readLock().lock();
+		try {
+			int position = lookup(idBytes);
+			return position != -1 && parentStarts[position] != -1;
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Add a collected commit along with its parents. Parents not seen before will
+	 * be assigned positions but remain uncollected until added themselves
+	 *
+	 * @return
+	 * 			<tt>true</tt> if commit is added, or <tt>false</tt> if it is already collected
+	 */
+	public boolean add(AnyObjectId id, Collection<? extends AnyObjectId> parentIds) {
+		rwLock.writeLock().lock();
+		try {
+			int position = getOrAddPosition(id);
+			if (parentStarts[position] == -1) {
+				int[] parents = new int[parentIds.size()];
+				int index = 0;
+				for (AnyObjectId parentId: parentIds)
+					parents[index++] = getOrAddPosition(parentId);
+				appendParents(position, parents);
+				return true;
+			} else {
+				return false;
+			}
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get parent positions of commit at specified position
+	 *
+	 * @return
+	 * 			parent positions, or <tt>null</tt> if commit at specified position is not collected
+	 */
+	@Nullable
+	public int[] getParents(int position) {
+		rwLock.readLock().lock();
+		try {
+			int start = parentStarts[position];
+			if (start != -1)
+				return Arrays.copyOfRange(parentData, start+2, start+2+parentData[start+1]);
+			else
+				return null;
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Build child relations in CSR layout via counting sort over parent records
+	 */
+	private void buildChildren() {
+		int[] offsets = new int[size+1];
+		for (int position=0; position<size; position++) {
+			int start = parentStarts[position];
+			if (start != -1) {
+				for (int i=start+2; i<start+2+parentData[start+1]; i++)
+					offsets[parentData[i]+1]++;
+			}
+		}
+		for (int i=0; i<size; i++)
+			offsets[i+1] += offsets[i];
+		int[] data = new int[offsets[size]];
+		int[] fills = Arrays.copyOf(offsets, size);
+		for (int position=0; position<size; position++) {
+			int start = parentStarts[position];
+			if (start != -1) {
+				for (int i=start+2; i<start+2+parentData[start+1]; i++)
+					data[fills[parentData[i]]++] = position;
+			}
+		}
+		childOffsets = offsets;
+		childData = data;
+	}
+
+	private void ensureChildren() {
+		if (childOffsets == null) {
+			rwLock.readLock().unlock();
+			rwLock.writeLock().lock();
+			try {
+				if (childOffsets == null)
+					buildChildren();
+			} finally {
+				rwLock.readLock().lock();
+				rwLock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Get all descendants of specified commits, including specified commits themselves
+	 */
+	public Set<ObjectId> getDescendants(Collection<ObjectId> ancestors) {
+		Set<ObjectId> descendants = new HashSet<>(ancestors);
+		rwLock.readLock().lock();
+		try {
+			ensureChildren();
+			int[] offsets = childOffsets;
+			int[] data = childData;
+			int[] stack = new int[16];
+			int top = 0;
+			BitSet visited = new BitSet(size);
+			byte[] idBytes = new byte[ID_BYTES];
+			for (ObjectId ancestor: ancestors) {
+				ancestor.copyRawTo(idBytes, 0);
+				int position = lookup(idBytes);
+				if (position != -1 && !visited.get(position)) {
+					visited.set(position);
+					if (top == stack.length)
+						stack = Arrays.copyOf(stack, top*2);
+					stack[top++] = position;
+				}
+			}
+
+			Collection<Integer> found = new ArrayList<>();
+			while (top != 0) {
+				int current = stack[--top];
+				for (int i=offsets[current]; i<offsets[current+1]; i++) {
+					int child = data[i];
+					if (!visited.get(child)) {
+						visited.set(child);
+						found.add(child);
+						if (top == stack.length)
+							stack = Arrays.copyOf(stack, top*2);
+						stack[top++] = child;
+					}
+				}
+			}
+			for (int position: found)
+				descendants.add(ObjectId.fromRaw(ids, position*ID_BYTES));
+		} finally {
+			rwLock.readLock().unlock();
+		}
+		return descendants;
+	}
+
+	private int getFirstParent(int position) {
+		int start = parentStarts[position];
+		if (start != -1 && parentData[start+1] != 0)
+			return parentData[start+2];
+		else
+			return -1;
+	}
+	
+	@Nullable
+	private RunLengthBitmap getCachedBitmap(int position) {
+		synchronized (ancestorBitmaps) {
+			return ancestorBitmaps.get(position);
+		}
+	}
+	
+	private void cacheBitmap(int position, RunLengthBitmap bitmap) {
+		synchronized (ancestorBitmaps) {
+			ancestorBitmaps.put(position, bitmap);
+		}
+	}
+	
+	/*
+	 * Calculate ancestors (including itself) of commit at specified position by walking parents. 
+	 * Walking stops at commits with cached ancestor bitmaps, whose bitmaps are merged instead. 
+	 * Return null if some ancestors are not collected 
+	 */
+	@Nullable
+	private BitSet calcAncestors(int position) {
+		BitSet ancestors = new BitSet();
+		int[] stack = new int[16];
+		int top = 0;
+		ancestors.set(position);
+		stack[top++] = position;
+		while (top != 0) {
+			int current = stack[--top];
+			int start = parentStarts[current];
+			if (start == -1)
+				return null;
+			for (int i=start+2; i<start+2+parentData[start+1]; i++) {
+				int parent = parentData[i];
+				if (!ancestors.get(parent)) {
+					RunLengthBitmap bitmap = getCachedBitmap(parent);
+					if (bitmap != null) {
+						bitmap.orInto(ancestors);
+					} else {
+						ancestors.set(parent);
+						if (top == stack.length)
+							stack = Arrays.copyOf(stack, top*2);
+						stack[top++] = parent;
+					}
+				}
+			}
+		}
+		return ancestors;
+	}
+	
+	/*
+	 * Get ancestor bitmap of commit at specified position. Bitmaps are calculated and cached 
+	 * for checkpoints along the first parent chain from oldest to newest, so that each walk 
+	 * only needs to go as far as the previous checkpoint. Return null if some ancestors 
+	 * are not collected
+	 */
+	@Nullable
+	private RunLengthBitmap getAncestorBitmap(int position) {
+		RunLengthBitmap bitmap = getCachedBitmap(position);
+		if (bitmap == null) {
+			List<Integer> checkpoints = new ArrayList<>();
+			int current = getFirstParent(position);
+			int steps = 1;
+			while (current != -1 && getCachedBitmap(current) == null) {
+				if (steps % CHECKPOINT_INTERVAL == 0)
+					checkpoints.add(current);
+				current = getFirstParent(current);
+				steps++;
+			}
+			for (int i=checkpoints.size()-1; i>=0; i--) {
+				BitSet ancestors = calcAncestors(checkpoints.get(i));
+				if (ancestors != null)
+					cacheBitmap(checkpoints.get(i), new RunLengthBitmap(ancestors));
+				else
+					return null;
+			}
+			BitSet ancestors = calcAncestors(position);
+			if (ancestors != null) {
+				bitmap = new RunLengthBitmap(ancestors);
+				cacheBitmap(position, bitmap);
+			}
+		}
+		return bitmap;
+	}
+	
+	/*
+	 * Walk collected parents from tip to see if base can be reached
+	 */
+	private boolean isReachable(int basePosition, int tipPosition) {
+		int[] stack = new int[16];
+		int top = 0;
+		BitSet visited = new BitSet(size);
+		visited.set(tipPosition);
+		stack[top++] = tipPosition;
+		while (top != 0) {
+			int current = stack[--top];
+			int start = parentStarts[current];
+			if (start != -1) {
+				for (int i=start+2; i<start+2+parentData[start+1]; i++) {
+					int parent = parentData[i];
+					if (parent == basePosition)
+						return true;
+					if (!visited.get(parent)) {
+						visited.set(parent);
+						if (top == stack.length)
+							stack = Arrays.copyOf(stack, top*2);
+						stack[top++] = parent;
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Check whether or not specified base commit is reachable from specified tip commit. 
+	 * Ancestors of the tip commit are resolved into a compressed bitmap, which is cached 
+	 * for subsequent checks
+	 *
+	 * @return
+	 * 			<tt>null</tt> if answer can not be determined by this graph, for instance
+	 * 			some ancestors of the tip commit are not collected yet
+	 */
+	@Nullable
+	public Boolean isMergedInto(AnyObjectId base, AnyObjectId tip) {
+		byte[] idBytes = new byte[ID_BYTES];
+		rwLock.readLock().lock();
+		try {
+			base.copyRawTo(idBytes, 0);
+			int basePosition = lookup(idBytes);
+			tip.copyRawTo(idBytes, 0);
+			int tipPosition = lookup(idBytes);
+			if (tipPosition == -1)
+				return null;
+			if (basePosition == tipPosition)
+				return true;
+			
+			RunLengthBitmap ancestors = getAncestorBitmap(tipPosition);
+			if (ancestors != null) 
+				return basePosition != -1 && ancestors.get(basePosition);
+			else if (basePosition != -1 && isReachable(basePosition, tipPosition))
+				return true;
+			else
+				return null;
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Discard data added after specified sizes
+	 * 
+	 * @param sizes
+	 * 			array of graph size and parent data size, as returned by {@link #flush()}
+	 */
+	public void reset(int[] sizes) {
+		rwLock.writeLock().lock();
+		try {
+			if (size != sizes[0] || parentDataSize != sizes[1]) {
+				for (int position=0; position<sizes[0]; position++) {
+					if (parentStarts[position] >= sizes[1])
+						parentStarts[position] = -1;
+				}
+				size = sizes[0];
+				parentDataSize = sizes[1];
+				flushedSize = Math.min(flushedSize, size);
+				flushedParentDataSize = Math.min(flushedParentDataSize, parentDataSize);
+				Arrays.fill(table, 0);
+				for (int i=0; i<size; i++)
+					insert(i);
+				childOffsets = null;
+				childData = null;
+				
+				// Positions might be assigned to other commits later
+				synchronized (ancestorBitmaps) {
+					ancestorBitmaps.clear();
+				}
+			}
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Append data added since last flush to graph files. Only the thread adding commits 
+	 * should call this method
+	 *
+	 * @return
+	 * 			array of flushed size and flushed parent data size, which should be recorded
+	 * 			transactionally and passed back when open the graph next time
+	 */
+	public int[] flush() {
+		rwLock.readLock().lock();
+		try {
+			if (size != flushedSize) {
+				try (FileChannel channel = new RandomAccessFile(idsFile, "rw").getChannel()) {
+					channel.position((long)flushedSize*ID_BYTES);
+					ByteBuffer buffer = ByteBuffer.wrap(ids, flushedSize*ID_BYTES, (size-flushedSize)*ID_BYTES);
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+					channel.force(false);
+				}
+			}
+			if (parentDataSize != flushedParentDataSize) {
+				ByteBuffer buffer = ByteBuffer.allocate((parentDataSize-flushedParentDataSize)*Integer.BYTES);
+				buffer.asIntBuffer().put(parentData, flushedParentDataSize, parentDataSize-flushedParentDataSize);
+				try (FileChannel channel = new RandomAccessFile(parentsFile, "rw").getChannel()) {
+					channel.position((long)flushedParentDataSize*Integer.BYTES);
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+					channel.force(false);
+				}
+			}
+			flushedSize = size;
+			flushedParentDataSize = parentDataSize;
+			return new int[] {flushedSize, flushedParentDataSize};
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+}
@@ -4,6 +4,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.eclipse.jgit.lib.ObjectId;
 
 import io.onedev.server.git.Contribution;
@@ -36,6 +38,33 @@ public interface CommitInfoManager {
 	 */
 	Collection<ObjectId> getDescendants(Project project, Collection<ObjectId> ancestors);
 	
+	/**
+	 * Check whether or not base commit is merged into tip commit. Collected commit graph is 
+	 * used to answer the question if possible, otherwise git repository will be consulted
+	 * 
+	 * @param project
+	 * 			project to check commits in
+	 * @param base
+	 * 			base commit
+	 * @param tip
+	 * 			tip commit
+	 * @return
+	 * 			whether or not base commit is ancestor of or equal to tip commit
+	 */
+	boolean isMergedInto(Project project, ObjectId base, ObjectId tip);
+	
+	/**
+	 * Get progress of commit information collection
+	 * 
+	 * @param project
+	 * 			project to get collecting progress
+	 * @return
+	 * 			collecting progress, or <tt>null</tt> if commit information of the project 
+	 * 			is not being collected
+	 */
+	@Nullable
+	CollectingProgress getCollectingProgress(Project project);
+	
 	void cloneInfo(Project from, Project to);
 	
 	Collection<String> getHistoryPaths(Project project, String path);
@@ -0,0 +1,411 @@
+package io.onedev.server.infomanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.hibernate.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.build.BuildEvent;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.model.Build;
+import io.onedev.server.model.Build.Status;
+import io.onedev.server.model.Project;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.storage.StorageManager;
+import io.onedev.server.util.concurrent.Prioritized;
+import io.onedev.server.util.work.BatchWorkManager;
+import io.onedev.server.util.work.BatchWorker;
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.Transaction;
+import jetbrains.exodus.env.TransactionalComputable;
+import jetbrains.exodus.env.TransactionalExecutable;
+
+/**
+ * Maintains builds of each job by commit, so that previous builds in stream can be found by
+ * walking first parents of build commit and looking up builds of each visited commit, instead
+ * of loading all earlier builds of the job from database.
+ */
+@Singleton
+public class DefaultBuildInfoManager extends AbstractEnvironmentManager implements BuildInfoManager {
+
+	private static final int INFO_VERSION = 1;
+
+	private static final int BATCH_SIZE = 5000;
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultBuildInfoManager.class);
+
+	private static final String INFO_DIR = "build";
+
+	private static final String DEFAULT_STORE = "default";
+
+	private static final String STREAM_STORE = "stream";
+
+	private static final ByteIterable LAST_BUILD_KEY = new StringByteIterable("lastBuild");
+
+	private static final ByteIterable COLLECTED_KEY = new StringByteIterable("collected");
+
+	// build number followed by status ordinal
+	private static final int ENTRY_SIZE = Long.BYTES + 1;
+
+	private static final int PRIORITY = 100;
+
+	private final StorageManager storageManager;
+
+	private final BatchWorkManager batchWorkManager;
+
+	private final ProjectManager projectManager;
+
+	private final SessionManager sessionManager;
+
+	private final TransactionManager transactionManager;
+
+	private final Dao dao;
+
+	@Inject
+	public DefaultBuildInfoManager(StorageManager storageManager, BatchWorkManager batchWorkManager,
+			ProjectManager projectManager, SessionManager sessionManager,
+			TransactionManager transactionManager, Dao dao) {
+		this.storageManager = storageManager;
+		this.batchWorkManager = batchWorkManager;
+		this.projectManager = projectManager;
+		this.sessionManager = sessionManager;
+		this.transactionManager = transactionManager;
+		this.dao = dao;
+	}
+
+	private BatchWorker getBatchWorker(Long projectId) {
+		return new BatchWorker("project-" + projectId + "-collectBuildInfo") {
+
+			@Override
+			public void doWorks(Collection<Prioritized> works) {
+				boolean hasMore;
+				do {
+					// do the work batch by batch to avoid consuming too much memory
+					hasMore = sessionManager.call(new Callable<Boolean>() {
+
+						@Override
+						public Boolean call() throws Exception {
+							return collect(projectId);
+						}
+
+					});
+				} while (hasMore);
+			}
+
+		};
+	}
+
+	private boolean collect(Long projectId) {
+		Environment env = getEnv(projectId.toString());
+		Store defaultStore = getStore(env, DEFAULT_STORE);
+		Store streamStore = getStore(env, STREAM_STORE);
+
+		boolean collected = env.computeInTransaction(new TransactionalComputable<Boolean>() {
+
+			@Override
+			public Boolean compute(Transaction txn) {
+				return readBoolean(defaultStore, txn, COLLECTED_KEY, false);
+			}
+
+		});
+		if (collected)
+			return false;
+
+		logger.debug("Collecting build info (project id: {})...", projectId);
+
+		Long lastBuildId = env.computeInTransaction(new TransactionalComputable<Long>() {
+
+			@Override
+			public Long compute(Transaction txn) {
+				return readLong(defaultStore, txn, LAST_BUILD_KEY, 0);
+			}
+
+		});
+
+		Query<?> query = dao.getSession().createQuery("select id, jobName, commitHash, number, status "
+				+ "from Build where project.id=:projectId and id>:lastBuildId order by id");
+		query.setParameter("projectId", projectId);
+		query.setParameter("lastBuildId", lastBuildId);
+		query.setMaxResults(BATCH_SIZE);
+		List<?> results = query.list();
+
+		env.executeInTransaction(new TransactionalExecutable() {
+
+			@Override
+			public void execute(Transaction txn) {
+				for (Object result: results) {
+					Object[] fields = (Object[]) result;
+					ByteIterable key = getStreamKey((String) fields[1], ObjectId.fromString((String) fields[2]));
+					byte[] entries = readBytes(streamStore, txn, key);
+					long number = (Long) fields[3];
+
+					// Do not override entry already written by build events as it is more recent
+					if (entries == null || indexOf(entries, number) == -1)
+						streamStore.put(txn, key, new ArrayByteIterable(putEntry(entries, number, (Status) fields[4])));
+				}
+				if (!results.isEmpty()) {
+					Object[] lastFields = (Object[]) results.get(results.size()-1);
+					defaultStore.put(txn, LAST_BUILD_KEY, new LongByteIterable((Long) lastFields[0]));
+				}
+				if (results.size() < BATCH_SIZE)
+					writeBoolean(defaultStore, txn, COLLECTED_KEY, true);
+			}
+
+		});
+
+		logger.debug("Collected build info (project id: {})", projectId);
+
+		return results.size() == BATCH_SIZE;
+	}
+
+	private ByteIterable getStreamKey(String jobName, ObjectId commitId) {
+		byte[] jobNameBytes = jobName.getBytes(StandardCharsets.UTF_8);
+		byte[] keyBytes = new byte[Constants.OBJECT_ID_LENGTH + jobNameBytes.length];
+		commitId.copyRawTo(keyBytes, 0);
+		System.arraycopy(jobNameBytes, 0, keyBytes, Constants.OBJECT_ID_LENGTH, jobNameBytes.length);
+		return new ArrayByteIterable(keyBytes);
+	}
+
+	private int indexOf(byte[] entries, long number) {
+		ByteBuffer buffer = ByteBuffer.wrap(entries);
+		for (int i=0; i<entries.length/ENTRY_SIZE; i++) {
+			if (buffer.getLong(i*ENTRY_SIZE) == number)
+				return i;
+		}
+		return -1;
+	}
+
+	private byte[] putEntry(@Nullable byte[] entries, long number, Status status) {
+		int index = entries != null? indexOf(entries, number): -1;
+		byte[] newEntries;
+		if (index != -1) {
+			newEntries = entries.clone();
+		} else if (entries != null) {
+			index = entries.length / ENTRY_SIZE;
+			newEntries = new byte[entries.length + ENTRY_SIZE];
+			System.arraycopy(entries, 0, newEntries, 0, entries.length);
+		} else {
+			index = 0;
+			newEntries = new byte[ENTRY_SIZE];
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(newEntries);
+		buffer.putLong(index*ENTRY_SIZE, number);
+		buffer.put(index*ENTRY_SIZE + Long.BYTES, (byte) status.ordinal());
+		return newEntries;
+	}
+
+	private byte[] removeEntry(byte[] entries, long number) {
+		int index = indexOf(entries, number);
+		if (index != -1) {
+			byte[] newEntries = new byte[entries.length - ENTRY_SIZE];
+			System.arraycopy(entries, 0, newEntries, 0, index*ENTRY_SIZE);
+			System.arraycopy(entries, (index+1)*ENTRY_SIZE, newEntries, index*ENTRY_SIZE,
+					newEntries.length - index*ENTRY_SIZE);
+			return newEntries;
+		} else {
+			return entries;
+		}
+	}
+
+	@Override
+	public List<Long> getNumbersOfStreamPrevious(Build build, Status status, int limit) {
+		Environment env = getEnv(build.getProject().getId().toString());
+		Store defaultStore = getStore(env, DEFAULT_STORE);
+		Store streamStore = getStore(env, STREAM_STORE);
+
+		return env.computeInReadonlyTransaction(new TransactionalComputable<List<Long>>() {
+
+			@Override
+			public List<Long> compute(Transaction txn) {
+				if (!readBoolean(defaultStore, txn, COLLECTED_KEY, false))
+					return null;
+
+				List<Long> prevBuildNumbers = new ArrayList<>();
+				try (RevWalk revWalk = new RevWalk(build.getProject().getRepository())) {
+					RevCommit current = revWalk.lookupCommit(build.getCommitId());
+					revWalk.parseHeaders(current);
+					while (current.getParentCount() != 0) {
+						RevCommit firstParent = current.getParent(0);
+						byte[] entries = readBytes(streamStore, txn, getStreamKey(build.getJobName(), firstParent));
+						if (entries != null) {
+							// Take the latest matching build if there are multiple builds of the commit
+							long prevBuildNumber = 0;
+							ByteBuffer buffer = ByteBuffer.wrap(entries);
+							for (int i=0; i<entries.length/ENTRY_SIZE; i++) {
+								long number = buffer.getLong(i*ENTRY_SIZE);
+								Status statusOfNumber = Status.values()[buffer.get(i*ENTRY_SIZE + Long.BYTES)];
+								if (number < build.getNumber() && number > prevBuildNumber
+										&& (status == null || status == statusOfNumber)) {
+									prevBuildNumber = number;
+								}
+							}
+							if (prevBuildNumber != 0) {
+								prevBuildNumbers.add(prevBuildNumber);
+								if (prevBuildNumbers.size() >= limit)
+									break;
+							}
+						}
+						current = firstParent;
+						revWalk.parseHeaders(current);
+					}
+				} catch (MissingObjectException e) {
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				return prevBuildNumbers;
+			}
+
+		});
+	}
+
+	@Transactional
+	@Listen
+	public void on(BuildEvent event) {
+		Build build = event.getBuild();
+		Long projectId = build.getProject().getId();
+		ByteIterable key = getStreamKey(build.getJobName(), build.getCommitId());
+		long number = build.getNumber();
+		Status status = build.getStatus();
+		transactionManager.runAfterCommit(new Runnable() {
+
+			@Override
+			public void run() {
+				Environment env = getEnv(projectId.toString());
+				Store streamStore = getStore(env, STREAM_STORE);
+				env.executeInTransaction(new TransactionalExecutable() {
+
+					@Override
+					public void execute(Transaction txn) {
+						byte[] entries = readBytes(streamStore, txn, key);
+						streamStore.put(txn, key, new ArrayByteIterable(putEntry(entries, number, status)));
+					}
+
+				});
+			}
+
+		});
+	}
+
+	@Transactional
+	@Listen
+	public void on(EntityPersisted event) {
+		if (event.isNew() && event.getEntity() instanceof Project) {
+			Long projectId = event.getEntity().getId();
+			transactionManager.runAfterCommit(new Runnable() {
+
+				@Override
+				public void run() {
+					// New project does not have any builds to collect
+					Environment env = getEnv(projectId.toString());
+					Store defaultStore = getStore(env, DEFAULT_STORE);
+					env.executeInTransaction(new TransactionalExecutable() {
+
+						@Override
+						public void execute(Transaction txn) {
+							writeBoolean(defaultStore, txn, COLLECTED_KEY, true);
+						}
+
+					});
+				}
+
+			});
+		}
+	}
+
+	@Transactional
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) {
+			Long projectId = event.getEntity().getId();
+			removeEnv(projectId.toString());
+		} else if (event.getEntity() instanceof Build) {
+			Build build = (Build) event.getEntity();
+			Long projectId = build.getProject().getId();
+			String jobName = build.getJobName();
+			ObjectId commitId = build.getCommitId();
+			long number = build.getNumber();
+			transactionManager.runAfterCommit(new Runnable() {
+
+				@Override
+				public void run() {
+					delete(projectId, jobName, commitId, number);
+				}
+
+			});
+		}
+	}
+
+	@Override
+	public void delete(Long projectId, String jobName, ObjectId commitId, long number) {
+		Environment env = getEnv(projectId.toString());
+		Store streamStore = getStore(env, STREAM_STORE);
+		ByteIterable key = getStreamKey(jobName, commitId);
+		env.executeInTransaction(new TransactionalExecutable() {
+
+			@Override
+			public void execute(Transaction txn) {
+				byte[] entries = readBytes(streamStore, txn, key);
+				if (entries != null) {
+					entries = removeEntry(entries, number);
+					if (entries.length != 0)
+						streamStore.put(txn, key, new ArrayByteIterable(entries));
+					else
+						streamStore.delete(txn, key);
+				}
+			}
+
+		});
+	}
+
+	@Sessional
+	@Listen
+	public void on(SystemStarted event) {
+		for (Project project: projectManager.query()) {
+			checkVersion(project.getId().toString());
+			batchWorkManager.submit(getBatchWorker(project.getId()), new Prioritized(PRIORITY));
+		}
+	}
+
+	@Override
+	protected File getEnvDir(String envKey) {
+		File infoDir = new File(storageManager.getProjectInfoDir(Long.valueOf(envKey)), INFO_DIR);
+		if (!infoDir.exists())
+			FileUtils.createDir(infoDir);
+		return infoDir;
+	}
+
+	@Override
+	protected int getEnvVersion() {
+		return INFO_VERSION;
+	}
+
+}
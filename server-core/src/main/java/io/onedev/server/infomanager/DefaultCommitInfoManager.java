@@ -16,12 +16,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -46,8 +48,10 @@ import io.onedev.commons.utils.PathUtils;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
 import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.git.Contribution;
 import io.onedev.server.git.Contributor;
 import io.onedev.server.git.GitUtils;
@@ -66,7 +70,7 @@ import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.Day;
 import io.onedev.server.util.ElementPumper;
 import io.onedev.server.util.IssueUtils;
-import io.onedev.server.util.Pair;
+import io.onedev.server.util.concurrent.ParallelUtils;
 import io.onedev.server.util.concurrent.Prioritized;
 import io.onedev.server.util.work.BatchWorkManager;
 import io.onedev.server.util.work.BatchWorker;
@@ -75,6 +79,7 @@ import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.backup.BackupStrategy;
 import jetbrains.exodus.backup.BackupStrategy.FileDescriptor;
 import jetbrains.exodus.backup.VirtualFileDescriptor;
+import jetbrains.exodus.env.Cursor;
 import jetbrains.exodus.env.Environment;
 import jetbrains.exodus.env.Store;
 import jetbrains.exodus.env.Transaction;
@@ -86,7 +91,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultCommitInfoManager.class);
 	
-	private static final int INFO_VERSION = 8;
+	private static final int INFO_VERSION = 10;
 	
 	private static final long LOG_FILE_SIZE = 256*1024;
 	
@@ -96,12 +101,12 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private static final int MAX_HISTORY_PATHS = 100;
 	
+	private static final int PUMP_CAPACITY = 1000;
+	
 	private static final String INFO_DIR = "commit";
 	
 	private static final String DEFAULT_STORE = "default";
 	
-	private static final String COMMITS_STORE = "commits";
-	
 	private static final String FIX_COMMITS_STORE = "fixCommits";
 	
 	private static final String COMMIT_COUNTS_STORE = "commitCounts";
@@ -118,6 +123,12 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private static final String DAILY_CONTRIBUTIONS_STORE = "dailyContributions";
 	
+	private static final String USERS_STORE = "users";
+	
+	private static final String FILES_STORE = "files";
+	
+	private static final String FILE_TIMES_STORE = "fileTimes";
+	
 	private static final ByteIterable NEXT_PATH_INDEX_KEY = new StringByteIterable("nextPathIndex");
 	
 	private static final ByteIterable NEXT_USER_INDEX_KEY = new StringByteIterable("nextUserIndex");
@@ -128,16 +139,18 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private static final ByteIterable LINE_STATS_KEY = new StringByteIterable("lineStats");
 	
-	private static final ByteIterable USERS_KEY = new StringByteIterable("users");
-	
-	private static final ByteIterable FILES_KEY = new StringByteIterable("files");
-	
 	private static final ByteIterable OVERALL_CONTRIBUTIONS_KEY = new StringByteIterable("overallContributions");
 	
 	private static final ByteIterable COMMIT_COUNT_KEY = new StringByteIterable("commitCount");
 	
+	private static final ByteIterable GRAPH_SIZE_KEY = new StringByteIterable("graphSize");
+	
+	private static final ByteIterable GRAPH_PARENT_DATA_SIZE_KEY = new StringByteIterable("graphParentDataSize");
+	
 	private static final int PRIORITY = 100;
 	
+	private static final char USER_SEPARATOR = '\0';
+	
 	private static final Map<String, String> PROGRAMMING_LANGUAGES = new HashMap<>();
 	
 	static {
@@ -284,6 +297,14 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private final Map<Long, List<NameAndEmail>> usersCache = new ConcurrentHashMap<>();
 	
+	private final Map<Long, CommitGraph> commitGraphs = new ConcurrentHashMap<>();
+	
+	private final Map<Long, CollectingProgress> collectingProgresses = new ConcurrentHashMap<>();
+	
+	// Shared by commit count aggregators of all projects being collected
+	private final ExecutorService aggregatorExecutor = ParallelUtils.newExecutor(
+			"commit-count-aggregator", ParallelUtils.getConcurrency());
+	
 	@Inject
 	public DefaultCommitInfoManager(ProjectManager projectManager, StorageManager storageManager, 
 			BatchWorkManager batchWorkManager, SessionManager sessionManager) {
@@ -293,12 +314,32 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		this.sessionManager = sessionManager;
 	}
 	
-	private boolean isCommitCollected(byte[] commitBytes) {
-		/*
-		 * Collected commits stores an additional byte to differentiate from those not collected but with parent 
-		 * information stored 
-		 */
-		return commitBytes != null && commitBytes.length % 20 != 0;
+	private int[] readGraphSizes(Store defaultStore, Transaction txn) {
+		return new int[] {
+				readInt(defaultStore, txn, GRAPH_SIZE_KEY, 0), 
+				readInt(defaultStore, txn, GRAPH_PARENT_DATA_SIZE_KEY, 0)};
+	}
+	
+	private CommitGraph getCommitGraph(Long projectId) {
+		CommitGraph graph = commitGraphs.get(projectId);
+		if (graph == null) synchronized (commitGraphs) {
+			graph = commitGraphs.get(projectId);
+			if (graph == null) {
+				Environment env = getEnv(projectId.toString());
+				Store defaultStore = getStore(env, DEFAULT_STORE);
+				int[] graphSizes = env.computeInReadonlyTransaction(new TransactionalComputable<int[]>() {
+
+					@Override
+					public int[] compute(Transaction txn) {
+						return readGraphSizes(defaultStore, txn);
+					}
+					
+				});
+				graph = new CommitGraph(getEnvDir(projectId.toString()), graphSizes[0], graphSizes[1]);
+				commitGraphs.put(projectId, graph);
+			}
+		}
+		return graph;
 	}
 	
 	private void doCollect(Project project, ObjectId commitId, String refName) {
@@ -306,7 +347,6 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		
 		Environment env = getEnv(project.getId().toString());
 		Store defaultStore = getStore(env, DEFAULT_STORE);
-		Store commitsStore = getStore(env, COMMITS_STORE);
 		Store commitCountsStore = getStore(env, COMMIT_COUNTS_STORE); 
 		Store historyPathsStore = getStore(env, HISTORY_PATHS_STORE);
 		Store pathToIndexStore = getStore(env, PATH_TO_INDEX_STORE);
@@ -315,15 +355,19 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		Store indexToUserStore = getStore(env, INDEX_TO_USER_STORE);
 		Store fixCommitsStore = getStore(env, FIX_COMMITS_STORE);
 		Store dailyContributionsStore = getStore(env, DAILY_CONTRIBUTIONS_STORE);	
+		Store usersStore = getStore(env, USERS_STORE);
+		Store filesStore = getStore(env, FILES_STORE);
+		Store fileTimesStore = getStore(env, FILE_TIMES_STORE);
 		
 		Repository repository = project.getRepository();
+		CommitGraph graph = getCommitGraph(project.getId());
 
-		Pair<byte[], ObjectId> result = env.computeInTransaction(new TransactionalComputable<Pair<byte[], ObjectId>>() {
+		ObjectId lastCollectedCommitId = env.computeInTransaction(new TransactionalComputable<ObjectId>() {
 			
 			@Override
-			public Pair<byte[], ObjectId> compute(Transaction txn) {
-				ByteIterable commitKey = new CommitByteIterable(commitId);
-				byte[] commitBytes = readBytes(commitsStore, txn, commitKey);
+			public ObjectId compute(Transaction txn) {
+				// Discard graph data left over by previous failed collection
+				graph.reset(readGraphSizes(defaultStore, txn));
 				
 				ObjectId lastCommitId;
 				byte[] lastCommitBytes = readBytes(defaultStore, txn, LAST_COMMIT_KEY);
@@ -335,12 +379,12 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 					lastCommitId = null;
 				}
 				
-				return new Pair<>(commitBytes, lastCommitId);
+				return lastCommitId;
 			}
 		});
 		
-		if (!isCommitCollected(result.getFirst())) {
-			AtomicReference<ObjectId> lastCommitIdRef = new AtomicReference<>(result.getSecond());
+		if (!graph.isCollected(commitId)) {
+			AtomicReference<ObjectId> lastCommitIdRef = new AtomicReference<>(lastCollectedCommitId);
 			RevListCommand revList = new RevListCommand(project.getGitDir());
 			List<String> revisions = new ArrayList<>();
 			revisions.add(commitId.name());
@@ -352,6 +396,9 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			for (String commitHash: revList.call()) 
 				historyIds.add(ObjectId.fromString(commitHash));
 			
+			CollectingProgress progress = new CollectingProgress(historyIds.size());
+			collectingProgresses.put(project.getId(), progress);
+			
 			revList = new RevListCommand(project.getGitDir());
 			revList.revisions(revisions).order(null).firstParent(true);
 			
@@ -387,222 +434,277 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			intermediateCommitIds.add(commitId);
 			
 			for(ObjectId intermediateCommitId: intermediateCommitIds) {
+				long batchStartTime = System.currentTimeMillis();
+				AtomicInteger batchCommitCount = new AtomicInteger(0);
 				env.executeInTransaction(new TransactionalExecutable() {
 					
-					@SuppressWarnings("unchecked")
 					@Override
 					public void execute(Transaction txn) {
+						/*
+						 * Xodus may execute the transaction again if it fails to flush, so we reset 
+						 * the graph to its committed state each time 
+						 */
+						graph.reset(readGraphSizes(defaultStore, txn));
+						batchCommitCount.set(0);
+						
 						AtomicInteger totalCommitCount = new AtomicInteger(readInt(defaultStore, txn, COMMIT_COUNT_KEY, 0));
 						
 						NextIndex nextIndex = new NextIndex();
 						nextIndex.user = readInt(defaultStore, txn, NEXT_USER_INDEX_KEY, 0);
 						nextIndex.path = readInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, 0);
 						
-						Map<Long, Integer> commitCountCache = new HashMap<>();
-						
-						Set<NameAndEmail> users;
-						byte[] userBytes = readBytes(defaultStore, txn, USERS_KEY);
-						if (userBytes != null)
-							users = (Set<NameAndEmail>) SerializationUtils.deserialize(userBytes);
-						else
-							users = new HashSet<>();
-
-						Map<String, Long> files;
-						byte[] fileBytes = readBytes(defaultStore, txn, FILES_KEY);
-						if (fileBytes != null)
-							files = (Map<String, Long>) SerializationUtils.deserialize(fileBytes);
-						else
-							files = new HashMap<>();
-
-						new ElementPumper<GitCommit>() {
-
-							@Override
-							public void generate(Consumer<GitCommit> consumer) {
-								List<String> revisions = new ArrayList<>();
-								revisions.add(intermediateCommitId.name());
-
-								if (lastCommitIdRef.get() != null)
-									revisions.add("^" + lastCommitIdRef.get().name());
-
-								EnumSet<LogCommand.Field> fields = EnumSet.allOf(LogCommand.Field.class);
-								fields.remove(LogCommand.Field.LINE_CHANGES);
-								new LogCommand(project.getGitDir()) {
+						// Users and files touched in this batch. They are merged into Xodus stores at end of the batch
+						Set<NameAndEmail> users = new HashSet<>();
+						Map<String, Long> files = new HashMap<>();
 
-									@Override
-									protected void consume(GitCommit commit) {
-										consumer.accept(commit);
-									}
+						Map<Long, List<ObjectId>> fixCommitsOfIssues = new HashMap<>();
+						
+						/*
+						 * Commit counts are aggregated in parallel shards while log is being parsed, 
+						 * and merged into Xodus after pumping, as Xodus transaction can only be 
+						 * accessed from current thread
+						 */
+						CommitCountAggregator commitCountAggregator = new CommitCountAggregator(
+								aggregatorExecutor, ParallelUtils.getConcurrency());
+						Map<String, Map<Integer, Integer>> commitCounts;
+						try {
+							new ElementPumper<GitCommit>(PUMP_CAPACITY) {
+
+								@Override
+								public void generate(Consumer<GitCommit> consumer) {
+									List<String> revisions = new ArrayList<>();
+									revisions.add(intermediateCommitId.name());
+
+									if (lastCommitIdRef.get() != null)
+										revisions.add("^" + lastCommitIdRef.get().name());
+
+									EnumSet<LogCommand.Field> fields = EnumSet.allOf(LogCommand.Field.class);
+									fields.remove(LogCommand.Field.LINE_CHANGES);
+									new LogCommand(project.getGitDir()) {
+
+										@Override
+										protected void consume(GitCommit commit) {
+											consumer.accept(commit);
+										}
 									
-								}.revisions(revisions).fields(fields).call();
-							}
+									}.revisions(revisions).fields(fields).call();
+								}
 
-							@Override
-							public void process(GitCommit currentCommit) {
-								ObjectId currentCommitId = ObjectId.fromString(currentCommit.getHash());
-								ByteIterable currentCommitKey = new CommitByteIterable(currentCommitId);
-								byte[] currentCommitBytes = readBytes(commitsStore, txn, currentCommitKey);
+								@Override
+								public void process(GitCommit currentCommit) {
+									ObjectId currentCommitId = ObjectId.fromString(currentCommit.getHash());
 								
-								if (!isCommitCollected(currentCommitBytes)) {
-									totalCommitCount.incrementAndGet();
-									
-									byte[] newCurrentCommitBytes;
-									if (currentCommitBytes == null) {
-										newCurrentCommitBytes = new byte[1];
-									} else {
-										newCurrentCommitBytes = new byte[1+currentCommitBytes.length];
-										System.arraycopy(currentCommitBytes, 0, newCurrentCommitBytes, 1, currentCommitBytes.length);
-									}
+									List<ObjectId> parentCommitIds = new ArrayList<>();
+									for (String parentCommitHash: currentCommit.getParentHashes()) 
+										parentCommitIds.add(ObjectId.fromString(parentCommitHash));
+								
+									if (graph.add(currentCommitId, parentCommitIds)) {
+										totalCommitCount.incrementAndGet();
+										batchCommitCount.incrementAndGet();
 									
-									commitsStore.put(txn, currentCommitKey, new ArrayByteIterable(newCurrentCommitBytes));
+										String commitMessage = currentCommit.getSubject();
+										if (currentCommit.getBody() != null)
+											commitMessage += "\n\n" + currentCommit.getBody();
 									
-									for (String parentCommitHash: currentCommit.getParentHashes()) {
-										ByteIterable parentCommitKey = new CommitByteIterable(ObjectId.fromString(parentCommitHash));
-										byte[] parentCommitBytes = readBytes(commitsStore, txn, parentCommitKey);
-										byte[] newParentCommitBytes;
-										if (parentCommitBytes != null) {
-											newParentCommitBytes = new byte[parentCommitBytes.length+20];
-											System.arraycopy(parentCommitBytes, 0, newParentCommitBytes, 0, parentCommitBytes.length);
-										} else {
-											newParentCommitBytes = new byte[20];
+										for (Long issueNumber: IssueUtils.parseFixedIssueNumbers(commitMessage)) {
+											List<ObjectId> fixCommitsOfIssue = fixCommitsOfIssues.get(issueNumber);
+											if (fixCommitsOfIssue == null) {
+												fixCommitsOfIssue = new ArrayList<>();
+												fixCommitsOfIssues.put(issueNumber, fixCommitsOfIssue);
+											}
+											fixCommitsOfIssue.add(currentCommitId);
 										}
-										currentCommitId.copyRawTo(newParentCommitBytes, newParentCommitBytes.length-20);
-										commitsStore.put(txn, parentCommitKey, new ArrayByteIterable(newParentCommitBytes));
-									}
 									
-									String commitMessage = currentCommit.getSubject();
-									if (currentCommit.getBody() != null)
-										commitMessage += "\n\n" + currentCommit.getBody();
-									
-									for (Long issueNumber: IssueUtils.parseFixedIssueNumbers(commitMessage)) {
-										ByteIterable issueKey = new LongByteIterable(issueNumber);
-										Collection<ObjectId> fixingCommits = readCommits(fixCommitsStore, txn, issueKey);
-										
-										boolean addNextCommit = true;
-										for (Iterator<ObjectId> it = fixingCommits.iterator(); it.hasNext();) {
-											ObjectId fixCommit = it.next();
-											if (GitUtils.isMergedInto(project.getRepository(), null, fixCommit, currentCommitId)) { 
-												it.remove();
-											} else if (GitUtils.isMergedInto(project.getRepository(), null, currentCommitId, fixCommit)) {
-												addNextCommit = false;
-												break;
+										if (currentCommit.getCommitDate() != null) {
+											long commitTime = currentCommit.getCommitDate().getTime();
+											for (String file: currentCommit.getChangedFiles()) {
+												Long fileTime = files.get(file);
+												if (fileTime == null || fileTime < commitTime)
+													files.put(file, commitTime);
 											}
 										}
-										if (addNextCommit)
-											fixingCommits.add(currentCommitId);
-										writeCommits(fixCommitsStore, txn, issueKey, fixingCommits);
-									}
-									
-									if (currentCommit.getCommitDate() != null) {
-										for (String file: currentCommit.getChangedFiles())
-											files.put(file, currentCommit.getCommitDate().getTime());
-									}
 									
-									if (currentCommit.getCommitter() != null)
-										users.add(new NameAndEmail(currentCommit.getCommitter()));
+										if (currentCommit.getCommitter() != null)
+											users.add(new NameAndEmail(currentCommit.getCommitter()));
 
-									if (currentCommit.getAuthor() != null) {
-										NameAndEmail nameAndEmail = new NameAndEmail(currentCommit.getAuthor());
-										users.add(nameAndEmail);
+										if (currentCommit.getAuthor() != null) {
+											NameAndEmail nameAndEmail = new NameAndEmail(currentCommit.getAuthor());
+											users.add(nameAndEmail);
 										
-										String emailAddress = currentCommit.getAuthor().getEmailAddress();
-										if (StringUtils.isNotBlank(emailAddress)) {
-											ByteIterable emailKey = new StringByteIterable(emailAddress);
-											int userIndex = readInt(emailToIndexStore, txn, emailKey, -1);
-											if (userIndex == -1) {
-												userIndex = nextIndex.user++;
-												writeInt(emailToIndexStore, txn, emailKey, userIndex);
-												indexToUserStore.put(txn, 
-														new IntByteIterable(userIndex), 
-														new ArrayByteIterable(SerializationUtils.serialize(nameAndEmail)));
-											}
-											
-											for (FileChange change: currentCommit.getFileChanges()) {
-												for (String path: change.getPaths()) {
-													int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-															nextIndex, path);
-													updateCommitCount(commitCountsStore, txn, commitCountCache, userIndex, pathIndex);
-													while (path.contains("/")) {
-														path = StringUtils.substringBeforeLast(path, "/");
-														pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-																nextIndex, path);
-														updateCommitCount(commitCountsStore, txn, commitCountCache, userIndex, pathIndex);
-													}
-													pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-															nextIndex, "");
-													updateCommitCount(commitCountsStore, txn, commitCountCache, userIndex, pathIndex);
+											String emailAddress = currentCommit.getAuthor().getEmailAddress();
+											if (StringUtils.isNotBlank(emailAddress)) {
+												ByteIterable emailKey = new StringByteIterable(emailAddress);
+												int userIndex = readInt(emailToIndexStore, txn, emailKey, -1);
+												if (userIndex == -1) {
+													userIndex = nextIndex.user++;
+													writeInt(emailToIndexStore, txn, emailKey, userIndex);
+													indexToUserStore.put(txn, 
+															new IntByteIterable(userIndex), 
+															new ArrayByteIterable(SerializationUtils.serialize(nameAndEmail)));
 												}
+											
+												List<String> paths = new ArrayList<>();
+												for (FileChange change: currentCommit.getFileChanges()) 
+													paths.addAll(change.getPaths());
+												commitCountAggregator.add(userIndex, paths);
 											}
 										}
-									}
 									
-									for (FileChange change: currentCommit.getFileChanges()) {
-										if (change.getOldPath() != null && change.getNewPath() != null 
-												&& !change.getOldPath().equals(change.getNewPath())) {
-											int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-													nextIndex, change.getNewPath());
-											ByteIterable pathKey = new IntByteIterable(pathIndex);
-											Set<Integer> historyPathIndexes = new HashSet<>();
-											byte[] bytesOfHistoryPaths = readBytes(historyPathsStore, txn, pathKey);
-											if (bytesOfHistoryPaths == null) {
-												bytesOfHistoryPaths = new byte[0];
-												int pos = 0;
-												for (int i=0; i<bytesOfHistoryPaths.length/Integer.SIZE; i++) {
-													historyPathIndexes.add(ByteBuffer.wrap(bytesOfHistoryPaths, pos, Integer.SIZE).getInt());
-													pos += Integer.SIZE;
+										for (FileChange change: currentCommit.getFileChanges()) {
+											if (change.getOldPath() != null && change.getNewPath() != null 
+													&& !change.getOldPath().equals(change.getNewPath())) {
+												int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
+														nextIndex, change.getNewPath());
+												ByteIterable pathKey = new IntByteIterable(pathIndex);
+												Set<Integer> historyPathIndexes = new HashSet<>();
+												byte[] bytesOfHistoryPaths = readBytes(historyPathsStore, txn, pathKey);
+												if (bytesOfHistoryPaths == null) {
+													bytesOfHistoryPaths = new byte[0];
+													int pos = 0;
+													for (int i=0; i<bytesOfHistoryPaths.length/Integer.SIZE; i++) {
+														historyPathIndexes.add(ByteBuffer.wrap(bytesOfHistoryPaths, pos, Integer.SIZE).getInt());
+														pos += Integer.SIZE;
+													}
+												} else {
+													historyPathIndexes = new HashSet<>();
 												}
-											} else {
-												historyPathIndexes = new HashSet<>();
-											}
-											if (historyPathIndexes.size() < MAX_HISTORY_PATHS) {
-												int oldPathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-														nextIndex, change.getOldPath());
-												if (!historyPathIndexes.contains(oldPathIndex)) {
-													historyPathIndexes.add(oldPathIndex);
-													byte[] newBytesOfHistoryPaths = 
-															new byte[bytesOfHistoryPaths.length+Integer.SIZE];
-													System.arraycopy(bytesOfHistoryPaths, 0, 
-															newBytesOfHistoryPaths, 0, bytesOfHistoryPaths.length);
-													ByteBuffer buffer = ByteBuffer.wrap(newBytesOfHistoryPaths, 
-															bytesOfHistoryPaths.length, Integer.BYTES);
-													buffer.putInt(oldPathIndex);
-													historyPathsStore.put(txn, pathKey, 
-															new ArrayByteIterable(newBytesOfHistoryPaths));
+												if (historyPathIndexes.size() < MAX_HISTORY_PATHS) {
+													int oldPathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
+															nextIndex, change.getOldPath());
+													if (!historyPathIndexes.contains(oldPathIndex)) {
+														historyPathIndexes.add(oldPathIndex);
+														byte[] newBytesOfHistoryPaths = 
+																new byte[bytesOfHistoryPaths.length+Integer.SIZE];
+														System.arraycopy(bytesOfHistoryPaths, 0, 
+																newBytesOfHistoryPaths, 0, bytesOfHistoryPaths.length);
+														ByteBuffer buffer = ByteBuffer.wrap(newBytesOfHistoryPaths, 
+																bytesOfHistoryPaths.length, Integer.BYTES);
+														buffer.putInt(oldPathIndex);
+														historyPathsStore.put(txn, pathKey, 
+																new ArrayByteIterable(newBytesOfHistoryPaths));
+													}
 												}
 											}
-										}
-									}											
+										}											
+									}
 								}
-							}
 
-						}.pump();
+							}.pump();
+							
+							commitCounts = commitCountAggregator.finish();
+						} finally {
+							commitCountAggregator.stop();
+						}
+						
+						/*
+						 * Merge commit counts in key order, so that Xodus writes are sequential. Each 
+						 * distinct path only needs to be resolved once here
+						 */
+						Map<Long, Integer> commitCountIncrements = new TreeMap<>();
+						for (Map.Entry<String, Map<Integer, Integer>> pathEntry: commitCounts.entrySet()) {
+							int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
+									nextIndex, pathEntry.getKey());
+							for (Map.Entry<Integer, Integer> userEntry: pathEntry.getValue().entrySet()) {
+								int userIndex = userEntry.getKey();
+								long commitCountKey = (userIndex<<32)|pathIndex;
+								Integer increment = commitCountIncrements.get(commitCountKey);
+								if (increment != null)
+									commitCountIncrements.put(commitCountKey, increment + userEntry.getValue());
+								else
+									commitCountIncrements.put(commitCountKey, userEntry.getValue());
+							}
+						}
+						for (Map.Entry<Long, Integer> entry: commitCountIncrements.entrySet()) {
+							ByteIterable commitCountKey = new LongByteIterable(entry.getKey());
+							int commitCount = readInt(commitCountsStore, txn, commitCountKey, 0);
+							writeInt(commitCountsStore, txn, commitCountKey, commitCount + entry.getValue());
+						}
 
+						/*
+						 * Fix commits are processed after all commits of this batch are added to the 
+						 * graph, so that ancestry can be answered with graph bitmaps  
+						 */
+						for (Map.Entry<Long, List<ObjectId>> entry: fixCommitsOfIssues.entrySet()) {
+							ByteIterable issueKey = new LongByteIterable(entry.getKey());
+							Collection<ObjectId> fixingCommits = readCommits(fixCommitsStore, txn, issueKey);
+							for (ObjectId fixCommitId: entry.getValue()) {
+								boolean addNextCommit = true;
+								for (Iterator<ObjectId> it = fixingCommits.iterator(); it.hasNext();) {
+									ObjectId fixCommit = it.next();
+									if (isMergedInto(project, graph, fixCommit, fixCommitId)) { 
+										it.remove();
+									} else if (isMergedInto(project, graph, fixCommitId, fixCommit)) {
+										addNextCommit = false;
+										break;
+									}
+								}
+								if (addNextCommit)
+									fixingCommits.add(fixCommitId);
+							}
+							writeCommits(fixCommitsStore, txn, issueKey, fixingCommits);
+						}
+						
 						writeInt(defaultStore, txn, COMMIT_COUNT_KEY, totalCommitCount.get());
 						totalCommitCountCache.remove(project.getId());
 						
 						writeInt(defaultStore, txn, NEXT_USER_INDEX_KEY, nextIndex.user);
 						writeInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, nextIndex.path);
 						
-						userBytes = SerializationUtils.serialize((Serializable) users);
-						defaultStore.put(txn, USERS_KEY, new ArrayByteIterable(userBytes));
+						for (NameAndEmail user: users) 
+							usersStore.add(txn, new UserByteIterable(user), new ArrayByteIterable(new byte[0]));
 						usersCache.remove(project.getId());
 						
-						if (files.size() > MAX_COLLECTING_FILES) {
-							List<String> fileList = new ArrayList<>(files.keySet());
-							fileList.sort((file1, file2)->files.get(file1).compareTo(files.get(file2)));
-							for (int i=0; i<fileList.size() - MAX_COLLECTING_FILES; i++)
-								files.remove(fileList.get(i));
+						/*
+						 * Files store maps path index to last commit time of the file, and file times 
+						 * store is a secondary index ordered by commit time, so that least recently 
+						 * touched files can be trimmed without sorting all files
+						 */
+						for (Map.Entry<String, Long> entry: files.entrySet()) {
+							int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
+									nextIndex, entry.getKey());
+							ByteIterable pathKey = new IntByteIterable(pathIndex);
+							long fileTime = readLong(filesStore, txn, pathKey, -1);
+							if (fileTime < entry.getValue()) {
+								if (fileTime != -1)
+									fileTimesStore.delete(txn, new FileTimeByteIterable(fileTime, pathIndex));
+								writeLong(filesStore, txn, pathKey, entry.getValue());
+								fileTimesStore.put(txn, new FileTimeByteIterable(entry.getValue(), pathIndex), pathKey);
+							}
+						}
+						long fileCount = filesStore.count(txn);
+						if (fileCount > MAX_COLLECTING_FILES) {
+							Cursor cursor = fileTimesStore.openCursor(txn);
+							try {
+								while (fileCount > MAX_COLLECTING_FILES && cursor.getNext()) {
+									filesStore.delete(txn, new ArrayByteIterable(cursor.getValue()));
+									cursor.deleteCurrent();
+									fileCount--;
+								}
+							} finally {
+								cursor.close();
+							}
 						}
-						fileBytes = SerializationUtils.serialize((Serializable) files);
-						defaultStore.put(txn, FILES_KEY, new ArrayByteIterable(fileBytes));
 						filesCache.remove(project.getId());
 						
-						for (Map.Entry<Long, Integer> entry: commitCountCache.entrySet()) 
-							writeInt(commitCountsStore, txn, new LongByteIterable(entry.getKey()), entry.getValue());
+						/*
+						 * Graph files are flushed before committing the transaction, and committed 
+						 * sizes recorded here are used to truncate the files if transaction fails
+						 */
+						int[] graphSizes = graph.flush();
+						writeInt(defaultStore, txn, GRAPH_SIZE_KEY, graphSizes[0]);
+						writeInt(defaultStore, txn, GRAPH_PARENT_DATA_SIZE_KEY, graphSizes[1]);
 						
 						lastCommitIdRef.set(intermediateCommitId);
 						defaultStore.put(txn, LAST_COMMIT_KEY, new CommitByteIterable(lastCommitIdRef.get()));
 					}
 				});
+				
+				// Only count commits after transaction is committed, as transaction may be retried 
+				progress.increaseCollected(batchCommitCount.get());
+				
+				long elapsed = System.currentTimeMillis() - batchStartTime;
+				logger.debug("Collected {} commits in {} ms (project: {}, progress: {})", 
+						batchCommitCount.get(), elapsed, project.getName(), progress);
 			}		
 		}
 		
@@ -615,7 +717,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 					if (lastCommitBytes != null) {
 						ObjectId lastCommitId = ObjectId.fromRaw(lastCommitBytes);
 						if (repository.hasObject(lastCommitId) 
-								&& GitUtils.isMergedInto(repository, null, lastCommitId, commitId)) {
+								&& isMergedInto(project, graph, lastCommitId, commitId)) {
 							return lastCommitId;
 						} 
 					} 
@@ -737,6 +839,24 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		logger.debug("Collected commit information (project: {}, ref: {})", project.getName(), refName);
 	}
 	
+	private boolean isMergedInto(Project project, CommitGraph graph, ObjectId base, ObjectId tip) {
+		Boolean mergedInto = graph.isMergedInto(base, tip);
+		if (mergedInto == null)
+			mergedInto = GitUtils.isMergedInto(project.getRepository(), null, base, tip);
+		return mergedInto;
+	}
+	
+	@Override
+	public boolean isMergedInto(Project project, ObjectId base, ObjectId tip) {
+		return isMergedInto(project, getCommitGraph(project.getId()), base, tip);
+	}
+	
+	@Nullable
+	@Override
+	public CollectingProgress getCollectingProgress(Project project) {
+		return collectingProgresses.get(project.getId());
+	}
+	
 	private void updateContribution(Transaction txn, Store emailToIndexStore, 
 			GitCommit currentCommit, Map<Integer, Contribution> contributionsOnDay) {
 		if (currentCommit.getAuthor() != null 
@@ -799,38 +919,32 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		return pathIndex;
 	}
 	
-	private void updateCommitCount(Store store, Transaction txn, 
-			Map<Long, Integer> commitCountCache, int userIndex, int pathIndex) {
-		long commitCountKey = (userIndex<<32)|pathIndex;
-		
-		Integer commitCountOfPathByUser = commitCountCache.get(commitCountKey);
-		if (commitCountOfPathByUser == null)
-			commitCountOfPathByUser = readInt(store, txn, new LongByteIterable(commitCountKey), 0);
-		commitCountOfPathByUser ++;
-		commitCountCache.put(commitCountKey, commitCountOfPathByUser);
-	}
-	
 	@Override
 	public List<NameAndEmail> getUsers(Project project) {
 		List<NameAndEmail> users = usersCache.get(project.getId());
 		if (users == null) {
 			Environment env = getEnv(project.getId().toString());
-			Store store = getStore(env, DEFAULT_STORE);
+			Store store = getStore(env, USERS_STORE);
 
 			users = env.computeInReadonlyTransaction(new TransactionalComputable<List<NameAndEmail>>() {
 
-				@SuppressWarnings("unchecked")
 				@Override
 				public List<NameAndEmail> compute(Transaction txn) {
-					byte[] bytes = readBytes(store, txn, USERS_KEY);
-					if (bytes != null) { 
-						List<NameAndEmail> users = 
-								new ArrayList<>((Set<NameAndEmail>) SerializationUtils.deserialize(bytes));
-						Collections.sort(users);
-						return users;
-					} else { 
-						return new ArrayList<>();
+					List<NameAndEmail> users = new ArrayList<>();
+					// Users are keyed by name first, so cursor already returns them in name order
+					Cursor cursor = store.openCursor(txn);
+					try {
+						while (cursor.getNext()) {
+							ByteIterable key = cursor.getKey();
+							String user = new String(key.getBytesUnsafe(), 0, key.getLength(), StandardCharsets.UTF_8);
+							users.add(new NameAndEmail(
+									StringUtils.substringBefore(user, String.valueOf(USER_SEPARATOR)), 
+									StringUtils.substringAfter(user, String.valueOf(USER_SEPARATOR))));
+						}
+					} finally {
+						cursor.close();
 					}
+					return users;
 				}
 				
 			});
@@ -844,34 +958,39 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		List<String> files = filesCache.get(project.getId());
 		if (files == null) {
 			Environment env = getEnv(project.getId().toString());
-			final Store store = getStore(env, DEFAULT_STORE);
+			Store filesStore = getStore(env, FILES_STORE);
+			Store indexToPathStore = getStore(env, INDEX_TO_PATH_STORE);
 
 			files = env.computeInReadonlyTransaction(new TransactionalComputable<List<String>>() {
 
-				@SuppressWarnings("unchecked")
 				@Override
 				public List<String> compute(Transaction txn) {
-					byte[] bytes = readBytes(store, txn, FILES_KEY);
-					if (bytes != null) {
-						List<String> files = new ArrayList<>(
-								((Map<String, Long>)SerializationUtils.deserialize(bytes)).keySet());
-						Map<String, List<String>> segmentsMap = new HashMap<>();
-						Splitter splitter = Splitter.on("/");
-						for (String file: files) {
-							segmentsMap.put(file, splitter.splitToList(file));
+					List<String> files = new ArrayList<>();
+					Cursor cursor = filesStore.openCursor(txn);
+					try {
+						while (cursor.getNext()) {
+							byte[] pathBytes = readBytes(indexToPathStore, txn, cursor.getKey());
+							if (pathBytes != null)
+								files.add(new String(pathBytes, StandardCharsets.UTF_8));
 						}
-						files.sort(new Comparator<String>() {
-
-							@Override
-							public int compare(String o1, String o2) {
-								return PathUtils.compare(segmentsMap.get(o1), segmentsMap.get(o2));
-							}
-							
-						});
-						return files;
-					} else {
-						return new ArrayList<>();
+					} finally {
+						cursor.close();
+					}
+					
+					Map<String, List<String>> segmentsMap = new HashMap<>();
+					Splitter splitter = Splitter.on("/");
+					for (String file: files) {
+						segmentsMap.put(file, splitter.splitToList(file));
 					}
+					files.sort(new Comparator<String>() {
+
+						@Override
+						public int compare(String o1, String o2) {
+							return PathUtils.compare(segmentsMap.get(o1), segmentsMap.get(o2));
+						}
+						
+					});
+					return files;
 				}
 			});
 			filesCache.put(project.getId(), files);
@@ -945,47 +1064,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	@Override
 	public Collection<ObjectId> getDescendants(Project project, Collection<ObjectId> ancestors) {
-		Environment env = getEnv(project.getId().toString());
-		final Store store = getStore(env, COMMITS_STORE);
-
-		return env.computeInReadonlyTransaction(new TransactionalComputable<Set<ObjectId>>() {
-
-			@Override
-			public Set<ObjectId> compute(Transaction txn) {
-				Set<ObjectId> descendants = new HashSet<>();
-				
-				// Use stack instead of recursion to avoid StackOverflowException
-				Stack<ObjectId> stack = new Stack<>();
-				descendants.addAll(ancestors);
-				stack.addAll(ancestors);
-				while (!stack.isEmpty()) {
-					ObjectId current = stack.pop();
-					byte[] valueBytes = readBytes(store, txn, new CommitByteIterable(current));
-					if (valueBytes != null) {
-						if (valueBytes.length % 20 == 0) {
-							for (int i=0; i<valueBytes.length/20; i++) {
-								ObjectId child = ObjectId.fromRaw(valueBytes, i*20);
-								if (!descendants.contains(child)) {
-									descendants.add(child);
-									stack.push(child);
-								}
-							}
-						} else { 
-							for (int i=0; i<(valueBytes.length-1)/20; i++) {
-								ObjectId child = ObjectId.fromRaw(valueBytes, i*20+1);
-								if (!descendants.contains(child)) {
-									descendants.add(child);
-									stack.push(child);
-								}
-							}
-						}
-					}
-				}
-				
-				return descendants;
-			}
-			
-		});
+		return getCommitGraph(project.getId()).getDescendants(ancestors);
 	}
 
 	@Listen
@@ -993,6 +1072,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		if (event.getEntity() instanceof Project) {
 			Long projectId = event.getEntity().getId();
 			removeEnv(projectId.toString());
+			commitGraphs.remove(projectId);
 			filesCache.remove(projectId);
 			totalCommitCountCache.remove(projectId);
 			usersCache.remove(projectId);
@@ -1012,10 +1092,20 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 						List<CollectingWork> collectingWorks = new ArrayList<>();
 						for (Object work: works)
 							collectingWorks.add((CollectingWork)work);
-						Collections.sort(collectingWorks, new CommitTimeComparator());
 						
-						for (CollectingWork work: collectingWorks) 
-							doCollect(project, work.getCommit().copy(), work.getRefName());
+						/*
+						 * Collect newest commit first, so that other commits reachable from it 
+						 * will be skipped as already collected. This avoids running rev-list for 
+						 * each of them when many refs are pushed all at once 
+						 */
+						Collections.sort(collectingWorks, Collections.reverseOrder(new CommitTimeComparator()));
+						
+						try {
+							for (CollectingWork work: collectingWorks) 
+								doCollect(project, work.getCommit().copy(), work.getRefName());
+						} finally {
+							collectingProgresses.remove(projectId);
+						}
 					}
 					
 				});
@@ -1046,6 +1136,14 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			batchWorkManager.submit(getBatchWorker(project.getId()), work);
 	}
 
+	@Listen
+	@Override
+	public void on(SystemStopping event) {
+		// Let queued shards drain so that collections being stopped do not block 
+		aggregatorExecutor.shutdown();
+		super.on(event);
+	}
+	
 	@Sessional
 	@Listen
 	public void on(SystemStarted event) {
@@ -1071,6 +1169,26 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		}
 	}
 
+	@Sessional
+	@Listen
+	public void on(RefsUpdated event) {
+		Set<ObjectId> commitIds = new HashSet<>();
+		try (RevWalk revWalk = new RevWalk(event.getProject().getRepository())) {
+			for (RefUpdated refUpdated: event.getRefUpdates()) {
+				if (!refUpdated.getNewCommitId().equals(ObjectId.zeroId()) 
+						&& (refUpdated.getRefName().startsWith(Constants.R_HEADS) 
+								|| refUpdated.getRefName().startsWith(Constants.R_TAGS))
+						&& commitIds.add(refUpdated.getNewCommitId())) {
+					RevCommit commit = GitUtils.parseCommit(revWalk, refUpdated.getNewCommitId());
+					if (commit != null) {
+						CollectingWork work = new CollectingWork(PRIORITY, commit, refUpdated.getRefName());
+						batchWorkManager.submit(getBatchWorker(event.getProject().getId()), work);
+					}
+				}
+			}
+		}
+	}
+
 	@Sessional
 	@Override
 	public int getCommitCount(Project project) {
@@ -1133,6 +1251,15 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 				for (VirtualFileDescriptor descriptor: backupStrategy.getContents()) {
 					FileUtils.copyFileToDirectory(((FileDescriptor)descriptor).getFile(), targetDir);
 				}
+				
+				/*
+				 * Copy graph files after environment files, so that they are at least of committed 
+				 * sizes recorded in copied environment
+				 */
+				for (File file: getEnvDir(source.getId().toString()).listFiles()) {
+					if (file.getName().startsWith(CommitGraph.FILE_PREFIX))
+						FileUtils.copyFileToDirectory(file, targetDir);
+				}
 			} finally {
 				backupStrategy.afterBackup();
 			}
@@ -1398,5 +1525,21 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		
 		int path;
 	}
+	
+	private static class UserByteIterable extends StringByteIterable {
+		
+		UserByteIterable(NameAndEmail user) {
+			super(user.getName() + USER_SEPARATOR + user.getEmailAddress());
+		}
+		
+	}
+	
+	private static class FileTimeByteIterable extends ArrayByteIterable {
+		
+		FileTimeByteIterable(long fileTime, int pathIndex) {
+			super(ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(fileTime).putInt(pathIndex).array());
+		}
+		
+	}
 
 }
@@ -0,0 +1,57 @@
+package io.onedev.server.infomanager;
+
+import java.util.BitSet;
+
+/**
+ * Immutable bitmap storing set bits as sorted runs. Ancestors of a commit in {@link CommitGraph}
+ * are mostly continuous ranges of positions, so this is much more compact than a plain bitmap.
+ */
+public class RunLengthBitmap {
+
+	/*
+	 * Pairs of [inclusive start, exclusive end] of each run, sorted by start
+	 */
+	private final int[] runs;
+
+	public RunLengthBitmap(BitSet bits) {
+		int count = 0;
+		for (int start = bits.nextSetBit(0); start >= 0; start = bits.nextSetBit(bits.nextClearBit(start)))
+			count++;
+		runs = new int[count*2];
+		int index = 0;
+		for (int start = bits.nextSetBit(0); start >= 0; ) {
+			int end = bits.nextClearBit(start);
+			runs[index++] = start;
+			runs[index++] = end;
+			start = bits.nextSetBit(end);
+		}
+	}
+
+	public boolean get(int bit) {
+		int low = 0;
+		int high = runs.length/2 - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (bit < runs[middle*2])
+				high = middle - 1;
+			else if (bit >= runs[middle*2+1])
+				low = middle + 1;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	public void orInto(BitSet bits) {
+		for (int i=0; i<runs.length; i+=2)
+			bits.set(runs[i], runs[i+1]);
+	}
+
+	public int cardinality() {
+		int cardinality = 0;
+		for (int i=0; i<runs.length; i+=2)
+			cardinality += runs[i+1] - runs[i];
+		return cardinality;
+	}
+
+}
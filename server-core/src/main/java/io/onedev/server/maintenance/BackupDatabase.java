@@ -1,6 +1,9 @@
 package io.onedev.server.maintenance;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -14,7 +17,6 @@ import org.slf4j.LoggerFactory;
 import io.onedev.commons.launcher.bootstrap.Bootstrap;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
-import io.onedev.commons.utils.ZipUtils;
 import io.onedev.server.persistence.DefaultPersistManager;
 import io.onedev.server.persistence.HibernateProperties;
 import io.onedev.server.persistence.IdManager;
@@ -64,14 +66,11 @@ public class BackupDatabase extends DefaultPersistManager {
 		Metadata metadata = buildMetadata();
 		sessionFactory = metadata.getSessionFactoryBuilder().applyInterceptor(interceptor).build();
 
-		File tempDir = FileUtils.createTempDir("backup");
-		try {
-			exportData(tempDir);
-			ZipUtils.zip(tempDir, backupFile);
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(backupFile))) {
+			exportData(os);
 		} catch (Exception e) {
+			FileUtils.deleteFile(backupFile);
 			throw ExceptionUtils.unchecked(e);
-		} finally {
-			FileUtils.deleteDir(tempDir);
 		}
 
 		sessionFactory.close();
@@ -41,6 +41,8 @@ public class CleanDatabase extends DefaultPersistManager {
 		}
 		checkDataVersion(false);
 
+		discardChangeJournal();
+		
 		Metadata metadata = buildMetadata();
 		cleanDatabase(metadata);
 
@@ -1,7 +1,10 @@
 package io.onedev.server.maintenance;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.ObjectStreamException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -28,12 +31,12 @@ import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.launcher.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
-import io.onedev.commons.utils.ZipUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.RoleManager;
 import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.entitymanager.UserManager;
 import io.onedev.server.event.system.SystemStarting;
+import io.onedev.server.event.system.SystemStopped;
 import io.onedev.server.model.Setting;
 import io.onedev.server.model.Setting.Key;
 import io.onedev.server.model.User;
@@ -47,6 +50,8 @@ import io.onedev.server.model.support.administration.SecuritySetting;
 import io.onedev.server.model.support.administration.SystemSetting;
 import io.onedev.server.model.support.administration.jobexecutor.AutoDiscoveredJobExecutor;
 import io.onedev.server.notification.MailManager;
+import io.onedev.server.persistence.ChangeJournal;
+import io.onedev.server.persistence.EntityChanges;
 import io.onedev.server.persistence.IdManager;
 import io.onedev.server.persistence.PersistManager;
 import io.onedev.server.persistence.annotation.Sessional;
@@ -77,13 +82,16 @@ public class DefaultDataManager implements DataManager, Serializable {
 	
 	private final RoleManager roleManager;
 	
+	private final ChangeJournal changeJournal;
+	
 	private String backupTaskId;
 	
 	@Inject
 	public DefaultDataManager(IdManager idManager, UserManager userManager, 
 			SettingManager settingManager, PersistManager persistManager, 
 			MailManager mailManager, Validator validator, TaskScheduler taskScheduler, 
-			PasswordService passwordService, RoleManager roleManager) {
+			PasswordService passwordService, RoleManager roleManager, 
+			ChangeJournal changeJournal) {
 		this.userManager = userManager;
 		this.settingManager = settingManager;
 		this.validator = validator;
@@ -93,12 +101,15 @@ public class DefaultDataManager implements DataManager, Serializable {
 		this.mailManager = mailManager;
 		this.passwordService = passwordService;
 		this.roleManager = roleManager;
+		this.changeJournal = changeJournal;
 	}
 	
 	@SuppressWarnings("serial")
 	@Transactional
 	@Override
 	public List<ManualConfig> init() {
+		changeJournal.open();
+		
 		List<ManualConfig> manualConfigs = new ArrayList<ManualConfig>();
 		User system = userManager.get(User.SYSTEM_ID);
 		if (system == null) {
@@ -253,20 +264,32 @@ public class DefaultDataManager implements DataManager, Serializable {
 
 				@Override
 				public void execute() {
-					File tempDir = FileUtils.createTempDir("backup");
-					try {
-						File backupDir = new File(Bootstrap.getSiteDir(), Upgrade.DB_BACKUP_DIR);
-						FileUtils.createDir(backupDir);
-						persistManager.exportData(tempDir);
-						File backupFile = new File(backupDir, 
-								DateTimeFormat.forPattern(Upgrade.BACKUP_DATETIME_FORMAT).print(new DateTime()) + ".zip");
-						ZipUtils.zip(tempDir, backupFile);
+					File backupDir = new File(Bootstrap.getSiteDir(), Upgrade.DB_BACKUP_DIR);
+					FileUtils.createDir(backupDir);
+					
+					EntityChanges changes = changeJournal.takeChanges();
+					String lastBackup = changeJournal.getLastBackup();
+					boolean incremental = changes != null && lastBackup != null 
+							&& new File(backupDir, lastBackup).exists()
+							&& changeJournal.getIncrementalBackups() < backupSetting.getIncrementalBackups();
+					
+					String backup = DateTimeFormat.forPattern(Upgrade.BACKUP_DATETIME_FORMAT).print(new DateTime());
+					if (incremental)
+						backup += "-incremental";
+					backup += ".zip";
+					File backupFile = new File(backupDir, backup);
+					try (OutputStream os = new BufferedOutputStream(new FileOutputStream(backupFile))) {
+						if (incremental)
+							persistManager.exportChanges(os, changes, lastBackup);
+						else
+							persistManager.exportData(os);
 					} catch (Exception e) {
+						FileUtils.deleteFile(backupFile);
+						changeJournal.backupFailed(changes);
 						notifyBackupError(e);
 						throw ExceptionUtils.unchecked(e);
-					} finally {
-						FileUtils.deleteDir(tempDir);
 					}
+					changeJournal.backupCreated(backup, incremental);
 				}
 
 				@Override
@@ -283,6 +306,11 @@ public class DefaultDataManager implements DataManager, Serializable {
 		scheduleBackup(settingManager.getBackupSetting());
 	}
 	
+	@Listen
+	public void on(SystemStopped event) {
+		changeJournal.close();
+	}
+	
 	@Sessional
 	protected void notifyBackupError(Throwable e) {
 		User root = userManager.getRoot();
@@ -62,6 +62,8 @@ public class ResetAdminPassword extends DefaultPersistManager {
 			logger.error("Server not set up yet");
 			System.exit(1);
 		}
+		discardChangeJournal();
+		
 		String password = Bootstrap.command.getArgs()[0];
 		root.setPassword(passwordService.encryptPassword(password));
 		userManager.save(root);
@@ -1,7 +1,15 @@
 package io.onedev.server.maintenance;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -52,28 +60,71 @@ public class RestoreDatabase extends DefaultPersistManager {
 			System.exit(1);
 		}
 		
-		logger.info("Restoring database from {}...", backupFile.getAbsolutePath());
+		/*
+		 * An incremental backup is restored by restoring its base backups first, until 
+		 * reaching a full backup
+		 */
+		List<File> incrementalBackupFiles = new ArrayList<>();
+		File fullBackupFile = backupFile;
+		String baseBackup;
+		while ((baseBackup = readBaseBackup(fullBackupFile)) != null) {
+			incrementalBackupFiles.add(0, fullBackupFile);
+			fullBackupFile = new File(fullBackupFile.getParentFile(), baseBackup);
+			if (!fullBackupFile.exists()) {
+				logger.error("Unable to find base backup file: {}", fullBackupFile.getAbsolutePath());
+				System.exit(1);
+			}
+		}
+		
+		logger.info("Restoring database from {}...", fullBackupFile.getAbsolutePath());
 		
 		if (Bootstrap.isServerRunning(Bootstrap.installDir)) {
 			logger.error("Please stop server before restoring");
 			System.exit(1);
 		}
 
-		Metadata metadata = buildMetadata();
-		sessionFactory = metadata.getSessionFactoryBuilder().applyInterceptor(interceptor).build();
-
-		if (backupFile.isFile()) {
-			File dataDir = FileUtils.createTempDir("restore");
-			try {
-				ZipUtils.unzip(backupFile, dataDir);
-				doRestore(metadata, dataDir);
-			} finally {
-				FileUtils.deleteDir(dataDir);
+		/*
+		 * Extract and check all archives of the chain before touching the database, so that 
+		 * a broken or mismatched incremental backup does not leave database half restored
+		 */
+		Metadata metadata;
+		List<File> tempDirs = new ArrayList<>();
+		try {
+			File fullDataDir = getDataDir(fullBackupFile, tempDirs);
+			List<File> incrementalDataDirs = new ArrayList<>();
+			for (File incrementalBackupFile: incrementalBackupFiles) {
+				logger.info("Checking incremental backup {}...", incrementalBackupFile.getAbsolutePath());
+				File incrementalDataDir = getDataDir(incrementalBackupFile, tempDirs);
+				checkIncrementalDataVersion(incrementalDataDir);
+				incrementalDataDirs.add(incrementalDataDir);
 			}
-		} else {
-			doRestore(metadata, backupFile);
+			
+			discardChangeJournal();
+			
+			metadata = buildMetadata();
+			sessionFactory = metadata.getSessionFactoryBuilder().applyInterceptor(interceptor).build();
+	
+			doRestore(metadata, fullDataDir);
+			
+			for (int i=0; i<incrementalBackupFiles.size(); i++) {
+				logger.info("Applying incremental backup {}...", incrementalBackupFiles.get(i).getAbsolutePath());
+				applyIncrementalData(metadata, incrementalDataDirs.get(i));
+			}
+		} finally {
+			for (File tempDir: tempDirs)
+				FileUtils.deleteDir(tempDir);
 		}
 
+		logger.info("Applying foreign key constraints...");
+		try {
+			applyConstraints(metadata);		
+		} catch (Exception e) {
+			logger.error("Failed to apply database constraints", e);
+			logger.info("If above error is caused by foreign key constraint violations, you may fix it via your database sql tool, "
+					+ "and then run {} to reapply database constraints", Command.getScript("apply-db-constraints"));
+			System.exit(1);
+		}
+		
 		sessionFactory.close();
 		
 		if (getDialect().toLowerCase().contains("hsql")) {
@@ -104,16 +155,52 @@ public class RestoreDatabase extends DefaultPersistManager {
 		
 		logger.info("Importing data into database...");
 		importData(metadata, dataDir);
-		
-		logger.info("Applying foreign key constraints...");
+	}
+	
+	/*
+	 * Unzip specified backup into a temp directory if it is an archive
+	 */
+	private File getDataDir(File backupFile, List<File> tempDirs) {
+		if (backupFile.isFile()) {
+			File dataDir = FileUtils.createTempDir("restore");
+			tempDirs.add(dataDir);
+			ZipUtils.unzip(backupFile, dataDir);
+			return dataDir;
+		} else {
+			return backupFile;
+		}
+	}
+	
+	/**
+	 * @return
+	 * 			file name of base backup if specified backup is an incremental backup, 
+	 * 			<tt>null</tt> otherwise
+	 */
+	@Nullable
+	private String readBaseBackup(File backupFile) {
+		Properties props = new Properties();
 		try {
-			applyConstraints(metadata);		
-		} catch (Exception e) {
-			logger.error("Failed to apply database constraints", e);
-			logger.info("If above error is caused by foreign key constraint violations, you may fix it via your database sql tool, "
-					+ "and then run {} to reapply database constraints", Command.getScript("apply-db-constraints"));
-			System.exit(1);
+			if (backupFile.isFile()) {
+				try (ZipFile zipFile = new ZipFile(backupFile)) {
+					ZipEntry entry = zipFile.getEntry(INCREMENTAL_BACKUP_FILE);
+					if (entry == null)
+						return null;
+					try (InputStream is = zipFile.getInputStream(entry)) {
+						props.load(is);
+					}
+				}
+			} else {
+				File file = new File(backupFile, INCREMENTAL_BACKUP_FILE);
+				if (!file.exists())
+					return null;
+				try (InputStream is = FileUtils.openInputStream(file)) {
+					props.load(is);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
+		return props.getProperty(BASE_BACKUP_PROPERTY);
 	}
 	
 }
@@ -927,44 +927,52 @@ public class DataMigrator {
 	}
 	
 	private void migrate23(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Build2s.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element runInstanceIdElement = element.element("runInstanceId");
-					if (runInstanceIdElement != null)
-						runInstanceIdElement.detach();
-					Element errorMessageElement = element.element("errorMessage");
-					if (errorMessageElement != null)
-						errorMessageElement.setName("statusMessage");
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Projects.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					element.element("uuid").detach();
-					if (element.element("issueSetting") == null)
-						element.addElement("issueSetting");
-					if (element.element("savedCommitQueries") == null) 
-						element.addElement("savedCommitQueries");
-					if (element.element("savedPullRequestQueries") == null) 
-						element.addElement("savedPullRequestQueries");
-					if (element.element("savedCodeCommentQueries") == null) 
-						element.addElement("savedCodeCommentQueries");
-					if (element.element("savedBuildQueries") == null) 
-						element.addElement("savedBuildQueries");
-					if (element.element("webHooks") == null) 
-						element.addElement("webHooks");
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Users.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					element.element("uuid").detach();
-				}
-				dom.writeToFile(file, false);
+		Map<String, ElementMigrator> migrators = new HashMap<>();
+		migrators.put("Build2s.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				Element runInstanceIdElement = element.element("runInstanceId");
+				if (runInstanceIdElement != null)
+					runInstanceIdElement.detach();
+				Element errorMessageElement = element.element("errorMessage");
+				if (errorMessageElement != null)
+					errorMessageElement.setName("statusMessage");
+				return true;
 			}
-		}
+			
+		});
+		migrators.put("Projects.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				element.element("uuid").detach();
+				if (element.element("issueSetting") == null)
+					element.addElement("issueSetting");
+				if (element.element("savedCommitQueries") == null) 
+					element.addElement("savedCommitQueries");
+				if (element.element("savedPullRequestQueries") == null) 
+					element.addElement("savedPullRequestQueries");
+				if (element.element("savedCodeCommentQueries") == null) 
+					element.addElement("savedCodeCommentQueries");
+				if (element.element("savedBuildQueries") == null) 
+					element.addElement("savedBuildQueries");
+				if (element.element("webHooks") == null) 
+					element.addElement("webHooks");
+				return true;
+			}
+			
+		});
+		migrators.put("Users.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				element.element("uuid").detach();
+				return true;
+			}
+			
+		});
+		MigrationHelper.migrateDataFiles(dataDir, migrators);
 	}
 	
 	private String escapeValue24(String value) {
@@ -1099,69 +1107,6 @@ public class DataMigrator {
 					} 
 				}
 				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Groups.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) 
-					element.element("canCreateProjects").setName("createProjects");
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Users.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) { 
-					element.addElement("userProjectQueries");
-					
-					element.addElement("userIssueQueries");
-					element.addElement("userIssueQueryWatches");
-					element.addElement("issueQueryWatches");
-					
-					element.addElement("userPullRequestQueries");
-					element.addElement("userPullRequestQueryWatches");
-					element.addElement("pullRequestQueryWatches");
-					
-					element.addElement("userBuildQueries");
-					element.addElement("userBuildQuerySubscriptions");
-					element.addElement("buildQuerySubscriptions");
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("GroupAuthorizations.xml") 
-					|| file.getName().startsWith("UserAuthorizations.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) { 
-					Element privilegeElement = element.element("privilege");
-					String privilege = privilegeElement.getTextTrim();
-					privilegeElement.detach();
-
-					String roleId;
-					switch (privilege) {
-					case "ISSUE_READ":
-						roleId = "4";
-						break;
-					case "CODE_READ":
-						roleId = "3";
-						break;
-					case "CODE_WRITE":
-						roleId = "2";
-						break;
-					default:
-						roleId = "1";
-					}
-					element.addElement("role").setText(roleId);
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Issues.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements())
-					element.element("numberStr").detach();
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("CodeComments.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element rangeElement = element.element("markPos").element("range");
-					rangeElement.element("beginLine").setName("fromRow");
-					rangeElement.element("endLine").setName("toRow");
-					rangeElement.element("beginChar").setName("fromColumn");
-					rangeElement.element("endChar").setName("toColumn");
-				}
-				dom.writeToFile(file, false);
 			} else if (file.getName().startsWith("PullRequests.xml")) {
 				String content;
 				try {
@@ -1175,45 +1120,6 @@ public class DataMigrator {
 				for (Element element: dom.getRootElement().elements())
 					element.element("numberStr").detach();
 				
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Projects.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element defaultPrivilegeElement = element.element("defaultPrivilege");
-					if (defaultPrivilegeElement != null)
-						defaultPrivilegeElement.detach();
-					element.addElement("owner").setText("1");
-					
-					for (Element branchProtectionElement: element.element("branchProtections").elements()) {
-						Element submitterElement = branchProtectionElement.element("submitter");
-						submitterElement.setName("user");
-						submitterElement.setText("anyone");
-						branchProtectionElement.element("configurations").detach();
-						branchProtectionElement.element("buildMerges").detach();
-						branchProtectionElement.addElement("jobNames");
-						for (Element fileProtectionElement: branchProtectionElement.element("fileProtections").elements())
-							fileProtectionElement.addElement("jobNames");
-					}
-					
-					for (Element tagProtectionElement: element.element("tagProtections").elements())
-						tagProtectionElement.element("submitter").setName("user");
-					element.addElement("secrets");
-					element.element("commitMessageTransforms").detach();
-					element.element("webHooks").detach();
-					element.addElement("webHooks");
-					element.element("issueSetting").detach();
-					element.addElement("issueSetting");
-					
-					element.element("savedBuildQueries").detach();
-					Element buildSettingElement = element.addElement("buildSetting");
-					buildSettingElement.addElement("buildsToPreserve").setText("all");
-					
-					element.element("savedCommitQueries").detach();
-					element.element("savedCodeCommentQueries").detach();
-					element.element("savedPullRequestQueries").detach();
-					
-					element.addElement("pullRequestSetting");
-				}
 				dom.writeToFile(file, false);
 			} else if (file.getName().startsWith("IssueChanges.xml") 
 					|| file.getName().startsWith("Configurations.xml")
@@ -1248,6 +1154,133 @@ public class DataMigrator {
 				FileUtils.writeFile(renamedFile, content, StandardCharsets.UTF_8.name());
 			}
 		}
+		
+		Map<String, ElementMigrator> migrators = new HashMap<>();
+		migrators.put("Groups.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				element.element("canCreateProjects").setName("createProjects");
+				return true;
+			}
+			
+		});
+		migrators.put("Users.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				element.addElement("userProjectQueries");
+				
+				element.addElement("userIssueQueries");
+				element.addElement("userIssueQueryWatches");
+				element.addElement("issueQueryWatches");
+				
+				element.addElement("userPullRequestQueries");
+				element.addElement("userPullRequestQueryWatches");
+				element.addElement("pullRequestQueryWatches");
+				
+				element.addElement("userBuildQueries");
+				element.addElement("userBuildQuerySubscriptions");
+				element.addElement("buildQuerySubscriptions");
+				return true;
+			}
+			
+		});
+		ElementMigrator authorizationMigrator = new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				Element privilegeElement = element.element("privilege");
+				String privilege = privilegeElement.getTextTrim();
+				privilegeElement.detach();
+
+				String roleId;
+				switch (privilege) {
+				case "ISSUE_READ":
+					roleId = "4";
+					break;
+				case "CODE_READ":
+					roleId = "3";
+					break;
+				case "CODE_WRITE":
+					roleId = "2";
+					break;
+				default:
+					roleId = "1";
+				}
+				element.addElement("role").setText(roleId);
+				return true;
+			}
+			
+		};
+		migrators.put("GroupAuthorizations.xml", authorizationMigrator);
+		migrators.put("UserAuthorizations.xml", authorizationMigrator);
+		migrators.put("Issues.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				element.element("numberStr").detach();
+				return true;
+			}
+			
+		});
+		migrators.put("CodeComments.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				Element rangeElement = element.element("markPos").element("range");
+				rangeElement.element("beginLine").setName("fromRow");
+				rangeElement.element("endLine").setName("toRow");
+				rangeElement.element("beginChar").setName("fromColumn");
+				rangeElement.element("endChar").setName("toColumn");
+				return true;
+			}
+			
+		});
+		migrators.put("Projects.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				Element defaultPrivilegeElement = element.element("defaultPrivilege");
+				if (defaultPrivilegeElement != null)
+					defaultPrivilegeElement.detach();
+				element.addElement("owner").setText("1");
+				
+				for (Element branchProtectionElement: element.element("branchProtections").elements()) {
+					Element submitterElement = branchProtectionElement.element("submitter");
+					submitterElement.setName("user");
+					submitterElement.setText("anyone");
+					branchProtectionElement.element("configurations").detach();
+					branchProtectionElement.element("buildMerges").detach();
+					branchProtectionElement.addElement("jobNames");
+					for (Element fileProtectionElement: branchProtectionElement.element("fileProtections").elements())
+						fileProtectionElement.addElement("jobNames");
+				}
+				
+				for (Element tagProtectionElement: element.element("tagProtections").elements())
+					tagProtectionElement.element("submitter").setName("user");
+				element.addElement("secrets");
+				element.element("commitMessageTransforms").detach();
+				element.element("webHooks").detach();
+				element.addElement("webHooks");
+				element.element("issueSetting").detach();
+				element.addElement("issueSetting");
+				
+				element.element("savedBuildQueries").detach();
+				Element buildSettingElement = element.addElement("buildSetting");
+				buildSettingElement.addElement("buildsToPreserve").setText("all");
+				
+				element.element("savedCommitQueries").detach();
+				element.element("savedCodeCommentQueries").detach();
+				element.element("savedPullRequestQueries").detach();
+				
+				element.addElement("pullRequestSetting");
+				return true;
+			}
+			
+		});
+		MigrationHelper.migrateDataFiles(dataDir, migrators);
+		
         try (InputStream is = getClass().getResourceAsStream("migrate25_roles.xml")) {
         	Preconditions.checkNotNull(is);
         	FileUtils.writeFile(
@@ -1260,143 +1293,152 @@ public class DataMigrator {
 	}
 	
 	private void migrate26(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Projects.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element createdAtElement = element.element("createdAt");
-					createdAtElement.setName("createDate");
-					element.addElement("updateDate").setText(createdAtElement.getText());
-				}
-				dom.writeToFile(file, false);
-			} 		
-		}
+		MigrationHelper.migrateDataFiles(dataDir, "Projects.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				Element createdAtElement = element.element("createdAt");
+				createdAtElement.setName("createDate");
+				element.addElement("updateDate").setText(createdAtElement.getText());
+				return true;
+			}
+			
+		});
 	}
 	
 	private void migrate27(File dataDir, Stack<Integer> versions) {
 		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Projects.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element buildSettingElement = element.element("buildSetting");
-					buildSettingElement.element("buildsToPreserve").detach();
-					buildSettingElement.addElement("preservations");
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("IssueChanges.xml")) {
+			if (file.getName().startsWith("IssueChanges.xml")) 
 				FileUtils.deleteFile(file);
-			}
 		}
+		MigrationHelper.migrateDataFiles(dataDir, "Projects.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				Element buildSettingElement = element.element("buildSetting");
+				buildSettingElement.element("buildsToPreserve").detach();
+				buildSettingElement.addElement("preservations");
+				return true;
+			}
+			
+		});
 	}
 	
 	private void migrate28(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Users.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element buildSettingElement = element.addElement("buildSetting");
-					buildSettingElement.addElement("secrets");
-					buildSettingElement.addElement("buildPreservations");
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Projects.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					element.element("secrets").detach();
-					element.element("buildSetting").detach();
-					Element buildSettingElement = element.addElement("buildSetting");
-					buildSettingElement.addElement("secrets");
-					buildSettingElement.addElement("buildPreservations");
-				}
-				dom.writeToFile(file, false);
+		Map<String, ElementMigrator> migrators = new HashMap<>();
+		migrators.put("Users.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				Element buildSettingElement = element.addElement("buildSetting");
+				buildSettingElement.addElement("secrets");
+				buildSettingElement.addElement("buildPreservations");
+				return true;
 			}
-		}
+			
+		});
+		migrators.put("Projects.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				element.element("secrets").detach();
+				element.element("buildSetting").detach();
+				Element buildSettingElement = element.addElement("buildSetting");
+				buildSettingElement.addElement("secrets");
+				buildSettingElement.addElement("buildPreservations");
+				return true;
+			}
+			
+		});
+		MigrationHelper.migrateDataFiles(dataDir, migrators);
 	}
 	
 	private void migrate29(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Users.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements())
-					element.addElement("webHooks");
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Projects.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					for (Element branchProtectionElement: element.element("branchProtections").elements())
-						branchProtectionElement.element("user").setName("userMatch");
-					for (Element tagProtectionElement: element.element("tagProtections").elements())
-						tagProtectionElement.element("user").setName("userMatch");
-				}
-				dom.writeToFile(file, false);
+		Map<String, ElementMigrator> migrators = new HashMap<>();
+		migrators.put("Users.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				element.addElement("webHooks");
+				return true;
 			}
-		}
+			
+		});
+		migrators.put("Projects.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				for (Element branchProtectionElement: element.element("branchProtections").elements())
+					branchProtectionElement.element("user").setName("userMatch");
+				for (Element tagProtectionElement: element.element("tagProtections").elements())
+					tagProtectionElement.element("user").setName("userMatch");
+				return true;
+			}
+			
+		});
+		MigrationHelper.migrateDataFiles(dataDir, migrators);
 	}
 	
 	private void migrate30(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Settings.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					String key = element.elementTextTrim("key"); 
-					if (key.equals("JOB_EXECUTORS")) 
-						element.detach();
-				}
-				dom.writeToFile(file, false);
+		MigrationHelper.migrateDataFiles(dataDir, "Settings.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				return !element.elementTextTrim("key").equals("JOB_EXECUTORS");
 			}
-		}
+			
+		});
 	}
 	
 	private void migrate31(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Roles.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element editableIssueFieldsElement = element.element("editableIssueFields");
-					editableIssueFieldsElement.detach();
-					element.addElement("editableIssueFields").addAttribute(
-							"class", "io.onedev.server.model.support.role.AllIssueFields");
-				}
-				dom.writeToFile(file, false);
+		MigrationHelper.migrateDataFiles(dataDir, "Roles.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				Element editableIssueFieldsElement = element.element("editableIssueFields");
+				editableIssueFieldsElement.detach();
+				element.addElement("editableIssueFields").addAttribute(
+						"class", "io.onedev.server.model.support.role.AllIssueFields");
+				return true;
 			}
-		}
+			
+		});
 	}
 
 	private void migrate32(File dataDir, Stack<Integer> versions) {
 		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Settings.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					String key = element.elementTextTrim("key"); 
-					if (key.equals("ISSUE"))
-						element.detach();
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("IssueChanges.xml")) { 
+			if (file.getName().startsWith("IssueChanges.xml")) 
 				FileUtils.deleteFile(file);
-			}
 		}
+		MigrationHelper.migrateDataFiles(dataDir, "Settings.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				return !element.elementTextTrim("key").equals("ISSUE");
+			}
+			
+		});
 	}
 	
 	private void migrate33(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Projects.xml")) {
-				VersionedDocument dom = VersionedDocument.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					for (Element branchProtectionElement: element.element("branchProtections").elements()) {
-						branchProtectionElement.element("noCreation").setName("preventCreation");
-						branchProtectionElement.element("noDeletion").setName("preventDeletion");
-						branchProtectionElement.element("noForcedPush").setName("preventForcedPush");
-					}
-					for (Element tagProtectionElement: element.element("tagProtections").elements()) {
-						tagProtectionElement.element("noCreation").setName("preventCreation");
-						tagProtectionElement.element("noDeletion").setName("preventDeletion");
-						tagProtectionElement.element("noUpdate").setName("preventUpdate");
-					}
+		MigrationHelper.migrateDataFiles(dataDir, "Projects.xml", new ElementMigrator() {
+
+			@Override
+			public boolean migrate(Element element) {
+				for (Element branchProtectionElement: element.element("branchProtections").elements()) {
+					branchProtectionElement.element("noCreation").setName("preventCreation");
+					branchProtectionElement.element("noDeletion").setName("preventDeletion");
+					branchProtectionElement.element("noForcedPush").setName("preventForcedPush");
 				}
-				dom.writeToFile(file, false);
+				for (Element tagProtectionElement: element.element("tagProtections").elements()) {
+					tagProtectionElement.element("noCreation").setName("preventCreation");
+					tagProtectionElement.element("noDeletion").setName("preventDeletion");
+					tagProtectionElement.element("noUpdate").setName("preventUpdate");
+				}
+				return true;
 			}
-		}
+			
+		});
 	}
 	
 }
@@ -0,0 +1,22 @@
+package io.onedev.server.migration;
+
+import org.dom4j.Element;
+
+/**
+ * Migrator of a single top level element of a data file
+ *
+ * @see MigrationHelper#migrateDataFiles(java.io.File, java.util.Map)
+ */
+public interface ElementMigrator {
+
+	/**
+	 * Migrate specified element in place
+	 *
+	 * @param element
+	 * 			element representing an entity. It is detached from the data file
+	 * @return
+	 * 			<tt>false</tt> if this element should be removed from the data file
+	 */
+	boolean migrate(Element element);
+
+}
@@ -1,22 +1,43 @@
 package io.onedev.server.migration;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
+import org.dom4j.io.XMLWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
 
 import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.util.concurrent.ParallelUtils;
 
 public class MigrationHelper {
 	
@@ -155,5 +176,105 @@ public class MigrationHelper {
 			current = current.getSuperclass();
 		}
 		return migrated;
-	}	
+	}
+	
+	/**
+	 * Migrate data files of specified tables element by element. Data files are read and written 
+	 * incrementally, so that memory usage is bounded by size of a single element instead of size 
+	 * of the data file. Data files are migrated in parallel
+	 * 
+	 * @param dataDir
+	 * 			directory containing data files
+	 * @param migrators
+	 * 			map of data file name prefix (for instance <tt>Projects.xml</tt>) to migrator of 
+	 * 			elements in matching data files
+	 */
+	public static void migrateDataFiles(File dataDir, Map<String, ElementMigrator> migrators) {
+		Collection<Callable<Void>> tasks = new ArrayList<>();
+		for (File file: dataDir.listFiles()) {
+			for (Map.Entry<String, ElementMigrator> entry: migrators.entrySet()) {
+				if (file.getName().startsWith(entry.getKey())) {
+					tasks.add(new Callable<Void>() {
+
+						@Override
+						public Void call() throws Exception {
+							migrateDataFile(file, entry.getValue());
+							return null;
+						}
+						
+					});
+					break;
+				}
+			}
+		}
+		
+		ParallelUtils.invokeAll("data-migration", tasks);
+	}
+	
+	public static void migrateDataFiles(File dataDir, String fileNamePrefix, ElementMigrator migrator) {
+		Map<String, ElementMigrator> migrators = new HashMap<>();
+		migrators.put(fileNamePrefix, migrator);
+		migrateDataFiles(dataDir, migrators);
+	}
+	
+	private static void migrateDataFile(File file, ElementMigrator migrator) {
+		logger.debug("Migrating data file '{}'...", file.getName());
+		// Name of temp file should not match any data file name prefix
+		File tempFile = new File(file.getParentFile(), "." + file.getName() + ".migrating");
+		try {
+			try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+				OutputFormat format = new OutputFormat();
+				format.setIndent(false);
+				format.setNewlines(false);
+				format.setEncoding(StandardCharsets.UTF_8.name());
+				XMLWriter writer = new XMLWriter(os, format);
+				
+				SAXReader reader = new SAXReader();
+				reader.setDefaultHandler(new ElementHandler() {
+
+					@Override
+					public void onStart(ElementPath elementPath) {
+						if (elementPath.size() == 1) {
+							try {
+								writer.startDocument();
+								writer.writeOpen(elementPath.getCurrent());
+							} catch (SAXException | IOException e) {
+								throw ExceptionUtils.unchecked(e);
+							}
+						}
+					}
+
+					@Override
+					public void onEnd(ElementPath elementPath) {
+						try {
+							if (elementPath.size() == 2) {
+								Element element = elementPath.getCurrent();
+								Element rootElement = element.getParent();
+								element.detach();
+								// Release whitespaces between elements accumulated in root element
+								rootElement.clearContent();
+								if (migrator.migrate(element))
+									writer.write(element);
+							} else if (elementPath.size() == 1) {
+								writer.writeClose(elementPath.getCurrent());
+								writer.endDocument();
+							}
+						} catch (SAXException | IOException e) {
+							throw ExceptionUtils.unchecked(e);
+						}
+					}
+					
+				});
+				reader.read(file);
+				writer.flush();
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | DocumentException e) {
+			throw ExceptionUtils.unchecked(e);
+		} finally {
+			if (tempFile.exists())
+				FileUtils.deleteFile(tempFile);
+		}
+	}
+	
 }
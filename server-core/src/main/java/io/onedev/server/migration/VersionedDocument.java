@@ -50,7 +50,6 @@ import com.thoughtworks.xstream.mapper.CannotResolveClassException;
 
 import io.onedev.commons.launcher.loader.AppLoader;
 import io.onedev.commons.utils.ExceptionUtils;
-import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.StringUtils;
 
 public final class VersionedDocument implements Document, Externalizable {
@@ -412,10 +411,11 @@ public final class VersionedDocument implements Document, Externalizable {
 	}
 	
 	public static VersionedDocument fromFile(File file) {
+		// Parse from file directly to avoid holding file content as string in addition to the document 
 		try {
-			return fromXML(FileUtils.readFileToString(file, StandardCharsets.UTF_8.name()));
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+			return new VersionedDocument(new SAXReader().read(file));
+		} catch (Exception e) {
+			throw ExceptionUtils.unchecked(e);
 		}
 	}
 
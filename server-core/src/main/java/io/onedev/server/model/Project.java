@@ -32,7 +32,6 @@ import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
 import org.apache.commons.lang3.SerializationUtils;
-import org.dom4j.Element;
 import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.TagCommand;
@@ -69,6 +68,7 @@ import io.onedev.commons.utils.LockUtils;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.buildspec.BuildSpec;
+import io.onedev.server.buildspec.BuildSpecManager;
 import io.onedev.server.entitymanager.BuildManager;
 import io.onedev.server.entitymanager.BuildQuerySettingManager;
 import io.onedev.server.entitymanager.CodeCommentQuerySettingManager;
@@ -91,7 +91,6 @@ import io.onedev.server.git.command.ListChangedFilesCommand;
 import io.onedev.server.git.exception.NotFileException;
 import io.onedev.server.git.exception.ObjectNotFoundException;
 import io.onedev.server.infomanager.CommitInfoManager;
-import io.onedev.server.migration.VersionedDocument;
 import io.onedev.server.model.Build.Status;
 import io.onedev.server.model.support.BranchProtection;
 import io.onedev.server.model.support.FileProtection;
@@ -661,34 +660,15 @@ public class Project extends AbstractEntity {
 			buildSpecCache = new HashMap<>();
 		Optional<BuildSpec> buildSpec = buildSpecCache.get(commitId);
 		if (buildSpec == null) {
-			Blob blob = getBlob(new BlobIdent(commitId.name(), BuildSpec.BLOB_PATH, FileMode.TYPE_FILE), false);
-			if (blob != null) 
-				buildSpec = Optional.fromNullable(BuildSpec.parse(blob.getBytes()));
-			else
-				buildSpec = Optional.absent();
+			buildSpec = Optional.fromNullable(OneDev.getInstance(BuildSpecManager.class).getBuildSpec(this, commitId));
 			buildSpecCache.put(commitId, buildSpec);
 		}
 		return buildSpec.orNull();
 	}
 	
 	public List<String> getJobNames() {
-		if (jobNames == null) {
-			Set<String> jobNameSet = new HashSet<>();
-			for (RefInfo refInfo: getBranchRefInfos()) {
-				Blob blob = getBlob(new BlobIdent(refInfo.getPeeledObj().name(), 
-						BuildSpec.BLOB_PATH, FileMode.TYPE_FILE), false);
-				if (blob != null && blob.getText() != null) {
-					try {
-						VersionedDocument dom = VersionedDocument.fromXML(blob.getText().getContent());
-						for (Element jobElement: dom.getRootElement().element("jobs").elements())
-							jobNameSet.add(jobElement.elementTextTrim("name"));
-					} catch (Exception e) {
-					}
-				}
-			}
-			jobNames = new ArrayList<>(jobNameSet);
-			Collections.sort(jobNames);
-		}
+		if (jobNames == null) 
+			jobNames = OneDev.getInstance(BuildSpecManager.class).getJobNames(this);
 		return jobNames;
 	}
 	
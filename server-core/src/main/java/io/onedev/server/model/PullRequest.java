@@ -39,10 +39,12 @@ import org.hibernate.criterion.Restrictions;
 
 import com.fasterxml.jackson.annotation.JsonView;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.PullRequestManager;
 import io.onedev.server.git.GitUtils;
+import io.onedev.server.infomanager.CommitInfoManager;
 import io.onedev.server.infomanager.UserInfoManager;
 import io.onedev.server.model.support.CompareContext;
 import io.onedev.server.model.support.EntityWatch;
@@ -517,6 +519,9 @@ public class PullRequest extends AbstractEntity implements Referenceable, Attach
 	}
 	
 	public static class CriterionHelper {
+		
+		private static final int MAX_IN_CLAUSE_VALUES = 1000;
+		
 		public static Criterion ofOpen() {
 			return Restrictions.isNull("closeInfo");
 		}
@@ -531,6 +536,12 @@ public class PullRequest extends AbstractEntity implements Referenceable, Attach
 					Restrictions.eq("targetBranch", target.getBranch()));
 		}
 
+		public static Criterion ofTargetBranches(Project targetProject, Collection<String> targetBranches) {
+			return Restrictions.and(
+					Restrictions.eq("targetProject", targetProject),
+					in("targetBranch", targetBranches));
+		}
+		
 		public static Criterion ofTargetProject(Project target) {
 			return Restrictions.eq("targetProject", target);
 		}
@@ -541,6 +552,12 @@ public class PullRequest extends AbstractEntity implements Referenceable, Attach
 					Restrictions.eq("sourceBranch", source.getBranch()));
 		}
 		
+		public static Criterion ofSourceBranches(Project sourceProject, Collection<String> sourceBranches) {
+			return Restrictions.and(
+					Restrictions.eq("sourceProject", sourceProject),
+					in("sourceBranch", sourceBranches));
+		}
+		
 		public static Criterion ofSourceProject(Project source) {
 			return Restrictions.eq("sourceProject", source);
 		}
@@ -549,6 +566,17 @@ public class PullRequest extends AbstractEntity implements Referenceable, Attach
 			return Restrictions.eq("submitter", submitter);
 		}
 		
+		/*
+		 * Split values into multiple in clauses as some databases limit number of values 
+		 * in an in clause
+		 */
+		private static Criterion in(String propertyName, Collection<String> values) {
+			List<Criterion> criterions = new ArrayList<>();
+			for (List<String> partition: Lists.partition(new ArrayList<>(values), MAX_IN_CLAUSE_VALUES))
+				criterions.add(Restrictions.in(propertyName, partition));
+			return Restrictions.or(criterions.toArray(new Criterion[0]));
+		}
+		
 	}
 
 	public Date getSubmitDate() {
@@ -716,7 +744,7 @@ public class PullRequest extends AbstractEntity implements Referenceable, Attach
 	
 	public boolean isMergeIntoTarget() {
 		if (mergedIntoTarget == null) { 
-			mergedIntoTarget = GitUtils.isMergedInto(getTargetProject().getRepository(), null, 
+			mergedIntoTarget = OneDev.getInstance(CommitInfoManager.class).isMergedInto(getTargetProject(), 
 					ObjectId.fromString(getHeadCommitHash()), getTarget().getObjectId());
 		}
 		return mergedIntoTarget;
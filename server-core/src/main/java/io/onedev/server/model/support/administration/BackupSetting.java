@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.text.ParseException;
 
 import javax.validation.ConstraintValidatorContext;
+import javax.validation.constraints.Min;
 
 import org.hibernate.validator.constraints.NotEmpty;
 import org.quartz.CronExpression;
@@ -20,6 +21,8 @@ public class BackupSetting implements Serializable, Validatable {
 	
 	private String schedule;
 	
+	private int incrementalBackups;
+	
 	@Editable(order=100, name="Backup Schedule", description=
 		"Optionally specify a cron expression to schedule database auto-backup. The cron expression format is " +
 		"<em>&lt;seconds&gt; &lt;minutes&gt; &lt;hours&gt; &lt;day-of-month&gt; &lt;month&gt; &lt;day-of-week&gt;</em>." +
@@ -37,6 +40,19 @@ public class BackupSetting implements Serializable, Validatable {
 		this.schedule = schedule;
 	}
 
+	@Editable(order=200, name="Incremental Backups Between Full Backups", description=
+		"Number of incremental backups to create between two full backups. An incremental backup only contains " +
+		"data changed since previous backup, and restoring it requires previous full backup and all incremental " +
+		"backups in between. Leave it as <tt>0</tt> to always create full backups")
+	@Min(value=0, message="This value should not be less than 0")
+	public int getIncrementalBackups() {
+		return incrementalBackups;
+	}
+
+	public void setIncrementalBackups(int incrementalBackups) {
+		this.incrementalBackups = incrementalBackups;
+	}
+
 	@Override
 	public boolean isValid(ConstraintValidatorContext context) {
 		boolean hasErrors = false;
@@ -4,6 +4,7 @@ import java.io.Serializable;
 
 import javax.validation.ConstraintValidatorContext;
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import org.apache.commons.lang3.StringUtils;
@@ -31,6 +32,14 @@ public class SystemSetting implements Serializable, Validatable {
 	
 	private boolean gravatarEnabled = true;
 	
+	private int indexingParallelism;
+	
+	private int maxGitUploads;
+	
+	private int maxGitReceives;
+	
+	private boolean inProcessGitUpload;
+	
 	@Editable(name="Server URL", order=90, description="Specify root URL to access this server. Build jobs "
 			+ "running in Kubernetes cluster will access this url to download source and artifacts")
 	@NotEmpty
@@ -74,6 +83,52 @@ public class SystemSetting implements Serializable, Validatable {
 		this.gravatarEnabled = gravatarEnabled;
 	}
 
+	@Editable(order=400, description="Number of threads used to extract text and symbols of files when "
+			+ "indexing code for search. Leave it as <tt>0</tt> to use number of CPU cores")
+	@Min(value=0, message="This value should not be less than 0")
+	public int getIndexingParallelism() {
+		return indexingParallelism;
+	}
+
+	public void setIndexingParallelism(int indexingParallelism) {
+		this.indexingParallelism = indexingParallelism;
+	}
+
+	@Editable(name="Max Concurrent Git Pulls", order=410, description="Maximum number of git clones and "
+			+ "fetches served at the same time. Extra requests will be queued and served fairly among "
+			+ "users and projects. Leave it as <tt>0</tt> to use twice the number of CPU cores")
+	@Min(value=0, message="This value should not be less than 0")
+	public int getMaxGitUploads() {
+		return maxGitUploads;
+	}
+
+	public void setMaxGitUploads(int maxGitUploads) {
+		this.maxGitUploads = maxGitUploads;
+	}
+
+	@Editable(name="Max Concurrent Git Pushes", order=420, description="Maximum number of git pushes "
+			+ "served at the same time. Extra requests will be queued and served fairly among users "
+			+ "and projects. Leave it as <tt>0</tt> to use number of CPU cores")
+	@Min(value=0, message="This value should not be less than 0")
+	public int getMaxGitReceives() {
+		return maxGitReceives;
+	}
+
+	public void setMaxGitReceives(int maxGitReceives) {
+		this.maxGitReceives = maxGitReceives;
+	}
+
+	@Editable(name="Serve Git Pulls In Process", order=430, description="Check this to serve git clones "
+			+ "and fetches in process instead of forking git for each request. Packs generated for "
+			+ "identical requests against unchanged repository will be reused")
+	public boolean isInProcessGitUpload() {
+		return inProcessGitUpload;
+	}
+
+	public void setInProcessGitUpload(boolean inProcessGitUpload) {
+		this.inProcessGitUpload = inProcessGitUpload;
+	}
+
 	@Override
 	public boolean isValid(ConstraintValidatorContext context) {
 		if (serverUrl != null)
@@ -1,72 +1,12 @@
 package io.onedev.server.model.support.pullrequest;
 
-import javax.annotation.Nullable;
-
-import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.PersonIdent;
-import org.eclipse.jgit.lib.Repository;
-
 import io.onedev.commons.utils.WordUtils;
-import io.onedev.server.OneDev;
-import io.onedev.server.git.GitUtils;
-import io.onedev.server.model.PullRequest;
 
 public enum MergeStrategy {
-	CREATE_MERGE_COMMIT("Add all commits from source branch to target branch with a merge commit.") {
-
-		@Override
-		public ObjectId merge(PullRequest request) {
-			PersonIdent user = new PersonIdent(OneDev.NAME, "");
-			Repository repository = request.getTargetProject().getRepository();
-			ObjectId requestHead = request.getHeadCommit();
-			ObjectId targetHead = request.getTarget().getObjectId();
-			return GitUtils.merge(repository, requestHead, targetHead, false, user, user,
-						request.getCommitMessage());
-		}
-		
-	}, 
-	CREATE_MERGE_COMMIT_IF_NECESSARY("Only create merge commit if target branch can not be fast-forwarded to source branch") {
-
-		@Override
-		public ObjectId merge(PullRequest request) {
-			Repository repository = request.getTargetProject().getRepository();
-			ObjectId requestHead = request.getHeadCommit();
-			ObjectId targetHead = request.getTarget().getObjectId();
-			if (GitUtils.isMergedInto(repository, null, targetHead, requestHead)) {
-				return requestHead;
-			} else {
-				PersonIdent user = new PersonIdent(OneDev.NAME, "");
-				return GitUtils.merge(repository, requestHead, targetHead, false, user, user,
-							request.getCommitMessage());
-			}
-		}
-		
-	},
-	SQUASH_SOURCE_BRANCH_COMMITS("Squash all commits from source branch into a single commit in target branch") {
-
-		@Override
-		public ObjectId merge(PullRequest request) {
-			Repository repository = request.getTargetProject().getRepository();
-			ObjectId requestHead = request.getHeadCommit();
-			ObjectId targetHead = request.getTarget().getObjectId();
-			PersonIdent user = new PersonIdent(OneDev.NAME, "");
-			return GitUtils.merge(repository, requestHead, targetHead, true, user, user,
-						request.getCommitMessage());
-		}
-		
-	},
-	REBASE_SOURCE_BRANCH_COMMITS("Rebase all commits from source branch onto target branch") {
-
-		@Override
-		public ObjectId merge(PullRequest request) {
-			Repository repository = request.getTargetProject().getRepository();
-			ObjectId requestHead = request.getHeadCommit();
-			ObjectId targetHead = request.getTarget().getObjectId();
-			PersonIdent user = new PersonIdent(OneDev.NAME, "");
-			return GitUtils.rebase(repository, requestHead, targetHead, user);
-		}
-		
-	};
+	CREATE_MERGE_COMMIT("Add all commits from source branch to target branch with a merge commit."), 
+	CREATE_MERGE_COMMIT_IF_NECESSARY("Only create merge commit if target branch can not be fast-forwarded to source branch"),
+	SQUASH_SOURCE_BRANCH_COMMITS("Squash all commits from source branch into a single commit in target branch"),
+	REBASE_SOURCE_BRANCH_COMMITS("Rebase all commits from source branch onto target branch");
 
 	private final String description;
 	
@@ -86,8 +26,5 @@ public enum MergeStrategy {
 	public static MergeStrategy fromString(String displayName) {
 		return MergeStrategy.valueOf(WordUtils.toUnderscored(displayName));
 	}
-
-	@Nullable
-	public abstract ObjectId merge(PullRequest request);
 	
 }
\ No newline at end of file
@@ -17,6 +17,7 @@ import org.slf4j.LoggerFactory;
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.server.entitymanager.UrlManager;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
 import io.onedev.server.model.CommitQuerySetting;
 import io.onedev.server.model.Project;
 import io.onedev.server.model.User;
@@ -51,46 +52,63 @@ public class CommitNotificationManager {
 		}
 	}
 	
+	private Map<User, Collection<String>> getSubscribedQueryStrings(Project project) {
+		Map<User, Collection<String>> subscribedQueryStrings = new HashMap<>();
+		for (CommitQuerySetting setting: project.getUserCommitQuerySettings()) {
+			for (String name: setting.getQuerySubscriptionSupport().getQuerySubscriptions())
+				fillSubscribedQueryStrings(subscribedQueryStrings, setting.getUser(), NamedQuery.find(project.getNamedCommitQueries(), name));
+			for (String name: setting.getQuerySubscriptionSupport().getUserQuerySubscriptions()) 
+				fillSubscribedQueryStrings(subscribedQueryStrings, setting.getUser(), NamedQuery.find(setting.getUserQueries(), name));
+		}
+		return subscribedQueryStrings;
+	}
+	
 	@Sessional
 	@Listen
 	public void on(RefUpdated event) {
-		if (!event.getNewCommitId().equals(ObjectId.zeroId())) {
-			Project project = event.getProject();
-			Map<User, Collection<String>> subscribedQueryStrings = new HashMap<>();
-			for (CommitQuerySetting setting: project.getUserCommitQuerySettings()) {
-				for (String name: setting.getQuerySubscriptionSupport().getQuerySubscriptions())
-					fillSubscribedQueryStrings(subscribedQueryStrings, setting.getUser(), NamedQuery.find(project.getNamedCommitQueries(), name));
-				for (String name: setting.getQuerySubscriptionSupport().getUserQuerySubscriptions()) 
-					fillSubscribedQueryStrings(subscribedQueryStrings, setting.getUser(), NamedQuery.find(setting.getUserQueries(), name));
-			}
-			
-			Collection<String> notifyEmails = new HashSet<>();
-			for (Map.Entry<User, Collection<String>> entry: subscribedQueryStrings.entrySet()) {
-				User user = entry.getKey();
-				for (String queryString: entry.getValue()) {
-					User.push(user);
-					try {
-						if (CommitQuery.parse(project, queryString).matches(event)) {
-							notifyEmails.add(user.getEmail());
-							break;
-						}
-					} catch (Exception e) {
-						String message = String.format("Error processing commit subscription (user: %s, project: %s, commit: %s, query: %s)", 
-								user.getName(), project.getName(), event.getNewCommitId().name(), queryString);
-						logger.error(message, e);
-					} finally {
-						User.pop();
+		if (!event.getNewCommitId().equals(ObjectId.zeroId())) 
+			notifySubscribers(event, getSubscribedQueryStrings(event.getProject()));
+	}
+	
+	@Sessional
+	@Listen
+	public void on(RefsUpdated event) {
+		Map<User, Collection<String>> subscribedQueryStrings = getSubscribedQueryStrings(event.getProject());
+		for (RefUpdated refUpdated: event.getRefUpdates()) {
+			if (!refUpdated.getNewCommitId().equals(ObjectId.zeroId())) 
+				notifySubscribers(refUpdated, subscribedQueryStrings);
+		}
+	}
+	
+	private void notifySubscribers(RefUpdated event, Map<User, Collection<String>> subscribedQueryStrings) {
+		Project project = event.getProject();
+		
+		Collection<String> notifyEmails = new HashSet<>();
+		for (Map.Entry<User, Collection<String>> entry: subscribedQueryStrings.entrySet()) {
+			User user = entry.getKey();
+			for (String queryString: entry.getValue()) {
+				User.push(user);
+				try {
+					if (CommitQuery.parse(project, queryString).matches(event)) {
+						notifyEmails.add(user.getEmail());
+						break;
 					}
+				} catch (Exception e) {
+					String message = String.format("Error processing commit subscription (user: %s, project: %s, commit: %s, query: %s)", 
+							user.getName(), project.getName(), event.getNewCommitId().name(), queryString);
+					logger.error(message, e);
+				} finally {
+					User.pop();
 				}
 			}
-			
-			RevCommit commit = project.getRevCommit(event.getNewCommitId(), false);
-			if (commit != null) {
-				String subject = String.format("Subscribed commit at ref '%s': %s", event.getRefName(), commit.getShortMessage());
-				String url = urlManager.urlFor(project, commit);
-				String body = String.format("Visit <a href='%s'>%s</a> for details", url, url);
-				mailManager.sendMailAsync(notifyEmails, subject, body.toString());
-			}
+		}
+		
+		RevCommit commit = project.getRevCommit(event.getNewCommitId(), false);
+		if (commit != null) {
+			String subject = String.format("Subscribed commit at ref '%s': %s", event.getRefName(), commit.getShortMessage());
+			String url = urlManager.urlFor(project, commit);
+			String body = String.format("Visit <a href='%s'>%s</a> for details", url, url);
+			mailManager.sendMailAsync(notifyEmails, subject, body.toString());
 		}
 	}
 }
@@ -24,6 +24,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.server.event.ProjectEvent;
+import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
 import io.onedev.server.model.support.WebHook;
 import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.util.jackson.RestView;
@@ -49,6 +51,13 @@ public class WebHookManager {
 	@Sessional
 	@Listen
 	public void on(ProjectEvent event) {
+		// Web hooks expect an event for each updated ref
+		if (event instanceof RefsUpdated) {
+			for (RefUpdated refUpdated: ((RefsUpdated) event).getRefUpdates())
+				on(refUpdated);
+			return;
+		}
+		
 		String jsonOfEvent;
 		try {
 			jsonOfEvent = mapper.writeValueAsString(event);
@@ -0,0 +1,75 @@
+package io.onedev.server.persistence;
+
+import javax.annotation.Nullable;
+
+/**
+ * Journal of entity changes since last database backup, used to create incremental backups
+ */
+public interface ChangeJournal {
+
+	/**
+	 * Open the journal to continue recording from state saved when server was stopped last time
+	 */
+	void open();
+
+	/**
+	 * Save state of the journal so that it can be continued next time server starts
+	 */
+	void close();
+
+	void recordChange(Object entity, Long entityId);
+
+	/**
+	 * Inspect specified sql statement to record tables updated in bulk
+	 */
+	void recordStatement(String sql);
+
+	/**
+	 * Changes recorded in current transaction only take effect after transaction completes,
+	 * so that they will not be taken before visible to backup
+	 */
+	void transactionCompleted();
+
+	/**
+	 * Take changes recorded since last backup for a new backup
+	 *
+	 * @return
+	 * 			changes since last backup, or <tt>null</tt> if there is no last backup or
+	 * 			changes since last backup are not fully recorded, for instance server
+	 * 			was not stopped gracefully, or database was modified by maintenance commands
+	 */
+	@Nullable
+	EntityChanges takeChanges();
+
+	/**
+	 * @return
+	 * 			file name of last backup, or <tt>null</tt> if there is no last backup
+	 */
+	@Nullable
+	String getLastBackup();
+
+	/**
+	 * @return
+	 * 			number of incremental backups since last full backup
+	 */
+	int getIncrementalBackups();
+
+	/**
+	 * Called when a backup is created successfully
+	 *
+	 * @param backup
+	 * 			file name of created backup
+	 * @param incremental
+	 * 			whether or not created backup is incremental
+	 */
+	void backupCreated(String backup, boolean incremental);
+
+	/**
+	 * Called when a backup fails
+	 *
+	 * @param changes
+	 * 			changes taken for the backup, which will be put back into the journal
+	 */
+	void backupFailed(@Nullable EntityChanges changes);
+
+}
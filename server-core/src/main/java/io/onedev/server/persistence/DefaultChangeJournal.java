@@ -0,0 +1,235 @@
+package io.onedev.server.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxyHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.maintenance.Upgrade;
+
+@Singleton
+public class DefaultChangeJournal implements ChangeJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultChangeJournal.class);
+
+	private static final String FILE_NAME = "change-journal";
+
+	private final Provider<SessionFactory> sessionFactoryProvider;
+
+	// Changes of current transaction of each thread
+	private final ThreadLocal<EntityChanges> pendingChanges = new ThreadLocal<EntityChanges>() {
+
+		@Override
+		protected EntityChanges initialValue() {
+			return new EntityChanges();
+		}
+
+	};
+
+	private volatile Map<String, TableInfo> tableInfos;
+
+	private State state;
+
+	private boolean complete;
+
+	private boolean closed;
+
+	@Inject
+	public DefaultChangeJournal(Provider<SessionFactory> sessionFactoryProvider) {
+		this.sessionFactoryProvider = sessionFactoryProvider;
+	}
+
+	public static File getFile() {
+		return new File(new File(Bootstrap.getSiteDir(), Upgrade.DB_BACKUP_DIR), FILE_NAME);
+	}
+
+	@Override
+	public synchronized void open() {
+		File file = getFile();
+		State savedState = null;
+		if (file.exists()) {
+			try {
+				savedState = SerializationUtils.deserialize(FileUtils.readFileToByteArray(file));
+			} catch (Exception e) {
+				logger.error("Error loading change journal, next backup will be a full backup", e);
+			}
+			// Journal will be saved again when server is stopped gracefully
+			FileUtils.deleteFile(file);
+		}
+		if (savedState != null) {
+			if (state != null)
+				savedState.changes.merge(state.changes);
+			state = savedState;
+			complete = true;
+		} else {
+			state = new State();
+			complete = false;
+		}
+		closed = false;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (state != null && complete && state.lastBackup != null) {
+			File file = getFile();
+			try {
+				FileUtils.createDir(file.getParentFile());
+				FileUtils.writeByteArrayToFile(file, SerializationUtils.serialize(state));
+			} catch (IOException e) {
+				logger.error("Error saving change journal", e);
+				FileUtils.deleteFile(file);
+			}
+		}
+		closed = true;
+	}
+
+	@Override
+	public void recordChange(Object entity, Long entityId) {
+		if (entityId != null) {
+			String entityName = HibernateProxyHelper.getClassWithoutInitializingProxy(entity).getSimpleName();
+			pendingChanges.get().addChangedId(entityName, entityId);
+		}
+	}
+
+	private Map<String, TableInfo> getTableInfos() {
+		if (tableInfos == null) {
+			Map<String, TableInfo> tableInfos = new HashMap<>();
+			SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) sessionFactoryProvider.get();
+			for (EntityPersister persister: sessionFactory.getMetamodel().entityPersisters().values()) {
+				if (persister instanceof AbstractEntityPersister) {
+					AbstractEntityPersister entityPersister = (AbstractEntityPersister) persister;
+					tableInfos.put(entityPersister.getTableName().toLowerCase(), new TableInfo(
+							entityPersister.getMappedClass().getSimpleName(),
+							entityPersister.getIdentifierColumnNames()[0].toLowerCase()));
+				}
+			}
+			this.tableInfos = tableInfos;
+		}
+		return tableInfos;
+	}
+
+	/*
+	 * Statements updating a single entity by id are issued by Hibernate when flushing dirty
+	 * entities, which are already recorded via recordChange. Other update statements come from
+	 * bulk queries, and all entities of the table are considered changed. Delete statements
+	 * are ignored as deletions are detected via entity ids in incremental backups
+	 */
+	@Override
+	public void recordStatement(String sql) {
+		sql = sql.trim();
+		if (sql.regionMatches(true, 0, "update ", 0, "update ".length())) {
+			sql = sql.toLowerCase();
+			int index = sql.indexOf(' ', "update ".length());
+			if (index != -1) {
+				TableInfo tableInfo = getTableInfos().get(sql.substring("update ".length(), index));
+				if (tableInfo != null && !sql.replace(" ", "").endsWith("where" + tableInfo.idColumn + "=?"))
+					pendingChanges.get().addBulkUpdatedEntity(tableInfo.entityName);
+			}
+		}
+	}
+
+	@Override
+	public void transactionCompleted() {
+		EntityChanges changes = pendingChanges.get();
+		if (!changes.isEmpty()) {
+			pendingChanges.remove();
+			synchronized (this) {
+				if (closed) {
+					// Changes after journal is saved can not be recorded any more
+					FileUtils.deleteFile(getFile());
+					complete = false;
+				}
+				if (state == null)
+					state = new State();
+				state.changes.merge(changes);
+			}
+		}
+	}
+
+	@Override
+	public synchronized EntityChanges takeChanges() {
+		if (state == null)
+			state = new State();
+		EntityChanges changes = state.changes;
+		state.changes = new EntityChanges();
+		if (complete && state.lastBackup != null) {
+			return changes;
+		} else {
+			// Backup taken without changes will be a full backup, and journal is complete since then
+			complete = true;
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized String getLastBackup() {
+		return state != null? state.lastBackup: null;
+	}
+
+	@Override
+	public synchronized int getIncrementalBackups() {
+		return state != null? state.incrementalBackups: 0;
+	}
+
+	@Override
+	public synchronized void backupCreated(String backup, boolean incremental) {
+		if (state == null)
+			state = new State();
+		state.lastBackup = backup;
+		if (incremental)
+			state.incrementalBackups++;
+		else
+			state.incrementalBackups = 0;
+	}
+
+	@Override
+	public synchronized void backupFailed(@Nullable EntityChanges changes) {
+		if (changes != null)
+			state.changes.merge(changes);
+		else
+			complete = false;
+	}
+
+	private static class State implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		EntityChanges changes = new EntityChanges();
+
+		String lastBackup;
+
+		int incrementalBackups;
+
+	}
+
+	private static class TableInfo {
+
+		final String entityName;
+
+		final String idColumn;
+
+		TableInfo(String entityName, String idColumn) {
+			this.entityName = entityName;
+			this.idColumn = idColumn;
+		}
+
+	}
+
+}
@@ -1,30 +1,52 @@
 package io.onedev.server.persistence;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import javax.annotation.Nullable;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.ManyToOne;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
 import javax.persistence.metamodel.EntityType;
 
+import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
+import org.dom4j.io.XMLWriter;
 import org.hibernate.Interceptor;
 import org.hibernate.ReplicationMode;
 import org.hibernate.Session;
@@ -43,8 +65,10 @@ import org.hibernate.tool.hbm2ddl.SchemaExport;
 import org.hibernate.tool.schema.TargetType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -56,9 +80,10 @@ import io.onedev.server.migration.MigrationHelper;
 import io.onedev.server.migration.VersionedDocument;
 import io.onedev.server.model.AbstractEntity;
 import io.onedev.server.model.ModelVersion;
-import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.search.entity.EntityCriteria;
 import io.onedev.server.util.BeanUtils;
+import io.onedev.server.util.concurrent.ParallelUtils;
 import io.onedev.server.util.validation.EntityValidator;
 
 @Singleton
@@ -66,6 +91,20 @@ public class DefaultPersistManager implements PersistManager {
 
 	private static final int BACKUP_BATCH_SIZE = 1000;
 	
+	private static final int IMPORT_FLUSH_SIZE = 1000;
+	
+	private static final int ID_BATCH_SIZE = 10000;
+	
+	/**
+	 * Presence of this file in a backup indicates an incremental backup
+	 */
+	public static final String INCREMENTAL_BACKUP_FILE = "incremental.properties";
+	
+	public static final String BASE_BACKUP_PROPERTY = "base";
+	
+	// Tables are exported/imported in parallel with limited concurrency to not exhaust database connections
+	private static final int MAX_CONCURRENCY = 4;
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultPersistManager.class);
 	
 	protected final PhysicalNamingStrategy physicalNamingStrategy;
@@ -380,95 +419,389 @@ public class DefaultPersistManager implements PersistManager {
 		return sorted;
 	}
 	
+	/**
+	 * Group entity types into levels, so that entity types only depend on entity types of 
+	 * lower levels. Entity types of the same level can then be processed in parallel 
+	 * 
+	 * @param entityTypes
+	 * 			entity types ordered with dependencies first
+	 */
+	private Collection<List<Class<?>>> getEntityTypeLevels(List<Class<?>> entityTypes) {
+		Map<Class<?>, Integer> levels = new HashMap<>();
+		Map<Integer, List<Class<?>>> entityTypesByLevel = new TreeMap<>();
+		for (Class<?> entityType: entityTypes) {
+			int level = 0;
+			for (Map.Entry<Class<?>, Integer> entry: levels.entrySet()) {
+				if (hasForeignKeyDependency(entityType, entry.getKey()) && entry.getValue() >= level)
+					level = entry.getValue() + 1;
+			}
+			levels.put(entityType, level);
+			List<Class<?>> entityTypesOfLevel = entityTypesByLevel.get(level);
+			if (entityTypesOfLevel == null) {
+				entityTypesOfLevel = new ArrayList<>();
+				entityTypesByLevel.put(level, entityTypesOfLevel);
+			}
+			entityTypesOfLevel.add(entityType);
+		}
+		return entityTypesByLevel.values();
+	}
+	
+	private void runInParallel(Collection<Callable<Void>> tasks) {
+		ParallelUtils.invokeAll("persist-manager", MAX_CONCURRENCY, tasks);
+	}
+	
 	@Override
 	public void exportData(File exportDir) {
 		exportData(exportDir, BACKUP_BATCH_SIZE);
 	}
 	
-	@Sessional
 	@Override
 	public void exportData(File exportDir, int batchSize) {
-		Session session = sessionFactory.openSession();
-		for (Class<?> entityType: getEntityTypes(sessionFactory)) {
-			logger.info("Exporting table '" + entityType.getSimpleName() + "'...");
-			
-			logger.info("Querying table ids...");
-			
-			CriteriaBuilder builder = sessionFactory.getCriteriaBuilder();
-			CriteriaQuery<Number> query = builder.createQuery(Number.class);
-			Root<?> root = query.from(entityType);
-			query.select(root.get("id")).orderBy(builder.asc(root.get("id")));
-			
-			List<Number> ids = session.createQuery(query).list();
-			
-			int count = ids.size();
+		exportData(new DataFileWriter() {
+
+			@Override
+			public void write(String fileName, byte[] content) {
+				try {
+					FileUtils.writeByteArrayToFile(new File(exportDir, fileName), content);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
 			
-			for (int i=0; i<count/batchSize; i++) {
-				exportEntity(session, entityType, ids, i*batchSize, batchSize, batchSize, exportDir);
-				// clear session to free memory
-				session.clear();
+		}, batchSize);
+	}
+	
+	private DataFileWriter newDataFileWriter(ZipOutputStream zos) {
+		return new DataFileWriter() {
+
+			@Override
+			public void write(String fileName, byte[] content) {
+				synchronized (zos) {
+					try {
+						zos.putNextEntry(new ZipEntry(fileName));
+						zos.write(content);
+						zos.closeEntry();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
 			}
 			
-			if (count%batchSize != 0) {
-				exportEntity(session, entityType, ids, count/batchSize*batchSize, count%batchSize, batchSize, exportDir);
+		};
+	}
+	
+	@Override
+	public void exportData(OutputStream os) {
+		ZipOutputStream zos = new ZipOutputStream(os);
+		exportData(newDataFileWriter(zos), BACKUP_BATCH_SIZE);
+		try {
+			zos.finish();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/*
+	 * Changed entities are exported in the same format as full backups, while tables updated 
+	 * in bulk and the version table are exported fully. Ids of all existing entities are 
+	 * written to "<entity name>s.ids" so that deleted entities can be removed when restoring
+	 */
+	@Override
+	public void exportChanges(OutputStream os, EntityChanges changes, String baseBackup) {
+		ZipOutputStream zos = new ZipOutputStream(os);
+		DataFileWriter dataFileWriter = newDataFileWriter(zos);
+		
+		Properties props = new Properties();
+		props.setProperty(BASE_BACKUP_PROPERTY, baseBackup);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			props.store(baos, null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		dataFileWriter.write(INCREMENTAL_BACKUP_FILE, baos.toByteArray());
+		
+		Collection<Callable<Void>> tasks = new ArrayList<>();
+		for (Class<?> entityType: getEntityTypes(sessionFactory)) {
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					exportIds(entityType, dataFileWriter);
+					String entityName = entityType.getSimpleName();
+					if (entityType == ModelVersion.class || changes.isBulkUpdated(entityName)) {
+						exportEntity(entityType, dataFileWriter, BACKUP_BATCH_SIZE, null);
+					} else {
+						Collection<Long> changedIds = changes.getChangedIds(entityName);
+						if (!changedIds.isEmpty())
+							exportEntity(entityType, dataFileWriter, BACKUP_BATCH_SIZE, changedIds);
+					}
+					return null;
+				}
+				
+			});
+		}
+		runInParallel(tasks);
+		
+		try {
+			zos.finish();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private String getIdsFileName(Class<?> entityType) {
+		return entityType.getSimpleName() + "s.ids";
+	}
+	
+	private void exportIds(Class<?> entityType, DataFileWriter dataFileWriter) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Session session = sessionFactory.openSession();
+		try (Writer writer = new OutputStreamWriter(baos, StandardCharsets.UTF_8)) {
+			session.setDefaultReadOnly(true);
+			Long lastId = Long.MIN_VALUE;
+			while (true) {
+				Query<Long> query = session.createQuery("select id from " + entityType.getSimpleName() 
+						+ " where id>:lastId order by id", Long.class);
+				query.setParameter("lastId", lastId);
+				query.setMaxResults(ID_BATCH_SIZE);
+				List<Long> ids = query.list();
+				for (Long id: ids) 
+					writer.write(id + "\n");
+				if (ids.size() < ID_BATCH_SIZE)
+					break;
+				lastId = ids.get(ids.size()-1);
 			}
-			logger.info("");
+		} finally {
+			session.close();
+		}
+		dataFileWriter.write(getIdsFileName(entityType), baos.toByteArray());
+	}
+	
+	/*
+	 * Read ids written by exportIds, which are in ascending order
+	 */
+	@Nullable
+	private long[] readIds(File dataDir, Class<?> entityType) {
+		File idsFile = new File(dataDir, getIdsFileName(entityType));
+		if (idsFile.exists()) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+					FileUtils.openInputStream(idsFile), StandardCharsets.UTF_8))) {
+				long[] ids = new long[ID_BATCH_SIZE];
+				int count = 0;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (count == ids.length)
+						ids = Arrays.copyOf(ids, ids.length*2);
+					ids[count++] = Long.parseLong(line);
+				}
+				return Arrays.copyOf(ids, count);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			return null;
 		}
 	}
+	
+	/*
+	 * Tables are exported in parallel, each walking its rows by id in batches, and each batch 
+	 * is written to its own data file entity by entity without building a document of the whole 
+	 * batch
+	 */
+	private void exportData(DataFileWriter dataFileWriter, int batchSize) {
+		Collection<Callable<Void>> tasks = new ArrayList<>();
+		for (Class<?> entityType: getEntityTypes(sessionFactory)) {
+			tasks.add(new Callable<Void>() {
 
-	private void exportEntity(Session session, Class<?> entityType, List<Number> ids, int start, int count, int batchSize, File exportDir) {
-		logger.info("Loading table rows ({}->{}) from database...", String.valueOf(start+1), (start + count));
+				@Override
+				public Void call() throws Exception {
+					exportEntity(entityType, dataFileWriter, batchSize, null);
+					return null;
+				}
+				
+			});
+		}
+		runInParallel(tasks);
+	}
+	
+	/**
+	 * @param ids
+	 * 			ids of entities to export, <tt>null</tt> to export all entities
+	 */
+	private void exportEntity(Class<?> entityType, DataFileWriter dataFileWriter, int batchSize, 
+			@Nullable Collection<Long> ids) throws IOException {
+		logger.info("Exporting table '" + entityType.getSimpleName() + "'...");
 		
-		Query<?> query = session.createQuery("from " + entityType.getSimpleName() + " where id>=:fromId and id<=:toId");
-		query.setParameter("fromId", ids.get(start));
-		query.setParameter("toId", ids.get(start+count-1));
+		long time = System.currentTimeMillis();
+		long rowCount = 0;
+		long byteCount = 0;
+		Session session = sessionFactory.openSession();
+		try {
+			session.setDefaultReadOnly(true);
+			Iterator<List<Long>> idBatches = null;
+			if (ids != null) {
+				List<Long> sortedIds = ids.stream().sorted().collect(Collectors.toList());
+				idBatches = Lists.partition(sortedIds, Math.min(batchSize, EntityCriteria.IN_CLAUSE_LIMIT)).iterator();
+			}
+			Long lastId = Long.MIN_VALUE;
+			for (int batch = 1;;) {
+				List<?> entities;
+				if (idBatches != null) {
+					if (!idBatches.hasNext())
+						break;
+					Query<?> query = session.createQuery("from " + entityType.getSimpleName() + " where id in :ids order by id");
+					query.setParameter("ids", idBatches.next());
+					entities = query.list();
+					// Entities might have been deleted since changed
+					if (entities.isEmpty())
+						continue;
+				} else {
+					Query<?> query = session.createQuery("from " + entityType.getSimpleName() + " where id>:lastId order by id");
+					query.setParameter("lastId", lastId);
+					query.setMaxResults(batchSize);
+					entities = query.list();
+					if (entities.isEmpty())
+						break;
+				}
+				
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				OutputFormat format = new OutputFormat();
+				format.setIndent(true);
+				format.setNewlines(true);
+				format.setEncoding(StandardCharsets.UTF_8.name());
+				XMLWriter writer = new XMLWriter(baos, format);
+				writer.startDocument();
+				Element listElement = DocumentHelper.createElement("list");
+				writer.writeOpen(listElement);
+				for (Object entity: entities) {
+					writer.write(VersionedDocument.fromBean(entity).getRootElement());
+					lastId = ((AbstractEntity) entity).getId();
+				}
+				writer.writeClose(listElement);
+				writer.endDocument();
+				writer.flush();
+				
+				String fileName;
+				if (batch == 1)
+					fileName = entityType.getSimpleName() + "s.xml";
+				else
+					fileName = entityType.getSimpleName() + "s.xml." + batch;
+				dataFileWriter.write(fileName, baos.toByteArray());
+				batch++;
+				
+				rowCount += entities.size();
+				byteCount += baos.size();
+				
+				// clear session to free memory
+				session.clear();
+				
+				if (idBatches == null && entities.size() < batchSize)
+					break;
+			}
+		} catch (SAXException e) {
+			throw new RuntimeException(e);
+		} finally {
+			session.close();
+		}
 		
-		logger.info("Converting table rows to XML...");
-		VersionedDocument dom = new VersionedDocument();
-		Element rootElement = dom.addElement("list");
-		for (Object entity: query.list())
-			rootElement.appendContent(VersionedDocument.fromBean(entity));
-		String fileName;
+		long duration = Math.max(System.currentTimeMillis() - time, 1);
+		logger.info("Exported table '{}' (rows: {}, size: {}, duration: {} ms, throughput: {} rows/s)", 
+				entityType.getSimpleName(), rowCount, FileUtils.byteCountToDisplaySize(byteCount), 
+				duration, rowCount*1000/duration);
+	}
+	
+	private File[] getDataFiles(File dataDir, Class<?> entityType) {
+		return dataDir.listFiles(new FilenameFilter() {
 
-		if (start == 0)
-			fileName = entityType.getSimpleName() + "s.xml";
-		else
-			fileName = entityType.getSimpleName() + "s.xml." + (start/batchSize + 1);
-		
-		logger.info("Writing resulting XML to file '" + fileName + "...");
-		dom.writeToFile(new File(exportDir, fileName), true);
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(entityType.getSimpleName() + "s.xml");
+			}
+			
+		});
 	}
+	
+	/*
+	 * Read entities of specified data file one by one, without holding the whole document 
+	 * in memory
+	 */
+	private void readEntities(File dataFile, EntityHandler entityHandler) {
+		SAXReader reader = new SAXReader();
+		reader.setDefaultHandler(new ElementHandler() {
+
+			@Override
+			public void onStart(ElementPath elementPath) {
+			}
 
+			@Override
+			public void onEnd(ElementPath elementPath) {
+				if (elementPath.size() == 2) {
+					Element element = elementPath.getCurrent();
+					element.detach();
+					entityHandler.handle((AbstractEntity) new VersionedDocument(DocumentHelper.createDocument(element)).toBean());
+				}
+			}
+			
+		});
+		try {
+			reader.read(dataFile);
+		} catch (DocumentException e) {
+			throw ExceptionUtils.unchecked(e);
+		}
+	}
+	
 	/*
 	 * We do not use @Transactional annotation and will manage the session and transaction manually 
-	 * in this method to reduce memory usage if importing a large database.
+	 * in this method to reduce memory usage if importing a large database. Tables not depending on 
+	 * each other are imported in parallel 
 	 */
-	@Sessional
 	@Override
 	public void importData(Metadata metadata, File dataDir) {
-		Session session = dao.getSession();
+		importData(dataDir, ReplicationMode.EXCEPTION);
+	}
+	
+	private void importData(File dataDir, ReplicationMode replicationMode) {
 		List<Class<?>> entityTypes = getEntityTypes(sessionFactory);
 		Collections.reverse(entityTypes);
-		for (Class<?> entityType: entityTypes) {
-			File[] dataFiles = dataDir.listFiles(new FilenameFilter() {
+		for (List<Class<?>> entityTypesOfLevel: getEntityTypeLevels(entityTypes)) {
+			Collection<Callable<Void>> tasks = new ArrayList<>();
+			for (Class<?> entityType: entityTypesOfLevel) {
+				tasks.add(new Callable<Void>() {
 
-				@Override
-				public boolean accept(File dir, String name) {
-					return name.startsWith(entityType.getSimpleName() + "s.xml");
-				}
-				
-			});
-			for (File file: dataFiles) {
+					@Override
+					public Void call() throws Exception {
+						importEntity(entityType, dataDir, replicationMode);
+						return null;
+					}
+					
+				});
+			}
+			runInParallel(tasks);
+		}
+	}
+	
+	private void importEntity(Class<?> entityType, File dataDir, ReplicationMode replicationMode) {
+		long time = System.currentTimeMillis();
+		AtomicLong rowCount = new AtomicLong(0);
+		Session session = sessionFactory.openSession();
+		try {
+			for (File file: getDataFiles(dataDir, entityType)) {
 				Transaction transaction = session.beginTransaction();
 				try {
 					logger.info("Importing from data file '" + file.getName() + "'...");
-					VersionedDocument dom = VersionedDocument.fromFile(file);
-					
-					for (Element element: dom.getRootElement().elements()) {
-						element.detach();
-						AbstractEntity entity = (AbstractEntity) new VersionedDocument(DocumentHelper.createDocument(element)).toBean();
-						session.replicate(entity, ReplicationMode.EXCEPTION);
-					}
+					readEntities(file, new EntityHandler() {
+
+						@Override
+						public void handle(AbstractEntity entity) {
+							session.replicate(entity, replicationMode);
+							if (rowCount.incrementAndGet() % IMPORT_FLUSH_SIZE == 0) {
+								session.flush();
+								session.clear();
+							}
+						}
+						
+					});
 					session.flush();
 					session.clear();
 					transaction.commit();
@@ -477,36 +810,151 @@ public class DefaultPersistManager implements PersistManager {
 					throw ExceptionUtils.unchecked(e);
 				}
 			}
-		}	
+		} finally {
+			session.close();
+		}
+		
+		if (rowCount.get() != 0) {
+			long duration = Math.max(System.currentTimeMillis() - time, 1);
+			logger.info("Imported table '{}' (rows: {}, duration: {} ms, throughput: {} rows/s)", 
+					entityType.getSimpleName(), rowCount.get(), duration, rowCount.get()*1000/duration);
+		}
 	}
 	
-	protected void validateData(Metadata metadata, File dataDir) {
-		List<Class<?>> entityTypes = getEntityTypes(sessionFactory);
-		Collections.reverse(entityTypes);
-		for (Class<?> entityType: entityTypes) {
-			File[] dataFiles = dataDir.listFiles(new FilenameFilter() {
+	/**
+	 * Incremental backups are not migrated, so their data version should match data version 
+	 * of current program
+	 */
+	protected void checkIncrementalDataVersion(File dataDir) {
+		String appDataVersion = MigrationHelper.getVersion(DataMigrator.class);
+		VersionedDocument dom = VersionedDocument.fromFile(getVersionFile(dataDir));
+		List<Element> elements = dom.getRootElement().elements();
+		if (elements.size() != 1 || !appDataVersion.equals(elements.iterator().next().elementText(getVersionFieldName()))) {
+			throw new RuntimeException("Data version of incremental backup does not match data version of "
+					+ "current program. Please restore it with the program creating it");
+		}
+	}
+	
+	/**
+	 * Apply specified incremental backup to database restored from its base backup. Entities 
+	 * not existing in the incremental backup are deleted, and entities contained in the 
+	 * incremental backup are inserted or overwritten
+	 */
+	protected void applyIncrementalData(Metadata metadata, File dataDir) {
+		checkIncrementalDataVersion(dataDir);
+		validateData(metadata, dataDir);
+		
+		Collection<Callable<Void>> tasks = new ArrayList<>();
+		for (Class<?> entityType: getEntityTypes(sessionFactory)) {
+			long[] ids = readIds(dataDir, entityType);
+			if (ids != null) {
+				tasks.add(new Callable<Void>() {
 
-				@Override
-				public boolean accept(File dir, String name) {
-					return name.startsWith(entityType.getSimpleName() + "s.xml");
+					@Override
+					public Void call() throws Exception {
+						deleteEntities(entityType, ids);
+						return null;
+					}
+					
+				});
+			}
+		}
+		runInParallel(tasks);
+		
+		importData(dataDir, ReplicationMode.OVERWRITE);
+	}
+	
+	/*
+	 * Delete entities whose ids are not in specified ids. Foreign key constraints are not applied 
+	 * while restoring, so entity types can be processed in any order
+	 */
+	private void deleteEntities(Class<?> entityType, long[] ids) {
+		long deleteCount = 0;
+		Session session = sessionFactory.openSession();
+		try {
+			List<Long> idsToDelete = new ArrayList<>();
+			Long lastId = Long.MIN_VALUE;
+			int index = 0;
+			while (true) {
+				Query<Long> query = session.createQuery("select id from " + entityType.getSimpleName() 
+						+ " where id>:lastId order by id", Long.class);
+				query.setParameter("lastId", lastId);
+				query.setMaxResults(ID_BATCH_SIZE);
+				List<Long> dbIds = query.list();
+				for (Long dbId: dbIds) {
+					while (index < ids.length && ids[index] < dbId)
+						index++;
+					if (index == ids.length || ids[index] != dbId)
+						idsToDelete.add(dbId);
 				}
-				
-			});
-			for (File file: dataFiles) {
+				if (dbIds.size() < ID_BATCH_SIZE)
+					break;
+				lastId = dbIds.get(dbIds.size()-1);
+			}
+			
+			for (List<Long> batch: Lists.partition(idsToDelete, EntityCriteria.IN_CLAUSE_LIMIT)) {
+				Transaction transaction = session.beginTransaction();
 				try {
-					logger.info("Validating data file '" + file.getName() + "'...");
-					VersionedDocument dom = VersionedDocument.fromFile(file);
-					
-					for (Element element: dom.getRootElement().elements()) {
-						element.detach();
-						AbstractEntity entity = (AbstractEntity) new VersionedDocument(DocumentHelper.createDocument(element)).toBean();
-						validator.validate(entity);
-					}
+					Query<?> query = session.createQuery("delete from " + entityType.getSimpleName() + " where id in :ids");
+					query.setParameter("ids", batch);
+					deleteCount += query.executeUpdate();
+					transaction.commit();
 				} catch (Exception e) {
+					transaction.rollback();
 					throw ExceptionUtils.unchecked(e);
 				}
 			}
-		}	
+		} finally {
+			session.close();
+		}
+		if (deleteCount != 0)
+			logger.info("Deleted {} rows from table '{}'", deleteCount, entityType.getSimpleName());
+	}
+	
+	/**
+	 * Discard journal of entity changes, so that next auto-backup will be a full backup. This 
+	 * should be called by maintenance commands modifying database
+	 */
+	protected void discardChangeJournal() {
+		FileUtils.deleteFile(DefaultChangeJournal.getFile());
+	}
+	
+	protected void validateData(Metadata metadata, File dataDir) {
+		Collection<Callable<Void>> tasks = new ArrayList<>();
+		for (Class<?> entityType: getEntityTypes(sessionFactory)) {
+			for (File file: getDataFiles(dataDir, entityType)) {
+				tasks.add(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						logger.info("Validating data file '" + file.getName() + "'...");
+						readEntities(file, new EntityHandler() {
+
+							@Override
+							public void handle(AbstractEntity entity) {
+								validator.validate(entity);
+							}
+							
+						});
+						return null;
+					}
+					
+				});
+			}
+		}
+		runInParallel(tasks);
+	}
+	
+	private static interface DataFileWriter {
+		
+		void write(String fileName, byte[] content);
+		
+	}
+	
+	private static interface EntityHandler {
+		
+		void handle(AbstractEntity entity);
+		
 	}
 	
 	protected void applyConstraints(Metadata metadata) {
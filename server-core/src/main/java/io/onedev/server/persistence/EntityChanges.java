@@ -0,0 +1,68 @@
+package io.onedev.server.persistence;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Entities inserted or updated during a period. Deleted entities are not recorded, as
+ * incremental backups carry ids of all existing entities to detect deletions
+ */
+public class EntityChanges implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, Set<Long>> changedIds = new HashMap<>();
+
+	private final Set<String> bulkUpdatedEntities = new HashSet<>();
+
+	public void addChangedId(String entityName, Long entityId) {
+		Set<Long> changedIdsOfEntity = changedIds.get(entityName);
+		if (changedIdsOfEntity == null) {
+			changedIdsOfEntity = new HashSet<>();
+			changedIds.put(entityName, changedIdsOfEntity);
+		}
+		changedIdsOfEntity.add(entityId);
+	}
+
+	public void addBulkUpdatedEntity(String entityName) {
+		bulkUpdatedEntities.add(entityName);
+	}
+
+	/**
+	 * @return
+	 * 			ids of changed entities of specified entity name
+	 */
+	public Collection<Long> getChangedIds(String entityName) {
+		Set<Long> changedIdsOfEntity = changedIds.get(entityName);
+		if (changedIdsOfEntity != null)
+			return changedIdsOfEntity;
+		else
+			return new HashSet<>();
+	}
+
+	/**
+	 * @return
+	 * 			whether or not entities of specified name have been updated by bulk statements.
+	 * 			All entities of the name should be considered as changed in this case
+	 */
+	public boolean isBulkUpdated(String entityName) {
+		return bulkUpdatedEntities.contains(entityName);
+	}
+
+	public void merge(EntityChanges changes) {
+		for (Map.Entry<String, Set<Long>> entry: changes.changedIds.entrySet()) {
+			for (Long entityId: entry.getValue())
+				addChangedId(entry.getKey(), entityId);
+		}
+		bulkUpdatedEntities.addAll(changes.bulkUpdatedEntities);
+	}
+
+	public boolean isEmpty() {
+		return changedIds.isEmpty() && bulkUpdatedEntities.isEmpty();
+	}
+
+}
@@ -8,6 +8,7 @@ import javax.inject.Singleton;
 
 import org.hibernate.CallbackException;
 import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
 import org.hibernate.type.Type;
 
 @Singleton
@@ -17,9 +18,12 @@ public class HibernateInterceptor extends EmptyInterceptor {
 
 	private final Set<PersistListener> listeners;
 	
+	private final ChangeJournal changeJournal;
+	
 	@Inject
-	public HibernateInterceptor(Set<PersistListener> listeners) {
+	public HibernateInterceptor(Set<PersistListener> listeners, ChangeJournal changeJournal) {
 		this.listeners = listeners;
+		this.changeJournal = changeJournal;
 	}
 	
 	@Override
@@ -42,6 +46,7 @@ public class HibernateInterceptor extends EmptyInterceptor {
 			if (listener.onFlushDirty(entity, id, currentState, previousState, propertyNames, types))
 				changed = true;
 		}
+		changeJournal.recordChange(entity, (Long) id);
 			
 		return changed;
 	}
@@ -54,6 +59,7 @@ public class HibernateInterceptor extends EmptyInterceptor {
 			if (listener.onSave(entity, id, state, propertyNames, types))
 				changed = true;
 		}
+		changeJournal.recordChange(entity, (Long) id);
 		
 		return changed;
 	}
@@ -65,4 +71,15 @@ public class HibernateInterceptor extends EmptyInterceptor {
 			listener.onDelete(entity, id, state, propertyNames, types);
 	}
 
+	@Override
+	public String onPrepareStatement(String sql) {
+		changeJournal.recordStatement(sql);
+		return sql;
+	}
+
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		changeJournal.transactionCompleted();
+	}
+
 }
@@ -1,6 +1,7 @@
 package io.onedev.server.persistence;
 
 import java.io.File;
+import java.io.OutputStream;
 
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.Metadata;
@@ -17,6 +18,26 @@ public interface PersistManager {
 
 	void exportData(File dataDir);
 	
+	/**
+	 * Export data as a zip archive into specified stream, compressing on the fly
+	 */
+	void exportData(OutputStream os);
+	
+	/**
+	 * Export data changed since specified base backup as an incremental backup into specified 
+	 * stream. Besides changed entities, the incremental backup also contains ids of all 
+	 * existing entities to be able to detect deleted entities when restoring
+	 * 
+	 * @param os
+	 * 			stream to write incremental backup into
+	 * @param changes
+	 * 			entity changes since the base backup
+	 * @param baseBackup
+	 * 			file name of the base backup. Restoring an incremental backup requires its base 
+	 * 			backup being restored first
+	 */
+	void exportChanges(OutputStream os, EntityChanges changes, String baseBackup);
+	
 	// This method should only be called by a bootstrap action. That is, when the 
 	// server is stopped. So it does not need an exclusive database lock.
 	void importData(Metadata metadata, File dataDir);
@@ -19,6 +19,8 @@ import org.apache.shiro.authz.UnauthorizedException;
 import org.hibernate.criterion.Restrictions;
 
 import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.infomanager.CollectingProgress;
+import io.onedev.server.infomanager.CommitInfoManager;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.dao.EntityCriteria;
 import io.onedev.server.rest.jersey.ValidQueryParams;
@@ -32,9 +34,12 @@ public class ProjectResource {
 
 	private final ProjectManager projectManager;
 	
+	private final CommitInfoManager commitInfoManager;
+	
 	@Inject
-	public ProjectResource(ProjectManager projectManager) {
+	public ProjectResource(ProjectManager projectManager, CommitInfoManager commitInfoManager) {
 		this.projectManager = projectManager;
+		this.commitInfoManager = commitInfoManager;
 	}
 	
 	@ValidQueryParams
@@ -70,4 +75,19 @@ public class ProjectResource {
     		return project;
     }
 	
+	@Path("/{projectId}/commit-info-progress")
+    @GET
+    public Response getCommitInfoProgress(@PathParam("projectId") Long projectId) {
+    	Project project = projectManager.load(projectId);
+    	if (!SecurityUtils.canReadCode(project))
+			throw new UnauthorizedException("Unauthorized access to code of project " + project.getName());
+    	
+    	// No content if commit information of the project is not being collected
+    	CollectingProgress progress = commitInfoManager.getCollectingProgress(project);
+    	if (progress != null)
+    		return Response.ok(progress, RestConstants.JSON_UTF8).build();
+    	else
+    		return Response.noContent().build();
+    }
+	
 }
@@ -20,11 +20,28 @@ import static io.onedev.server.search.code.IndexConstants.NGRAM_SIZE;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -33,23 +50,33 @@ import org.apache.commons.lang.SerializationUtils;
 import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexFormatTooOldException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.eclipse.jgit.lib.AnyObjectId;
@@ -61,6 +88,8 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,8 +104,12 @@ import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
+import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.annotation.Sessional;
@@ -84,11 +117,15 @@ import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.ContentDetector;
 import io.onedev.server.util.IndexResult;
 import io.onedev.server.util.concurrent.Prioritized;
+import io.onedev.server.util.concurrent.PrioritizedCallable;
+import io.onedev.server.util.concurrent.PrioritizedFutureTask;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
 import io.onedev.server.util.work.BatchWorkManager;
 import io.onedev.server.util.work.BatchWorker;
 
 @Singleton
-public class DefaultIndexManager implements IndexManager {
+public class DefaultIndexManager implements IndexManager, SchedulableTask {
 	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultIndexManager.class);
 
@@ -96,7 +133,11 @@ public class DefaultIndexManager implements IndexManager {
 	
 	private static final int BACKEND_INDEXING_PRIORITY = 50;
 	
-	private static final int DATA_VERSION = 5;
+	private static final int DATA_VERSION = 6;
+	
+	private static final int MAX_OPEN_INDEXES = 100;
+	
+	private static final long INDEX_IDLE_TIMEOUT = 10*60*1000L;
 	
 	private final StorageManager storageManager;
 	
@@ -108,14 +149,130 @@ public class DefaultIndexManager implements IndexManager {
 	
 	private final ListenerRegistry listenerRegistry;
 	
+	private final TaskScheduler taskScheduler;
+	
+	private final SettingManager settingManager;
+	
+	private final Map<Long, ProjectIndex> projectIndexes = new ConcurrentHashMap<>();
+	
+	private final ThreadPoolExecutor indexingExecutor = new ThreadPoolExecutor(
+			1, 1, 1L, TimeUnit.MINUTES, new PriorityBlockingQueue<Runnable>()) {
+		
+		@Override
+		protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+			return new PrioritizedFutureTask<T>((PrioritizedCallable<T>)callable);
+		}
+
+	};
+	
+	private String taskId;
+	
 	@Inject
 	public DefaultIndexManager(ListenerRegistry listenerRegistry, StorageManager storageManager, 
-			BatchWorkManager batchWorkManager, SessionManager sessionManager, ProjectManager projectManager) {
+			BatchWorkManager batchWorkManager, SessionManager sessionManager, ProjectManager projectManager, 
+			TaskScheduler taskScheduler, SettingManager settingManager) {
 		this.listenerRegistry = listenerRegistry;
 		this.storageManager = storageManager;
 		this.batchWorkManager = batchWorkManager;
 		this.sessionManager = sessionManager;
 		this.projectManager = projectManager;
+		this.taskScheduler = taskScheduler;
+		this.settingManager = settingManager;
+		indexingExecutor.allowCoreThreadTimeOut(true);
+	}
+	
+	private int getIndexingParallelism() {
+		int parallelism = settingManager.getSystemSetting().getIndexingParallelism();
+		if (parallelism <= 0)
+			parallelism = Runtime.getRuntime().availableProcessors();
+		synchronized (indexingExecutor) {
+			if (parallelism > indexingExecutor.getMaximumPoolSize()) {
+				indexingExecutor.setMaximumPoolSize(parallelism);
+				indexingExecutor.setCorePoolSize(parallelism);
+			} else if (parallelism < indexingExecutor.getMaximumPoolSize()) {
+				indexingExecutor.setCorePoolSize(parallelism);
+				indexingExecutor.setMaximumPoolSize(parallelism);
+			}
+		}
+		return parallelism;
+	}
+	
+	/**
+	 * Get index of specified project. Index writer and searcher manager of the index are kept 
+	 * open to avoid re-opening them for every indexing and searching. Caller should hold lock of 
+	 * <tt>projectIndexes</tt>
+	 * 
+	 * @param create
+	 * 			whether or not to create the index if it does not exist yet
+	 * @return
+	 * 			index of specified project, or <tt>null</tt> if index does not exist and 
+	 * 			<tt>create</tt> is <tt>false</tt>
+	 */
+	@Nullable
+	private ProjectIndex getProjectIndex(Long projectId, boolean create) throws IOException {
+		ProjectIndex projectIndex = projectIndexes.get(projectId);
+		if (projectIndex == null) {
+			File indexDir = storageManager.getProjectIndexDir(projectId);
+			if (!create) {
+				try (Directory directory = FSDirectory.open(indexDir.toPath())) {
+					if (!DirectoryReader.indexExists(directory))
+						return null;
+				}
+			}
+			if (projectIndexes.size() >= MAX_OPEN_INDEXES) {
+				// Close least recently used index to bound number of open files
+				ProjectIndex leastRecentlyUsed = null;
+				for (ProjectIndex each: projectIndexes.values()) {
+					if (each.writing == 0 && (leastRecentlyUsed == null 
+							|| each.lastAccessTime < leastRecentlyUsed.lastAccessTime)) {
+						leastRecentlyUsed = each;
+					}
+				}
+				if (leastRecentlyUsed != null) {
+					projectIndexes.remove(leastRecentlyUsed.projectId);
+					leastRecentlyUsed.close();
+				}
+			}
+			projectIndex = new ProjectIndex(projectId, indexDir);
+			projectIndexes.put(projectId, projectIndex);
+		}
+		projectIndex.lastAccessTime = System.currentTimeMillis();
+		return projectIndex;
+	}
+	
+	@Override
+	public IndexSearcher acquireSearcher(Project project) throws InterruptedException {
+		try {
+			synchronized (projectIndexes) {
+				ProjectIndex projectIndex = getProjectIndex(project.getId(), false);
+				if (projectIndex != null)
+					return projectIndex.searcherManager.acquire();
+				else
+					return null;
+			}
+		} catch (ClosedByInterruptException e) {
+			// catch this exception and convert to normal InterruptedException as 
+			// we do not want to throw the original exception to surprise the user
+			// when they searches by typing fast (and subsequent typing will cancel 
+			// search of previous typing by interrupting previous search thread 
+			// which may opening the index if it is not opened yet
+			throw new InterruptedException();
+		} catch (IOException e) {
+			throw ExceptionUtils.unchecked(e);
+		}
+	}
+	
+	@Override
+	public void releaseSearcher(IndexSearcher searcher) {
+		try {
+			/*
+			 * This is what SearcherManager.release does, and it works even if the 
+			 * searcher manager has been closed due to index eviction
+			 */
+			searcher.getIndexReader().decRef();
+		} catch (IOException e) {
+			throw ExceptionUtils.unchecked(e);
+		}
 	}
 
 	private String getCommitIndexVersion(final IndexSearcher searcher, AnyObjectId commitId) throws IOException {
@@ -145,7 +302,7 @@ public class DefaultIndexManager implements IndexManager {
 	}
 	
 	private IndexResult index(Repository repository, AnyObjectId commitId, 
-			IndexWriter writer, final IndexSearcher searcher) throws Exception {
+			IndexWriter writer, final IndexSearcher searcher, int priority) throws Exception {
 		try (	RevWalk revWalk = new RevWalk(repository); 
 				TreeWalk treeWalk = new TreeWalk(repository)) {
 			treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
@@ -167,59 +324,65 @@ public class DefaultIndexManager implements IndexManager {
 				}
 			}
 	
-			int indexed = 0;
-			int checked = 0;
+			List<ChangedBlob> changedBlobs = new ArrayList<>();
 			while (treeWalk.next()) {
 				if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE 
 						&& (treeWalk.getTreeCount() == 1 || !treeWalk.idEqual(0, 1))) {
-					ObjectId blobId = treeWalk.getObjectId(0);
-					String blobPath = treeWalk.getPathString();
-					String blobName = treeWalk.getNameString();
-					
-					BooleanQuery.Builder builder = new BooleanQuery.Builder();
-					builder.add(BLOB_HASH.query(blobId.name()), Occur.MUST);
-					builder.add(BLOB_PATH.query(blobPath), Occur.MUST);
-					BooleanQuery query = builder.build();
-					
-					final AtomicReference<String> blobIndexVersionRef = new AtomicReference<>(null);
-					if (searcher != null) {
-						searcher.search(query, new SimpleCollector() {
-	
-							private LeafReaderContext context;
-	
-							@Override
-							public void collect(int doc) throws IOException {
-								blobIndexVersionRef.set(searcher.doc(context.docBase+doc).get(BLOB_INDEX_VERSION.name()));
-							}
-	
-							@Override
-							protected void doSetNextReader(LeafReaderContext context) throws IOException {
-								this.context = context;
-							}
+					changedBlobs.add(new ChangedBlob(treeWalk.getObjectId(0), treeWalk.getPathString(), 
+							treeWalk.getNameString()));
+				}
+			}
+			
+			int indexed = 0;
+			int checked = 0;
+			String[] blobIndexVersions;
+			if (searcher != null) {
+				blobIndexVersions = getBlobIndexVersions(searcher, changedBlobs);
+				checked = changedBlobs.size();
+			} else {
+				blobIndexVersions = new String[changedBlobs.size()];
+			}
+			
+			/*
+			 * Blob loading, content detection and symbol extraction are done in the indexing 
+			 * executor, and documents are added from there as index writer is thread safe. Number 
+			 * of pending blobs is bounded so that a large commit does not flood the executor and 
+			 * block indexing of other projects with higher priority  
+			 */
+			int parallelism = getIndexingParallelism();
+			Queue<Future<?>> futures = new ArrayDeque<>();
+			try {
+				for (int i=0; i<changedBlobs.size(); i++) {
+					ChangedBlob changedBlob = changedBlobs.get(i);
+					SymbolExtractor<Symbol> extractor = SymbolExtractorRegistry.getExtractor(changedBlob.name);
+					String currentBlobIndexVersion = getIndexVersion(extractor);
+					String blobIndexVersion = blobIndexVersions[i];
+					if (blobIndexVersion == null || !blobIndexVersion.equals(currentBlobIndexVersion)) {
+						if (blobIndexVersion != null) {
+							BooleanQuery.Builder builder = new BooleanQuery.Builder();
+							builder.add(BLOB_HASH.query(changedBlob.id.name()), Occur.MUST);
+							builder.add(BLOB_PATH.query(changedBlob.path), Occur.MUST);
+							writer.deleteDocuments(builder.build());
+						}
+						if (futures.size() >= parallelism*2) 
+							futures.remove().get();
+						futures.add(indexingExecutor.submit(new PrioritizedCallable<Void>(priority) {
 	
 							@Override
-							public boolean needsScores() {
-								return false;
+							public Void call() throws Exception {
+								indexBlob(writer, repository, extractor, changedBlob.id, changedBlob.path);
+								return null;
 							}
 							
-						});
-						checked++;
-					}
-	
-					SymbolExtractor<Symbol> extractor = SymbolExtractorRegistry.getExtractor(blobName);
-					String currentBlobIndexVersion = getIndexVersion(extractor);
-					String blobIndexVersion = blobIndexVersionRef.get();
-					if (blobIndexVersion != null) {
-						if (!blobIndexVersion.equals(currentBlobIndexVersion)) {
-							writer.deleteDocuments(query);
-							indexBlob(writer, repository, extractor, blobId, blobPath);
-							indexed++;
-						}
-					} else {
-						indexBlob(writer, repository, extractor, blobId, blobPath);
+						}));
 						indexed++;
 					}
 				}
+				while (!futures.isEmpty())
+					futures.remove().get();
+			} finally {
+				for (Future<?> future: futures)
+					future.cancel(false);
 			}
 	
 			// record current commit so that we know which commit has been indexed
@@ -239,11 +402,105 @@ public class DefaultIndexManager implements IndexManager {
 		}
 	}
 	
+	/**
+	 * Look up index versions of specified blobs in bulk. Instead of running a query for each blob, 
+	 * blob hashes are sorted and resolved in one forward pass over terms dictionary of each segment, 
+	 * and blob paths and index versions of matched documents are then read from doc values in 
+	 * document order
+	 * 
+	 * @return
+	 * 			index versions of specified blobs in the same order, with <tt>null</tt> element 
+	 * 			if corresponding blob is not indexed yet
+	 */
+	private String[] getBlobIndexVersions(IndexSearcher searcher, List<ChangedBlob> blobs) throws IOException {
+		String[] blobIndexVersions = new String[blobs.size()];
+		
+		Integer[] sortedBlobIndexes = new Integer[blobs.size()];
+		for (int i=0; i<sortedBlobIndexes.length; i++)
+			sortedBlobIndexes[i] = i;
+		Arrays.sort(sortedBlobIndexes, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return blobs.get(o1).id.compareTo(blobs.get(o2).id);
+			}
+			
+		});
+		
+		for (LeafReaderContext context: searcher.getIndexReader().leaves()) {
+			LeafReader reader = context.reader();
+			Terms terms = reader.terms(BLOB_HASH.name());
+			if (terms == null)
+				continue;
+			
+			// Pairs of document id and blob index
+			List<long[]> matches = new ArrayList<>();
+			TermsEnum termsEnum = terms.iterator();
+			Bits liveDocs = reader.getLiveDocs();
+			PostingsEnum postingsEnum = null;
+			for (int blobIndex: sortedBlobIndexes) {
+				if (termsEnum.seekExact(new BytesRef(blobs.get(blobIndex).id.name()))) {
+					postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
+					int doc = postingsEnum.nextDoc();
+					while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+						if (liveDocs == null || liveDocs.get(doc)) 
+							matches.add(new long[] {doc, blobIndex});
+						doc = postingsEnum.nextDoc();
+					}
+				}
+			}
+			if (matches.isEmpty())
+				continue;
+			
+			// Doc values can only be iterated forward
+			matches.sort(new Comparator<long[]>() {
+
+				@Override
+				public int compare(long[] o1, long[] o2) {
+					return Long.compare(o1[0], o2[0]);
+				}
+				
+			});
+			
+			BinaryDocValues blobPathValues = reader.getBinaryDocValues(BLOB_PATH.name());
+			if (blobPathValues == null)
+				continue;
+			SortedDocValues blobIndexVersionValues = reader.getSortedDocValues(BLOB_INDEX_VERSION.name());
+			
+			int lastDoc = -1;
+			String blobPath = null;
+			String blobIndexVersion = null;
+			for (long[] match: matches) {
+				int doc = (int) match[0];
+				if (doc != lastDoc) {
+					if (blobPathValues.advanceExact(doc))
+						blobPath = blobPathValues.binaryValue().utf8ToString();
+					else
+						blobPath = null;
+					/*
+					 * Documents indexed by older data version do not have index version doc values. 
+					 * Use an empty version for them so that they get deleted and indexed again
+					 */
+					if (blobIndexVersionValues != null && blobIndexVersionValues.advanceExact(doc))
+						blobIndexVersion = blobIndexVersionValues.binaryValue().utf8ToString();
+					else
+						blobIndexVersion = "";
+					lastDoc = doc;
+				}
+				int blobIndex = (int) match[1];
+				if (blobs.get(blobIndex).path.equals(blobPath))
+					blobIndexVersions[blobIndex] = blobIndexVersion;
+			}
+		}
+		return blobIndexVersions;
+	}
+	
 	private void indexBlob(IndexWriter writer, Repository repository, 
 			SymbolExtractor<Symbol> extractor, ObjectId blobId, String blobPath) throws IOException {
 		Document document = new Document();
 		
 		document.add(new StoredField(BLOB_INDEX_VERSION.name(), getIndexVersion(extractor)));
+		document.add(new SortedDocValuesField(BLOB_INDEX_VERSION.name(), new BytesRef(getIndexVersion(extractor))));
 		document.add(new StringField(BLOB_HASH.name(), blobId.name(), Store.NO));
 		document.add(new StringField(BLOB_PATH.name(), blobPath, Store.NO));
 		document.add(new BinaryDocValuesField(BLOB_PATH.name(), new BytesRef(blobPath.getBytes(StandardCharsets.UTF_8))));
@@ -308,8 +565,9 @@ public class DefaultIndexManager implements IndexManager {
 						Preconditions.checkState(works.size() == 1);
 
 						Project project = projectManager.load(projectId);
-						ObjectId commitId = ((IndexWork) works.iterator().next()).getCommitId();
-						doIndex(project, commitId);
+						IndexWork work = (IndexWork) works.iterator().next();
+						ObjectId commitId = work.getCommitId();
+						doIndex(project, commitId, work.getPriority());
 						
 						listenerRegistry.post(new CommitIndexed(project, commitId.copy()));
 					}
@@ -320,36 +578,64 @@ public class DefaultIndexManager implements IndexManager {
 		};
 	}
 
-	private IndexResult doIndex(Project project, ObjectId commit, Directory directory, IndexSearcher searcher) {
-		IndexWriterConfig writerConfig = new IndexWriterConfig(new NGramAnalyzer(NGRAM_SIZE, NGRAM_SIZE));
-		writerConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
-		try (IndexWriter writer = new IndexWriter(directory, writerConfig)) {
-			try {
-				logger.debug("Indexing commit (project: {}, commit: {})", project.getName(), commit.getName());
-				IndexResult indexResult = index(project.getRepository(), commit, writer, searcher);
-				writer.commit();
-				return indexResult;
-			} catch (Exception e) {
-				writer.rollback();
-				throw ExceptionUtils.unchecked(e);
+	private IndexResult doIndex(Project project, ObjectId commit, int priority) {
+		try {
+			ProjectIndex projectIndex;
+			synchronized (projectIndexes) {
+				projectIndex = getProjectIndex(project.getId(), true);
+				projectIndex.writing++;
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
-	private IndexResult doIndex(Project project, ObjectId commit) {
-		try (Directory directory = FSDirectory.open(storageManager.getProjectIndexDir(project.getId()).toPath())) {
-			if (DirectoryReader.indexExists(directory)) {
-				try (IndexReader reader = DirectoryReader.open(directory)) {
-					IndexSearcher searcher = new IndexSearcher(reader);
+			try {
+				/*
+				 * Changes are not committed after indexing each commit. Instead near-real-time 
+				 * searcher is refreshed to see them, and they are committed periodically or when 
+				 * index is closed. Uncommitted commits lost due to crash will simply be indexed 
+				 * again when needed
+				 */
+				projectIndex.searcherManager.maybeRefreshBlocking();
+				IndexSearcher searcher = projectIndex.searcherManager.acquire();
+				try {
 					if (getIndexVersion().equals(getCommitIndexVersion(searcher, commit)))
 						return new IndexResult(0, 0);
-					else
-						return doIndex(project, commit, directory, searcher);
+					
+					logger.debug("Indexing commit (project: {}, commit: {})", project.getName(), commit.getName());
+					IndexResult indexResult;
+					try {
+						indexResult = index(project.getRepository(), commit, projectIndex.writer, searcher, priority);
+					} catch (Exception e) {
+						synchronized (projectIndexes) {
+							projectIndexes.remove(project.getId());
+						}
+						projectIndex.writer.rollback();
+						projectIndex.close();
+						
+						/*
+						 * Rollback also discards previously indexed commits not committed yet, which 
+						 * have already been announced as indexed. Index them again
+						 */
+						Collection<ObjectId> discardedCommits;
+						synchronized (projectIndex.uncommittedCommits) {
+							discardedCommits = new ArrayList<>(projectIndex.uncommittedCommits);
+						}
+						discardedCommits.remove(commit);
+						for (ObjectId discardedCommit: discardedCommits) {
+							IndexWork work = new IndexWork(BACKEND_INDEXING_PRIORITY, discardedCommit);
+							batchWorkManager.submit(getBatchWorker(project.getId()), work);
+						}
+						throw ExceptionUtils.unchecked(e);
+					}
+					synchronized (projectIndex.uncommittedCommits) {
+						projectIndex.uncommittedCommits.add(commit.copy());
+					}
+					projectIndex.searcherManager.maybeRefresh();
+					return indexResult;
+				} finally {
+					releaseSearcher(searcher);
+				}
+			} finally {
+				synchronized (projectIndexes) {
+					projectIndex.writing--;
 				}
-			} else {
-				return doIndex(project, commit, directory, null);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -373,17 +659,18 @@ public class DefaultIndexManager implements IndexManager {
 
 	@Override
 	public boolean isIndexed(Project project, ObjectId commit) {
-		File indexDir = storageManager.getProjectIndexDir(project.getId());
-		try (Directory directory = FSDirectory.open(indexDir.toPath())) {
-			if (DirectoryReader.indexExists(directory)) {
-				try (IndexReader reader = DirectoryReader.open(directory)) {
-					IndexSearcher searcher = new IndexSearcher(reader);
+		try {
+			IndexSearcher searcher = acquireSearcher(project);
+			if (searcher != null) {
+				try {
 					return getIndexVersion().equals(getCommitIndexVersion(searcher, commit));
+				} finally {
+					releaseSearcher(searcher);
 				}
 			} else {
 				return false;
 			}
-		} catch (IOException e) {
+		} catch (IOException | InterruptedException e) {
 			throw new RuntimeException(e);
 		}
 	}
@@ -399,6 +686,20 @@ public class DefaultIndexManager implements IndexManager {
 		}
 	}
 	
+	@Sessional
+	@Listen
+	public void on(RefsUpdated event) {
+		Set<ObjectId> commitIds = new HashSet<>();
+		for (RefUpdated refUpdated: event.getRefUpdates()) {
+			if (refUpdated.getRefName().startsWith(Constants.R_HEADS) 
+					&& !refUpdated.getNewCommitId().equals(ObjectId.zeroId())
+					&& commitIds.add(refUpdated.getNewCommitId())) {
+				IndexWork work = new IndexWork(BACKEND_INDEXING_PRIORITY, refUpdated.getNewCommitId());
+				batchWorkManager.submit(getBatchWorker(event.getProject().getId()), work);
+			}
+		}
+	}
+	
 	@Sessional
 	@Listen
 	public void on(SystemStarted event) {
@@ -417,6 +718,93 @@ public class DefaultIndexManager implements IndexManager {
 				}
 			}
 		}
+		taskId = taskScheduler.schedule(this);
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		indexingExecutor.shutdown();
+		synchronized (projectIndexes) {
+			for (ProjectIndex projectIndex: projectIndexes.values()) {
+				try {
+					projectIndex.close();
+				} catch (IOException e) {
+					logger.error("Error closing index", e);
+				}
+			}
+			projectIndexes.clear();
+		}
+	}
+	
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) {
+			synchronized (projectIndexes) {
+				ProjectIndex projectIndex = projectIndexes.remove(event.getEntity().getId());
+				if (projectIndex != null) {
+					try {
+						projectIndex.close();
+					} catch (IOException e) {
+						throw ExceptionUtils.unchecked(e);
+					}
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void execute() {
+		List<ProjectIndex> idleIndexes = new ArrayList<>();
+		List<ProjectIndex> activeIndexes = new ArrayList<>();
+		synchronized (projectIndexes) {
+			long now = System.currentTimeMillis();
+			for (ProjectIndex projectIndex: new ArrayList<>(projectIndexes.values())) {
+				if (projectIndex.writing == 0) {
+					if (now - projectIndex.lastAccessTime > INDEX_IDLE_TIMEOUT) {
+						projectIndexes.remove(projectIndex.projectId);
+						idleIndexes.add(projectIndex);
+					} else {
+						projectIndex.writing++;
+						activeIndexes.add(projectIndex);
+					}
+				}
+			}
+		}
+		for (ProjectIndex projectIndex: idleIndexes) {
+			try {
+				projectIndex.close();
+			} catch (IOException e) {
+				logger.error("Error closing index", e);
+			}
+		}
+		for (ProjectIndex projectIndex: activeIndexes) {
+			try {
+				if (projectIndex.writer.hasUncommittedChanges()) {
+					// Commits indexed while committing are kept, as they may not be included
+					Collection<ObjectId> committingCommits;
+					synchronized (projectIndex.uncommittedCommits) {
+						committingCommits = new ArrayList<>(projectIndex.uncommittedCommits);
+					}
+					projectIndex.writer.commit();
+					synchronized (projectIndex.uncommittedCommits) {
+						projectIndex.uncommittedCommits.removeAll(committingCommits);
+					}
+				}
+			} catch (IOException e) {
+				logger.error("Error committing index", e);
+			} finally {
+				synchronized (projectIndexes) {
+					projectIndex.writing--;
+				}
+			}
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatMinutelyForever();
 	}
 	
 	@Sessional
@@ -445,5 +833,73 @@ public class DefaultIndexManager implements IndexManager {
 		}
 		
 	}
+	
+	private static class ChangedBlob {
+		
+		final ObjectId id;
+		
+		final String path;
+		
+		final String name;
+		
+		ChangedBlob(ObjectId id, String path, String name) {
+			this.id = id;
+			this.path = path;
+			this.name = name;
+		}
+		
+	}
+	
+	private static class ProjectIndex {
+		
+		final Long projectId;
+		
+		final Directory directory;
+		
+		final IndexWriter writer;
+		
+		final SearcherManager searcherManager;
+		
+		volatile long lastAccessTime = System.currentTimeMillis();
+		
+		// Number of ongoing write operations, index should not be closed if this is not zero
+		int writing;
+		
+		// Commits indexed but not committed yet
+		final Set<ObjectId> uncommittedCommits = new HashSet<>();
+		
+		ProjectIndex(Long projectId, File indexDir) throws IOException {
+			this.projectId = projectId;
+			directory = FSDirectory.open(indexDir.toPath());
+			try {
+				IndexWriterConfig writerConfig = new IndexWriterConfig(new NGramAnalyzer(NGRAM_SIZE, NGRAM_SIZE));
+				writerConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
+				writer = new IndexWriter(directory, writerConfig);
+				try {
+					searcherManager = new SearcherManager(writer, null);
+				} catch (IOException e) {
+					writer.close();
+					throw e;
+				}
+			} catch (IOException e) {
+				directory.close();
+				throw e;
+			}
+		}
+		
+		void close() throws IOException {
+			try {
+				searcherManager.close();
+			} finally {
+				try {
+					if (writer.isOpen())
+						writer.close();
+				} finally {
+					directory.close();
+				}
+			}
+		}
+		
+	}
 
 }
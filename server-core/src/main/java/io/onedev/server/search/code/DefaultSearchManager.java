@@ -6,33 +6,37 @@ import static io.onedev.server.search.code.FieldConstants.BLOB_PATH;
 import static io.onedev.server.search.code.FieldConstants.BLOB_SYMBOL_LIST;
 
 import java.io.IOException;
-import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 
-import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.BinaryDocValues;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.SimpleCollector;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
@@ -40,59 +44,67 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 
 import io.onedev.commons.jsymbol.Symbol;
 import io.onedev.commons.jsymbol.SymbolExtractorRegistry;
-import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.ExceptionUtils;
-import io.onedev.server.event.entity.EntityRemoved;
-import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Project;
-import io.onedev.server.persistence.annotation.Transactional;
 import io.onedev.server.search.code.hit.QueryHit;
 import io.onedev.server.search.code.query.BlobQuery;
-import io.onedev.server.storage.StorageManager;
 
 @Singleton
 public class DefaultSearchManager implements SearchManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultSearchManager.class);
 	
-	private final StorageManager storageManager;
-	
-	private final Map<Long, SearcherManager> searcherManagers = new ConcurrentHashMap<>();
+	private static final int MAX_CACHED_BLOB_PATHS = 1000000;
 	
 	private final IndexManager indexManager;
 	
+	private final ExecutorService executorService;
+	
+	// Cache of tree id to map of blob path to blob id, used to check presence of matched blobs 
+	private final Cache<ObjectId, Map<String, ObjectId>> blobIdsCache = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_CACHED_BLOB_PATHS)
+			.weigher(new Weigher<ObjectId, Map<String, ObjectId>>() {
+
+				@Override
+				public int weigh(ObjectId key, Map<String, ObjectId> value) {
+					return value.size();
+				}
+				
+			})
+			.build();
+	
 	@Inject
-	public DefaultSearchManager(StorageManager storageManager, IndexManager indexManager) {
-		this.storageManager = storageManager;
+	public DefaultSearchManager(IndexManager indexManager, ExecutorService executorService) {
 		this.indexManager = indexManager;
+		this.executorService = executorService;
 	}
 	
-	@Nullable
-	private SearcherManager getSearcherManager(Project project) throws InterruptedException {
+	private Map<String, ObjectId> getBlobIds(Repository repository, RevTree revTree) {
 		try {
-			SearcherManager searcherManager = searcherManagers.get(project.getId());
-			if (searcherManager == null) synchronized (searcherManagers) {
-				searcherManager = searcherManagers.get(project.getId());
-				if (searcherManager == null) {
-					Directory directory = FSDirectory.open(storageManager.getProjectIndexDir(project.getId()).toPath());
-					if (DirectoryReader.indexExists(directory)) {
-						searcherManager = new SearcherManager(directory, null);
-						searcherManagers.put(project.getId(), searcherManager);
+			return blobIdsCache.get(revTree.copy(), new Callable<Map<String, ObjectId>>() {
+
+				@Override
+				public Map<String, ObjectId> call() throws Exception {
+					Map<String, ObjectId> blobIds = new HashMap<>();
+					try (TreeWalk treeWalk = new TreeWalk(repository)) {
+						treeWalk.addTree(revTree);
+						treeWalk.setRecursive(true);
+						while (treeWalk.next()) {
+							if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE) 
+								blobIds.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+						}
 					}
+					return blobIds;
 				}
-			}
-			return searcherManager;
-		} catch (ClosedByInterruptException e) {
-			// catch this exception and convert to normal InterruptedException as 
-			// we do not want to throw the original exception to surprise the user
-			// when they searches by typing fast (and subsequent typing will cancel 
-			// search of previous typing by interrupting previous search thread 
-			// which may creating the searcher manager if it does not exist yet
-			throw new InterruptedException();
-		} catch (IOException e) {
+				
+			});
+		} catch (ExecutionException e) {
 			throw ExceptionUtils.unchecked(e);
 		}
 	}
@@ -102,51 +114,85 @@ public class DefaultSearchManager implements SearchManager {
 			throws InterruptedException {
 		List<QueryHit> hits = new ArrayList<>();
 
-		SearcherManager searcherManager = getSearcherManager(project.getForkRoot());
-		if (searcherManager != null) {
+		IndexSearcher searcher = indexManager.acquireSearcher(project.getForkRoot());
+		if (searcher != null) {
+			Repository repository = project.getRepository();
+			Queue<Future<List<QueryHit>>> futures = new ArrayDeque<>();
 			try {
-				final IndexSearcher searcher = searcherManager.acquire();
-				try {
-					try (RevWalk revWalk = new RevWalk(project.getRepository())){
-						final RevTree revTree = revWalk.parseCommit(commit).getTree();
-						final Set<String> checkedBlobPaths = new HashSet<>();
-						
-						searcher.search(query.asLuceneQuery(), new SimpleCollector() {
-	
-							private BinaryDocValues blobPathValues;
-							
+				Map<String, ObjectId> blobIds;
+				try (RevWalk revWalk = new RevWalk(repository)) {
+					blobIds = getBlobIds(repository, revWalk.parseCommit(commit).getTree());
+				}
+				
+				// Blob paths of matched documents existing in specified commit, in document order 
+				Set<String> candidateBlobPaths = new LinkedHashSet<>();
+				searcher.search(query.asLuceneQuery(), new SimpleCollector() {
+
+					private BinaryDocValues blobPathValues;
+					
+					@Override
+					public void collect(int doc) throws IOException {
+						if (!Thread.currentThread().isInterrupted()) {
+							Preconditions.checkState(blobPathValues.advanceExact(doc));
+							String blobPath = blobPathValues.binaryValue().utf8ToString();
+							if (blobIds.containsKey(blobPath))
+								candidateBlobPaths.add(blobPath);
+						}
+					}
+
+					@Override
+					protected void doSetNextReader(LeafReaderContext context) throws IOException {
+						blobPathValues  = context.reader().getBinaryDocValues(FieldConstants.BLOB_PATH.name());
+					}
+
+					@Override
+					public boolean needsScores() {
+						return false;
+					}
+
+				});
+				
+				/*
+				 * Verify candidates in parallel. Hits are merged in candidate order so that result 
+				 * is the same as verifying them serially, and remaining verifications are cancelled 
+				 * once enough hits are found
+				 */
+				int parallelism = Runtime.getRuntime().availableProcessors();
+				Iterator<String> it = candidateBlobPaths.iterator();
+				while (hits.size() < query.getCount() && (it.hasNext() || !futures.isEmpty())) {
+					while (it.hasNext() && futures.size() < parallelism*2) {
+						String blobPath = it.next();
+						ObjectId blobId = blobIds.get(blobPath);
+						futures.add(executorService.submit(new Callable<List<QueryHit>>() {
+
 							@Override
-							public void collect(int doc) throws IOException {
-								if (hits.size() < query.getCount() && !Thread.currentThread().isInterrupted()) {
-									Preconditions.checkState(blobPathValues.advanceExact(doc));
-									String blobPath = blobPathValues.binaryValue().utf8ToString();
-									
-									if (!checkedBlobPaths.contains(blobPath)) {
-										TreeWalk treeWalk = TreeWalk.forPath(project.getRepository(), blobPath, revTree);									
-										if (treeWalk != null)
-											query.collect(searcher, treeWalk, hits);
-										checkedBlobPaths.add(blobPath);
+							public List<QueryHit> call() throws Exception {
+								List<QueryHit> hitsOfBlob = new ArrayList<>();
+								if (!Thread.currentThread().isInterrupted()) {
+									try (ObjectReader objectReader = repository.newObjectReader()) {
+										query.collect(searcher, objectReader, blobId, blobPath, hitsOfBlob);
 									}
 								}
+								return hitsOfBlob;
 							}
-	
-							@Override
-							protected void doSetNextReader(LeafReaderContext context) throws IOException {
-								blobPathValues  = context.reader().getBinaryDocValues(FieldConstants.BLOB_PATH.name());
-							}
-
-							@Override
-							public boolean needsScores() {
-								return false;
-							}
-	
-						});
+							
+						}));
+					}
+					try {
+						for (QueryHit hit: futures.remove().get()) {
+							if (hits.size() < query.getCount())
+								hits.add(hit);
+						}
+					} catch (ExecutionException e) {
+						throw ExceptionUtils.unchecked(e);
 					}
-				} finally {
-					searcherManager.release(searcher);
 				}
 			} catch (IOException e) {
 				throw ExceptionUtils.unchecked(e);
+			} finally {
+				for (Future<List<QueryHit>> future: futures)
+					future.cancel(true);
+				indexManager.releaseSearcher(searcher);
 			}
 		}
 		if (Thread.interrupted())
@@ -158,17 +204,12 @@ public class DefaultSearchManager implements SearchManager {
 	@Override
 	public List<Symbol> getSymbols(Project project, ObjectId blobId, String blobPath) {
 		try {
-			SearcherManager searcherManager = getSearcherManager(project.getForkRoot());
-			if (searcherManager != null) {
+			IndexSearcher searcher = indexManager.acquireSearcher(project.getForkRoot());
+			if (searcher != null) {
 				try {
-					IndexSearcher searcher = searcherManager.acquire();
-					try {
-						return getSymbols(searcher, blobId, blobPath);
-					} finally {
-						searcherManager.release(searcher);
-					}
-				} catch (IOException e) {
-					throw ExceptionUtils.unchecked(e);
+					return getSymbols(searcher, blobId, blobPath);
+				} finally {
+					indexManager.releaseSearcher(searcher);
 				}
 			} else {
 				return null;
@@ -228,48 +269,5 @@ public class DefaultSearchManager implements SearchManager {
 		
 		return symbolsRef.get();
 	}
-	
-	@Listen
-	public void on(CommitIndexed event) {
-		try {
-			SearcherManager searcherManager = getSearcherManager(event.getProject().getForkRoot()); 
-			if (searcherManager != null)
-				searcherManager.maybeRefresh();
-		} catch (InterruptedException | IOException e) {
-			throw ExceptionUtils.unchecked(e);
-		}
-	}
-
-	@Transactional
-	@Listen
-	public void on(EntityRemoved event) {
-		if (event.getEntity() instanceof Project) {
-			synchronized (searcherManagers) {
-				Long projectId = event.getEntity().getId();						
-				SearcherManager searcherManager = searcherManagers.remove(projectId);
-				if (searcherManager != null) {
-					try {
-						searcherManager.close();
-					} catch (IOException e) {
-						throw ExceptionUtils.unchecked(e);
-					}
-				}
-			}
-		}
-	}
-
-	@Listen
-	public void on(SystemStopping event) {
-		synchronized (searcherManagers) {
-			for (SearcherManager searcherManager: searcherManagers.values()) {
-				try {
-					searcherManager.close();
-				} catch (IOException e) {
-					throw ExceptionUtils.unchecked(e);
-				}
-			}
-			searcherManagers.clear();
-		}
-	}
 
 }
@@ -2,6 +2,7 @@ package io.onedev.server.search.code;
 
 import javax.annotation.Nullable;
 
+import org.apache.lucene.search.IndexSearcher;
 import org.eclipse.jgit.lib.ObjectId;
 
 import io.onedev.commons.jsymbol.Symbol;
@@ -18,4 +19,21 @@ public interface IndexManager {
 	
 	String getIndexVersion(@Nullable SymbolExtractor<Symbol> extractor);
 	
+	/**
+	 * Acquire searcher of index of specified project. The searcher is shared with the indexer and 
+	 * reflects commits indexed so far. It should be released via {@link #releaseSearcher(IndexSearcher)} 
+	 * after use
+	 * 
+	 * @param project
+	 * 			project to acquire index searcher for
+	 * @return
+	 * 			index searcher, or <tt>null</tt> if index of the project does not exist yet
+	 * @throws InterruptedException
+	 * 			if current thread is interrupted while opening the index
+	 */
+	@Nullable
+	IndexSearcher acquireSearcher(Project project) throws InterruptedException;
+	
+	void releaseSearcher(IndexSearcher searcher);
+	
 }
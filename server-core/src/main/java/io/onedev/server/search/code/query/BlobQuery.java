@@ -11,7 +11,8 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.WildcardQuery;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 
 import io.onedev.server.search.code.hit.QueryHit;
 
@@ -35,7 +36,20 @@ public abstract class BlobQuery {
 		return count;
 	}
 
-	public abstract void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits);
+	/**
+	 * Collect hits of specified blob. This method may be called concurrently for different blobs
+	 * 
+	 * @param objectReader
+	 * 			object reader to read blob content, owned by calling thread
+	 * @param blobId
+	 * 			id of the blob
+	 * @param blobPath
+	 * 			path of the blob
+	 * @param hits
+	 * 			list to collect hits into
+	 */
+	public abstract void collect(IndexSearcher searcher, ObjectReader objectReader, ObjectId blobId, 
+			String blobPath, List<QueryHit> hits);
 
 	/**
 	 * Get lucene query representation of this query
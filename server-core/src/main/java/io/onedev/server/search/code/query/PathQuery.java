@@ -11,7 +11,8 @@ import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.WildcardQuery;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 
 import io.onedev.commons.utils.PathUtils;
 import io.onedev.commons.utils.LinearRange;
@@ -28,8 +29,8 @@ public class PathQuery extends BlobQuery {
 	}
 
 	@Override
-	public void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits) {
-		String blobPath = treeWalk.getPathString();
+	public void collect(IndexSearcher searcher, ObjectReader objectReader, ObjectId blobId, 
+			String blobPath, List<QueryHit> hits) {
 		LinearRange range = PathUtils.matchSegments(blobPath, match, true);
 		if (range != null) {
 			hits.add(new PathHit(blobPath, range));
@@ -17,8 +17,9 @@ import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.WildcardQuery;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.lib.ObjectReader;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
@@ -81,12 +82,12 @@ public class TextQuery extends BlobQuery {
 	}
 	
 	@Override
-	public void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits) {
+	public void collect(IndexSearcher searcher, ObjectReader objectReader, ObjectId blobId, 
+			String blobPath, List<QueryHit> hits) {
 		ObjectLoader objectLoader;
 		try {
-			objectLoader = treeWalk.getObjectReader().open(treeWalk.getObjectId(0));
+			objectLoader = objectReader.open(blobId);
 			if (objectLoader.getSize() <= IndexConstants.MAX_INDEXABLE_SIZE) {
-				String blobPath = treeWalk.getPathString();
 				String content = ContentDetector.convertToText(objectLoader.getCachedBytes(), blobPath);
 				if (content != null) {
 					Pattern pattern = getPattern();
@@ -1,6 +1,8 @@
 package io.onedev.server.util;
 
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.atomic.AtomicReference;
@@ -21,8 +23,28 @@ import io.onedev.server.OneDev;
  */
 public abstract class ElementPumper<T> {
 
+	private final int capacity;
+	
+	public ElementPumper() {
+		this(0);
+	}
+	
+	/**
+	 * @param capacity
+	 * 			number of generated elements allowed to be buffered, so that generating 
+	 * 			thread can run ahead of consuming thread. Use <tt>0</tt> to hand off 
+	 * 			elements directly
+	 */
+	public ElementPumper(int capacity) {
+		this.capacity = capacity;
+	}
+	
 	public void pump() {
-		SynchronousQueue<Optional<T>> queue = new SynchronousQueue<>(); 
+		BlockingQueue<Optional<T>> queue;
+		if (capacity != 0)
+			queue = new ArrayBlockingQueue<>(capacity);
+		else
+			queue = new SynchronousQueue<>(); 
 		AtomicReference<Exception> exceptionRef = new AtomicReference<>(null);
 
 		OneDev.getInstance(ExecutorService.class).execute(new Runnable() {
@@ -0,0 +1,147 @@
+package io.onedev.server.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Queue;
+
+/**
+ * Mask occurrences of a set of secrets in text with a single pass over the text, using
+ * an Aho-Corasick automaton built from the secrets. Overlapping occurrences are masked
+ * as a whole so that no part of any secret is revealed.
+ */
+public class SecretMasker {
+
+	private final String mask;
+
+	private final Node root = new Node();
+
+	private final boolean empty;
+
+	public SecretMasker(Collection<String> secrets, String mask) {
+		this.mask = mask;
+
+		boolean empty = true;
+		for (String secret: secrets) {
+			if (secret.length() != 0) {
+				Node node = root;
+				for (int i=0; i<secret.length(); i++) {
+					char c = secret.charAt(i);
+					Node child = node.getChild(c);
+					if (child == null)
+						child = node.addChild(c);
+					node = child;
+				}
+				node.matchLength = secret.length();
+				empty = false;
+			}
+		}
+		this.empty = empty;
+
+		root.fail = root;
+		Queue<Node> queue = new ArrayDeque<>();
+		for (Node child: root.children) {
+			child.fail = root;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			Node node = queue.remove();
+			for (int i=0; i<node.keys.length; i++) {
+				char c = node.keys[i];
+				Node child = node.children[i];
+				Node fail = node.fail;
+				while (fail != root && fail.getChild(c) == null)
+					fail = fail.fail;
+				Node failChild = fail.getChild(c);
+				child.fail = failChild != null? failChild: root;
+				if (child.fail.matchLength > child.matchLength)
+					child.matchLength = child.fail.matchLength;
+				queue.add(child);
+			}
+		}
+	}
+
+	public String mask(String text) {
+		if (empty)
+			return text;
+
+		// start and end (exclusive) of masked ranges, ordered and not overlapping
+		int[] ranges = null;
+		int numRanges = 0;
+
+		Node node = root;
+		for (int i=0; i<text.length(); i++) {
+			char c = text.charAt(i);
+			Node child;
+			while ((child = node.getChild(c)) == null && node != root)
+				node = node.fail;
+			node = child != null? child: root;
+			if (node.matchLength != 0) {
+				int start = i + 1 - node.matchLength;
+				int end = i + 1;
+				while (numRanges != 0 && start < ranges[numRanges*2-1]) {
+					start = Math.min(start, ranges[numRanges*2-2]);
+					numRanges--;
+				}
+				if (ranges == null)
+					ranges = new int[8];
+				else if (ranges.length < numRanges*2+2)
+					ranges = Arrays.copyOf(ranges, ranges.length*2);
+				ranges[numRanges*2] = start;
+				ranges[numRanges*2+1] = end;
+				numRanges++;
+			}
+		}
+
+		if (numRanges != 0) {
+			StringBuilder builder = new StringBuilder(text.length());
+			int last = 0;
+			for (int i=0; i<numRanges; i++) {
+				builder.append(text, last, ranges[i*2]).append(mask);
+				last = ranges[i*2+1];
+			}
+			builder.append(text, last, text.length());
+			return builder.toString();
+		} else {
+			return text;
+		}
+	}
+
+	private static class Node {
+
+		char[] keys = new char[0];
+
+		Node[] children = new Node[0];
+
+		Node fail;
+
+		/*
+		 * Length of longest secret ending at this node, including those reachable via
+		 * fail links
+		 */
+		int matchLength;
+
+		Node getChild(char c) {
+			int index = Arrays.binarySearch(keys, c);
+			return index >= 0? children[index]: null;
+		}
+
+		Node addChild(char c) {
+			int index = -Arrays.binarySearch(keys, c) - 1;
+			char[] newKeys = new char[keys.length+1];
+			Node[] newChildren = new Node[children.length+1];
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			System.arraycopy(keys, index, newKeys, index+1, keys.length-index);
+			System.arraycopy(children, index, newChildren, index+1, children.length-index);
+			Node child = new Node();
+			newKeys[index] = c;
+			newChildren[index] = child;
+			keys = newKeys;
+			children = newChildren;
+			return child;
+		}
+
+	}
+
+}
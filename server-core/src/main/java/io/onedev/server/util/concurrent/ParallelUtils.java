@@ -0,0 +1,84 @@
+package io.onedev.server.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.onedev.commons.utils.ExceptionUtils;
+
+/**
+ * Run bulk tasks such as database export/import, data migration and build cleanup in parallel. 
+ * These tasks may run in maintenance commands where server services are not available, so they 
+ * use dedicated pools instead of the server executor.  
+ */
+public class ParallelUtils {
+
+	/**
+	 * System property to specify maximum number of threads used to run bulk tasks in parallel. 
+	 * Number of available processors will be used if not specified
+	 */
+	public static final String PROP_CONCURRENCY = "onedev.concurrency";
+	
+	public static int getConcurrency() {
+		Integer concurrency = Integer.getInteger(PROP_CONCURRENCY);
+		if (concurrency != null && concurrency > 0)
+			return concurrency;
+		else
+			return Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * Create a fixed thread pool with named threads. The pool should be shut down by the caller
+	 * 
+	 * @param name
+	 * 			name of the pool, used as prefix of thread names
+	 * @param threads
+	 * 			number of threads of the pool
+	 */
+	public static ExecutorService newExecutor(String name, int threads) {
+		return Executors.newFixedThreadPool(threads, 
+				new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+	}
+	
+	/**
+	 * Run specified tasks in parallel and wait for all of them to finish
+	 * 
+	 * @param name
+	 * 			name of the pool running the tasks
+	 * @param maxConcurrency
+	 * 			maximum number of tasks running at the same time, for instance to not exhaust 
+	 * 			database connections. Actual concurrency will not exceed {@link #getConcurrency()}
+	 * @param tasks
+	 * 			tasks to run
+	 * @return
+	 * 			results of the tasks in the same order as the tasks
+	 */
+	public static <T> List<T> invokeAll(String name, int maxConcurrency, Collection<? extends Callable<T>> tasks) {
+		List<T> results = new ArrayList<>();
+		if (!tasks.isEmpty()) {
+			int concurrency = Math.max(1, Math.min(Math.min(getConcurrency(), maxConcurrency), tasks.size()));
+			ExecutorService executor = newExecutor(name, concurrency);
+			try {
+				for (Future<T> future: executor.invokeAll(tasks))
+					results.add(future.get());
+			} catch (InterruptedException | ExecutionException e) {
+				throw ExceptionUtils.unchecked(e);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		return results;
+	}
+	
+	public static <T> List<T> invokeAll(String name, Collection<? extends Callable<T>> tasks) {
+		return invokeAll(name, Integer.MAX_VALUE, tasks);
+	}
+	
+}
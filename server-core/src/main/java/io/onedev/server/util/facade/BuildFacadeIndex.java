@@ -0,0 +1,372 @@
+package io.onedev.server.util.facade;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Compact in-memory index of build facades. Builds are grouped by project, and each project
+ * keeps its build ids in a sorted primitive array, plus a commit index holding commit hashes
+ * (as primitive words) and build ids sorted by commit, so that queries only touch builds of
+ * the queried project.
+ * <p>
+ * Builds can be added one by one via {@link #add(BuildFacade)}, which keeps arrays sorted by 
+ * shifting entries. When loading lots of builds, use {@link #append(BuildFacade)} to append 
+ * them without sorting, and call {@link #sort()} once afterwards.
+ * <p>
+ * This class is not thread safe, callers should synchronize access to it.
+ */
+public class BuildFacadeIndex {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Map<Long, ProjectBuilds> projectBuilds = new HashMap<>();
+
+	private int size;
+
+	/**
+	 * Add specified build to the index. Adding a build already in the index has no effect
+	 */
+	public void add(BuildFacade build) {
+		ProjectBuilds builds = getProjectBuilds(build.getProjectId());
+		if (builds == null) {
+			builds = new ProjectBuilds();
+			projectBuilds.put(build.getProjectId(), builds);
+		}
+		if (builds.add(build.getId(), new CommitKey(build.getCommitHash())))
+			size++;
+	}
+
+	/**
+	 * Append specified build to the index without keeping arrays sorted. {@link #sort()} 
+	 * should be called after appending builds and before accessing the index otherwise
+	 */
+	public void append(BuildFacade build) {
+		ProjectBuilds builds = projectBuilds.get(build.getProjectId());
+		if (builds == null) {
+			builds = new ProjectBuilds();
+			projectBuilds.put(build.getProjectId(), builds);
+		}
+		builds.append(build.getId(), new CommitKey(build.getCommitHash()));
+		size++;
+	}
+
+	/**
+	 * Sort builds appended via {@link #append(BuildFacade)}. Builds appended multiple times 
+	 * are only kept once
+	 */
+	public void sort() {
+		for (ProjectBuilds builds: projectBuilds.values()) {
+			if (!builds.sorted)
+				size -= builds.sort();
+		}
+	}
+
+	@Nullable
+	private ProjectBuilds getProjectBuilds(Long projectId) {
+		ProjectBuilds builds = projectBuilds.get(projectId);
+		Preconditions.checkState(builds == null || builds.sorted, "Appended builds are not sorted");
+		return builds;
+	}
+
+	public void remove(BuildFacade build) {
+		ProjectBuilds builds = getProjectBuilds(build.getProjectId());
+		if (builds != null && builds.remove(build.getId(), new CommitKey(build.getCommitHash()))) {
+			size--;
+			if (builds.count == 0)
+				projectBuilds.remove(build.getProjectId());
+		}
+	}
+
+	public void removeProject(Long projectId) {
+		ProjectBuilds builds = projectBuilds.remove(projectId);
+		if (builds != null)
+			size -= builds.count;
+	}
+
+	/**
+	 * @return
+	 * 			ids of builds in specified project in ascending order
+	 */
+	public List<Long> getIds(Long projectId) {
+		List<Long> ids = new ArrayList<>();
+		ProjectBuilds builds = getProjectBuilds(projectId);
+		if (builds != null) {
+			for (int i=0; i<builds.count; i++)
+				ids.add(builds.ids[i]);
+		}
+		return ids;
+	}
+
+	/**
+	 * @return
+	 * 			ids of builds in specified project running against any of specified commits
+	 */
+	public Collection<Long> filterIds(Long projectId, Collection<String> commitHashes) {
+		Collection<Long> ids = new HashSet<>();
+		ProjectBuilds builds = getProjectBuilds(projectId);
+		if (builds != null) {
+			for (String commitHash: commitHashes) {
+				if (ObjectId.isId(commitHash)) {
+					CommitKey key = new CommitKey(commitHash);
+					for (int i=builds.lowerBound(key, Long.MIN_VALUE); i<builds.count && builds.compare(i, key) == 0; i++)
+						ids.add(builds.commitIds[i]);
+				}
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return
+	 * 			number of builds in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return
+	 * 			estimated memory used by the index in bytes
+	 */
+	public long getMemoryUsage() {
+		long memoryUsage = 0;
+		for (ProjectBuilds builds: projectBuilds.values())
+			memoryUsage += builds.getMemoryUsage();
+		return memoryUsage;
+	}
+
+	private static class CommitKey {
+
+		final long word1;
+
+		final long word2;
+
+		final int word3;
+
+		CommitKey(String commitHash) {
+			byte[] bytes = new byte[Constants.OBJECT_ID_LENGTH];
+			ObjectId.fromString(commitHash).copyRawTo(bytes, 0);
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			word1 = buffer.getLong();
+			word2 = buffer.getLong();
+			word3 = buffer.getInt();
+		}
+
+	}
+
+	private static class ProjectBuilds {
+
+		int count;
+
+		// whether or not arrays are sorted, false if builds are appended
+		boolean sorted = true;
+
+		// sorted build ids
+		long[] ids = new long[INITIAL_CAPACITY];
+
+		// commit words and build ids sorted by commit and then build id
+		long[] commitWords1 = new long[INITIAL_CAPACITY];
+
+		long[] commitWords2 = new long[INITIAL_CAPACITY];
+
+		int[] commitWords3 = new int[INITIAL_CAPACITY];
+
+		long[] commitIds = new long[INITIAL_CAPACITY];
+
+		void ensureCapacity() {
+			if (count == ids.length) {
+				int capacity = count * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				commitWords1 = Arrays.copyOf(commitWords1, capacity);
+				commitWords2 = Arrays.copyOf(commitWords2, capacity);
+				commitWords3 = Arrays.copyOf(commitWords3, capacity);
+				commitIds = Arrays.copyOf(commitIds, capacity);
+			}
+		}
+
+		boolean add(long id, CommitKey key) {
+			int idIndex = Arrays.binarySearch(ids, 0, count, id);
+			if (idIndex >= 0)
+				return false;
+			idIndex = -(idIndex+1);
+
+			ensureCapacity();
+
+			System.arraycopy(ids, idIndex, ids, idIndex+1, count-idIndex);
+			ids[idIndex] = id;
+
+			int commitIndex = lowerBound(key, id);
+			System.arraycopy(commitWords1, commitIndex, commitWords1, commitIndex+1, count-commitIndex);
+			System.arraycopy(commitWords2, commitIndex, commitWords2, commitIndex+1, count-commitIndex);
+			System.arraycopy(commitWords3, commitIndex, commitWords3, commitIndex+1, count-commitIndex);
+			System.arraycopy(commitIds, commitIndex, commitIds, commitIndex+1, count-commitIndex);
+			commitWords1[commitIndex] = key.word1;
+			commitWords2[commitIndex] = key.word2;
+			commitWords3[commitIndex] = key.word3;
+			commitIds[commitIndex] = id;
+
+			count++;
+			return true;
+		}
+
+		void append(long id, CommitKey key) {
+			ensureCapacity();
+			ids[count] = id;
+			commitWords1[count] = key.word1;
+			commitWords2[count] = key.word2;
+			commitWords3[count] = key.word3;
+			commitIds[count] = id;
+			count++;
+			sorted = false;
+		}
+
+		/*
+		 * Sort ids and commit index, and remove duplicate entries 
+		 * 
+		 * @return number of removed duplicate entries
+		 */
+		int sort() {
+			Arrays.sort(ids, 0, count);
+			
+			// Heap sort commit index in place, so that no extra memory is needed 
+			for (int i=count/2-1; i>=0; i--)
+				siftDown(i, count);
+			for (int end=count-1; end>0; end--) {
+				swap(0, end);
+				siftDown(0, end);
+			}
+			
+			int idCount = 0;
+			for (int i=0; i<count; i++) {
+				if (idCount == 0 || ids[idCount-1] != ids[i])
+					ids[idCount++] = ids[i];
+			}
+			int commitCount = 0;
+			for (int i=0; i<count; i++) {
+				if (commitCount == 0 || compareEntries(commitCount-1, i) != 0) {
+					commitWords1[commitCount] = commitWords1[i];
+					commitWords2[commitCount] = commitWords2[i];
+					commitWords3[commitCount] = commitWords3[i];
+					commitIds[commitCount] = commitIds[i];
+					commitCount++;
+				}
+			}
+			Preconditions.checkState(idCount == commitCount, "Build appended with different commits");
+			
+			int removed = count - idCount;
+			count = idCount;
+			sorted = true;
+			return removed;
+		}
+		
+		private void siftDown(int root, int end) {
+			while (true) {
+				int child = 2*root + 1;
+				if (child >= end)
+					break;
+				if (child+1 < end && compareEntries(child, child+1) < 0)
+					child++;
+				if (compareEntries(root, child) >= 0)
+					break;
+				swap(root, child);
+				root = child;
+			}
+		}
+		
+		private void swap(int i, int j) {
+			long word1 = commitWords1[i];
+			commitWords1[i] = commitWords1[j];
+			commitWords1[j] = word1;
+			long word2 = commitWords2[i];
+			commitWords2[i] = commitWords2[j];
+			commitWords2[j] = word2;
+			int word3 = commitWords3[i];
+			commitWords3[i] = commitWords3[j];
+			commitWords3[j] = word3;
+			long id = commitIds[i];
+			commitIds[i] = commitIds[j];
+			commitIds[j] = id;
+		}
+		
+		/*
+		 * Compare entries of commit index at specified positions by commit and then build id
+		 */
+		private int compareEntries(int index1, int index2) {
+			int result = Long.compare(commitWords1[index1], commitWords1[index2]);
+			if (result == 0)
+				result = Long.compare(commitWords2[index1], commitWords2[index2]);
+			if (result == 0)
+				result = Integer.compare(commitWords3[index1], commitWords3[index2]);
+			if (result == 0)
+				result = Long.compare(commitIds[index1], commitIds[index2]);
+			return result;
+		}
+
+		boolean remove(long id, CommitKey key) {
+			int idIndex = Arrays.binarySearch(ids, 0, count, id);
+			if (idIndex < 0)
+				return false;
+			System.arraycopy(ids, idIndex+1, ids, idIndex, count-idIndex-1);
+
+			int commitIndex = lowerBound(key, id);
+			if (commitIndex == count || commitIds[commitIndex] != id) {
+				// Should not happen as commit of a build never changes, but be defensive
+				for (commitIndex=0; commitIds[commitIndex] != id; commitIndex++);
+			}
+			System.arraycopy(commitWords1, commitIndex+1, commitWords1, commitIndex, count-commitIndex-1);
+			System.arraycopy(commitWords2, commitIndex+1, commitWords2, commitIndex, count-commitIndex-1);
+			System.arraycopy(commitWords3, commitIndex+1, commitWords3, commitIndex, count-commitIndex-1);
+			System.arraycopy(commitIds, commitIndex+1, commitIds, commitIndex, count-commitIndex-1);
+
+			count--;
+			return true;
+		}
+
+		int compare(int index, CommitKey key) {
+			int result = Long.compare(commitWords1[index], key.word1);
+			if (result == 0)
+				result = Long.compare(commitWords2[index], key.word2);
+			if (result == 0)
+				result = Integer.compare(commitWords3[index], key.word3);
+			return result;
+		}
+
+		/*
+		 * Find index of first entry in commit index not less than specified commit and id
+		 */
+		int lowerBound(CommitKey key, long id) {
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				int result = compare(mid, key);
+				if (result == 0)
+					result = Long.compare(commitIds[mid], id);
+				if (result < 0)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+
+		long getMemoryUsage() {
+			return ids.length * (4L*Long.BYTES + Integer.BYTES);
+		}
+
+	}
+
+}
@@ -0,0 +1,128 @@
+package io.onedev.server.util.facade;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact in-memory index of issue facades. Issues are grouped by project, and each project
+ * keeps issue numbers in a sorted primitive array, along with ids of corresponding issues,
+ * so that queries only touch issues of the queried project.
+ * <p>
+ * This class is not thread safe, callers should synchronize access to it.
+ */
+public class IssueFacadeIndex {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Map<Long, ProjectIssues> projectIssues = new HashMap<>();
+
+	private int size;
+
+	/**
+	 * Add specified issue to the index. Adding an issue already in the index has no effect
+	 */
+	public void add(IssueFacade issue) {
+		ProjectIssues issues = projectIssues.get(issue.getProjectId());
+		if (issues == null) {
+			issues = new ProjectIssues();
+			projectIssues.put(issue.getProjectId(), issues);
+		}
+		if (issues.add(issue.getNumber(), issue.getId()))
+			size++;
+	}
+
+	public void remove(IssueFacade issue) {
+		ProjectIssues issues = projectIssues.get(issue.getProjectId());
+		if (issues != null && issues.remove(issue.getNumber(), issue.getId())) {
+			size--;
+			if (issues.count == 0)
+				projectIssues.remove(issue.getProjectId());
+		}
+	}
+
+	public void removeProject(Long projectId) {
+		ProjectIssues issues = projectIssues.remove(projectId);
+		if (issues != null)
+			size -= issues.count;
+	}
+
+	/**
+	 * @return
+	 * 			numbers of issues in specified project in ascending order
+	 */
+	public List<Long> getNumbers(Long projectId) {
+		List<Long> numbers = new ArrayList<>();
+		ProjectIssues issues = projectIssues.get(projectId);
+		if (issues != null) {
+			for (int i=0; i<issues.count; i++)
+				numbers.add(issues.numbers[i]);
+		}
+		return numbers;
+	}
+
+	/**
+	 * @return
+	 * 			number of issues in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return
+	 * 			estimated memory used by the index in bytes
+	 */
+	public long getMemoryUsage() {
+		long memoryUsage = 0;
+		for (ProjectIssues issues: projectIssues.values())
+			memoryUsage += issues.numbers.length * 2L * Long.BYTES;
+		return memoryUsage;
+	}
+
+	private static class ProjectIssues {
+
+		int count;
+
+		// sorted issue numbers
+		long[] numbers = new long[INITIAL_CAPACITY];
+
+		// issue ids corresponding to numbers
+		long[] ids = new long[INITIAL_CAPACITY];
+
+		boolean add(long number, long id) {
+			int index = Arrays.binarySearch(numbers, 0, count, number);
+			if (index >= 0) {
+				ids[index] = id;
+				return false;
+			}
+			index = -(index+1);
+			if (count == numbers.length) {
+				numbers = Arrays.copyOf(numbers, count*2);
+				ids = Arrays.copyOf(ids, count*2);
+			}
+			System.arraycopy(numbers, index, numbers, index+1, count-index);
+			System.arraycopy(ids, index, ids, index+1, count-index);
+			numbers[index] = number;
+			ids[index] = id;
+			count++;
+			return true;
+		}
+
+		boolean remove(long number, long id) {
+			int index = Arrays.binarySearch(numbers, 0, count, number);
+			if (index >= 0 && ids[index] == id) {
+				System.arraycopy(numbers, index+1, numbers, index, count-index-1);
+				System.arraycopy(ids, index+1, ids, index, count-index-1);
+				count--;
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+	}
+
+}
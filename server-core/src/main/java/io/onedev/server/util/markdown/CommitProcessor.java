@@ -8,9 +8,7 @@ import javax.annotation.Nullable;
 
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.eclipse.jgit.lib.ObjectId;
-import org.jsoup.nodes.Document;
 import org.jsoup.nodes.TextNode;
-import org.jsoup.select.NodeTraversor;
 
 import com.google.common.collect.ImmutableSet;
 
@@ -18,10 +16,9 @@ import io.onedev.commons.utils.HtmlUtils;
 import io.onedev.server.git.GitUtils;
 import io.onedev.server.model.Project;
 import io.onedev.server.util.SecurityUtils;
-import io.onedev.server.util.TextNodeVisitor;
 import io.onedev.server.web.page.project.commits.CommitDetailPage;
 
-public class CommitProcessor implements MarkdownProcessor {
+public class CommitProcessor implements TextProcessor {
 	
 	private static final Collection<String> IGNORED_TAGS = ImmutableSet.of("pre", "code", "a");
 
@@ -35,35 +32,28 @@ public class CommitProcessor implements MarkdownProcessor {
 	}
 
 	@Override
-	public void process(@Nullable Project project, Document rendered, Object context) {
-		if (project != null && SecurityUtils.canReadCode(project)) {
-			TextNodeVisitor visitor = new TextNodeVisitor() {
-				
-				@Override
-				protected boolean isApplicable(TextNode node) {
-					return !HtmlUtils.hasAncestor(node, IGNORED_TAGS);
-				}
-			};
-			
-			NodeTraversor tranversor = new NodeTraversor(visitor);
-			tranversor.traverse(rendered);
-			
-			for (TextNode node : visitor.getMatchedNodes()) {
-				Matcher matcher = PATTERN_COMMIT.matcher(node.getWholeText());
-				while (matcher.find()) {
-					String commitHash = matcher.group(2);
-					String commitTag;
-					ObjectId commitId = ObjectId.fromString(commitHash);
-					if (project.getRevCommit(commitId, false) != null) {
-						commitTag = toHtml(project, commitId);
-					} else {
-						commitTag = commitId.name();
-					}
-					HtmlUtils.appendReplacement(matcher, node, matcher.group(1) + commitTag + matcher.group(3));
-				}
-				HtmlUtils.appendTail(matcher, node);
+	public boolean isApplicable(@Nullable Project project, @Nullable Object context) {
+		return project != null && SecurityUtils.canReadCode(project);
+	}
+
+	@Override
+	public void process(@Nullable Project project, TextNode node, @Nullable Object context) {
+		if (HtmlUtils.hasAncestor(node, IGNORED_TAGS))
+			return;
+		
+		Matcher matcher = PATTERN_COMMIT.matcher(node.getWholeText());
+		while (matcher.find()) {
+			String commitHash = matcher.group(2);
+			String commitTag;
+			ObjectId commitId = ObjectId.fromString(commitHash);
+			if (project.getRevCommit(commitId, false) != null) {
+				commitTag = toHtml(project, commitId);
+			} else {
+				commitTag = commitId.name();
 			}
+			HtmlUtils.appendReplacement(matcher, node, matcher.group(1) + commitTag + matcher.group(3));
 		}
+		HtmlUtils.appendTail(matcher, node);
 	}
 	
 }
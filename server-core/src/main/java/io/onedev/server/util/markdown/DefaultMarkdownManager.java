@@ -1,5 +1,6 @@
 package io.onedev.server.util.markdown;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -10,8 +11,20 @@ import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
+import org.apache.wicket.request.cycle.RequestCycle;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.vladsch.flexmark.Extension;
 import com.vladsch.flexmark.ast.Node;
 import com.vladsch.flexmark.ext.anchorlink.AnchorLinkExtension;
@@ -26,24 +39,66 @@ import com.vladsch.flexmark.parser.ParserEmulationProfile;
 import com.vladsch.flexmark.util.options.MutableDataHolder;
 import com.vladsch.flexmark.util.options.MutableDataSet;
 
+import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.HtmlUtils;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Project;
+import io.onedev.server.util.TextNodeVisitor;
 
 @Singleton
 public class DefaultMarkdownManager implements MarkdownManager {
 	
-	private final Set<Extension> contributedExtensions;
+	private static final Logger logger = LoggerFactory.getLogger(DefaultMarkdownManager.class);
+	
+	private static final long MAX_CACHE_WEIGHT = 10000000;
 	
 	private final Set<MarkdownProcessor> htmlTransformers;
 	
+	private final Parser parser;
+	
+	private final HtmlRenderer htmlRenderer;
+	
+	/*
+	 * Key is hash of markdown and base url of current request. Extensions are fixed once server 
+	 * is started, and processors are applied after rendering, so that rendered html only depends 
+	 * on markdown content, except that some extensions such as emoji generate urls relative to 
+	 * current request
+	 */
+	private final Cache<HashCode, String> renderCache = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_CACHE_WEIGHT)
+			.weigher(new Weigher<HashCode, String>() {
+
+				@Override
+				public int weigh(HashCode key, String value) {
+					return value.length();
+				}
+				
+			})
+			.recordStats()
+			.build();
+	
+	/*
+	 * Key is hash of rendered html, and value is the sanitized document which should be 
+	 * cloned before processing. Weighed by length of rendered html as size of the document 
+	 * is proportional to it
+	 */
+	private final Cache<HashCode, CleanedDocument> cleanCache = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_CACHE_WEIGHT)
+			.weigher(new Weigher<HashCode, CleanedDocument>() {
+
+				@Override
+				public int weigh(HashCode key, CleanedDocument value) {
+					return value.renderedLength;
+				}
+				
+			})
+			.recordStats()
+			.build();
+	
 	@Inject
 	public DefaultMarkdownManager(Set<Extension> contributedExtensions, Set<MarkdownProcessor> htmlTransformers) {
-		this.contributedExtensions = contributedExtensions;
 		this.htmlTransformers = htmlTransformers;
-	}
-
-	@Override
-	public String render(String markdown) {
+		
 		List<Extension> extensions = new ArrayList<>();
 		extensions.add(AnchorLinkExtension.create());
 		extensions.add(TablesExtension.create());
@@ -66,12 +121,31 @@ public class DefaultMarkdownManager implements MarkdownManager {
 				.set(TablesExtension.HEADER_SEPARATOR_COLUMN_MATCH, true)
 				.set(Parser.EXTENSIONS, extensions);
 
-		Parser parser = Parser.builder(options).build();
+		// Parser and renderer are immutable and can be shared by all threads
+		parser = Parser.builder(options).build();
+		htmlRenderer = HtmlRenderer.builder(options).build();
+	}
 
-		HtmlRenderer htmlRenderer = HtmlRenderer.builder(options).build();
-		
-		Node document = parser.parse(markdown);
-		return htmlRenderer.render(document);
+	@Override
+	public String render(String markdown) {
+		String baseUrl;
+		RequestCycle requestCycle = RequestCycle.get();
+		if (requestCycle != null)
+			baseUrl = requestCycle.getUrlRenderer().getBaseUrl().toString();
+		else
+			baseUrl = "";
+		HashCode key = Hashing.sha256().newHasher()
+				.putString(baseUrl, StandardCharsets.UTF_8)
+				.putChar('\n')
+				.putString(markdown, StandardCharsets.UTF_8)
+				.hash();
+		String rendered = renderCache.getIfPresent(key);
+		if (rendered == null) {
+			Node document = parser.parse(markdown);
+			rendered = htmlRenderer.render(document);
+			renderCache.put(key, rendered);
+		}
+		return rendered;
 	}
 
 	@Override
@@ -83,10 +157,104 @@ public class DefaultMarkdownManager implements MarkdownManager {
 
 	@Override
 	public String process(@Nullable Project project, String rendered, @Nullable Object context) {
-		Document document = HtmlUtils.clean(rendered);
-		for (MarkdownProcessor htmlTransformer: htmlTransformers)
-			htmlTransformer.process(project, document, context);
+		HashCode key = Hashing.sha256().hashString(rendered, StandardCharsets.UTF_8);
+		Document document;
+		CleanedDocument cleaned = cleanCache.getIfPresent(key);
+		if (cleaned == null) {
+			document = HtmlUtils.clean(rendered);
+			cleanCache.put(key, new CleanedDocument(document.clone(), rendered.length()));
+		} else {
+			// Cloning may initialize some internal states of jsoup nodes lazily
+			synchronized (cleaned.document) {
+				document = cleaned.document.clone();
+			}
+		}
+		
+		List<TextProcessor> textProcessors = new ArrayList<>();
+		for (MarkdownProcessor htmlTransformer: htmlTransformers) {
+			if (htmlTransformer instanceof TextProcessor) {
+				TextProcessor textProcessor = (TextProcessor) htmlTransformer;
+				if (textProcessor.isApplicable(project, context))
+					textProcessors.add(textProcessor);
+			} else {
+				htmlTransformer.process(project, document, context);
+			}
+		}
+		
+		/*
+		 * Apply all text processors in a single traversal. Text nodes produced by a processor 
+		 * are passed to subsequent processors, while html elements produced are left untouched
+		 */
+		if (!textProcessors.isEmpty()) {
+			TextNodeVisitor visitor = new TextNodeVisitor();
+			NodeTraversor tranversor = new NodeTraversor(visitor);
+			tranversor.traverse(document);
+			
+			for (TextNode node: visitor.getMatchedNodes()) {
+				List<TextNode> nodes = Lists.newArrayList(node);
+				for (TextProcessor textProcessor: textProcessors) {
+					List<TextNode> processedNodes = new ArrayList<>();
+					for (TextNode each: nodes)
+						processedNodes.addAll(process(textProcessor, project, each, context));
+					nodes = processedNodes;
+				}
+			}
+		}
+		
 		return document.body().html();
 	}
+	
+	/*
+	 * Process specified text node with specified processor, and return text nodes of the 
+	 * replacement, which are children of the same parent between original position of the 
+	 * node and its original next sibling
+	 */
+	private List<TextNode> process(TextProcessor textProcessor, @Nullable Project project, 
+			TextNode node, @Nullable Object context) {
+		List<TextNode> textNodes = new ArrayList<>();
+		org.jsoup.nodes.Node parent = node.parent();
+		if (parent != null) {
+			int index = node.siblingIndex();
+			org.jsoup.nodes.Node nextSibling = node.nextSibling();
+			textProcessor.process(project, node, context);
+			for (int i=index; i<parent.childNodeSize(); i++) {
+				org.jsoup.nodes.Node child = parent.childNode(i);
+				if (child == nextSibling)
+					break;
+				if (child instanceof TextNode)
+					textNodes.add((TextNode) child);
+			}
+		}
+		return textNodes;
+	}
+
+	@Override
+	public CacheStats getRenderCacheStats() {
+		return renderCache.stats();
+	}
+
+	@Override
+	public CacheStats getCleanCacheStats() {
+		return cleanCache.stats();
+	}
 
+	@Listen
+	public void on(SystemStopping event) {
+		logger.info("Markdown render cache statistics: {}", renderCache.stats());
+		logger.info("Markdown clean cache statistics: {}", cleanCache.stats());
+	}
+	
+	private static class CleanedDocument {
+		
+		final Document document;
+		
+		final int renderedLength;
+		
+		CleanedDocument(Document document, int renderedLength) {
+			this.document = document;
+			this.renderedLength = renderedLength;
+		}
+		
+	}
+	
 }
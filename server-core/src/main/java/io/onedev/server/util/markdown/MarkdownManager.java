@@ -2,6 +2,8 @@ package io.onedev.server.util.markdown;
 
 import javax.annotation.Nullable;
 
+import com.google.common.cache.CacheStats;
+
 import io.onedev.server.model.Project;
 
 public interface MarkdownManager {
@@ -17,6 +19,18 @@ public interface MarkdownManager {
 	 */
 	String render(String markdown);
 	
+	/**
+	 * Sanitize rendered html and process it with contributed {@link MarkdownProcessor}s
+	 * 
+	 * @param project
+	 * 			project the html is rendered for, or <tt>null</tt> if not rendered for a project
+	 * @param rendered
+	 * 			html rendered via {@link #render(String)}
+	 * @param context
+	 * 			context of the rendering passed to processors
+	 * @return
+	 * 			sanitized and processed html
+	 */
 	String process(@Nullable Project project, String rendered, @Nullable Object context);
 
 	/**
@@ -30,4 +44,16 @@ public interface MarkdownManager {
 	 */
 	String escape(String markdown);
 	
+	/**
+	 * @return
+	 * 			statistics of cache of rendered html
+	 */
+	CacheStats getRenderCacheStats();
+	
+	/**
+	 * @return
+	 * 			statistics of cache of sanitized html used by {@link #process(Project, String, Object)}
+	 */
+	CacheStats getCleanCacheStats();
+	
 }
@@ -28,34 +28,40 @@ public class MentionParser {
 	public Collection<String> parseMentions(Document document) {
 		Collection<String> mentions = new HashSet<>();
 		
-		TextNodeVisitor visitor = new TextNodeVisitor() {
-			
-			@Override
-			protected boolean isApplicable(TextNode node) {
-				if (HtmlUtils.hasAncestor(node, IGNORED_TAGS))
-					return false;
-				
-				return node.getWholeText().contains("@"); // fast scan here, do pattern match later
-			}
-		};
-		
+		TextNodeVisitor visitor = new TextNodeVisitor();
 		NodeTraversor tranversor = new NodeTraversor(visitor);
 		tranversor.traverse(document);
 		
-		for (TextNode node : visitor.getMatchedNodes()) {
-			Matcher matcher = PATTERN.matcher(node.getWholeText());
-			while (matcher.find()) {
-				String userName = matcher.group(2);
-				String userTag;
-				mentions.add(userName);
-				userTag = toHtml(userName);
-				HtmlUtils.appendReplacement(matcher, node, matcher.group(1) + userTag + matcher.group(3));
-			}
-			HtmlUtils.appendTail(matcher, node);
-		}
+		for (TextNode node : visitor.getMatchedNodes()) 
+			parseMentions(node, mentions);
 
 		return mentions;
 	}
+	
+	/**
+	 * Parse mentions in specified text node, and replace them with html returned 
+	 * from {@link #toHtml(String)}
+	 * 
+	 * @param mentions
+	 * 			collection to add parsed user names into
+	 */
+	protected void parseMentions(TextNode node, Collection<String> mentions) {
+		if (HtmlUtils.hasAncestor(node, IGNORED_TAGS))
+			return;
+		
+		if (!node.getWholeText().contains("@")) // fast scan here, do pattern match later
+			return;
+		
+		Matcher matcher = PATTERN.matcher(node.getWholeText());
+		while (matcher.find()) {
+			String userName = matcher.group(2);
+			String userTag;
+			mentions.add(userName);
+			userTag = toHtml(userName);
+			HtmlUtils.appendReplacement(matcher, node, matcher.group(1) + userTag + matcher.group(3));
+		}
+		HtmlUtils.appendTail(matcher, node);
+	}
 
 	protected String toHtml(String userName) {
 		return "@" + userName;
@@ -1,15 +1,24 @@
 package io.onedev.server.util.markdown;
 
+import java.util.HashSet;
+
+import javax.annotation.Nullable;
+
 import org.apache.wicket.request.cycle.RequestCycle;
-import org.jsoup.nodes.Document;
+import org.jsoup.nodes.TextNode;
 
 import io.onedev.server.model.Project;
 
-public class MentionProcessor extends MentionParser implements MarkdownProcessor {
+public class MentionProcessor extends MentionParser implements TextProcessor {
 	
 	@Override
-	public void process(Project project, Document document, Object context) {
-		parseMentions(document);
+	public boolean isApplicable(@Nullable Project project, @Nullable Object context) {
+		return true;
+	}
+
+	@Override
+	public void process(@Nullable Project project, TextNode node, @Nullable Object context) {
+		parseMentions(node, new HashSet<>());
 	}
 
 	@Override
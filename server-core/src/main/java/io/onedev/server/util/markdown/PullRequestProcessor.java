@@ -1,24 +1,31 @@
 package io.onedev.server.util.markdown;
 
+import java.util.HashSet;
+
 import javax.annotation.Nullable;
 
 import org.apache.wicket.request.cycle.RequestCycle;
-import org.jsoup.nodes.Document;
+import org.jsoup.nodes.TextNode;
 
 import io.onedev.server.model.Project;
 import io.onedev.server.model.PullRequest;
 import io.onedev.server.util.ProjectScopedNumber;
 import io.onedev.server.web.page.project.pullrequests.detail.activities.PullRequestActivitiesPage;
 
-public class PullRequestProcessor extends ReferenceParser implements MarkdownProcessor {
+public class PullRequestProcessor extends ReferenceParser implements TextProcessor {
 	
 	public PullRequestProcessor() {
 		super(PullRequest.class);
 	}
 
 	@Override
-	public void process(@Nullable Project project, Document document, Object context) {
-		parseReferences(project, document);
+	public boolean isApplicable(@Nullable Project project, @Nullable Object context) {
+		return true;
+	}
+
+	@Override
+	public void process(@Nullable Project project, TextNode node, @Nullable Object context) {
+		parseReferences(project, node, new HashSet<>());
 	}
 
 	@Override
@@ -52,51 +52,58 @@ public class ReferenceParser {
 	public Collection<ProjectScopedNumber> parseReferences(@Nullable Project project, Document document) {
 		Collection<ProjectScopedNumber> references = new HashSet<>();
 		
-		TextNodeVisitor visitor = new TextNodeVisitor() {
-			
-			@Override
-			protected boolean isApplicable(TextNode node) {
-				if (HtmlUtils.hasAncestor(node, IGNORED_TAGS))
-					return false;
-				
-				String text = StringUtils.deleteWhitespace(node.getWholeText()).toLowerCase();
-				return text.contains(referenceType.toLowerCase()) && text.contains("#"); // fast scan here, do pattern match later
-			}
-		};
-		
+		TextNodeVisitor visitor = new TextNodeVisitor();
 		NodeTraversor tranversor = new NodeTraversor(visitor);
 		tranversor.traverse(document);
 		
-		for (TextNode node : visitor.getMatchedNodes()) {
-			Matcher matcher = pattern.matcher(node.getWholeText());
-			while (matcher.find()) {
-				String referenceText = matcher.group(2);
-				String referenceProjectName = matcher.group(3);
-				Long referenceNumber = Long.valueOf(matcher.group(5));
+		for (TextNode node : visitor.getMatchedNodes()) 
+			parseReferences(project, node, references);
 
-				Project referenceProject;
-				if (referenceProjectName != null) {
-					referenceProject = OneDev.getInstance(ProjectManager.class).find(referenceProjectName);
-					referenceText += referenceProjectName;
-				} else {
-					referenceProject = project;
-				}
-				referenceText += "#" + referenceNumber;
-				
-				String referenceTag;
-				if (referenceProject != null) {
-					ProjectScopedNumber referenceable = new ProjectScopedNumber(referenceProject, referenceNumber);
-					references.add(referenceable);
-					referenceTag = toHtml(referenceable, referenceText);
-				} else {
-					referenceTag = referenceText; 
-				}
-				HtmlUtils.appendReplacement(matcher, node, matcher.group(1) + referenceTag);
+		return references;
+	}
+	
+	/**
+	 * Parse references in specified text node, and replace them with html returned 
+	 * from {@link #toHtml(ProjectScopedNumber, String)}
+	 * 
+	 * @param references
+	 * 			collection to add parsed references into
+	 */
+	protected void parseReferences(@Nullable Project project, TextNode node, 
+			Collection<ProjectScopedNumber> references) {
+		if (HtmlUtils.hasAncestor(node, IGNORED_TAGS))
+			return;
+		
+		String text = StringUtils.deleteWhitespace(node.getWholeText()).toLowerCase();
+		if (!text.contains(referenceType.toLowerCase()) || !text.contains("#")) // fast scan here, do pattern match later
+			return;
+		
+		Matcher matcher = pattern.matcher(node.getWholeText());
+		while (matcher.find()) {
+			String referenceText = matcher.group(2);
+			String referenceProjectName = matcher.group(3);
+			Long referenceNumber = Long.valueOf(matcher.group(5));
+
+			Project referenceProject;
+			if (referenceProjectName != null) {
+				referenceProject = OneDev.getInstance(ProjectManager.class).find(referenceProjectName);
+				referenceText += referenceProjectName;
+			} else {
+				referenceProject = project;
+			}
+			referenceText += "#" + referenceNumber;
+			
+			String referenceTag;
+			if (referenceProject != null) {
+				ProjectScopedNumber referenceable = new ProjectScopedNumber(referenceProject, referenceNumber);
+				references.add(referenceable);
+				referenceTag = toHtml(referenceable, referenceText);
+			} else {
+				referenceTag = referenceText; 
 			}
-			HtmlUtils.appendTail(matcher, node);
+			HtmlUtils.appendReplacement(matcher, node, matcher.group(1) + referenceTag);
 		}
-
-		return references;
+		HtmlUtils.appendTail(matcher, node);
 	}
 
 	protected String toHtml(ProjectScopedNumber referenceable, String referenceText) {
@@ -0,0 +1,43 @@
+package io.onedev.server.util.markdown;
+
+import javax.annotation.Nullable;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+
+import io.onedev.server.model.Project;
+import io.onedev.server.util.TextNodeVisitor;
+
+/**
+ * Markdown processor transforming text nodes of rendered html. Text processors are applied 
+ * together in a single traversal of the document by {@link DefaultMarkdownManager}
+ */
+public interface TextProcessor extends MarkdownProcessor {
+
+	/**
+	 * @return
+	 * 			whether or not this processor should be applied to document rendered 
+	 * 			for specified project and context
+	 */
+	boolean isApplicable(@Nullable Project project, @Nullable Object context);
+	
+	/**
+	 * Process specified text node. Replacement of the node should be inserted at 
+	 * position of the node, and only text nodes of the replacement will be processed 
+	 * by subsequent text processors
+	 */
+	void process(@Nullable Project project, TextNode node, @Nullable Object context);
+	
+	@Override
+	default void process(@Nullable Project project, Document rendered, @Nullable Object context) {
+		if (isApplicable(project, context)) {
+			TextNodeVisitor visitor = new TextNodeVisitor();
+			NodeTraversor tranversor = new NodeTraversor(visitor);
+			tranversor.traverse(rendered);
+			for (TextNode node: visitor.getMatchedNodes())
+				process(project, node, context);
+		}
+	}
+	
+}
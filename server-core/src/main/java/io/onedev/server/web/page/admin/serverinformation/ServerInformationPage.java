@@ -2,14 +2,26 @@ package io.onedev.server.web.page.admin.serverinformation;
 
 import java.util.Date;
 
+import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.repeater.RepeatingView;
 import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 
+import com.google.common.cache.CacheStats;
+
 import de.agilecoders.wicket.core.markup.html.bootstrap.components.progress.ProgressBar;
 import de.agilecoders.wicket.core.markup.html.bootstrap.components.progress.ProgressBar.Type;
+import io.onedev.commons.utils.WordUtils;
+import io.onedev.server.OneDev;
+import io.onedev.server.git.GitTransportScheduler;
+import io.onedev.server.git.MergePreviewManager;
+import io.onedev.server.git.MergeStatistics;
+import io.onedev.server.git.UploadPackManager;
+import io.onedev.server.git.UploadStatistics;
 import io.onedev.server.util.DateUtils;
+import io.onedev.server.util.markdown.MarkdownManager;
 import io.onedev.server.web.page.admin.AdministrationPage;
 
 @SuppressWarnings("serial")
@@ -58,6 +70,68 @@ public class ServerInformationPage extends AdministrationPage {
 		
 		add(new Label("osUserName", System.getProperty("user.name")));
 		
+		add(new Label("gitPulls", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				return describeTransports(true);
+			}
+			
+		}));
+		add(new Label("gitPushes", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				return describeTransports(false);
+			}
+			
+		}));
+		
+		RepeatingView gitUploadsView = new RepeatingView("gitUploads");
+		for (UploadPackManager.Mode mode: UploadPackManager.Mode.values()) {
+			WebMarkupContainer row = new WebMarkupContainer(gitUploadsView.newChildId());
+			row.add(new Label("mode", WordUtils.toWords(mode.name())));
+			row.add(new Label("statistics", new LoadableDetachableModel<String>() {
+
+				@Override
+				protected String load() {
+					UploadStatistics stats = OneDev.getInstance(UploadPackManager.class).getStatistics(mode);
+					return String.format("%d requests, %d MB sent, %d ms average latency", 
+							stats.getRequests(), stats.getBytes() / 1024 / 1024, stats.getAverageMillis());
+				}
+				
+			}));
+			gitUploadsView.add(row);
+		}
+		add(gitUploadsView);
+		
+		add(new Label("markdownRenderCache", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				return describe(OneDev.getInstance(MarkdownManager.class).getRenderCacheStats());
+			}
+			
+		}));
+		add(new Label("markdownCleanCache", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				return describe(OneDev.getInstance(MarkdownManager.class).getCleanCacheStats());
+			}
+			
+		}));
+		add(new Label("mergePreviewCache", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				MergeStatistics stats = OneDev.getInstance(MergePreviewManager.class).getStatistics();
+				return String.format("%d requests, %.1f%% hit rate, %d ms average latency", 
+						stats.getHits() + stats.getMisses(), stats.getHitRate()*100, stats.getAverageMillis());
+			}
+			
+		}));
+		
 		add(new Link<Void>("gc") {
 
 			@Override
@@ -67,4 +141,16 @@ public class ServerInformationPage extends AdministrationPage {
 			
 		});
 	}
+	
+	private String describeTransports(boolean upload) {
+		GitTransportScheduler transportScheduler = OneDev.getInstance(GitTransportScheduler.class);
+		return String.format("%d running, %d queued", 
+				transportScheduler.getRunning(upload), transportScheduler.getQueued(upload));
+	}
+	
+	private String describe(CacheStats stats) {
+		return String.format("%d requests, %.1f%% hit rate, %d evictions", 
+				stats.requestCount(), stats.hitRate()*100, stats.evictionCount());
+	}
+	
 }
@@ -5,6 +5,8 @@ import static org.apache.wicket.ajax.attributes.CallbackParameter.explicit;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -40,6 +42,8 @@ import org.apache.wicket.util.visit.IVisit;
 import org.apache.wicket.util.visit.IVisitor;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 
+import com.google.common.base.Splitter;
+
 import io.onedev.commons.launcher.loader.AppLoader;
 import io.onedev.server.OneDev;
 import io.onedev.server.model.User;
@@ -172,10 +176,17 @@ public abstract class BasePage extends WebPage {
 					super.onMessage(handler, message);
 					
 					if (message.getText().startsWith(WebSocketManager.OBSERVABLE_CHANGED)) {
-						String observable = message.getText().substring(WebSocketManager.OBSERVABLE_CHANGED.length()+1);
-						for (WebSocketObserver observer: findWebSocketObservers()) {
-							if (observer.getObservables().contains(observable))
-								observer.onObservableChanged(handler, observable);
+						String observablesString = message.getText().substring(WebSocketManager.OBSERVABLE_CHANGED.length()+1);
+						
+						// Find observers once for all observables batched in this message
+						Map<WebSocketObserver, Collection<String>> observers = new LinkedHashMap<>();
+						for (WebSocketObserver observer: findWebSocketObservers())
+							observers.put(observer, observer.getObservables());
+						for (String observable: Splitter.on(WebSocketManager.OBSERVABLE_SEPARATOR).split(observablesString)) {
+							for (Map.Entry<WebSocketObserver, Collection<String>> entry: observers.entrySet()) {
+								if (entry.getValue().contains(observable))
+									entry.getKey().onObservableChanged(handler, observable);
+							}
 						}
 					} else if (message.getText().equals(WebSocketManager.CONNECTION_OPENED)) {
 						/* 
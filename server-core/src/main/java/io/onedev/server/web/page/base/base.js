@@ -398,21 +398,30 @@ onedev.server = {
 	},	
 
 	setupWebsocketCallback: function() {
-		var messagesToSent = [];
+		/*
+		 * Changed observables are collected while ajax requests are in progress, and are sent 
+		 * back in a single message. Observables are deduplicated individually, as server may 
+		 * batch multiple observables in one message separated by new line
+		 */
+		var observableChangedPrefix = "ObservableChanged:";
+		var changedObservables = [];
 		function sendMessages() {
-			if (onedev.server.ajaxRequests.count == 0) {
-				for (var i in messagesToSent)
-					Wicket.WebSocket.send(messagesToSent[i]);
-				messagesToSent = [];
+			if (onedev.server.ajaxRequests.count == 0 && changedObservables.length != 0) {
+				Wicket.WebSocket.send(observableChangedPrefix + changedObservables.join("\n"));
+				changedObservables = [];
 			}
 			setTimeout(sendMessages, 0);
 		}
 		sendMessages();
 		
 		Wicket.Event.subscribe("/websocket/message", function(jqEvent, message) {
-			if (message.indexOf("ObservableChanged:") != -1) { 
-				if (messagesToSent.indexOf(message) == -1)
-					messagesToSent.push(message);				
+			var index = message.indexOf(observableChangedPrefix);
+			if (index != -1) { 
+				var observables = message.substring(index + observableChangedPrefix.length).split("\n");
+				for (var i in observables) {
+					if (changedObservables.indexOf(observables[i]) == -1)
+						changedObservables.push(observables[i]);
+				}
 			} else if (message == "ErrorMessage") {
 				$(".websocket-server-error").show();
 			}
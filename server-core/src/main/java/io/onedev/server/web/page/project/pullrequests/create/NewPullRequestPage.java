@@ -42,6 +42,7 @@ import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.CodeCommentManager;
 import io.onedev.server.entitymanager.PullRequestManager;
 import io.onedev.server.git.GitUtils;
+import io.onedev.server.git.MergePreviewManager;
 import io.onedev.server.git.RefInfo;
 import io.onedev.server.model.CodeComment;
 import io.onedev.server.model.Project;
@@ -735,7 +736,7 @@ public class NewPullRequestPage extends ProjectPage implements CommentSupport {
 				PullRequest request = getPullRequest();
 				MergePreview mergePreview = new MergePreview(request.getTarget().getObjectName(), 
 						request.getHeadCommitHash(), request.getMergeStrategy(), null);
-				ObjectId merged = mergePreview.getMergeStrategy().merge(request);
+				ObjectId merged = OneDev.getInstance(MergePreviewManager.class).merge(request);
 				if (merged != null)
 					mergePreview.setMerged(merged.name());
 				request.setLastMergePreview(mergePreview);
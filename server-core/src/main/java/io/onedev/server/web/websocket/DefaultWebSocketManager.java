@@ -1,14 +1,24 @@
 package io.onedev.server.web.websocket;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.wicket.Application;
 import org.apache.wicket.protocol.ws.api.IWebSocketConnection;
 import org.apache.wicket.protocol.ws.api.registry.IKey;
@@ -21,6 +31,8 @@ import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.event.system.SystemStopping;
@@ -45,7 +57,25 @@ public class DefaultWebSocketManager implements WebSocketManager, SchedulableTas
 	
 	private final ExecutorService executorService;
 	
-	private final Map<String, Map<IKey, Collection<String>>> observables = new ConcurrentHashMap<>();
+	private static final long FLUSH_INTERVAL = 250;
+	
+	// Only used to delay flushes, which then run on the executor service 
+	private final ScheduledExecutorService flushScheduler = 
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("websocket-flush-scheduler").setDaemon(true).build());
+	
+	// observables of each page of each session
+	private final Map<String, Map<IKey, Collection<String>>> observables = new HashMap<>();
+	
+	// pages observing each observable, inverse of above map
+	private final Map<String, Set<PageKey>> observers = new HashMap<>();
+	
+	private final ReadWriteLock observablesLock = new ReentrantReadWriteLock();
+	
+	// changed observables of each page pending to be sent
+	private final Map<PageKey, Set<String>> pendingObservables = new HashMap<>();
+	
+	private boolean flushScheduled;
 	
 	private final IWebSocketConnectionRegistry connectionRegistry = new SimpleWebSocketConnectionRegistry();
 	
@@ -61,22 +91,61 @@ public class DefaultWebSocketManager implements WebSocketManager, SchedulableTas
 		this.executorService = executorService;
 	}
 	
+	private void removeObservers(String sessionId, IKey pageId, Collection<String> pageObservables) {
+		PageKey pageKey = new PageKey(sessionId, pageId);
+		for (String observable: pageObservables) {
+			Set<PageKey> pageKeys = observers.get(observable);
+			if (pageKeys != null) {
+				pageKeys.remove(pageKey);
+				if (pageKeys.isEmpty())
+					observers.remove(observable);
+			}
+		}
+	}
+	
 	@Override
 	public void observe(BasePage page) {
 		String sessionId = page.getSession().getId();
 		if (sessionId != null) {
-			Map<IKey, Collection<String>> sessionPages = observables.get(sessionId);
-			if (sessionPages == null) {
-				sessionPages = new ConcurrentHashMap<>();
-				observables.put(sessionId, sessionPages);
+			IKey pageId = new PageIdKey(page.getPageId());
+			Collection<String> pageObservables = page.findWebSocketObservables();
+			observablesLock.writeLock().lock();
+			try {
+				Map<IKey, Collection<String>> sessionPages = observables.get(sessionId);
+				if (sessionPages == null) {
+					sessionPages = new HashMap<>();
+					observables.put(sessionId, sessionPages);
+				}
+				Collection<String> prevPageObservables = sessionPages.put(pageId, pageObservables);
+				if (prevPageObservables != null)
+					removeObservers(sessionId, pageId, prevPageObservables);
+				PageKey pageKey = new PageKey(sessionId, pageId);
+				for (String observable: pageObservables) {
+					Set<PageKey> pageKeys = observers.get(observable);
+					if (pageKeys == null) {
+						pageKeys = new HashSet<>();
+						observers.put(observable, pageKeys);
+					}
+					pageKeys.add(pageKey);
+				}
+			} finally {
+				observablesLock.writeLock().unlock();
 			}
-			sessionPages.put(new PageIdKey(page.getPageId()), page.findWebSocketObservables());
 		}
 	}
 	
 	@Override
 	public void onDestroySession(String sessionId) {
-		observables.remove(sessionId);
+		observablesLock.writeLock().lock();
+		try {
+			Map<IKey, Collection<String>> sessionPages = observables.remove(sessionId);
+			if (sessionPages != null) {
+				for (Map.Entry<IKey, Collection<String>> entry: sessionPages.entrySet())
+					removeObservers(sessionId, entry.getKey(), entry.getValue());
+			}
+		} finally {
+			observablesLock.writeLock().unlock();
+		}
 	}
 
 	@Sessional
@@ -86,35 +155,81 @@ public class DefaultWebSocketManager implements WebSocketManager, SchedulableTas
 
 			@Override
 			public void run() {
-				executorService.execute(new Runnable() {
+				Collection<PageKey> pageKeys;
+				observablesLock.readLock().lock();
+				try {
+					Set<PageKey> observingPageKeys = observers.get(observable);
+					if (observingPageKeys != null)
+						pageKeys = new ArrayList<>(observingPageKeys);
+					else
+						pageKeys = new ArrayList<>();
+				} finally {
+					observablesLock.readLock().unlock();
+				}
+				pageKeys.remove(sourcePageKey);
+				
+				if (!pageKeys.isEmpty()) {
+					synchronized (pendingObservables) {
+						for (PageKey pageKey: pageKeys) {
+							Set<String> observablesOfPage = pendingObservables.get(pageKey);
+							if (observablesOfPage == null) {
+								observablesOfPage = new LinkedHashSet<>();
+								pendingObservables.put(pageKey, observablesOfPage);
+							}
+							observablesOfPage.add(observable);
+						}
+						if (!flushScheduled) {
+							flushScheduled = true;
+							flushScheduler.schedule(new Runnable() {
 
-					@Override
-					public void run() {
-						for (IWebSocketConnection connection: connectionRegistry.getConnections(application)) {
-							PageKey pageKey = ((WebSocketConnection) connection).getPageKey();
-							if (connection.isOpen() && (sourcePageKey == null || !sourcePageKey.equals(pageKey))) {
-								Map<IKey, Collection<String>> sessionPages = observables.get(pageKey.getSessionId());
-								if (sessionPages != null) {
-									Collection<String> pageObservables = sessionPages.get(pageKey.getPageId());
-									if (pageObservables != null && pageObservables.contains(observable)) {
-										String message = OBSERVABLE_CHANGED + ":" + observable; 
-										try {
-											connection.sendMessage(message);
-										} catch (Exception e) {
-											logger.error("Error sending websocket message: " + message, e);
+								@Override
+								public void run() {
+									executorService.execute(new Runnable() {
+
+										@Override
+										public void run() {
+											flush();
 										}
-									}
+										
+									});
 								}
-							}
+								
+							}, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
 						}
 					}
-					
-				});
+				}
 			}
 			
 		});
 	}
 	
+	/*
+	 * Send pending changes in batch after a short delay, so that each page gets at most 
+	 * one message per flush interval no matter how frequently observables change 
+	 */
+	private void flush() {
+		Map<PageKey, Set<String>> changedObservables;
+		synchronized (pendingObservables) {
+			changedObservables = new HashMap<>(pendingObservables);
+			pendingObservables.clear();
+			flushScheduled = false;
+		}
+		
+		for (Map.Entry<PageKey, Set<String>> entry: changedObservables.entrySet()) {
+			PageKey pageKey = entry.getKey();
+			IWebSocketConnection connection = connectionRegistry.getConnection(application, 
+					pageKey.getSessionId(), pageKey.getPageId());
+			if (connection != null && connection.isOpen()) {
+				String message = OBSERVABLE_CHANGED + ":" + StringUtils.join(entry.getValue(), OBSERVABLE_SEPARATOR); 
+				try {
+					connection.sendMessage(message);
+				} catch (Exception e) {
+					logger.error("Error sending websocket message: " + message, e);
+				}
+			}
+		}
+	}
+	
 	@Override
 	public void execute() {
 		for (IWebSocketConnection connection: new SimpleWebSocketConnectionRegistry().getConnections(application)) {
@@ -136,6 +251,7 @@ public class DefaultWebSocketManager implements WebSocketManager, SchedulableTas
 	@Listen
 	public void on(SystemStopping event) {
 		taskScheduler.unschedule(taskId);
+		flushScheduler.shutdown();
 	}
 	
 	@Override
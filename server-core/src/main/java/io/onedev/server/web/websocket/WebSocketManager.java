@@ -10,6 +10,8 @@ public interface WebSocketManager {
 	
 	static final String OBSERVABLE_CHANGED = "ObservableChanged";
 	
+	static final String OBSERVABLE_SEPARATOR = "\n";
+	
 	static final String CONNECTION_OPENED = "ConnectionOpened";
 	
 	static final String KEEP_ALIVE = "KeepAlive";
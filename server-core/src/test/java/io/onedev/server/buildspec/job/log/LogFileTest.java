@@ -0,0 +1,80 @@
+package io.onedev.server.buildspec.job.log;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class LogFileTest {
+
+	private List<JobLogEntry> entries(int from, int to) {
+		List<JobLogEntry> entries = new ArrayList<>();
+		for (int i=from; i<to; i++)
+			entries.add(new JobLogEntry(new Date(i), "message " + i + (i%7==0?"\n中文":"")));
+		return entries;
+	}
+	
+	private void assertEntries(int from, List<JobLogEntry> entries) {
+		for (int i=0; i<entries.size(); i++) {
+			assertEquals(from+i, entries.get(i).getDate().getTime());
+			assertEquals("message " + (from+i) + ((from+i)%7==0?"\n中文":""), entries.get(i).getMessage());
+		}
+	}
+	
+	@Test
+	public void test() throws Exception {
+		File dir = FileUtils.createTempDir();
+		try {
+			LogFile logFile = new LogFile(new File(dir, "log.data"), new File(dir, "log.index"));
+			assertFalse(logFile.exists());
+			assertEquals(0, logFile.count());
+			assertTrue(logFile.read(0, 0).isEmpty());
+			
+			logFile.append(entries(0, 1000));
+			logFile.append(entries(1000, 1001));
+			logFile.append(entries(1001, 1500));
+			assertEquals(1500, logFile.count());
+			
+			List<JobLogEntry> entries = logFile.read(0, 0);
+			assertEquals(1500, entries.size());
+			assertEntries(0, entries);
+			
+			entries = logFile.read(255, 3);
+			assertEquals(3, entries.size());
+			assertEntries(255, entries);
+			
+			entries = logFile.read(1490, 100);
+			assertEquals(10, entries.size());
+			assertEntries(1490, entries);
+			
+			assertTrue(logFile.read(1500, 0).isEmpty());
+			assertTrue(logFile.read(2000, 10).isEmpty());
+			
+			// Simulate an interrupted append
+			try (RandomAccessFile file = new RandomAccessFile(new File(dir, "log.data"), "rw")) {
+				file.seek(file.length());
+				file.writeInt(100);
+				file.writeLong(0);
+			}
+			assertEquals(1500, logFile.count());
+			logFile.append(entries(1500, 1600));
+			assertEquals(1600, logFile.count());
+			entries = logFile.read(1400, 0);
+			assertEquals(200, entries.size());
+			assertEntries(1400, entries);
+			
+			logFile.delete();
+			assertFalse(logFile.exists());
+		} finally {
+			FileUtils.deleteDir(dir);
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package io.onedev.server.infomanager;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class CommitGraphTest {
+
+	private ObjectId id(int value) {
+		return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, String.valueOf(value).getBytes());
+	}
+
+	@Test
+	public void test() {
+		File dir = FileUtils.createTempDir();
+		try {
+			/*
+			 * 1 <- 2 <- 3 <- 5
+			 *       \       /
+			 *        <- 4 <-
+			 */
+			CommitGraph graph = new CommitGraph(dir, 0, 0);
+			assertTrue(graph.add(id(5), Lists.newArrayList(id(3), id(4))));
+			assertTrue(graph.add(id(3), Lists.newArrayList(id(2))));
+			assertTrue(graph.add(id(4), Lists.newArrayList(id(2))));
+			assertFalse(graph.add(id(4), Lists.newArrayList(id(2))));
+			assertTrue(graph.isCollected(id(3)));
+			assertFalse(graph.isCollected(id(2)));
+
+			assertEquals(Sets.newHashSet(id(2), id(3), id(4), id(5)), graph.getDescendants(Sets.newHashSet(id(2))));
+			assertEquals(Sets.newHashSet(id(3), id(5)), graph.getDescendants(Sets.newHashSet(id(3))));
+			assertEquals(Sets.newHashSet(id(6)), graph.getDescendants(Sets.newHashSet(id(6))));
+
+			assertEquals(Boolean.TRUE, graph.isMergedInto(id(4), id(5)));
+			assertNull(graph.isMergedInto(id(4), id(3)));
+			assertNull(graph.isMergedInto(id(1), id(5)));
+
+			int[] sizes = graph.flush();
+
+			graph.add(id(2), Lists.newArrayList(id(1)));
+			graph.add(id(1), Lists.newArrayList());
+			graph.reset(sizes);
+			assertFalse(graph.isCollected(id(2)));
+			assertEquals(-1, graph.getPosition(id(1)));
+
+			graph.add(id(2), Lists.newArrayList(id(1)));
+			graph.flush();
+
+			graph = new CommitGraph(dir, sizes[0], sizes[1]);
+			assertFalse(graph.isCollected(id(2)));
+			assertEquals(-1, graph.getPosition(id(1)));
+			assertEquals(Sets.newHashSet(id(4), id(5)), graph.getDescendants(Sets.newHashSet(id(4))));
+
+			graph.add(id(2), Lists.newArrayList(id(1)));
+			graph.add(id(1), Lists.newArrayList());
+			assertEquals(Boolean.TRUE, graph.isMergedInto(id(1), id(5)));
+			assertEquals(Boolean.FALSE, graph.isMergedInto(id(4), id(3)));
+			assertEquals(5, graph.getDescendants(Sets.newHashSet(id(1))).size());
+		} finally {
+			FileUtils.deleteDir(dir);
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package io.onedev.server.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class SecretMaskerTest {
+
+	@Test
+	public void test() {
+		SecretMasker masker = new SecretMasker(new ArrayList<>(), "*****");
+		assertEquals("hello world", masker.mask("hello world"));
+		
+		masker = new SecretMasker(Lists.newArrayList("password", "secret", "cretin", "he"), "*****");
+		assertEquals("*****llo world", masker.mask("hello world"));
+		assertEquals("user: *****, key: *****", masker.mask("user: password, key: secret"));
+		assertEquals("*****", masker.mask("secretin"));
+		assertEquals("**********", masker.mask("secretsecret"));
+		assertEquals("t*****s", masker.mask("tpasswords"));
+		assertEquals("passwor", masker.mask("passwor"));
+		assertEquals("", masker.mask(""));
+	}
+
+}
@@ -0,0 +1,126 @@
+package io.onedev.server.util.facade;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class BuildFacadeIndexTest {
+
+	private static final String COMMIT1 = "1111111111111111111111111111111111111111";
+	
+	private static final String COMMIT2 = "2222222222222222222222222222222222222222";
+	
+	private static final String COMMIT3 = "ffffffffffffffffffffffffffffffffffffffff";
+	
+	@Test
+	public void test() {
+		BuildFacadeIndex index = new BuildFacadeIndex();
+		for (long id=100; id>=1; id--) 
+			index.add(new BuildFacade(id, id%2, id%3==0? COMMIT1: (id%3==1? COMMIT2: COMMIT3)));
+		index.add(new BuildFacade(4L, 0L, COMMIT2));
+		
+		assertEquals(100, index.size());
+		assertEquals(50, index.getIds(0L).size());
+		assertEquals(Long.valueOf(2), index.getIds(0L).get(0));
+		assertEquals(Long.valueOf(100), index.getIds(0L).get(49));
+		assertTrue(index.getIds(2L).isEmpty());
+		
+		assertEquals(Sets.newHashSet(6L, 12L, 18L, 24L, 30L, 36L, 42L, 48L, 54L, 60L, 66L, 72L, 78L, 84L, 90L, 96L), 
+				index.filterIds(0L, Lists.newArrayList(COMMIT1)));
+		assertEquals(33, index.filterIds(1L, Lists.newArrayList(COMMIT1, COMMIT3, "invalid")).size());
+		
+		index.remove(new BuildFacade(6L, 0L, COMMIT1));
+		index.remove(new BuildFacade(7L, 1L, COMMIT2));
+		assertEquals(98, index.size());
+		assertFalse(index.getIds(0L).contains(6L));
+		assertFalse(index.filterIds(0L, Lists.newArrayList(COMMIT1)).contains(6L));
+		assertEquals(15, index.filterIds(0L, Lists.newArrayList(COMMIT1)).size());
+		
+		index.removeProject(1L);
+		assertEquals(49, index.size());
+		assertTrue(index.filterIds(1L, Lists.newArrayList(COMMIT1, COMMIT2, COMMIT3)).isEmpty());
+	}
+
+	@Test
+	public void testAppend() {
+		Random random = new Random(1);
+		List<String> commitHashes = new ArrayList<>();
+		for (int i=0; i<1000; i++) {
+			byte[] bytes = new byte[20];
+			random.nextBytes(bytes);
+			commitHashes.add(ObjectId.fromRaw(bytes).name());
+		}
+		
+		BuildFacadeIndex index = new BuildFacadeIndex();
+		Map<Long, Map<String, Set<Long>>> expected = new HashMap<>();
+		int count = 500000;
+		for (long id=1; id<=count; id++) {
+			Long projectId = (long) random.nextInt(3);
+			String commitHash = commitHashes.get(random.nextInt(commitHashes.size()));
+			index.append(new BuildFacade(id, projectId, commitHash));
+			expected.computeIfAbsent(projectId, it->new HashMap<>())
+					.computeIfAbsent(commitHash, it->new HashSet<>()).add(id);
+		}
+		
+		try {
+			index.getIds(0L);
+			fail("Access to unsorted index should fail");
+		} catch (IllegalStateException e) {
+		}
+		
+		// Builds appended multiple times should only be kept once
+		Long idOfFirstBuild = 1L;
+		Long projectOfFirstBuild = null;
+		String commitOfFirstBuild = null;
+		for (Map.Entry<Long, Map<String, Set<Long>>> projectEntry: expected.entrySet()) {
+			for (Map.Entry<String, Set<Long>> commitEntry: projectEntry.getValue().entrySet()) {
+				if (commitEntry.getValue().contains(idOfFirstBuild)) {
+					projectOfFirstBuild = projectEntry.getKey();
+					commitOfFirstBuild = commitEntry.getKey();
+				}
+			}
+		}
+		index.append(new BuildFacade(idOfFirstBuild, projectOfFirstBuild, commitOfFirstBuild));
+		
+		index.sort();
+		assertEquals(count, index.size());
+		
+		for (Map.Entry<Long, Map<String, Set<Long>>> projectEntry: expected.entrySet()) {
+			Long projectId = projectEntry.getKey();
+			List<Long> ids = index.getIds(projectId);
+			Set<Long> expectedIds = new HashSet<>();
+			for (Map.Entry<String, Set<Long>> commitEntry: projectEntry.getValue().entrySet()) {
+				expectedIds.addAll(commitEntry.getValue());
+				assertEquals(commitEntry.getValue(), 
+						index.filterIds(projectId, Lists.newArrayList(commitEntry.getKey())));
+			}
+			assertEquals(expectedIds.size(), ids.size());
+			assertEquals(expectedIds, new HashSet<>(ids));
+			for (int i=1; i<ids.size(); i++)
+				assertTrue(ids.get(i-1) < ids.get(i));
+		}
+		
+		// Index should still be maintainable after sorting
+		String commitHash = commitHashes.get(0);
+		index.add(new BuildFacade(count+1L, 0L, commitHash));
+		assertTrue(index.filterIds(0L, Lists.newArrayList(commitHash)).contains(count+1L));
+		index.remove(new BuildFacade(idOfFirstBuild, projectOfFirstBuild, commitOfFirstBuild));
+		assertFalse(index.getIds(projectOfFirstBuild).contains(idOfFirstBuild));
+		assertFalse(index.filterIds(projectOfFirstBuild, Lists.newArrayList(commitOfFirstBuild))
+				.contains(idOfFirstBuild));
+		assertEquals(count, index.size());
+	}
+	
+}